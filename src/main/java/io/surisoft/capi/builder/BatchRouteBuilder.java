@@ -0,0 +1,54 @@
+package io.surisoft.capi.builder;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Groups the routes and rests of several route builders, so they are added and started with a single addRoutes call.
+ * The route models of every builder can be built in parallel before the batch is added to the Camel context,
+ * the reification and the start of the routes stay sequential.
+ */
+public class BatchRouteBuilder extends RouteBuilder {
+
+    private final List<RouteBuilder> routeBuilderList;
+
+    public BatchRouteBuilder(CamelContext camelContext, List<RouteBuilder> routeBuilderList) {
+        super(camelContext);
+        this.routeBuilderList = routeBuilderList;
+    }
+
+    /**
+     * Runs the configure method of every builder using the given executor.
+     * Builders that are not built here are built sequentially when the batch is added.
+     */
+    public void buildModels(ExecutorService executorService) throws Exception {
+        List<Future<?>> pendingBuilds = new ArrayList<>();
+        for(RouteBuilder routeBuilder : routeBuilderList) {
+            pendingBuilds.add(executorService.submit(() -> {
+                routeBuilder.configureRoutes(getContext());
+                routeBuilder.configureRests(getContext());
+                return null;
+            }));
+        }
+        for(Future<?> pendingBuild : pendingBuilds) {
+            pendingBuild.get();
+        }
+    }
+
+    @Override
+    public void configure() throws Exception {
+        for(RouteBuilder routeBuilder : routeBuilderList) {
+            getRouteCollection().getRoutes().addAll(routeBuilder.configureRoutes(getContext()).getRoutes());
+            getRestCollection().getRests().addAll(routeBuilder.configureRests(getContext()).getRests());
+        }
+    }
+
+    public int size() {
+        return routeBuilderList.size();
+    }
+}
@@ -1,6 +1,9 @@
 package io.surisoft.capi.builder;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.cache.StickySessionCacheManager;
+import io.surisoft.capi.processor.AsyncHttpTransport;
+import io.surisoft.capi.processor.DynamicEndpointManager;
 import io.surisoft.capi.processor.MetricsProcessor;
 import io.surisoft.capi.processor.OpenApiProcessor;
 import io.surisoft.capi.processor.StickyLoadBalancer;
@@ -11,10 +14,10 @@ import io.surisoft.capi.utils.Constants;
 import io.surisoft.capi.utils.HttpUtils;
 import io.surisoft.capi.utils.RouteUtils;
 import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.model.RouteDefinition;
 import org.apache.camel.model.rest.RestDefinition;
-import org.cache2k.Cache;
 
 public class DirectRouteProcessor extends RouteBuilder {
     private final RouteUtils routeUtils;
@@ -26,7 +29,9 @@ public class DirectRouteProcessor extends RouteBuilder {
     private final String reverseProxyHost;
     private OpaService opaService;
     private HttpUtils httpUtils;
-    private Cache<String, Service> serviceCache;
+    private ServiceRegistry serviceRegistry;
+    private DynamicEndpointManager dynamicEndpointManager;
+    private AsyncHttpTransport asyncHttpTransport;
 
     public DirectRouteProcessor(CamelContext camelContext, Service service, RouteUtils routeUtils, MetricsProcessor metricsProcessor, String routeId, String capiContext, String reverseProxyHost) {
         super(camelContext);
@@ -40,7 +45,19 @@ public class DirectRouteProcessor extends RouteBuilder {
 
     @Override
     public void configure() {
-        RouteDefinition routeDefinition = from(Constants.CAMEL_DIRECT + routeId);
+        RouteDefinition routeDefinition;
+        if(routeUtils.isCompactRoutesEnabled()) {
+            //One route for all the methods, the metrics keep the per method route id.
+            routeDefinition = from(routeUtils.buildCompactFrom(service))
+                    .process(exchange -> exchange.setProperty(Constants.CAPI_METRIC_ROUTE_ID,
+                            Constants.CAMEL_REST_PREFIX + routeId + ":" + exchange.getIn().getHeader(Exchange.HTTP_METHOD, String.class).toLowerCase()));
+        } else if(routeUtils.isDirectConsumerEnabled()) {
+            //The servlet consumer feeds the proxy pipeline, there is no rest route in front of it.
+            routeDefinition = from(routeUtils.buildMethodFrom(service, routeUtils.getMethodFromRouteId(routeId)))
+                    .setProperty(Constants.CAPI_METRIC_ROUTE_ID, constant(Constants.CAMEL_REST_PREFIX + routeId));
+        } else {
+            routeDefinition = from(Constants.CAMEL_DIRECT + routeId);
+        }
         if(reverseProxyHost != null) {
             routeDefinition
                     .setHeader(Constants.X_FORWARDED_HOST, constant(reverseProxyHost));
@@ -49,7 +66,7 @@ public class DirectRouteProcessor extends RouteBuilder {
         }
 
         if(service.getServiceMeta().getOpenApiEndpoint() != null && service.getOpenAPI() != null) {
-            routeDefinition.process(new OpenApiProcessor(service.getOpenAPI(), httpUtils, serviceCache, opaService));
+            routeDefinition.process(new OpenApiProcessor(service.getOpenAPI(), httpUtils, serviceRegistry, opaService));
         }
 
         log.trace("Trying to build and deploy route {}", routeId);
@@ -62,7 +79,25 @@ public class DirectRouteProcessor extends RouteBuilder {
             routeDefinition.setHeader(Constants.CAPI_GROUP_HEADER, constant(service.getContext()));
         }
 
-        if(service.isFailOverEnabled()) {
+        if(isAsyncTransportEnabled()) {
+            routeDefinition
+                    .process(metricsProcessor)
+                    .process(asyncHttpTransport.createProducer(service))
+                    .removeHeader(Constants.X_FORWARDED_HOST)
+                    .removeHeader(Constants.X_FORWARDED_PREFIX)
+                    .removeHeader(Constants.AUTHORIZATION_HEADER)
+                    .removeHeader(Constants.CAPI_GROUP_HEADER)
+                    .routeId(routeId);
+        } else if(isDynamicEndpointEnabled()) {
+            routeDefinition
+                    .process(metricsProcessor)
+                    .process(dynamicEndpointManager.createLoadBalancer(service.getId(), routeId, routeUtils.buildEndpoints(service)))
+                    .removeHeader(Constants.X_FORWARDED_HOST)
+                    .removeHeader(Constants.X_FORWARDED_PREFIX)
+                    .removeHeader(Constants.AUTHORIZATION_HEADER)
+                    .removeHeader(Constants.CAPI_GROUP_HEADER)
+                    .routeId(routeId);
+        } else if(service.isFailOverEnabled()) {
             routeDefinition
                     .process(metricsProcessor)
                     .loadBalance()
@@ -110,6 +145,18 @@ public class DirectRouteProcessor extends RouteBuilder {
         routeUtils.registerMetric(routeId);
         routeUtils.registerTracer(service);
 
+        if(routeUtils.isCompactRoutesEnabled()) {
+            for(String methodRouteId : routeUtils.getAllMethodRouteIdForAGivenService(service)) {
+                routeUtils.registerMetric(Constants.CAMEL_REST_PREFIX + methodRouteId);
+            }
+            return;
+        }
+
+        if(routeUtils.isDirectConsumerEnabled()) {
+            routeUtils.registerMetric(Constants.CAMEL_REST_PREFIX + routeId);
+            return;
+        }
+
         //build the rest definition for the inline route, default since 4.5.0
         String restRouteId = Constants.CAMEL_REST_PREFIX + routeId;
         RestDefinition restDefinition = getRestDefinition(service);
@@ -132,14 +179,33 @@ public class DirectRouteProcessor extends RouteBuilder {
         this.httpUtils = httpUtils;
     }
 
-    public void setServiceCache(Cache<String, Service> serviceCache) {
-        this.serviceCache = serviceCache;
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
     }
 
     public void setStickySessionCacheManager(StickySessionCacheManager stickySessionCacheManager) {
         this.stickySessionCacheManager = stickySessionCacheManager;
     }
 
+    public void setDynamicEndpointManager(DynamicEndpointManager dynamicEndpointManager) {
+        this.dynamicEndpointManager = dynamicEndpointManager;
+    }
+
+    public void setAsyncHttpTransport(AsyncHttpTransport asyncHttpTransport) {
+        this.asyncHttpTransport = asyncHttpTransport;
+    }
+
+    private boolean isAsyncTransportEnabled() {
+        return asyncHttpTransport != null && asyncHttpTransport.isAsync(service);
+    }
+
+    /**
+     * Sticky session and tenant aware services keep their own load balancers, their endpoints are not swapped.
+     */
+    private boolean isDynamicEndpointEnabled() {
+        return dynamicEndpointManager != null && !service.getServiceMeta().isStickySession() && !service.getServiceMeta().isTenantAware();
+    }
+
     private RestDefinition getRestDefinition(Service service) {
         RestDefinition restDefinition;
         service.setMatchOnUriPrefix(true);
@@ -0,0 +1,89 @@
+package io.surisoft.capi.builder;
+
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.schema.CapiEvent;
+import io.surisoft.capi.service.ConsulNodeDiscovery;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.kafka.KafkaConstants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies the services published by the discovery leader.
+ * Every instance uses its own consumer group, so it receives all the services and replays the topic on startup.
+ * The offsets are never committed, the group is only used for the assignment and leaves nothing behind on the brokers when the instance stops.
+ * The records are consumed in batches, every poll is applied with a single registry snapshot.
+ */
+@Component
+@ConditionalOnProperty(prefix = "capi.consul.discovery.fan-out", name = "enabled", havingValue = "true")
+public class DiscoveryFanOutRouteBuilder extends RouteBuilder {
+
+    private final ConsulNodeDiscovery consulNodeDiscovery;
+    private final CapiInstance capiInstance;
+    private final String discoveryTopic;
+    private final String capiKafkaHost;
+    private final boolean capiKafkaSslEnabled;
+    private final String capiKafkaSslKeystoreLocation;
+    private final String capiKafkaSslKeystorePassword;
+    private final String capiKafkaSslTruststoreLocation;
+    private final String capiKafkaSslTruststorePassword;
+
+    public DiscoveryFanOutRouteBuilder(ConsulNodeDiscovery consulNodeDiscovery,
+                                       CapiInstance capiInstance,
+                                       @Value("${capi.consul.discovery.fan-out.topic}") String discoveryTopic,
+                                       @Value("${capi.kafka.host}") String capiKafkaHost,
+                                       @Value("${capi.kafka.ssl.enabled}") boolean capiKafkaSslEnabled,
+                                       @Value("${capi.kafka.ssl.keystore.location}") String capiKafkaSslKeystoreLocation,
+                                       @Value("${capi.kafka.ssl.keystore.password}") String capiKafkaSslKeystorePassword,
+                                       @Value("${capi.kafka.ssl.truststore.location}") String capiKafkaSslTruststoreLocation,
+                                       @Value("${capi.kafka.ssl.truststore.password}") String capiKafkaSslTruststorePassword) {
+        this.consulNodeDiscovery = consulNodeDiscovery;
+        this.capiInstance = capiInstance;
+        this.discoveryTopic = discoveryTopic;
+        this.capiKafkaHost = capiKafkaHost;
+        this.capiKafkaSslEnabled = capiKafkaSslEnabled;
+        this.capiKafkaSslKeystoreLocation = capiKafkaSslKeystoreLocation;
+        this.capiKafkaSslKeystorePassword = capiKafkaSslKeystorePassword;
+        this.capiKafkaSslTruststoreLocation = capiKafkaSslTruststoreLocation;
+        this.capiKafkaSslTruststorePassword = capiKafkaSslTruststorePassword;
+    }
+
+    @Override
+    public void configure() {
+        from("kafka:" + buildEndpoint())
+                .process(exchange -> {
+                    //Only the last event of a service in the poll is applied.
+                    Map<String, CapiEvent> publishedServices = new LinkedHashMap<>();
+                    for(Object record : exchange.getIn().getBody(List.class)) {
+                        Message message = ((Exchange) record).getIn();
+                        publishedServices.put(message.getHeader(KafkaConstants.KEY, String.class), message.getBody(CapiEvent.class));
+                    }
+                    consulNodeDiscovery.applyPublishedServices(publishedServices);
+                })
+                .routeId("discovery-fan-out-service");
+    }
+
+    private String buildEndpoint() {
+        String endpoint = discoveryTopic +
+                "?brokers=" + capiKafkaHost +
+                "&groupId=capi-discovery-" + capiInstance.uuid() +
+                "&autoOffsetReset=earliest&autoCommitEnable=false&consumersCount=1&batching=true" +
+                "&valueDeserializer=io.surisoft.capi.kafka.CapiKafkaEventDeserializer";
+        if(capiKafkaSslEnabled) {
+            endpoint += "&securityProtocol=SSL" +
+                    "&sslKeystoreLocation=" + capiKafkaSslKeystoreLocation +
+                    "&sslKeystorePassword=" + capiKafkaSslKeystorePassword +
+                    "&sslKeyPassword=" + capiKafkaSslKeystorePassword +
+                    "&sslTruststoreLocation=" + capiKafkaSslTruststoreLocation +
+                    "&sslTruststorePassword=" + capiKafkaSslTruststorePassword;
+        }
+        return endpoint;
+    }
+}
@@ -0,0 +1,18 @@
+package io.surisoft.capi.builder;
+
+import io.surisoft.capi.utils.Constants;
+import org.apache.camel.builder.RouteBuilder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConditionalOnProperty(prefix = "capi.rest-gateway", name = "enabled", havingValue = "true")
+public class RestGatewayRouteBuilder extends RouteBuilder {
+    @Override
+    public void configure() {
+        log.debug("Creating CAPI REST Gateway Proxy Eviction");
+        from("timer:rest-gateway-proxy-eviction?period=" + Constants.REST_GATEWAY_PROXY_EVICTION_INTERVAL)
+                .to("bean:restGateway?method=removeStaleProxies")
+                .routeId("rest-gateway-proxy-eviction-service");
+    }
+}
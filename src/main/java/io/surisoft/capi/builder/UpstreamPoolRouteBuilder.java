@@ -0,0 +1,18 @@
+package io.surisoft.capi.builder;
+
+import io.surisoft.capi.utils.Constants;
+import org.apache.camel.builder.RouteBuilder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConditionalOnProperty(prefix = "capi.upstream.pool", name = "enabled", havingValue = "true")
+public class UpstreamPoolRouteBuilder extends RouteBuilder {
+    @Override
+    public void configure() {
+        log.debug("Creating CAPI Upstream Pool Maintenance");
+        from("timer:upstream-pool-maintenance?period=" + Constants.UPSTREAM_POOL_MAINTENANCE_INTERVAL)
+                .to("bean:upstreamConnectionPools?method=maintain")
+                .routeId("upstream-pool-maintenance-service");
+    }
+}
@@ -1,7 +1,6 @@
 package io.surisoft.capi.cache;
 
 import io.surisoft.capi.schema.ConsulKeyValueStore;
-import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.schema.StickySession;
 import io.surisoft.capi.utils.Constants;
 import org.cache2k.Cache;
@@ -34,14 +33,9 @@ public class CacheConfiguration {
     }
 
     @Bean
-    public Cache<String, Service> serviceCache() {
-        log.debug("Creating Service Cache");
-        return new Cache2kBuilder<String, Service>(){}
-                .name("serviceCache-" + hashCode())
-                .eternal(true)
-                .entryCapacity(10000)
-                .storeByReference(true)
-                .build();
+    public ServiceRegistry serviceRegistry() {
+        log.debug("Creating Service Registry");
+        return new ServiceRegistry();
     }
 
     @Bean
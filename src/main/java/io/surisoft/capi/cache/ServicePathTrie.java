@@ -0,0 +1,121 @@
+package io.surisoft.capi.cache;
+
+import io.surisoft.capi.schema.Service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie of the service contexts, one node per path segment.
+ * A request path is resolved to the service with the longest matching context by comparing
+ * the segments in place, so a lookup does not allocate.
+ */
+final class ServicePathTrie {
+
+    static final ServicePathTrie EMPTY = new ServicePathTrie(new Node(new String[0], new Node[0], null));
+
+    private final Node root;
+
+    private ServicePathTrie(Node root) {
+        this.root = root;
+    }
+
+    static ServicePathTrie build(Collection<Service> services) {
+        NodeBuilder rootBuilder = new NodeBuilder();
+        for(Service service : services) {
+            if(service.getContext() == null) {
+                continue;
+            }
+            NodeBuilder nodeBuilder = rootBuilder;
+            for(String segment : service.getContext().split("/")) {
+                if(!segment.isEmpty()) {
+                    nodeBuilder = nodeBuilder.children.computeIfAbsent(segment, k -> new NodeBuilder());
+                }
+            }
+            if(nodeBuilder != rootBuilder) {
+                nodeBuilder.service = service;
+            }
+        }
+        return new ServicePathTrie(rootBuilder.compile());
+    }
+
+    /**
+     * @param path the request path.
+     * @param offset index of the slash where the service context starts.
+     * @return the service with the longest context matching the path, or null.
+     * The remaining sub-path starts at offset + the length of the service context.
+     */
+    Service resolve(String path, int offset) {
+        Node node = root;
+        Service match = null;
+        int length = path.length();
+        int index = offset;
+        while(index < length && path.charAt(index) == '/') {
+            int start = index + 1;
+            int end = path.indexOf('/', start);
+            if(end < 0) {
+                end = length;
+            }
+            node = node.child(path, start, end);
+            if(node == null) {
+                break;
+            }
+            if(node.service != null) {
+                match = node.service;
+            }
+            index = end;
+        }
+        return match;
+    }
+
+    private record Node(String[] segments, Node[] children, Service service) {
+
+        Node child(String path, int start, int end) {
+            int low = 0;
+            int high = segments.length - 1;
+            while(low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compare(segments[middle], path, start, end);
+                if(comparison < 0) {
+                    low = middle + 1;
+                } else if(comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+            return null;
+        }
+
+        private static int compare(String segment, String path, int start, int end) {
+            int regionLength = end - start;
+            int commonLength = Math.min(segment.length(), regionLength);
+            for(int i = 0; i < commonLength; i++) {
+                char a = segment.charAt(i);
+                char b = path.charAt(start + i);
+                if(a != b) {
+                    return a - b;
+                }
+            }
+            return segment.length() - regionLength;
+        }
+    }
+
+    private static final class NodeBuilder {
+        private final Map<String, NodeBuilder> children = new TreeMap<>();
+        private Service service;
+
+        Node compile() {
+            String[] segments = new String[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for(Map.Entry<String, NodeBuilder> entry : children.entrySet()) {
+                segments[i] = entry.getKey();
+                nodes[i] = entry.getValue().compile();
+                i++;
+            }
+            return new Node(segments, nodes, service);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.surisoft.capi.cache;
+
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of the services known by Capi.
+ * Readers use an immutable snapshot published through a volatile reference, they never lock or allocate.
+ * Writers are serialized and publish a new snapshot, with all the indexes and the path trie rebuilt, after every change.
+ * Inside {@link #batch(Runnable)} the snapshot is published once, when the batch ends,
+ * writers from other threads wait for the batch to end, so they never publish its partial changes.
+ */
+public class ServiceRegistry {
+
+    private final Map<String, Service> services = new HashMap<>();
+    private final ReentrantLock batchLock = new ReentrantLock();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile Thread batchOwner;
+
+    public Service get(String serviceId) {
+        if(batchOwner == Thread.currentThread()) {
+            synchronized (this) {
+                return services.get(serviceId);
+            }
+        }
+        return snapshot.byId().get(serviceId);
+    }
+
+    public boolean containsKey(String serviceId) {
+        return get(serviceId) != null;
+    }
+
+    /**
+     * @param context the context of the service, for example /name/group.
+     */
+    public Service getByContext(String context) {
+        return snapshot.byContext().get(context);
+    }
+
+    /**
+     * Resolves the service with the longest context matching a request path, without allocating.
+     * The remaining sub-path starts at offset + the length of the service context.
+     * @param offset index of the slash where the service context starts, after the Capi context.
+     */
+    public Service resolve(String path, int offset) {
+        return snapshot.pathTrie().resolve(path, offset);
+    }
+
+    public List<Service> getByName(String serviceName) {
+        return snapshot.byName().getOrDefault(serviceName, List.of());
+    }
+
+    /**
+     * @param type rest, websocket or sse.
+     */
+    public List<Service> getByType(String type) {
+        return snapshot.byType().getOrDefault(type, List.of());
+    }
+
+    public Set<String> getServiceNames() {
+        return snapshot.byName().keySet();
+    }
+
+    public Collection<Service> values() {
+        return snapshot.byId().values();
+    }
+
+    public int size() {
+        return snapshot.byId().size();
+    }
+
+    public void put(String serviceId, Service service) {
+        write(() -> {
+            services.put(serviceId, service);
+            publishUnlessBatched();
+        });
+    }
+
+    public void remove(String serviceId) {
+        write(() -> {
+            if(services.remove(serviceId) != null) {
+                publishUnlessBatched();
+            }
+        });
+    }
+
+    public void clear() {
+        write(() -> {
+            services.clear();
+            publishUnlessBatched();
+        });
+    }
+
+    /**
+     * Runs a set of changes publishing a single snapshot at the end, instead of one per change.
+     * The calling thread sees its own changes, other readers keep the previous snapshot until the batch ends.
+     */
+    public void batch(Runnable changes) {
+        batchLock.lock();
+        try {
+            batchOwner = Thread.currentThread();
+            changes.run();
+        } finally {
+            if(batchLock.getHoldCount() == 1) {
+                batchOwner = null;
+                synchronized (this) {
+                    snapshot = Snapshot.of(services);
+                }
+            }
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * The batch lock is always taken before the monitor, the batch owner holds it already (reentrant).
+     */
+    private void write(Runnable change) {
+        batchLock.lock();
+        try {
+            synchronized (this) {
+                change.run();
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    private void publishUnlessBatched() {
+        if(batchOwner != Thread.currentThread()) {
+            snapshot = Snapshot.of(services);
+        }
+    }
+
+    private record Snapshot(Map<String, Service> byId,
+                            Map<String, List<Service>> byName,
+                            Map<String, Service> byContext,
+                            Map<String, List<Service>> byType,
+                            ServicePathTrie pathTrie) {
+
+        static final Snapshot EMPTY = of(Map.of());
+
+        static Snapshot of(Map<String, Service> services) {
+            Map<String, List<Service>> byName = new HashMap<>();
+            Map<String, Service> byContext = new HashMap<>();
+            Map<String, List<Service>> byType = new HashMap<>();
+            for(Service service : services.values()) {
+                if(service.getName() != null) {
+                    byName.computeIfAbsent(service.getName(), k -> new ArrayList<>()).add(service);
+                }
+                if(service.getContext() != null) {
+                    byContext.put(service.getContext(), service);
+                }
+                String type = service.getServiceMeta() == null || service.getServiceMeta().getType() == null ? Constants.REST_TYPE : service.getServiceMeta().getType();
+                byType.computeIfAbsent(type, k -> new ArrayList<>()).add(service);
+            }
+            byName.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            byType.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            return new Snapshot(Collections.unmodifiableMap(new HashMap<>(services)),
+                    Collections.unmodifiableMap(byName),
+                    Collections.unmodifiableMap(byContext),
+                    Collections.unmodifiableMap(byType),
+                    services.isEmpty() ? ServicePathTrie.EMPTY : ServicePathTrie.build(services.values()));
+        }
+    }
+}
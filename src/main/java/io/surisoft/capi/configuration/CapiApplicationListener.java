@@ -1,7 +1,8 @@
 package io.surisoft.capi.configuration;
 
-import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.StickySession;
+import io.surisoft.capi.undertow.RestGateway;
 import io.surisoft.capi.undertow.SSEGateway;
 import io.surisoft.capi.undertow.WebsocketGateway;
 import org.cache2k.Cache;
@@ -20,16 +21,18 @@ import java.util.Optional;
 public class CapiApplicationListener implements ApplicationListener<ApplicationEvent> {
 
     private static final Logger log = LoggerFactory.getLogger(CapiApplicationListener.class);
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
     private final Cache<String, StickySession> stickySessionCache;
     private final Optional<WebsocketGateway> websocketGateway;
     private final Optional<SSEGateway> sseGateway;
+    private final Optional<RestGateway> restGateway;
 
-    public CapiApplicationListener(Cache<String, Service> serviceCache, Cache<String, StickySession> stickySessionCache, Optional<WebsocketGateway> websocketGateway, Optional<SSEGateway> sseGateway) {
-        this.serviceCache = serviceCache;
+    public CapiApplicationListener(ServiceRegistry serviceRegistry, Cache<String, StickySession> stickySessionCache, Optional<WebsocketGateway> websocketGateway, Optional<SSEGateway> sseGateway, Optional<RestGateway> restGateway) {
+        this.serviceRegistry = serviceRegistry;
         this.stickySessionCache = stickySessionCache;
         this.websocketGateway = websocketGateway;
         this.sseGateway = sseGateway;
+        this.restGateway = restGateway;
     }
 
     @Override
@@ -43,11 +46,16 @@ public class CapiApplicationListener implements ApplicationListener<ApplicationE
                 log.info("Capi SSE Gateway starting.");
                 sseGateway.get().runProxy();
             }
+            if(restGateway.isPresent()) {
+                log.info("Capi REST Gateway starting.");
+                restGateway.get().runProxy();
+            }
         }
         if(applicationEvent instanceof ContextClosedEvent) {
             log.info("Capi is shutting down, time to clear all cache info.");
-            serviceCache.clear();
+            serviceRegistry.clear();
             stickySessionCache.clear();
+            restGateway.ifPresent(RestGateway::stop);
         }
     }
 }
\ No newline at end of file
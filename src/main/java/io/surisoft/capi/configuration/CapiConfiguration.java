@@ -6,14 +6,16 @@ import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import io.micrometer.core.instrument.util.HierarchicalNameMapper;
 import io.micrometer.jmx.JmxMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.exception.RestTemplateErrorHandler;
 import io.surisoft.capi.schema.SSEClient;
-import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.schema.WebsocketClient;
 import io.surisoft.capi.service.CapiTrustManager;
+import io.surisoft.capi.processor.DynamicEndpointManager;
 import io.surisoft.capi.service.ConsistencyChecker;
 import io.surisoft.capi.service.ConsulKVStore;
 import io.surisoft.capi.tracer.CapiTracer;
+import io.surisoft.capi.undertow.Http2Support;
 import io.surisoft.capi.utils.Constants;
 import io.surisoft.capi.utils.HttpUtils;
 import io.surisoft.capi.utils.RouteUtils;
@@ -25,6 +27,7 @@ import org.apache.camel.component.http.HttpClientConfigurer;
 import org.apache.camel.component.http.HttpComponent;
 import org.apache.camel.component.micrometer.CamelJmxConfig;
 import org.apache.camel.component.micrometer.DistributionStatisticConfigFilter;
+import org.apache.camel.component.servlet.CamelHttpTransportServlet;
 import org.apache.camel.support.jsse.SSLContextParameters;
 import org.apache.camel.support.jsse.TrustManagersParameters;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
@@ -38,7 +41,11 @@ import org.cache2k.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.undertow.UndertowServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
@@ -63,6 +70,8 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.apache.camel.component.micrometer.messagehistory.MicrometerMessageHistoryNamingStrategy.MESSAGE_HISTORIES;
@@ -200,6 +209,56 @@ public class CapiConfiguration {
         return httpComponent;
     }
 
+    /**
+     * Runs the servlet requests on virtual threads instead of the Undertow worker pool,
+     * a request waiting for its upstream no longer holds a platform thread.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "capi.threads", name = "virtual", havingValue = "true")
+    public WebServerFactoryCustomizer<UndertowServletWebServerFactory> virtualThreadCustomizer() {
+        return factory -> factory.addDeploymentInfoCustomizers(deploymentInfo -> {
+            log.info("Serving the requests on virtual threads");
+            ExecutorService executorService = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("capi-request-", 0).factory());
+            deploymentInfo.setExecutor(executorService);
+            deploymentInfo.setAsyncExecutor(executorService);
+        });
+    }
+
+    /**
+     * Puts the Camel servlet in async mode, the request is released by the Undertow worker and the exchange runs on the servlet async executor
+     * (virtual threads with capi.threads.virtual). Any service can select the async transport with its transport meta or an h2/h2c schema,
+     * so the mode does not depend on capi.upstream.transport.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "capi.upstream.async", name = "servlet", havingValue = "true", matchIfMissing = true)
+    public static BeanPostProcessor asyncServletCustomizer() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if(bean instanceof ServletRegistrationBean<?> registrationBean && registrationBean.getServlet() instanceof CamelHttpTransportServlet) {
+                    log.info("Camel servlet running in async mode");
+                    registrationBean.setAsyncSupported(true);
+                    registrationBean.addInitParameter(Constants.CAMEL_SERVLET_ASYNC_PARAM, "true");
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * HTTP/2 on the servlet container listener, with ALPN when server.ssl is enabled, otherwise only with capi.http2.h2c.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "capi.http2", name = "enabled", havingValue = "true")
+    public WebServerFactoryCustomizer<UndertowServletWebServerFactory> http2Customizer(Http2Support http2Support,
+                                                                                     @Value("${server.ssl.enabled}") boolean sslEnabled) {
+        return factory -> {
+            factory.addBuilderCustomizers(builder -> http2Support.configure(builder, sslEnabled));
+            factory.addDeploymentInfoCustomizers(deploymentInfo ->
+                    deploymentInfo.addOuterHandlerChainWrapper(handler -> http2Support.wrap("servlet", sslEnabled, handler)));
+        };
+    }
+
     @Bean
     public CompositeMeterRegistry metrics() {
 
@@ -277,8 +336,11 @@ public class CapiConfiguration {
     @Bean(name = "consistencyChecker")
     public ConsistencyChecker consistencyChecker(CamelContext camelContext,
                                                  RouteUtils routeUtils,
-                                                 Cache<String, Service> serviceCache) {
-        return new ConsistencyChecker(camelContext, routeUtils, serviceCache);
+                                                 ServiceRegistry serviceRegistry,
+                                                 Optional<DynamicEndpointManager> dynamicEndpointManager) {
+        ConsistencyChecker consistencyChecker = new ConsistencyChecker(camelContext, routeUtils, serviceRegistry);
+        dynamicEndpointManager.ifPresent(consistencyChecker::setDynamicEndpointManager);
+        return consistencyChecker;
     }
 
     @Bean(name = "consulKVStore")
@@ -296,7 +358,7 @@ public class CapiConfiguration {
 
             HttpComponent httpComponent = (HttpComponent) camelContext.getComponent("https");
             if(filePath != null) {
-                CapiTrustManager capiTrustManager = new CapiTrustManager(filePath.getAbsolutePath(), capiTrustStorePassword);
+                //The same instance as the OkHttp client, so a reload applies to both.
                 TrustManagersParameters trustManagersParameters = new TrustManagersParameters();
                 trustManagersParameters.setTrustManager(capiTrustManager);
 
@@ -1,5 +1,6 @@
 package io.surisoft.capi.configuration;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.utils.Constants;
 import jakarta.annotation.PostConstruct;
@@ -7,7 +8,6 @@ import jakarta.servlet.*;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
-import org.cache2k.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 @Component
 @Order(Ordered.HIGHEST_PRECEDENCE)
@@ -32,7 +33,7 @@ public class CapiCorsFilter implements Filter {
     private final String oauth2CookieName;
     private final boolean gatewayCorsManagementEnabled;
     private String capiContextPath;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
     private final List<String> accessControlAllowHeaders;
     private final Map<String, String> managedHeaders;
 
@@ -40,12 +41,12 @@ public class CapiCorsFilter implements Filter {
                           @Value("${capi.gateway.cors.management.enabled}") boolean gatewayCorsManagementEnabled,
                           @Value("${camel.servlet.mapping.context-path}") String capiContextPath,
                           @Value("${capi.gateway.cors.management.allowed-headers}") List<String> accessControlAllowHeaders,
-                          Cache<String, Service> serviceCache) {
+                          ServiceRegistry serviceRegistry) {
         this.oauth2CookieName = oauth2CookieName;
         this.gatewayCorsManagementEnabled = gatewayCorsManagementEnabled;
         this.capiContextPath = capiContextPath;
         this.accessControlAllowHeaders = accessControlAllowHeaders;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
 
         managedHeaders = new java.util.HashMap<>(Constants.CAPI_CORS_MANAGED_HEADERS);
         managedHeaders.put("Access-Control-Allow-Headers", StringUtils.join(accessControlAllowHeaders, ","));
@@ -62,13 +63,9 @@ public class CapiCorsFilter implements Filter {
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
         HttpServletResponse response = (HttpServletResponse) servletResponse;
-        List<String> localAccessControlAllowHeaders = new ArrayList<>(accessControlAllowHeaders);
 
         if(request.getRequestURI().startsWith(capiContextPath) && gatewayCorsManagementEnabled) {
-            if(oauth2CookieName != null && !oauth2CookieName.isEmpty()) {
-                localAccessControlAllowHeaders.add(oauth2CookieName);
-            }
-            processControlledHeaders(localAccessControlAllowHeaders, response, request, request.getHeader(Constants.ORIGIN_HEADER), true);
+            writeCorsHeaders(request.getRequestURI(), request.getHeader(Constants.ORIGIN_HEADER), response::setHeader);
         }
 
         if (request.getMethod().equals(Constants.OPTIONS_METHODS_VALUE)) {
@@ -80,36 +77,51 @@ public class CapiCorsFilter implements Filter {
         filterChain.doFilter(servletRequest, servletResponse);
     }
 
-    private void processControlledHeaders(List<String> localAccessControlAllowHeaders, HttpServletResponse response, HttpServletRequest request, String origin, boolean capiConsumer) {
+    /**
+     * Writes the CORS headers of a request to a Capi service, the REST gateway uses it with its own response type.
+     */
+    public void writeCorsHeaders(String requestURI, String origin, BiConsumer<String, String> headerWriter) {
+        List<String> localAccessControlAllowHeaders = new ArrayList<>(accessControlAllowHeaders);
+        if(oauth2CookieName != null && !oauth2CookieName.isEmpty()) {
+            localAccessControlAllowHeaders.add(oauth2CookieName);
+        }
+        processControlledHeaders(localAccessControlAllowHeaders, headerWriter, requestURI, origin, true);
+    }
+
+    public boolean isGatewayCorsManagementEnabled() {
+        return gatewayCorsManagementEnabled;
+    }
+
+    private void processControlledHeaders(List<String> localAccessControlAllowHeaders, BiConsumer<String, String> headerWriter, String requestURI, String origin, boolean capiConsumer) {
         managedHeaders.forEach((k, v) -> {
             if(k.equals(Constants.ACCESS_CONTROL_ALLOW_HEADERS)) {
                 v = StringUtils.join(localAccessControlAllowHeaders, ",");
             }
-            response.setHeader(k, v);
+            headerWriter.accept(k, v);
         });
-        processOrigin(response, request, origin, capiConsumer);
+        processOrigin(headerWriter, requestURI, origin, capiConsumer);
     }
 
-    private void processOrigin(HttpServletResponse response, HttpServletRequest request, String origin, boolean capiConsumer) {
+    private void processOrigin(BiConsumer<String, String> headerWriter, String requestURI, String origin, boolean capiConsumer) {
         if(isValidOrigin(origin)) {
             if(capiConsumer) {
-                if(isOriginAllowed(request)) {
-                    response.setHeader(Constants.ACCESS_CONTROL_ALLOW_ORIGIN, origin.replaceAll("(\r\n|\n)", ""));
+                if(isOriginAllowed(requestURI, origin)) {
+                    headerWriter.accept(Constants.ACCESS_CONTROL_ALLOW_ORIGIN, origin.replaceAll("(\r\n|\n)", ""));
                 }
             } else {
-                response.setHeader(Constants.ACCESS_CONTROL_ALLOW_ORIGIN, origin.replaceAll("(\r\n|\n)", ""));
+                headerWriter.accept(Constants.ACCESS_CONTROL_ALLOW_ORIGIN, origin.replaceAll("(\r\n|\n)", ""));
             }
         }
     }
 
-    private boolean isOriginAllowed(HttpServletRequest request) {
-        String requestURI = request.getRequestURI();
-        String serviceId = requestURI.trim().split("/")[2] + ":" + requestURI.split("/")[3];
-        Service service = serviceCache.peek(serviceId);
+    private boolean isOriginAllowed(String requestURI, String origin) {
+        //The first segment is the Capi context.
+        int contextStart = requestURI.indexOf('/', 1);
+        Service service = contextStart < 0 ? null : serviceRegistry.resolve(requestURI, contextStart);
         if(service != null && service.getServiceMeta() != null) {
             if(service.getServiceMeta().getAllowedOrigins() != null) {
                 List<String> allowedOriginsList = Arrays.asList(service.getServiceMeta().getAllowedOrigins().split(",", -1));
-                return allowedOriginsList.contains(request.getHeader(Constants.ORIGIN_HEADER));
+                return allowedOriginsList.contains(origin);
             } else {
                 return true;
             }
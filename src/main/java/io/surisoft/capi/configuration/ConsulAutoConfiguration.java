@@ -1,16 +1,25 @@
 package io.surisoft.capi.configuration;
 
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.cache.StickySessionCacheManager;
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.metrics.DiscoveryMetrics;
+import io.surisoft.capi.processor.AsyncHttpTransport;
+import io.surisoft.capi.processor.DynamicEndpointManager;
 import io.surisoft.capi.processor.MetricsProcessor;
 import io.surisoft.capi.schema.SSEClient;
-import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.schema.WebsocketClient;
 import io.surisoft.capi.service.ConsulNodeDiscovery;
+import io.surisoft.capi.service.DiscoveryPublisher;
+import io.surisoft.capi.service.DiscoverySnapshotStore;
+import io.surisoft.capi.service.FileDiscoveryProvider;
+import io.surisoft.capi.service.FlapDamper;
+import io.surisoft.capi.service.ShardAssignment;
 import io.surisoft.capi.service.OpaService;
 import io.surisoft.capi.utils.*;
 import org.apache.camel.CamelContext;
 import org.apache.camel.builder.RouteBuilder;
-import org.cache2k.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -18,6 +27,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -53,6 +63,31 @@ public class ConsulAutoConfiguration {
     private final String capiNamespace;
     private final boolean strictNamespace;
     private final String capiRunningMode;
+    private final boolean consulWatchEnabled;
+    private final int consulWatchWait;
+    private final int consulMaxConcurrentRequests;
+    private final boolean consulPassingOnly;
+    private final boolean consulQueryFilterEnabled;
+    private final boolean lazyRoutesEnabled;
+    private final long lazyRoutesTtl;
+    private final boolean snapshotEnabled;
+    private final String snapshotPath;
+    private final int snapshotMinInterval;
+    private final boolean shardEnabled;
+    private final int shardCount;
+    private final int shardIndex;
+    private final String shardInstanceId;
+    private final List<String> shardInstances;
+    private final boolean fanOutEnabled;
+    private final String fanOutLockKey;
+    private final int fanOutSessionTtl;
+    private final String discoveryProvider;
+    private final String discoveryFileDirectory;
+    private final boolean flapDampingEnabled;
+    private final long flapDampingHalfLife;
+    private final double flapDampingSuppressThreshold;
+    private final double flapDampingReuseThreshold;
+    private final long flapDampingMinInterval;
 
     public ConsulAutoConfiguration(@Value("${capi.consul.discovery.timer.interval}") int consulTimerInterval,
                                    @Value("${capi.consul.hosts}") List<String> capiConsulHosts,
@@ -68,7 +103,32 @@ public class ConsulAutoConfiguration {
                                    Optional<OpaService> opaService,
                                    @Value("${capi.namespace}") String capiNamespace,
                                    @Value("${capi.strict}") boolean strictNamespace,
-                                   @Value("${capi.mode}") String capiRunningMode) {
+                                   @Value("${capi.mode}") String capiRunningMode,
+                                   @Value("${capi.consul.discovery.watch.enabled}") boolean consulWatchEnabled,
+                                   @Value("${capi.consul.discovery.watch.wait}") int consulWatchWait,
+                                   @Value("${capi.consul.discovery.max-concurrent-requests}") int consulMaxConcurrentRequests,
+                                   @Value("${capi.consul.discovery.passing-only}") boolean consulPassingOnly,
+                                   @Value("${capi.consul.discovery.query-filter.enabled}") boolean consulQueryFilterEnabled,
+                                   @Value("${capi.consul.discovery.lazy-routes.enabled}") boolean lazyRoutesEnabled,
+                                   @Value("${capi.consul.discovery.lazy-routes.ttl}") long lazyRoutesTtl,
+                                   @Value("${capi.consul.discovery.snapshot.enabled}") boolean snapshotEnabled,
+                                   @Value("${capi.consul.discovery.snapshot.path}") String snapshotPath,
+                                   @Value("${capi.consul.discovery.snapshot.min-interval}") int snapshotMinInterval,
+                                   @Value("${capi.gateway.shard.enabled}") boolean shardEnabled,
+                                   @Value("${capi.gateway.shard.count}") int shardCount,
+                                   @Value("${capi.gateway.shard.index}") int shardIndex,
+                                   @Value("${capi.gateway.shard.instance-id}") String shardInstanceId,
+                                   @Value("${capi.gateway.shard.instances}") List<String> shardInstances,
+                                   @Value("${capi.consul.discovery.fan-out.enabled}") boolean fanOutEnabled,
+                                   @Value("${capi.consul.discovery.fan-out.lock-key}") String fanOutLockKey,
+                                   @Value("${capi.consul.discovery.fan-out.session-ttl}") int fanOutSessionTtl,
+                                   @Value("${capi.consul.discovery.provider}") String discoveryProvider,
+                                   @Value("${capi.consul.discovery.file.directory}") String discoveryFileDirectory,
+                                   @Value("${capi.consul.discovery.flap-damping.enabled}") boolean flapDampingEnabled,
+                                   @Value("${capi.consul.discovery.flap-damping.half-life}") long flapDampingHalfLife,
+                                   @Value("${capi.consul.discovery.flap-damping.suppress-threshold}") double flapDampingSuppressThreshold,
+                                   @Value("${capi.consul.discovery.flap-damping.reuse-threshold}") double flapDampingReuseThreshold,
+                                   @Value("${capi.consul.discovery.flap-damping.min-interval}") long flapDampingMinInterval) {
         this.consulTimerInterval = consulTimerInterval;
         this.capiConsulHosts = capiConsulHosts;
         this.consulToken = consulToken;
@@ -84,6 +144,31 @@ public class ConsulAutoConfiguration {
         this.capiNamespace = capiNamespace;
         this.strictNamespace = strictNamespace;
         this.capiRunningMode = capiRunningMode;
+        this.consulWatchEnabled = consulWatchEnabled;
+        this.consulWatchWait = consulWatchWait;
+        this.consulMaxConcurrentRequests = consulMaxConcurrentRequests;
+        this.consulPassingOnly = consulPassingOnly;
+        this.consulQueryFilterEnabled = consulQueryFilterEnabled;
+        this.lazyRoutesEnabled = lazyRoutesEnabled;
+        this.lazyRoutesTtl = lazyRoutesTtl;
+        this.snapshotEnabled = snapshotEnabled;
+        this.snapshotPath = snapshotPath;
+        this.snapshotMinInterval = snapshotMinInterval;
+        this.shardEnabled = shardEnabled;
+        this.shardCount = shardCount;
+        this.shardIndex = shardIndex;
+        this.shardInstanceId = shardInstanceId;
+        this.shardInstances = shardInstances;
+        this.fanOutEnabled = fanOutEnabled;
+        this.fanOutLockKey = fanOutLockKey;
+        this.fanOutSessionTtl = fanOutSessionTtl;
+        this.discoveryProvider = discoveryProvider;
+        this.discoveryFileDirectory = discoveryFileDirectory;
+        this.flapDampingEnabled = flapDampingEnabled;
+        this.flapDampingHalfLife = flapDampingHalfLife;
+        this.flapDampingSuppressThreshold = flapDampingSuppressThreshold;
+        this.flapDampingReuseThreshold = flapDampingReuseThreshold;
+        this.flapDampingMinInterval = flapDampingMinInterval;
     }
 
     @Bean(name = "consulNodeDiscovery")
@@ -93,10 +178,17 @@ public class ConsulAutoConfiguration {
                                                    RouteUtils routeUtils,
                                                    MetricsProcessor metricsProcessor,
                                                    HttpUtils httpUtils,
-                                                   Cache<String, Service> serviceCache) {
+                                                   ServiceRegistry serviceRegistry,
+                                                   Optional<DynamicEndpointManager> dynamicEndpointManager,
+                                                   AsyncHttpTransport asyncHttpTransport,
+                                                   Optional<DiscoveryPublisher> discoveryPublisher,
+                                                   CompositeMeterRegistry meterRegistry,
+                                                   DiscoveryMetrics discoveryMetrics) {
 
-        ConsulNodeDiscovery consulNodeDiscovery = new ConsulNodeDiscovery(camelContext, serviceUtils, routeUtils, metricsProcessor, serviceCache, websocketClientMap, sseClientMap);
+        ConsulNodeDiscovery consulNodeDiscovery = new ConsulNodeDiscovery(camelContext, serviceUtils, routeUtils, metricsProcessor, serviceRegistry, websocketClientMap, sseClientMap);
         consulNodeDiscovery.setHttpUtils(httpUtils);
+        consulNodeDiscovery.setMeterRegistry(meterRegistry);
+        consulNodeDiscovery.setDiscoveryMetrics(discoveryMetrics);
 
         opaService.ifPresent(consulNodeDiscovery::setOpaService);
         consulNodeDiscovery.setWebsocketUtils(websocketUtils);
@@ -117,8 +209,51 @@ public class ConsulAutoConfiguration {
         }
 
         consulNodeDiscovery.setCapiRunningMode(capiRunningMode);
+        consulNodeDiscovery.setConsulMaxConcurrentRequests(consulMaxConcurrentRequests);
+        consulNodeDiscovery.setConsulPassingOnly(consulPassingOnly);
+        if(consulQueryFilterEnabled) {
+            consulNodeDiscovery.enableConsulQueryFilter();
+        }
+
+        if(lazyRoutesEnabled) {
+            log.info("Consul discovery running with lazy routes, idle routes are evicted after {} seconds", lazyRoutesTtl);
+            consulNodeDiscovery.enableLazyRoutes(lazyRoutesTtl);
+        }
+
+        if(flapDampingEnabled) {
+            log.info("Consul discovery flap damping enabled, redeploys are at least {} seconds apart", flapDampingMinInterval);
+            consulNodeDiscovery.setFlapDamper(new FlapDamper(flapDampingHalfLife, flapDampingSuppressThreshold, flapDampingReuseThreshold, flapDampingMinInterval));
+        }
+
+        if(shardEnabled) {
+            ShardAssignment shardAssignment = shardInstances.isEmpty() ?
+                    ShardAssignment.ofShards(shardCount, shardIndex) :
+                    ShardAssignment.ofRing(new CapiInstance(shardInstanceId), shardInstances);
+            log.info("Partitioned gateway mode, deploying the services of {}", shardAssignment);
+            consulNodeDiscovery.setShardAssignment(shardAssignment);
+        }
+
+        if(snapshotEnabled) {
+            log.info("Consul discovery snapshot enabled, using {}", snapshotPath);
+            consulNodeDiscovery.setDiscoverySnapshotStore(new DiscoverySnapshotStore(Path.of(snapshotPath)), snapshotMinInterval);
+        }
+
+        discoveryPublisher.ifPresent(publisher -> {
+            log.info("Consul discovery fan-out enabled, only the instance holding {} queries Consul", fanOutLockKey);
+            consulNodeDiscovery.enableDiscoveryFanOut(publisher, fanOutLockKey, fanOutSessionTtl);
+        });
+
+        if(isFileDiscoveryProvider()) {
+            log.info("Discovering the services from the files of {}", discoveryFileDirectory);
+            consulNodeDiscovery.setDiscoveryProvider(new FileDiscoveryProvider(Path.of(discoveryFileDirectory)));
+        } else if(consulWatchEnabled) {
+            log.info("Consul discovery running in watch mode, waiting up to {} seconds per blocking query", consulWatchWait);
+            consulNodeDiscovery.enableConsulWatch(consulWatchWait);
+        }
 
         stickySessionCacheManager.ifPresent(consulNodeDiscovery::setStickySessionCacheManager);
+        dynamicEndpointManager.ifPresent(consulNodeDiscovery::setDynamicEndpointManager);
+        consulNodeDiscovery.setAsyncHttpTransport(asyncHttpTransport);
         return consulNodeDiscovery;
     }
 
@@ -129,10 +264,32 @@ public class ConsulAutoConfiguration {
         return new RouteBuilder() {
             @Override
             public void configure() {
-                from("timer:consul-inspect?period=" + consulTimerInterval)
+                from("timer:consul-inspect?period=" + getDiscoveryTimerPeriod())
                         .to("bean:consulNodeDiscovery?method=processInfo")
                         .routeId("consul-discovery-service");
+                if(lazyRoutesEnabled) {
+                    from("timer:lazy-routes-eviction?period=" + Constants.LAZY_ROUTES_EVICTION_INTERVAL)
+                            .to("bean:consulNodeDiscovery?method=evictIdleRoutes")
+                            .routeId("lazy-routes-eviction-service");
+                }
+                if(fanOutEnabled) {
+                    //Half the session TTL, like ConsulLeaderElection#getRenewIntervalSeconds.
+                    from("timer:discovery-leader-renewal?period=" + Math.max(1, fanOutSessionTtl / 2) * 1000L)
+                            .to("bean:consulNodeDiscovery?method=renewDiscoveryLeadership")
+                            .routeId("discovery-leader-renewal-service");
+                }
             }
         };
     }
-}
\ No newline at end of file
+
+    /**
+     * In watch mode the discovery blocks until Consul reports a change, so the timer only needs to loop.
+     */
+    private int getDiscoveryTimerPeriod() {
+        return consulWatchEnabled && !isFileDiscoveryProvider() ? Constants.CONSUL_WATCH_TIMER_INTERVAL : consulTimerInterval;
+    }
+
+    private boolean isFileDiscoveryProvider() {
+        return Constants.FILE_DISCOVERY_PROVIDER.equalsIgnoreCase(discoveryProvider);
+    }
+}
@@ -0,0 +1,49 @@
+package io.surisoft.capi.configuration;
+
+import io.surisoft.capi.service.ConsulNodeDiscovery;
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Lazy routes mode, makes sure the routes of the called service exist before the request reaches the Camel servlet.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConditionalOnProperty(prefix = "capi.consul.discovery.lazy-routes", name = "enabled", havingValue = "true")
+public class LazyRouteFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(LazyRouteFilter.class);
+    private final ConsulNodeDiscovery consulNodeDiscovery;
+    private final String capiContextPath;
+
+    public LazyRouteFilter(ConsulNodeDiscovery consulNodeDiscovery,
+                           @Value("${camel.servlet.mapping.context-path}") String capiContextPath) {
+        this.consulNodeDiscovery = consulNodeDiscovery;
+        this.capiContextPath = capiContextPath.replaceAll("\\*", "");
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
+        String requestURI = ((HttpServletRequest) servletRequest).getRequestURI();
+        if(requestURI.startsWith(capiContextPath)) {
+            //The service context is /name/group (or /group/name), and the service id is built the same way.
+            String[] pathParts = requestURI.substring(capiContextPath.length()).split("/", 3);
+            if(pathParts.length >= 2 && !pathParts[0].isEmpty() && !pathParts[1].isEmpty()) {
+                String serviceId = pathParts[0] + ":" + pathParts[1];
+                if(!consulNodeDiscovery.materializeRoutes(serviceId)) {
+                    log.trace("No routes materialized for {}", serviceId);
+                }
+            }
+        }
+        filterChain.doFilter(servletRequest, servletResponse);
+    }
+}
@@ -0,0 +1,21 @@
+package io.surisoft.capi.configuration;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+/**
+ * Camel reads its thread type once, when its thread pools are first created, so the virtual thread flag is set
+ * before the Camel context is built. A value given on the command line is kept.
+ */
+public class VirtualThreadEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    private static final String CAMEL_VIRTUAL_THREADS_PROPERTY = "camel.threads.virtual.enabled";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        if(environment.getProperty("capi.threads.virtual", Boolean.class, false) && System.getProperty(CAMEL_VIRTUAL_THREADS_PROPERTY) == null) {
+            System.setProperty(CAMEL_VIRTUAL_THREADS_PROPERTY, "true");
+        }
+    }
+}
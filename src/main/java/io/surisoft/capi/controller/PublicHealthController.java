@@ -12,7 +12,7 @@ import org.springframework.web.bind.annotation.RestController;
 public class PublicHealthController {
     @GetMapping
     public ResponseEntity<String> amIHealthy() {
-        if(ConsulNodeDiscovery.isConnectedToConsul()) {
+        if(ConsulNodeDiscovery.isServingRoutes()) {
             return new ResponseEntity<>(HttpStatus.OK);
         }
         return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
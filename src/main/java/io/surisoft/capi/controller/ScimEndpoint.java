@@ -1,12 +1,12 @@
 package io.surisoft.capi.controller;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.utils.Constants;
 import io.surisoft.capi.utils.HttpUtils;
 import io.surisoft.scim.ScimController;
 import io.surisoft.scim.request.Result;
 import jakarta.servlet.http.HttpServletRequest;
-import org.cache2k.Cache;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -19,15 +19,15 @@ public class ScimEndpoint {
 
     private final Optional<ScimController> scimController;
     private final HttpUtils httpUtils;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
 
     public ScimEndpoint(
                         Optional<ScimController> scimController,
                         HttpUtils httpUtils,
-                        Cache<String, Service> serviceCache
+                        ServiceRegistry serviceRegistry
                           ) {
         this.httpUtils = httpUtils;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
         this.scimController = scimController;
     }
 
@@ -47,7 +47,7 @@ public class ScimEndpoint {
             String contextPath = httpUtils.contextToRole(httpServletRequest.getHeader(Constants.CAPI_GROUP_HEADER));
             String accessToken = httpUtils.processAuthorizationAccessToken(httpServletRequest);
 
-            Service service = serviceCache.get(contextPath);
+            Service service = serviceRegistry.get(contextPath);
             assert service != null;
 
             if (accessToken == null) {
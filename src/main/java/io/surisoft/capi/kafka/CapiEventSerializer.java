@@ -15,7 +15,8 @@ public class CapiEventSerializer implements Serializer<CapiEvent> {
     public byte[] serialize(String topic, CapiEvent data) {
         try {
             if (data == null){
-                log.warn("Null received at serializing");
+                //Tombstone, removes a key from a compacted topic.
+                log.trace("Null received at serializing");
                 return null;
             }
             return objectMapper.writeValueAsBytes(data);
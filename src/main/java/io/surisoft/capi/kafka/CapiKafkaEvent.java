@@ -16,6 +16,7 @@ public class CapiKafkaEvent {
 
     public static final String STICKY_SESSION_EVENT_TYPE = "sticky-session";
     public static final String CERTIFICATE_CHANGE_EVENT_TYPE = "certificate-change";
+    public static final String DISCOVERY_SERVICE_EVENT_TYPE = "discovery-service";
     @Autowired
     private CapiInstance capiInstance;
     @Autowired
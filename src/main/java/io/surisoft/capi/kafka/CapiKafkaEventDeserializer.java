@@ -23,7 +23,8 @@ public class CapiKafkaEventDeserializer implements Deserializer<CapiEvent> {
     public CapiEvent deserialize(String topic, byte[] data) {
         try {
             if (data == null){
-                log.warn("Null received at deserializing");
+                //Tombstone, removes a key from a compacted topic.
+                log.trace("Null received at deserializing");
                 return null;
             }
             return objectMapper.readValue(new String(data, StandardCharsets.UTF_8), CapiEvent.class);
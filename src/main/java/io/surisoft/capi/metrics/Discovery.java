@@ -0,0 +1,26 @@
+package io.surisoft.capi.metrics;
+
+import io.surisoft.capi.schema.DiscoveryCycleSummary;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@Endpoint(id = "discovery")
+@ConditionalOnProperty(prefix = "capi.consul.discovery", name = "enabled", havingValue = "true")
+public class Discovery {
+
+    private final DiscoveryMetrics discoveryMetrics;
+
+    public Discovery(DiscoveryMetrics discoveryMetrics) {
+        this.discoveryMetrics = discoveryMetrics;
+    }
+
+    @ReadOperation
+    public List<DiscoveryCycleSummary> getLastCycles() {
+        return discoveryMetrics.getHistory();
+    }
+}
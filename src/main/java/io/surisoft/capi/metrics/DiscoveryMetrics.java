@@ -0,0 +1,175 @@
+package io.surisoft.capi.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.schema.DiscoveryCycleSummary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters of the discovery pipeline, plus the summaries of the last discovery cycles.
+ * The fetch and parse meters can be recorded from the HTTP client threads, the cycle itself is run by the discovery timer.
+ */
+@Component
+@ConditionalOnProperty(prefix = "capi.consul.discovery", name = "enabled", havingValue = "true")
+public class DiscoveryMetrics {
+
+    private static final String FETCH_TIMER = "capi.discovery.fetch";
+    private static final String PAYLOAD_SUMMARY = "capi.discovery.payload";
+    private static final String PARSE_TIMER = "capi.discovery.parse";
+    private static final String OPENAPI_FETCH_TIMER = "capi.discovery.openapi.fetch";
+    private static final String CYCLE_TIMER = "capi.discovery.cycle";
+    private static final String SERVICES_COUNTER = "capi.discovery.services";
+    private static final String ROUTES_COUNTER = "capi.discovery.routes";
+    private final CompositeMeterRegistry meterRegistry;
+    private final int historySize;
+    private final Deque<DiscoveryCycleSummary> history = new ArrayDeque<>();
+    private final Timer parseTimer;
+    private final Timer openApiFetchTimer;
+    private final Timer cycleTimer;
+    private final Counter servicesAddedCounter;
+    private final Counter servicesChangedCounter;
+    private final Counter servicesRemovedCounter;
+    private final Counter routesBuiltCounter;
+    private final Counter routesRemovedCounter;
+    private volatile Cycle currentCycle;
+
+    public DiscoveryMetrics(CompositeMeterRegistry meterRegistry,
+                            @Value("${capi.consul.discovery.metrics.history}") int historySize) {
+        this.meterRegistry = meterRegistry;
+        this.historySize = historySize;
+        this.parseTimer = meterRegistry.timer(PARSE_TIMER);
+        this.openApiFetchTimer = meterRegistry.timer(OPENAPI_FETCH_TIMER);
+        this.cycleTimer = meterRegistry.timer(CYCLE_TIMER);
+        this.servicesAddedCounter = meterRegistry.counter(SERVICES_COUNTER, "change", "added");
+        this.servicesChangedCounter = meterRegistry.counter(SERVICES_COUNTER, "change", "changed");
+        this.servicesRemovedCounter = meterRegistry.counter(SERVICES_COUNTER, "change", "removed");
+        this.routesBuiltCounter = meterRegistry.counter(ROUTES_COUNTER, "action", "built");
+        this.routesRemovedCounter = meterRegistry.counter(ROUTES_COUNTER, "action", "removed");
+    }
+
+    public void startCycle() {
+        currentCycle = new Cycle();
+    }
+
+    /**
+     * Ends the current cycle, the cycles without any change are not kept in the history.
+     */
+    public void endCycle() {
+        Cycle cycle = currentCycle;
+        if(cycle == null) {
+            return;
+        }
+        currentCycle = null;
+        long durationNanos = System.nanoTime() - cycle.startNanos;
+        cycleTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+        if(cycle.servicesAdded.get() + cycle.servicesChanged.get() + cycle.servicesRemoved.get() + cycle.routesBuilt.get() + cycle.routesRemoved.get() == 0) {
+            return;
+        }
+        DiscoveryCycleSummary discoveryCycleSummary = new DiscoveryCycleSummary(cycle.startedAt.toString(),
+                TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                TimeUnit.NANOSECONDS.toMillis(cycle.fetchNanos.get()),
+                cycle.payloadBytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(cycle.parseNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(cycle.openApiFetchNanos.get()),
+                (int) cycle.servicesAdded.get(),
+                (int) cycle.servicesChanged.get(),
+                (int) cycle.servicesRemoved.get(),
+                (int) cycle.routesBuilt.get(),
+                (int) cycle.routesRemoved.get());
+        synchronized (history) {
+            history.addFirst(discoveryCycleSummary);
+            while(history.size() > historySize) {
+                history.removeLast();
+            }
+        }
+    }
+
+    /**
+     * @return the last cycles with changes, the most recent first.
+     */
+    public List<DiscoveryCycleSummary> getHistory() {
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    public void recordFetch(String host, long nanos, long payloadBytes) {
+        Timer.builder(FETCH_TIMER).tag("host", host).register(meterRegistry).record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder(PAYLOAD_SUMMARY).baseUnit("bytes").tag("host", host).register(meterRegistry).record(payloadBytes);
+        Cycle cycle = currentCycle;
+        if(cycle != null) {
+            cycle.fetchNanos.addAndGet(nanos);
+            cycle.payloadBytes.addAndGet(payloadBytes);
+        }
+    }
+
+    public void recordParse(long nanos) {
+        parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+        Cycle cycle = currentCycle;
+        if(cycle != null) {
+            cycle.parseNanos.addAndGet(nanos);
+        }
+    }
+
+    public void recordOpenApiFetch(long nanos) {
+        openApiFetchTimer.record(nanos, TimeUnit.NANOSECONDS);
+        Cycle cycle = currentCycle;
+        if(cycle != null) {
+            cycle.openApiFetchNanos.addAndGet(nanos);
+        }
+    }
+
+    public void recordServices(int added, int changed, int removed) {
+        servicesAddedCounter.increment(added);
+        servicesChangedCounter.increment(changed);
+        servicesRemovedCounter.increment(removed);
+        Cycle cycle = currentCycle;
+        if(cycle != null) {
+            cycle.servicesAdded.addAndGet(added);
+            cycle.servicesChanged.addAndGet(changed);
+            cycle.servicesRemoved.addAndGet(removed);
+        }
+    }
+
+    public void recordRoutesBuilt(int routes) {
+        routesBuiltCounter.increment(routes);
+        Cycle cycle = currentCycle;
+        if(cycle != null) {
+            cycle.routesBuilt.addAndGet(routes);
+        }
+    }
+
+    public void recordRoutesRemoved(int routes) {
+        routesRemovedCounter.increment(routes);
+        Cycle cycle = currentCycle;
+        if(cycle != null) {
+            cycle.routesRemoved.addAndGet(routes);
+        }
+    }
+
+    private static class Cycle {
+        private final Instant startedAt = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong fetchNanos = new AtomicLong();
+        private final AtomicLong payloadBytes = new AtomicLong();
+        private final AtomicLong parseNanos = new AtomicLong();
+        private final AtomicLong openApiFetchNanos = new AtomicLong();
+        private final AtomicLong servicesAdded = new AtomicLong();
+        private final AtomicLong servicesChanged = new AtomicLong();
+        private final AtomicLong servicesRemoved = new AtomicLong();
+        private final AtomicLong routesBuilt = new AtomicLong();
+        private final AtomicLong routesRemoved = new AtomicLong();
+    }
+}
@@ -12,6 +12,9 @@ public class HealthController implements HealthIndicator {
         if(ConsulNodeDiscovery.isConnectedToConsul()) {
             return Health.up().build();
         }
+        if(ConsulNodeDiscovery.isServingRoutes()) {
+            return Health.up().withDetail("reason", "Consul not available, serving the routes restored from the discovery snapshot").build();
+        }
         return Health.down().withDetail("reason", "Consul not available").build();
     }
 }
\ No newline at end of file
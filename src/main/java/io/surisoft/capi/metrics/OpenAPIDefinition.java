@@ -1,10 +1,10 @@
 package io.surisoft.capi.metrics;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.Service;
 import org.apache.camel.util.json.JsonArray;
 import org.apache.camel.util.json.JsonObject;
-import org.cache2k.Cache;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
@@ -21,21 +21,21 @@ import java.net.http.HttpResponse;
 @Endpoint(id = "openapi")
 public class OpenAPIDefinition {
 
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
 
     @Value("${capi.public-endpoint}")
     private String capiPublicEndpoint;
 
-    public OpenAPIDefinition(Cache<String, Service> serviceCache) {
-        this.serviceCache = serviceCache;
+    public OpenAPIDefinition(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
     }
 
     @ReadOperation
     public JsonObject getCacheOpenApiDefinition(@Selector String serviceName) {
-        if(serviceCache.containsKey(serviceName)) {
+        if(serviceRegistry.containsKey(serviceName)) {
             ObjectMapper objectMapper = new ObjectMapper();
             try {
-                Service service = serviceCache.get(serviceName);
+                Service service = serviceRegistry.get(serviceName);
                 if(service != null && service.getServiceMeta() != null && service.getServiceMeta().getOpenApiEndpoint() != null) {
                     HttpClient client = HttpClient.newBuilder().build();
                     HttpRequest request = HttpRequest.newBuilder().uri(URI.create(service.getServiceMeta().getOpenApiEndpoint())).build();
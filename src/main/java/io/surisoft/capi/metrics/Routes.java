@@ -1,5 +1,6 @@
 package io.surisoft.capi.metrics;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.processor.MetricsProcessor;
 import io.surisoft.capi.schema.RouteDetailsEndpointInfo;
 import io.surisoft.capi.schema.RouteEndpointInfo;
@@ -23,20 +24,20 @@ import java.util.List;
 public class Routes {
 
     private final ServiceUtils serviceUtils;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
     private final Cache<String, StickySession> stickySessionCache;
     private final CamelContext camelContext;
     private final RouteUtils routeUtils;
     private final MetricsProcessor metricsProcessor;
 
     public Routes(ServiceUtils serviceUtils,
-                  Cache<String, Service> serviceCache,
+                  ServiceRegistry serviceRegistry,
                   Cache<String, StickySession> stickySessionCache,
                   CamelContext camelContext,
                   RouteUtils routeUtils,
                   MetricsProcessor metricsProcessor) {
         this.serviceUtils = serviceUtils;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
         this.stickySessionCache = stickySessionCache;
         this.camelContext = camelContext;
         this.routeUtils = routeUtils;
@@ -45,8 +46,8 @@ public class Routes {
 
     @ReadOperation
     public Service getCachedService(@Selector String serviceName) {
-        if(serviceCache.containsKey(serviceName)) {
-            return serviceCache.get(serviceName);
+        if(serviceRegistry.containsKey(serviceName)) {
+            return serviceRegistry.get(serviceName);
         }
         return null;
     }
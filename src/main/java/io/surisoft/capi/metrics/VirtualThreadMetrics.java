@@ -0,0 +1,59 @@
+package io.surisoft.capi.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Meters of the virtual threads, read from the JFR events of the running JVM.
+ * A virtual thread is pinned when it blocks inside a synchronized block or a native call, holding its carrier thread.
+ */
+@Component
+@ConditionalOnProperty(prefix = "capi.threads", name = "virtual", havingValue = "true")
+public class VirtualThreadMetrics implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadMetrics.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String SUBMIT_FAILED_EVENT = "jdk.VirtualThreadSubmitFailed";
+    private final Timer pinnedTimer;
+    private final Counter submitFailedCounter;
+    private final RecordingStream recordingStream;
+
+    public VirtualThreadMetrics(CompositeMeterRegistry meterRegistry,
+                                @Value("${capi.threads.pinned-threshold}") long pinnedThreshold) {
+        this.pinnedTimer = meterRegistry.timer("capi.threads.virtual.pinned");
+        this.submitFailedCounter = meterRegistry.counter("capi.threads.virtual.submit.failed");
+
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(pinnedThreshold)).withStackTrace();
+        recordingStream.enable(SUBMIT_FAILED_EVENT);
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.onEvent(SUBMIT_FAILED_EVENT, event -> submitFailedCounter.increment());
+        recordingStream.startAsync();
+        log.info("Recording the virtual threads pinned for more than {} ms", pinnedThreshold);
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedTimer.record(event.getDuration());
+        if(log.isDebugEnabled() && event.getStackTrace() != null && !event.getStackTrace().getFrames().isEmpty()) {
+            RecordedFrame frame = event.getStackTrace().getFrames().get(0);
+            log.debug("Virtual thread pinned for {} ms at {}.{}", event.getDuration().toMillis(), frame.getMethod().getType().getName(), frame.getMethod().getName());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        recordingStream.close();
+    }
+}
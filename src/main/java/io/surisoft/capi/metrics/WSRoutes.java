@@ -1,9 +1,9 @@
 package io.surisoft.capi.metrics;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.schema.WebsocketClient;
 import io.surisoft.capi.utils.ServiceUtils;
-import org.cache2k.Cache;
 import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
 import org.springframework.stereotype.Component;
@@ -16,21 +16,21 @@ import java.util.Optional;
 public class WSRoutes {
 
     private final ServiceUtils serviceUtils;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
     private final Optional<Map<String, WebsocketClient>> websocketClientMap;
 
     public WSRoutes(ServiceUtils serviceUtils,
-                    Cache<String, Service> serviceCache,
+                    ServiceRegistry serviceRegistry,
                     Optional<Map<String, WebsocketClient>> websocketClientMap) {
         this.serviceUtils = serviceUtils;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
         this.websocketClientMap = websocketClientMap;
     }
 
     /*@ReadOperation
     public Service getCachedService(@Selector String serviceName) {
-        if(serviceCache.containsKey(serviceName)) {
-            return serviceCache.get(serviceName);
+        if(serviceRegistry.containsKey(serviceName)) {
+            return serviceRegistry.get(serviceName);
         }
         return null;
     }*/
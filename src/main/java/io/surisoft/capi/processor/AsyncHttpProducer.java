@@ -0,0 +1,162 @@
+package io.surisoft.capi.processor;
+
+import org.apache.camel.*;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the exchange upstream with the JDK HttpClient, without holding the calling thread while waiting for the response.
+ * Behaves like the camel-http bridge endpoints: the status code is returned as is, the headers go through the same filter strategy,
+ * one failover attempt on connection errors and round robin when there is more than one instance.
+ */
+public class AsyncHttpProducer extends AsyncProcessorSupport implements Traceable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncHttpProducer.class);
+    private static final int MAXIMUM_FAILOVER_ATTEMPTS = 1;
+    //Set by the HttpClient, they can not be copied from the request.
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade",
+            "keep-alive", "te", "trailer", "transfer-encoding", "proxy-connection", "http2-settings");
+    private final HttpClient httpClient;
+    private final String serviceId;
+    private final String[] baseUris;
+    private final Duration requestTimeout;
+    private final HeaderFilterStrategy headerFilterStrategy;
+    private final AtomicInteger counter = new AtomicInteger(-1);
+
+    public AsyncHttpProducer(HttpClient httpClient, String serviceId, String[] baseUris, Duration requestTimeout, HeaderFilterStrategy headerFilterStrategy) {
+        this.httpClient = httpClient;
+        this.serviceId = serviceId;
+        this.baseUris = baseUris;
+        this.requestTimeout = requestTimeout;
+        this.headerFilterStrategy = headerFilterStrategy;
+    }
+
+    @Override
+    public boolean process(Exchange exchange, AsyncCallback callback) {
+        if(baseUris.length == 0) {
+            exchange.setException(new CamelException("No endpoint available for service " + serviceId));
+            callback.done(true);
+            return true;
+        }
+        int index = baseUris.length > 1 ? counter.updateAndGet(x -> ++x < baseUris.length ? x : 0) : 0;
+        try {
+            send(exchange, callback, buildRequest(exchange), index, 0);
+        } catch (Exception e) {
+            exchange.setException(e);
+            callback.done(true);
+            return true;
+        }
+        return false;
+    }
+
+    private void send(Exchange exchange, AsyncCallback callback, HttpRequest.Builder requestBuilder, int index, int attempts) {
+        HttpRequest request = requestBuilder.uri(buildUri(exchange, baseUris[index])).build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, throwable) -> {
+            if(throwable == null) {
+                populateResponse(exchange, response);
+                callback.done(false);
+                return;
+            }
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if(isConnectionFailure(cause) && attempts < MAXIMUM_FAILOVER_ATTEMPTS && baseUris.length > 1 && isRunAllowed()) {
+                log.debug("Failing over to endpoint {} of service {}", (index + 1) % baseUris.length, serviceId);
+                send(exchange, callback, requestBuilder, (index + 1) % baseUris.length, attempts + 1);
+                return;
+            }
+            exchange.setException(cause);
+            callback.done(false);
+        });
+    }
+
+    private HttpRequest.Builder buildRequest(Exchange exchange) {
+        Message message = exchange.getIn();
+        String method = message.getHeader(Exchange.HTTP_METHOD, String.class);
+        byte[] body = message.getBody(byte[].class);
+        if(method == null) {
+            method = body != null ? "POST" : "GET";
+        }
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .method(method, body == null || body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+        if(requestTimeout != null) {
+            requestBuilder.timeout(requestTimeout);
+        }
+        for(Map.Entry<String, Object> header : message.getHeaders().entrySet()) {
+            Object value = header.getValue();
+            if(value == null || RESTRICTED_HEADERS.contains(header.getKey().toLowerCase())
+                    || headerFilterStrategy.applyFilterToCamelHeaders(header.getKey(), value, exchange)) {
+                continue;
+            }
+            if(value instanceof Iterable<?> values) {
+                for(Object item : values) {
+                    requestBuilder.header(header.getKey(), item.toString());
+                }
+            } else if(value instanceof String || value instanceof Number || value instanceof Boolean) {
+                requestBuilder.header(header.getKey(), value.toString());
+            }
+        }
+        return requestBuilder;
+    }
+
+    private URI buildUri(Exchange exchange, String baseUri) {
+        StringBuilder uri = new StringBuilder(baseUri);
+        String path = exchange.getIn().getHeader(Exchange.HTTP_PATH, String.class);
+        if(path != null && !path.isEmpty()) {
+            if(path.charAt(0) != '/' && (uri.isEmpty() || uri.charAt(uri.length() - 1) != '/')) {
+                uri.append('/');
+            } else if(path.charAt(0) == '/' && !uri.isEmpty() && uri.charAt(uri.length() - 1) == '/') {
+                uri.setLength(uri.length() - 1);
+            }
+            uri.append(path);
+        }
+        String query = exchange.getIn().getHeader(Exchange.HTTP_QUERY, String.class);
+        if(query != null && !query.isEmpty()) {
+            uri.append('?').append(query);
+        }
+        return URI.create(uri.toString());
+    }
+
+    private void populateResponse(Exchange exchange, HttpResponse<byte[]> response) {
+        Message message = exchange.getMessage();
+        message.setHeader(Exchange.HTTP_RESPONSE_CODE, response.statusCode());
+        for(Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            //HTTP/2 pseudo headers.
+            if(header.getKey().startsWith(":") || header.getValue().isEmpty()) {
+                continue;
+            }
+            Object value = header.getValue().size() == 1 ? header.getValue().get(0) : header.getValue();
+            if(!headerFilterStrategy.applyFilterToExternalHeaders(header.getKey(), value, exchange)) {
+                message.setHeader(header.getKey(), value);
+            }
+        }
+        byte[] body = response.body();
+        message.setBody(body == null || body.length == 0 ? null : body);
+    }
+
+    private boolean isConnectionFailure(Throwable throwable) {
+        return throwable instanceof ConnectException || throwable instanceof HttpConnectTimeoutException;
+    }
+
+    public String[] getBaseUris() {
+        return baseUris;
+    }
+
+    @Override
+    public String getTraceLabel() {
+        return "async http";
+    }
+}
@@ -0,0 +1,152 @@
+package io.surisoft.capi.processor;
+
+import io.surisoft.capi.configuration.CapiCorsFilterStrategy;
+import io.surisoft.capi.schema.HttpProtocol;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.service.CapiTrustManager;
+import org.apache.camel.CamelContext;
+import org.apache.camel.http.base.HttpHeaderFilterStrategy;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Non-blocking upstream transport, based on the JDK HttpClient.
+ * The transport is selected globally with capi.upstream.transport, a service can override it with the transport meta (async or camel-http).
+ * Sticky session, tenant aware and ingress services always use camel-http.
+ * The h2 and h2c services use this transport by default, their requests are multiplexed over one HTTP/2 connection per instance.
+ */
+@Component
+public class AsyncHttpTransport {
+
+    public static final String ASYNC = "async";
+    private static final Logger log = LoggerFactory.getLogger(AsyncHttpTransport.class);
+    private final CamelContext camelContext;
+    private final String defaultTransport;
+    private final Duration connectTimeout;
+    private final Duration requestTimeout;
+    private final boolean capiTrustStoreEnabled;
+    private final HeaderFilterStrategy headerFilterStrategy;
+    private volatile HttpClient httpClient;
+    private volatile HttpClient http2Client;
+
+    public AsyncHttpTransport(CamelContext camelContext,
+                              @Value("${capi.upstream.transport}") String defaultTransport,
+                              @Value("${capi.upstream.async.connect-timeout}") long connectTimeout,
+                              @Value("${capi.upstream.async.request-timeout}") long requestTimeout,
+                              @Value("${capi.trust.store.enabled}") boolean capiTrustStoreEnabled,
+                              Optional<CapiCorsFilterStrategy> capiCorsFilterStrategy) {
+        this.camelContext = camelContext;
+        this.defaultTransport = defaultTransport;
+        this.connectTimeout = Duration.ofMillis(connectTimeout);
+        this.requestTimeout = requestTimeout > 0 ? Duration.ofMillis(requestTimeout) : null;
+        this.capiTrustStoreEnabled = capiTrustStoreEnabled;
+        this.headerFilterStrategy = capiCorsFilterStrategy.isPresent() ? capiCorsFilterStrategy.get() : new HttpHeaderFilterStrategy();
+    }
+
+    public boolean isAsync(Service service) {
+        boolean http2 = HttpProtocol.fromSchema(service.getServiceMeta().getSchema()).isHttp2();
+        if(service.getServiceMeta().isStickySession() || service.getServiceMeta().isTenantAware()) {
+            logHttp1Fallback(service, http2);
+            return false;
+        }
+        for(Mapping mapping : service.getMappingList()) {
+            if(mapping.isIngress()) {
+                logHttp1Fallback(service, http2);
+                return false;
+            }
+        }
+        if(service.getServiceMeta().getTransport() != null) {
+            return ASYNC.equalsIgnoreCase(service.getServiceMeta().getTransport());
+        }
+        return http2 || ASYNC.equalsIgnoreCase(defaultTransport);
+    }
+
+    public AsyncHttpProducer createProducer(Service service) {
+        HttpClient client = HttpProtocol.fromSchema(service.getServiceMeta().getSchema()).isHttp2() ? getHttp2Client() : getHttpClient();
+        return new AsyncHttpProducer(client, service.getId(), buildBaseUris(service), requestTimeout, headerFilterStrategy);
+    }
+
+    /**
+     * @return schema://host[:port]rootContext for every instance of the service.
+     */
+    public String[] buildBaseUris(Service service) {
+        String protocol = HttpProtocol.fromSchema(service.getServiceMeta().getSchema()).getScheme();
+        List<String> baseUris = new ArrayList<>();
+        for(Mapping mapping : service.getMappingList()) {
+            String port = mapping.getPort() > -1 ? ":" + mapping.getPort() : "";
+            String rootContext = mapping.getRootContext() == null ? "" : mapping.getRootContext();
+            baseUris.add(protocol + "://" + mapping.getHostname() + port + rootContext);
+        }
+        return baseUris.toArray(String[]::new);
+    }
+
+    private void logHttp1Fallback(Service service, boolean http2) {
+        if(http2) {
+            log.warn("Service {} declares HTTP/2, but sticky session, tenant aware and ingress services are called with camel-http over HTTP/1.1", service.getId());
+        }
+    }
+
+    private HttpClient getHttpClient() {
+        HttpClient client = httpClient;
+        if(client == null) {
+            synchronized (this) {
+                if(httpClient == null) {
+                    httpClient = createHttpClient(HttpClient.Version.HTTP_1_1);
+                }
+                client = httpClient;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * HTTP/2 is negotiated with ALPN for h2 and with an upgrade for h2c, the client falls back to HTTP/1.1 when the instance refuses it.
+     * The JDK HttpClient has no prior knowledge mode, the REST gateway uses prior knowledge for h2c instead.
+     */
+    private HttpClient getHttp2Client() {
+        HttpClient client = http2Client;
+        if(client == null) {
+            synchronized (this) {
+                if(http2Client == null) {
+                    http2Client = createHttpClient(HttpClient.Version.HTTP_2);
+                }
+                client = http2Client;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Uses the trust manager of the https component, so the certificates added by the certificate management are trusted without a restart.
+     */
+    private HttpClient createHttpClient(HttpClient.Version version) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .version(version)
+                .connectTimeout(connectTimeout);
+        if(capiTrustStoreEnabled) {
+            CapiTrustManager capiTrustManager = CapiTrustManager.fromHttpsComponent(camelContext);
+            if(capiTrustManager == null) {
+                log.warn("The trust store is not loaded, the async transport uses the default SSL context");
+            } else {
+                try {
+                    builder.sslContext(capiTrustManager.createSSLContext());
+                } catch (Exception e) {
+                    log.warn("Could not create the SSL context of the async transport, using the default one: {}", e.getMessage());
+                }
+            }
+        }
+        log.info("Async upstream transport initialized, using {}", version);
+        return builder.build();
+    }
+}
@@ -1,5 +1,6 @@
 package io.surisoft.capi.processor;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.exception.AuthorizationException;
 import io.surisoft.capi.oidc.Oauth2Constants;
 import io.surisoft.capi.schema.Service;
@@ -8,7 +9,6 @@ import io.surisoft.capi.utils.Constants;
 import io.surisoft.capi.utils.HttpUtils;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
-import org.cache2k.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -22,12 +22,12 @@ import java.util.Optional;
 public class AuthorizationProcessor implements Processor {
     private static final Logger log = LoggerFactory.getLogger(AuthorizationProcessor.class);
     private final HttpUtils httpUtils;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
     private final Optional<OpaService> opaService;
 
-    public AuthorizationProcessor(HttpUtils httpUtils, Cache<String, Service> serviceCache, Optional<OpaService> opaService) {
+    public AuthorizationProcessor(HttpUtils httpUtils, ServiceRegistry serviceRegistry, Optional<OpaService> opaService) {
         this.httpUtils = httpUtils;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
         this.opaService = opaService;
     }
 
@@ -38,7 +38,7 @@ public class AuthorizationProcessor implements Processor {
         String accessToken;
         try {
             accessToken = httpUtils.processAuthorizationAccessToken(exchange);
-            Service service = serviceCache.get(httpUtils.contextToRole(contextPath));
+            Service service = serviceRegistry.resolve(contextPath, 0);
             assert service != null;
 
             if(accessToken != null) {
@@ -0,0 +1,183 @@
+package io.surisoft.capi.processor;
+
+import org.apache.camel.*;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.apache.camel.support.ExchangeHelper;
+import org.apache.camel.support.service.ServiceHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Failover load balancer whose endpoints can be replaced while the route is running.
+ * The endpoints are kept in an array that is swapped atomically, requests already in flight keep the array they started with,
+ * and the producers that are no longer used are stopped after a grace period.
+ * Behaves like failover(1, false, roundRobin, false): one failover attempt, round robin when there is more than one endpoint.
+ */
+public class DynamicEndpointLoadBalancer extends AsyncProcessorSupport implements Traceable {
+
+    private static final Logger log = LoggerFactory.getLogger(DynamicEndpointLoadBalancer.class);
+    private static final int MAXIMUM_FAILOVER_ATTEMPTS = 1;
+    private static final long RETIRE_DELAY_MILLIS = 60000;
+    private final CamelContext camelContext;
+    private final String serviceId;
+    private final long retireDelayMillis;
+    private final AtomicReference<Target[]> targets = new AtomicReference<>(new Target[0]);
+    private final AtomicInteger counter = new AtomicInteger(-1);
+    private volatile String[] endpointUris;
+    private volatile boolean stopped = false;
+
+    public DynamicEndpointLoadBalancer(CamelContext camelContext, String serviceId, String[] endpointUris) {
+        this(camelContext, serviceId, endpointUris, RETIRE_DELAY_MILLIS);
+    }
+
+    /**
+     * @param retireDelayMillis how long the replaced producers are kept for the requests in flight.
+     */
+    public DynamicEndpointLoadBalancer(CamelContext camelContext, String serviceId, String[] endpointUris, long retireDelayMillis) {
+        this.camelContext = camelContext;
+        this.serviceId = serviceId;
+        this.endpointUris = endpointUris;
+        this.retireDelayMillis = retireDelayMillis;
+    }
+
+    /**
+     * Replaces the endpoints, the producers of the endpoints that did not change are reused.
+     */
+    public synchronized void swap(String[] newEndpointUris) throws Exception {
+        this.endpointUris = newEndpointUris;
+        if(!isStarted() && !isStarting()) {
+            return;
+        }
+        Map<String, Target> currentTargets = new HashMap<>();
+        for(Target target : targets.get()) {
+            currentTargets.put(target.uri(), target);
+        }
+        Target[] newTargets = new Target[newEndpointUris.length];
+        for(int i = 0; i < newEndpointUris.length; i++) {
+            Target target = currentTargets.remove(newEndpointUris[i]);
+            newTargets[i] = target != null ? target : createTarget(newEndpointUris[i]);
+        }
+        targets.set(newTargets);
+        log.debug("Endpoints of service {} swapped, {} endpoints active", serviceId, newTargets.length);
+        retire(currentTargets.values());
+    }
+
+    public String[] getEndpointUris() {
+        return endpointUris;
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    /**
+     * @return true if the route of the load balancer was stopped (or removed) since it was last started.
+     */
+    public boolean wasStopped() {
+        return stopped;
+    }
+
+    @Override
+    public boolean process(Exchange exchange, AsyncCallback callback) {
+        Target[] currentTargets = targets.get();
+        if(currentTargets.length == 0) {
+            exchange.setException(new CamelException("No endpoint available for service " + serviceId));
+            callback.done(true);
+            return true;
+        }
+        camelContext.getCamelContextExtension().getReactiveExecutor().schedule(new State(exchange, callback, currentTargets)::run);
+        return false;
+    }
+
+    private Target createTarget(String endpointUri) throws Exception {
+        Endpoint endpoint = camelContext.getEndpoint(endpointUri);
+        AsyncProducer producer = endpoint.createAsyncProducer();
+        ServiceHelper.startService(producer);
+        return new Target(endpointUri, producer);
+    }
+
+    private void retire(Collection<Target> unusedTargets) {
+        if(unusedTargets.isEmpty()) {
+            return;
+        }
+        List<Target> targetsToStop = new ArrayList<>(unusedTargets);
+        CompletableFuture.delayedExecutor(retireDelayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            for(Target target : targetsToStop) {
+                log.trace("Stopping retired producer {} of service {}", target.uri(), serviceId);
+                ServiceHelper.stopService(target.producer());
+            }
+        });
+    }
+
+    protected class State {
+        final Exchange exchange;
+        final AsyncCallback callback;
+        final Target[] targets;
+        int index;
+        int attempts;
+        Exchange copy;
+
+        public State(Exchange exchange, AsyncCallback callback, Target[] targets) {
+            this.exchange = exchange;
+            this.callback = callback;
+            this.targets = targets;
+            this.index = targets.length > 1 ? counter.updateAndGet(x -> ++x < targets.length ? x : 0) : 0;
+        }
+
+        public void run() {
+            if(copy != null) {
+                if(copy.getException() == null || attempts >= MAXIMUM_FAILOVER_ATTEMPTS || targets.length == 1) {
+                    ExchangeHelper.copyResults(exchange, copy);
+                    callback.done(false);
+                    return;
+                }
+                attempts++;
+                index = (index + 1) % targets.length;
+                log.debug("Failing over to endpoint {} of service {}", index, serviceId);
+            }
+
+            if(!isRunAllowed()) {
+                if(exchange.getException() == null) {
+                    exchange.setException(new RejectedExecutionException());
+                }
+                callback.done(false);
+                return;
+            }
+
+            copy = ExchangeHelper.createCopy(exchange, true);
+            targets[index].producer().process(copy, doneSync -> camelContext.getCamelContextExtension().getReactiveExecutor()
+                    .schedule(this::run));
+        }
+    }
+
+    @Override
+    public String getTraceLabel() {
+        return "dynamic failover";
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        stopped = false;
+        swap(endpointUris);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        stopped = true;
+        for(Target target : targets.getAndSet(new Target[0])) {
+            ServiceHelper.stopService(target.producer());
+        }
+    }
+
+    private record Target(String uri, AsyncProducer producer) {
+    }
+}
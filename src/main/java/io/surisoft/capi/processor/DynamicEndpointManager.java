@@ -0,0 +1,80 @@
+package io.surisoft.capi.processor;
+
+import org.apache.camel.CamelContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the dynamic load balancers of every deployed service, so discovery can swap the endpoints of a service
+ * without stopping and removing its routes.
+ * There is one load balancer per route, a route that is built again replaces the load balancer of its previous build.
+ * The load balancers of routes removed outside discovery are dropped on the next lookup.
+ */
+@Component
+@ConditionalOnProperty(prefix = "capi.consul.discovery.hot-swap", name = "enabled", havingValue = "true")
+public class DynamicEndpointManager {
+
+    private static final Logger log = LoggerFactory.getLogger(DynamicEndpointManager.class);
+    private final CamelContext camelContext;
+    //Service id, then route id.
+    private final Map<String, Map<String, DynamicEndpointLoadBalancer>> loadBalancerMap = new ConcurrentHashMap<>();
+
+    public DynamicEndpointManager(CamelContext camelContext) {
+        this.camelContext = camelContext;
+    }
+
+    public DynamicEndpointLoadBalancer createLoadBalancer(String serviceId, String routeId, String[] endpointUris) {
+        DynamicEndpointLoadBalancer dynamicEndpointLoadBalancer = new DynamicEndpointLoadBalancer(camelContext, serviceId, endpointUris);
+        loadBalancerMap.computeIfAbsent(serviceId, k -> new ConcurrentHashMap<>()).put(routeId, dynamicEndpointLoadBalancer);
+        return dynamicEndpointLoadBalancer;
+    }
+
+    public boolean isManaged(String serviceId) {
+        return !getLoadBalancers(serviceId).isEmpty();
+    }
+
+    /**
+     * @return the load balancers of the deployed routes of the service.
+     */
+    public List<DynamicEndpointLoadBalancer> getLoadBalancers(String serviceId) {
+        Map<String, DynamicEndpointLoadBalancer> routeLoadBalancerMap = loadBalancerMap.get(serviceId);
+        if(routeLoadBalancerMap == null) {
+            return List.of();
+        }
+        //A load balancer that was never started belongs to a route that is being added.
+        routeLoadBalancerMap.entrySet().removeIf(entry -> entry.getValue().wasStopped() && camelContext.getRoute(entry.getKey()) == null);
+        if(routeLoadBalancerMap.isEmpty()) {
+            loadBalancerMap.remove(serviceId, routeLoadBalancerMap);
+        }
+        return List.copyOf(routeLoadBalancerMap.values());
+    }
+
+    /**
+     * @return false if the service has no dynamic load balancer, or if the swap failed, in that case the routes must be redeployed.
+     */
+    public boolean swap(String serviceId, String[] endpointUris) {
+        List<DynamicEndpointLoadBalancer> dynamicEndpointLoadBalancerList = getLoadBalancers(serviceId);
+        if(dynamicEndpointLoadBalancerList.isEmpty() || endpointUris.length == 0) {
+            return false;
+        }
+        try {
+            for(DynamicEndpointLoadBalancer dynamicEndpointLoadBalancer : dynamicEndpointLoadBalancerList) {
+                dynamicEndpointLoadBalancer.swap(endpointUris);
+            }
+            return true;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    public void remove(String serviceId) {
+        loadBalancerMap.remove(serviceId);
+    }
+}
@@ -2,6 +2,7 @@ package io.surisoft.capi.processor;
 
 import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import io.micrometer.core.instrument.search.RequiredSearch;
+import io.surisoft.capi.utils.Constants;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 
@@ -16,8 +17,13 @@ public class MetricsProcessor implements Processor {
 
     @Override
     public void process(Exchange exchange) {
-        if(exchange.getFromRouteId() != null) {
-            RequiredSearch requiredSearch = meterRegistry.get(exchange.getFromRouteId());
+        //Compact routes serve all the methods, the per method route id is set by the route.
+        String metricRouteId = exchange.getProperty(Constants.CAPI_METRIC_ROUTE_ID, String.class);
+        if(metricRouteId == null) {
+            metricRouteId = exchange.getFromRouteId();
+        }
+        if(metricRouteId != null) {
+            RequiredSearch requiredSearch = meterRegistry.get(metricRouteId);
             requiredSearch.counter().increment();
         }
     }
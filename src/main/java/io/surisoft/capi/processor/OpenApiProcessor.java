@@ -1,5 +1,6 @@
 package io.surisoft.capi.processor;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.exception.AuthorizationException;
 import io.surisoft.capi.oidc.Oauth2Constants;
 import io.surisoft.capi.schema.Service;
@@ -11,7 +12,6 @@ import io.swagger.v3.oas.models.Operation;
 import io.vavr.collection.List;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
-import org.cache2k.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatusCode;
@@ -20,13 +20,13 @@ public class OpenApiProcessor implements Processor {
     private static final Logger log = LoggerFactory.getLogger(OpenApiProcessor.class);
     private final OpenAPI openAPI;
     private final HttpUtils httpUtils;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
     private final OpaService opaService;
 
-    public OpenApiProcessor(OpenAPI openAPI, HttpUtils httpUtils, Cache<String, Service> serviceCache, OpaService opaService) {
+    public OpenApiProcessor(OpenAPI openAPI, HttpUtils httpUtils, ServiceRegistry serviceRegistry, OpaService opaService) {
         this.openAPI = openAPI;
         this.httpUtils = httpUtils;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
         this.opaService = opaService;
     }
 
@@ -62,7 +62,7 @@ public class OpenApiProcessor implements Processor {
                             accessToken = httpUtils.processAuthorizationAccessToken(exchange);
                             if(accessToken != null) {
                                 String contextPath = (String) exchange.getIn().getHeader(Oauth2Constants.CAMEL_SERVLET_CONTEXT_PATH);
-                                Service service = serviceCache.get(httpUtils.contextToRole(contextPath));
+                                Service service = serviceRegistry.resolve(contextPath, 0);
                                 if(service != null) {
                                     if(!httpUtils.isAuthorized(accessToken, contextPath, service, opaService)) {
                                         sendException("Invalid authentication", Constants.UNAUTHORIZED_CODE, exchange);
@@ -0,0 +1,142 @@
+package io.surisoft.capi.schema;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One entry of the Consul /v1/health/service/{name} response.
+ * The health checks are not mapped, the endpoint is queried with the passing filter.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ConsulHealthObject {
+
+    @JsonProperty("Node")
+    private HealthNode node;
+
+    @JsonProperty("Service")
+    private HealthService service;
+
+    public HealthNode getNode() {
+        return node;
+    }
+
+    public void setNode(HealthNode node) {
+        this.node = node;
+    }
+
+    public HealthService getService() {
+        return service;
+    }
+
+    public void setService(HealthService service) {
+        this.service = service;
+    }
+
+    /**
+     * Converts the entry to the catalog representation used by the discovery.
+     * As in the catalog, an empty service address means the node address.
+     */
+    public ConsulObject toConsulObject() {
+        ConsulObject consulObject = new ConsulObject();
+        if(node != null) {
+            consulObject.setID(node.getId());
+        }
+        if(service != null) {
+            consulObject.setServiceId(service.getId());
+            consulObject.setServiceName(service.getService());
+            consulObject.setServicePort(service.getPort());
+            consulObject.setServiceMeta(service.getMeta());
+            if(service.getAddress() != null && !service.getAddress().isEmpty()) {
+                consulObject.setServiceAddress(service.getAddress());
+            } else if(node != null) {
+                consulObject.setServiceAddress(node.getAddress());
+            }
+        }
+        return consulObject;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class HealthNode {
+
+        @JsonProperty("ID")
+        private String id;
+
+        @JsonProperty("Address")
+        private String address;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public void setAddress(String address) {
+            this.address = address;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class HealthService {
+
+        @JsonProperty("ID")
+        private String id;
+
+        @JsonProperty("Service")
+        private String service;
+
+        @JsonProperty("Address")
+        private String address;
+
+        @JsonProperty("Port")
+        private int port;
+
+        @JsonProperty("Meta")
+        private ServiceMeta meta;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public void setService(String service) {
+            this.service = service;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public void setAddress(String address) {
+            this.address = address;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public ServiceMeta getMeta() {
+            return meta;
+        }
+
+        public void setMeta(ServiceMeta meta) {
+            this.meta = meta;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package io.surisoft.capi.schema;
+
+import java.util.List;
+
+/**
+ * A service group as discovered in the catalog, before it is converted to a {@link Service}.
+ * The instances are sorted by their catalog service id, so the first one is always the same.
+ */
+public record DiscoveredService(String serviceId, String serviceName, String group, List<ConsulObject> instances, long fingerprint) {
+}
@@ -0,0 +1,13 @@
+package io.surisoft.capi.schema;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The services reported by a discovery provider in one cycle.
+ * @param services the instances of the changed services by name, an empty list means that all the instances are gone.
+ * @param removedServiceNames the names of the services that no longer exist.
+ */
+public record DiscoveryChanges(Map<String, List<ConsulObject>> services, Set<String> removedServiceNames) {
+}
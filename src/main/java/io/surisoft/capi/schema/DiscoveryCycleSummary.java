@@ -0,0 +1,17 @@
+package io.surisoft.capi.schema;
+
+/**
+ * What a discovery cycle fetched and changed, exposed by the discovery actuator endpoint.
+ */
+public record DiscoveryCycleSummary(String startedAt,
+                                    long durationMillis,
+                                    long fetchMillis,
+                                    long payloadBytes,
+                                    long parseMillis,
+                                    long openApiFetchMillis,
+                                    int servicesAdded,
+                                    int servicesChanged,
+                                    int servicesRemoved,
+                                    int routesBuilt,
+                                    int routesRemoved) {
+}
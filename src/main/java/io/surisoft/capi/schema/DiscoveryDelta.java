@@ -0,0 +1,14 @@
+package io.surisoft.capi.schema;
+
+import java.util.List;
+
+/**
+ * The result of comparing a discovery cycle with the previous one.
+ * Unchanged services are not part of the delta.
+ */
+public record DiscoveryDelta(List<DiscoveredService> added, List<DiscoveredService> changed, List<String> removed) {
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+}
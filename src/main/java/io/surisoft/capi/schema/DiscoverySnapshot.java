@@ -0,0 +1,22 @@
+package io.surisoft.capi.schema;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * Last known set of discovered services, persisted to restore the routes on a warm restart.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record DiscoverySnapshot(int version, long createdAt, List<Entry> services) {
+
+    public static final int CURRENT_VERSION = 1;
+
+    /**
+     * @param openApi the OpenAPI definition of the service as JSON, null when the service has none.
+     * @param fingerprint the discovery fingerprint, so the first discovery cycle only redeploys what changed meanwhile.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Entry(Service service, String openApi, long fingerprint) {
+    }
+}
@@ -207,7 +207,10 @@ package io.surisoft.capi.schema;
 
 public enum HttpProtocol {
     HTTP("http"),
-    HTTPS("https");
+    HTTPS("https"),
+    //HTTP/2 over TLS (ALPN) and cleartext HTTP/2, reached with an upgrade by the async transport and with prior knowledge by the REST gateway.
+    H2("h2"),
+    H2C("h2c");
 
     private String protocol;
     HttpProtocol(String protocol) {
@@ -221,4 +224,35 @@ public enum HttpProtocol {
     public void setProtocol(String protocol) {
         this.protocol = protocol;
     }
+
+    /**
+     * @return the protocol of a service schema, http when the schema is not set and https when it is unknown.
+     */
+    public static HttpProtocol fromSchema(String schema) {
+        if(schema == null || schema.equals(HTTP.protocol)) {
+            return HTTP;
+        }
+        if(schema.equals(H2.protocol)) {
+            return H2;
+        }
+        if(schema.equals(H2C.protocol)) {
+            return H2C;
+        }
+        return HTTPS;
+    }
+
+    public boolean isSecure() {
+        return this == HTTPS || this == H2;
+    }
+
+    public boolean isHttp2() {
+        return this == H2 || this == H2C;
+    }
+
+    /**
+     * @return the scheme of the URLs, http or https.
+     */
+    public String getScheme() {
+        return isSecure() ? HTTPS.protocol : HTTP.protocol;
+    }
 }
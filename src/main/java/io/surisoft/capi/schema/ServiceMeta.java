@@ -61,6 +61,24 @@ public class ServiceMeta {
         @JsonProperty("route-group-first")
         private boolean routeGroupFirst;
 
+        @JsonProperty("transport")
+        private String transport;
+
+        @JsonProperty("pool-max-total")
+        private Integer poolMaxTotal;
+
+        @JsonProperty("pool-max-per-route")
+        private Integer poolMaxPerRoute;
+
+        @JsonProperty("pool-time-to-live")
+        private Long poolTimeToLive;
+
+        @JsonProperty("pool-idle-eviction")
+        private Long poolIdleEviction;
+
+        @JsonProperty("pool-validate-after-inactivity")
+        private Long poolValidateAfterInactivity;
+
     public boolean isSecured() {
         return secured;
     }
@@ -218,4 +236,52 @@ public class ServiceMeta {
     public void setRouteGroupFirst(boolean routeGroupFirst) {
         this.routeGroupFirst = routeGroupFirst;
     }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public Integer getPoolMaxTotal() {
+        return poolMaxTotal;
+    }
+
+    public void setPoolMaxTotal(Integer poolMaxTotal) {
+        this.poolMaxTotal = poolMaxTotal;
+    }
+
+    public Integer getPoolMaxPerRoute() {
+        return poolMaxPerRoute;
+    }
+
+    public void setPoolMaxPerRoute(Integer poolMaxPerRoute) {
+        this.poolMaxPerRoute = poolMaxPerRoute;
+    }
+
+    public Long getPoolTimeToLive() {
+        return poolTimeToLive;
+    }
+
+    public void setPoolTimeToLive(Long poolTimeToLive) {
+        this.poolTimeToLive = poolTimeToLive;
+    }
+
+    public Long getPoolIdleEviction() {
+        return poolIdleEviction;
+    }
+
+    public void setPoolIdleEviction(Long poolIdleEviction) {
+        this.poolIdleEviction = poolIdleEviction;
+    }
+
+    public Long getPoolValidateAfterInactivity() {
+        return poolValidateAfterInactivity;
+    }
+
+    public void setPoolValidateAfterInactivity(Long poolValidateAfterInactivity) {
+        this.poolValidateAfterInactivity = poolValidateAfterInactivity;
+    }
 }
\ No newline at end of file
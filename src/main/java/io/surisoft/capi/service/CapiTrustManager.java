@@ -1,8 +1,12 @@
 package io.surisoft.capi.service;
 
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.http.HttpComponent;
+import org.apache.camel.support.jsse.SSLContextParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
@@ -17,7 +21,7 @@ public final class CapiTrustManager implements X509TrustManager {
     private static final Logger log = LoggerFactory.getLogger(CapiTrustManager.class);
     private final String capiTrustStorePassword;
     private final String capiTrustStorePath;
-    private X509TrustManager trustManager;
+    private volatile X509TrustManager trustManager;
 
     public CapiTrustManager(String capiTrustStorePath, String capiTrustStorePassword) throws Exception {
         log.info("Starting CAPI Trust Store Manager");
@@ -62,4 +66,26 @@ public final class CapiTrustManager implements X509TrustManager {
     public X509TrustManager getTrustManager() {
         return trustManager;
     }
+
+    /**
+     * The SSL context delegates to this trust manager, so the certificates reloaded by the certificate management are trusted without a restart.
+     */
+    public SSLContext createSSLContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[]{this}, null);
+        return sslContext;
+    }
+
+    /**
+     * @return the trust manager of the https component, the one reloaded by the certificate management, or null when the trust store is not loaded.
+     */
+    public static CapiTrustManager fromHttpsComponent(CamelContext camelContext) {
+        HttpComponent httpComponent = (HttpComponent) camelContext.getComponent("https");
+        SSLContextParameters sslContextParameters = httpComponent == null ? null : httpComponent.getSslContextParameters();
+        if(sslContextParameters == null || sslContextParameters.getTrustManagers() == null
+                || !(sslContextParameters.getTrustManagers().getTrustManager() instanceof CapiTrustManager capiTrustManager)) {
+            return null;
+        }
+        return capiTrustManager;
+    }
 }
\ No newline at end of file
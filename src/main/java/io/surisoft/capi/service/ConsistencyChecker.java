@@ -1,9 +1,10 @@
 package io.surisoft.capi.service;
 
+import io.surisoft.capi.cache.ServiceRegistry;
+import io.surisoft.capi.processor.DynamicEndpointManager;
 import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.utils.RouteUtils;
 import org.apache.camel.CamelContext;
-import org.cache2k.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,12 +16,13 @@ public class ConsistencyChecker {
     private static final Logger log = LoggerFactory.getLogger(ConsistencyChecker.class);
     private final RouteUtils routeUtils;
     private final CamelContext camelContext;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
+    private DynamicEndpointManager dynamicEndpointManager;
 
-    public ConsistencyChecker(CamelContext camelContext, RouteUtils routeUtils, Cache<String, Service> serviceCache) {
+    public ConsistencyChecker(CamelContext camelContext, RouteUtils routeUtils, ServiceRegistry serviceRegistry) {
         this.routeUtils = routeUtils;
         this.camelContext = camelContext;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
     }
 
     public void process() {
@@ -32,15 +34,16 @@ public class ConsistencyChecker {
 
     private void checkForOpenApiInconsistency() {
         List<String> servicesToRemove = new ArrayList<>();
-        serviceCache.entries().forEach(service -> {
-            if(service.getValue().getServiceMeta().getOpenApiEndpoint() != null && service.getValue().getOpenAPI() == null) {
-                log.warn("Inconsistency detected for service {}. Service routes will be destroyed.", service.getKey());
-                List<String> serviceRouteIdList = routeUtils.getAllRouteIdForAGivenService(service.getValue());
+        serviceRegistry.values().forEach(service -> {
+            //Lazy services are registered without their OpenAPI, it is fetched when the routes are built on the first request.
+            if(service.getServiceMeta().getOpenApiEndpoint() != null && service.getOpenAPI() == null && hasDeployedRoutes(service)) {
+                log.warn("Inconsistency detected for service {}. Service routes will be destroyed.", service.getId());
+                List<String> serviceRouteIdList = routeUtils.getAllRouteIdForAGivenService(service);
                 for (String routeId : serviceRouteIdList) {
                     try {
                         camelContext.getRouteController().stopRoute(routeId);
                         camelContext.removeRoute(routeId);
-                        servicesToRemove.add(service.getKey());
+                        servicesToRemove.add(service.getId());
                     } catch (Exception e) {
                         log.error(e.getMessage(), e);
                     }
@@ -48,6 +51,24 @@ public class ConsistencyChecker {
 
             }
         });
-        servicesToRemove.forEach(serviceCache::remove);
+        servicesToRemove.forEach(serviceId -> {
+            serviceRegistry.remove(serviceId);
+            if(dynamicEndpointManager != null) {
+                dynamicEndpointManager.remove(serviceId);
+            }
+        });
+    }
+
+    private boolean hasDeployedRoutes(Service service) {
+        for(String routeId : routeUtils.getAllRouteIdForAGivenService(service)) {
+            if(camelContext.getRoute(routeId) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void setDynamicEndpointManager(DynamicEndpointManager dynamicEndpointManager) {
+        this.dynamicEndpointManager = dynamicEndpointManager;
     }
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+package io.surisoft.capi.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.surisoft.capi.schema.ConsulHealthObject;
+import io.surisoft.capi.schema.ConsulObject;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Immutable view of the Consul services listing, fetched once per host and per discovery cycle.
+ * The same snapshot drives both the removal and the add/update of services.
+ */
+public final class ConsulCatalogSnapshot {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectReader CONSUL_OBJECT_LIST_READER = OBJECT_MAPPER.readerFor(new TypeReference<List<ConsulObject>>() {});
+    private static final ObjectReader CONSUL_HEALTH_OBJECT_LIST_READER = OBJECT_MAPPER.readerFor(new TypeReference<List<ConsulHealthObject>>() {});
+    private static final String GET_ALL_SERVICES = "/v1/catalog/services";
+    private static final String GET_SERVICE_BY_NAME = "/v1/catalog/service/";
+    private static final String GET_HEALTHY_SERVICE_BY_NAME = "/v1/health/service/";
+    //We want to ignore the consul service
+    private static final String CONSUL_SERVICE_NAME = "consul";
+
+    private final Map<String, Set<String>> servicesByHost;
+    private final Set<String> serviceNames;
+    private final boolean complete;
+
+    public ConsulCatalogSnapshot(Map<String, Set<String>> servicesByHost, boolean complete) {
+        Map<String, Set<String>> servicesByHostCopy = new LinkedHashMap<>();
+        Set<String> allServiceNames = new HashSet<>();
+        servicesByHost.forEach((consulHost, services) -> {
+            servicesByHostCopy.put(consulHost, Set.copyOf(services));
+            allServiceNames.addAll(services);
+        });
+        this.servicesByHost = Collections.unmodifiableMap(servicesByHostCopy);
+        this.serviceNames = Set.copyOf(allServiceNames);
+        this.complete = complete;
+    }
+
+    public Map<String, Set<String>> getServicesByHost() {
+        return servicesByHost;
+    }
+
+    /**
+     * @return the names of all the services, merged from all the Consul hosts.
+     */
+    public Set<String> getServiceNames() {
+        return serviceNames;
+    }
+
+    /**
+     * @return false if at least one Consul host did not answer, in that case removals should not be trusted.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Streams the /v1/catalog/services response, only the service names are kept, the tags are skipped.
+     */
+    public static Set<String> readServiceNames(byte[] responseBody) throws IOException {
+        Set<String> services = new HashSet<>();
+        try (JsonParser jsonParser = OBJECT_MAPPER.getFactory().createParser(responseBody)) {
+            if(jsonParser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected Consul services response");
+            }
+            while(jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+                String serviceName = jsonParser.currentName();
+                jsonParser.nextToken();
+                jsonParser.skipChildren();
+                if(!CONSUL_SERVICE_NAME.equals(serviceName)) {
+                    services.add(serviceName);
+                }
+            }
+        }
+        return services;
+    }
+
+    /**
+     * Reads the /v1/catalog/service/{name} response with a shared, pre-configured reader.
+     */
+    public static List<ConsulObject> readServiceInstances(byte[] responseBody) throws IOException {
+        return CONSUL_OBJECT_LIST_READER.readValue(responseBody);
+    }
+
+    /**
+     * Reads the /v1/health/service/{name} response, converted to the catalog representation.
+     */
+    public static List<ConsulObject> readHealthyServiceInstances(byte[] responseBody) throws IOException {
+        List<ConsulHealthObject> consulHealthObjectList = CONSUL_HEALTH_OBJECT_LIST_READER.readValue(responseBody);
+        List<ConsulObject> consulObjectList = new ArrayList<>(consulHealthObjectList.size());
+        for(ConsulHealthObject consulHealthObject : consulHealthObjectList) {
+            consulObjectList.add(consulHealthObject.toConsulObject());
+        }
+        return consulObjectList;
+    }
+
+    /**
+     * @param passingOnly when true, the health endpoint is used and only the instances with all checks passing are returned.
+     * @param consulQueryFilter the Consul side filter, null to fetch all the instances.
+     */
+    public static String serviceInstancesUri(String consulHost, String serviceName, boolean passingOnly, ConsulQueryFilter consulQueryFilter) {
+        if(passingOnly) {
+            String uri = consulHost + GET_HEALTHY_SERVICE_BY_NAME + serviceName + "?passing=true";
+            return consulQueryFilter == null ? uri : uri + "&" + consulQueryFilter.getHealthQuery();
+        }
+        String uri = consulHost + GET_SERVICE_BY_NAME + serviceName;
+        return consulQueryFilter == null ? uri : uri + "?" + consulQueryFilter.getCatalogQuery();
+    }
+
+    public static String servicesUri(String consulHost, ConsulQueryFilter consulQueryFilter) {
+        String uri = consulHost + GET_ALL_SERVICES;
+        return consulQueryFilter == null ? uri : uri + "?" + consulQueryFilter.getCatalogQuery();
+    }
+
+    public static List<ConsulObject> readServiceInstances(byte[] responseBody, boolean passingOnly) throws IOException {
+        return passingOnly ? readHealthyServiceInstances(responseBody) : readServiceInstances(responseBody);
+    }
+}
@@ -0,0 +1,269 @@
+package io.surisoft.capi.service;
+
+import io.surisoft.capi.schema.ConsulObject;
+import io.surisoft.capi.utils.Constants;
+import io.surisoft.capi.utils.ErrorMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the Consul catalog using blocking queries (long polling).
+ * There is one watch per Consul host for the services listing, and one watch per host and service
+ * for the service instances. All the requests are asynchronous, so no thread is held while waiting for Consul.
+ * Every time the X-Consul-Index of a service moves, the service name is published to the change queue.
+ */
+public class ConsulCatalogWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsulCatalogWatcher.class);
+    private static final long RETRY_DELAY_SECONDS = 5;
+    private final HttpClient client;
+    private final List<String> consulHostList;
+    private final String consulToken;
+    private final int waitSeconds;
+    private final boolean passingOnly;
+    private final ConsulQueryFilter consulQueryFilter;
+    private final Map<String, Long> hostIndexMap = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> hostServicesMap = new ConcurrentHashMap<>();
+    private final Map<String, ServiceWatch> serviceWatchMap = new ConcurrentHashMap<>();
+    private final BlockingQueue<String> changeQueue = new LinkedBlockingQueue<>();
+    private volatile boolean running = false;
+
+    public ConsulCatalogWatcher(HttpClient client, List<String> consulHostList, String consulToken, int waitSeconds, boolean passingOnly, ConsulQueryFilter consulQueryFilter) {
+        this.client = client;
+        this.consulHostList = consulHostList;
+        this.consulToken = consulToken;
+        this.waitSeconds = waitSeconds;
+        this.passingOnly = passingOnly;
+        this.consulQueryFilter = consulQueryFilter;
+    }
+
+    public synchronized void start() {
+        if(running) {
+            return;
+        }
+        running = true;
+        for(String consulHost : consulHostList) {
+            log.debug("Starting Consul catalog watch for host {}", consulHost);
+            watchHost(consulHost);
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        serviceWatchMap.values().forEach(serviceWatch -> serviceWatch.cancelled = true);
+        serviceWatchMap.clear();
+    }
+
+    /**
+     * Waits until at least one service changes, or the timeout expires.
+     * @return the names of all the services that changed since the last call, empty if nothing changed.
+     */
+    public Set<String> awaitChanges(Duration timeout) throws InterruptedException {
+        Set<String> changedServices = new HashSet<>();
+        String firstChange = changeQueue.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        if(firstChange != null) {
+            changedServices.add(firstChange);
+            changeQueue.drainTo(changedServices);
+        }
+        return changedServices;
+    }
+
+    /**
+     * @return the instances of the given service, merged from all the Consul hosts.
+     */
+    public List<ConsulObject> getServiceInstances(String serviceName) {
+        List<ConsulObject> serviceInstances = new ArrayList<>();
+        for(String consulHost : consulHostList) {
+            ServiceWatch serviceWatch = serviceWatchMap.get(watchKey(consulHost, serviceName));
+            if(serviceWatch != null && serviceWatch.instances != null) {
+                serviceInstances.addAll(serviceWatch.instances);
+            }
+        }
+        return serviceInstances;
+    }
+
+    /**
+     * @return the names of all the services known by at least one Consul host.
+     */
+    public Set<String> getServiceNames() {
+        Set<String> serviceNames = new HashSet<>();
+        hostServicesMap.values().forEach(serviceNames::addAll);
+        return serviceNames;
+    }
+
+    /**
+     * @return true when every Consul host answered the services listing at least once.
+     */
+    public boolean isSynchronized() {
+        return hostServicesMap.keySet().containsAll(consulHostList);
+    }
+
+    private void watchHost(String consulHost) {
+        if(!running) {
+            return;
+        }
+        long index = hostIndexMap.getOrDefault(consulHost, 0L);
+        client.sendAsync(buildWatchHttpRequest(ConsulCatalogSnapshot.servicesUri(consulHost, consulQueryFilter), index), HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, throwable) -> {
+                    if(!running) {
+                        return;
+                    }
+                    if(throwable != null || response.statusCode() != 200) {
+                        log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
+                        retry(() -> watchHost(consulHost));
+                        return;
+                    }
+                    try {
+                        long newIndex = getConsulIndex(response);
+                        if(newIndex < 0) {
+                            log.debug("Consul host {} answered without a valid {}, polling the services listing", consulHost, Constants.CONSUL_INDEX_HEADER);
+                            processHostServices(consulHost, response.body());
+                            hostIndexMap.remove(consulHost);
+                            retry(() -> watchHost(consulHost));
+                            return;
+                        }
+                        if(newIndex != index || !hostServicesMap.containsKey(consulHost)) {
+                            processHostServices(consulHost, response.body());
+                        }
+                        hostIndexMap.put(consulHost, nextIndex(index, newIndex));
+                        watchHost(consulHost);
+                    } catch(Exception e) {
+                        log.error(e.getMessage(), e);
+                        retry(() -> watchHost(consulHost));
+                    }
+                });
+    }
+
+    private void processHostServices(String consulHost, byte[] responseBody) throws IOException {
+        Set<String> incomingServices = ConsulCatalogSnapshot.readServiceNames(responseBody);
+        Set<String> existingServices = hostServicesMap.getOrDefault(consulHost, Collections.emptySet());
+
+        for(String serviceName : existingServices) {
+            if(!incomingServices.contains(serviceName)) {
+                log.trace("Service {} was removed from Consul host {}", serviceName, consulHost);
+                ServiceWatch serviceWatch = serviceWatchMap.remove(watchKey(consulHost, serviceName));
+                if(serviceWatch != null) {
+                    serviceWatch.cancelled = true;
+                }
+                changeQueue.add(serviceName);
+            }
+        }
+        hostServicesMap.put(consulHost, incomingServices);
+
+        for(String serviceName : incomingServices) {
+            if(!existingServices.contains(serviceName)) {
+                ServiceWatch serviceWatch = new ServiceWatch(consulHost, serviceName);
+                serviceWatchMap.put(watchKey(consulHost, serviceName), serviceWatch);
+                watchService(serviceWatch);
+            }
+        }
+    }
+
+    private void watchService(ServiceWatch serviceWatch) {
+        if(!running || serviceWatch.cancelled) {
+            return;
+        }
+        long index = serviceWatch.index;
+        client.sendAsync(buildWatchHttpRequest(ConsulCatalogSnapshot.serviceInstancesUri(serviceWatch.consulHost, serviceWatch.serviceName, passingOnly, consulQueryFilter), index), HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, throwable) -> {
+                    if(!running || serviceWatch.cancelled) {
+                        return;
+                    }
+                    if(throwable != null || response.statusCode() != 200) {
+                        log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
+                        retry(() -> watchService(serviceWatch));
+                        return;
+                    }
+                    try {
+                        long newIndex = getConsulIndex(response);
+                        if(newIndex < 0) {
+                            log.debug("Consul host {} answered service {} without a valid {}, polling it", serviceWatch.consulHost, serviceWatch.serviceName, Constants.CONSUL_INDEX_HEADER);
+                            serviceWatch.instances = ConsulCatalogSnapshot.readServiceInstances(response.body(), passingOnly);
+                            serviceWatch.index = 0;
+                            changeQueue.add(serviceWatch.serviceName);
+                            retry(() -> watchService(serviceWatch));
+                            return;
+                        }
+                        if(newIndex != index || serviceWatch.instances == null) {
+                            log.trace("Service {} index moved from {} to {} at Consul host {}", serviceWatch.serviceName, index, newIndex, serviceWatch.consulHost);
+                            serviceWatch.instances = ConsulCatalogSnapshot.readServiceInstances(response.body(), passingOnly);
+                            changeQueue.add(serviceWatch.serviceName);
+                        }
+                        serviceWatch.index = nextIndex(index, newIndex);
+                        watchService(serviceWatch);
+                    } catch(Exception e) {
+                        log.error(e.getMessage(), e);
+                        retry(() -> watchService(serviceWatch));
+                    }
+                });
+    }
+
+    private void retry(Runnable runnable) {
+        CompletableFuture.delayedExecutor(RETRY_DELAY_SECONDS, TimeUnit.SECONDS).execute(runnable);
+    }
+
+    /**
+     * @return the X-Consul-Index of the response, -1 if it is missing or not a number.
+     * Without an index the query can not block, so the watch falls back to polling every RETRY_DELAY_SECONDS instead of spinning.
+     */
+    private long getConsulIndex(HttpResponse<byte[]> response) {
+        try {
+            return response.headers().firstValue(Constants.CONSUL_INDEX_HEADER).map(Long::parseLong).orElse(-1L);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * As recommended by Consul, if the index goes backwards we reset it,
+     * and we never block with an index lower than 1.
+     */
+    private long nextIndex(long currentIndex, long newIndex) {
+        if(newIndex < currentIndex) {
+            return 0;
+        }
+        return Math.max(newIndex, 1);
+    }
+
+    private HttpRequest buildWatchHttpRequest(String uri, long index) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder();
+        if(consulToken != null) {
+            builder.header(Constants.AUTHORIZATION_HEADER, Constants.BEARER + consulToken.replaceAll("(\r\n|\n)", ""));
+        }
+        return builder
+                .uri(URI.create(uri + (uri.contains("?") ? "&" : "?") + "index=" + index + "&wait=" + waitSeconds + "s"))
+                //Consul adds up to wait/16 of jitter to the wait time.
+                .timeout(Duration.ofSeconds(waitSeconds + (waitSeconds / 16) + 30))
+                .build();
+    }
+
+    private String watchKey(String consulHost, String serviceName) {
+        return consulHost + "|" + serviceName;
+    }
+
+    private static class ServiceWatch {
+        private final String consulHost;
+        private final String serviceName;
+        private volatile long index = 0;
+        private volatile List<ConsulObject> instances;
+        private volatile boolean cancelled = false;
+
+        private ServiceWatch(String consulHost, String serviceName) {
+            this.consulHost = consulHost;
+            this.serviceName = serviceName;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package io.surisoft.capi.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.utils.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Elects one CAPI instance using a Consul session lock on a KV key.
+ * The session is renewed on every call, the leader calls it on its own timer, see ConsulNodeDiscovery#renewDiscoveryLeadership.
+ * If the instance dies the session expires after the TTL and the lock is released.
+ * The Consul hosts are tried in turn, a session belongs to the node of the host that created it, so a new session is created when the host changes.
+ */
+public class ConsulLeaderElection {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsulLeaderElection.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient client;
+    private final List<String> consulHostList;
+    private final String consulToken;
+    private final String lockKey;
+    private final CapiInstance capiInstance;
+    private final int sessionTtlSeconds;
+    private String sessionId;
+    private boolean leader = false;
+    private int consulHostIndex = 0;
+
+    public ConsulLeaderElection(HttpClient client, List<String> consulHostList, String consulToken, String lockKey, CapiInstance capiInstance, int sessionTtlSeconds) {
+        this.client = client;
+        this.consulHostList = consulHostList;
+        this.consulToken = consulToken;
+        this.lockKey = lockKey;
+        this.capiInstance = capiInstance;
+        this.sessionTtlSeconds = sessionTtlSeconds;
+    }
+
+    /**
+     * Renews the session and tries to acquire (or keep) the lock.
+     * If the current Consul host can not be reached, the next hosts are tried.
+     * @return true if this instance holds the lock.
+     * @throws IOException if none of the Consul hosts answered.
+     */
+    public synchronized boolean tryAcquire() throws IOException, InterruptedException {
+        IOException lastException = null;
+        for(int attempt = 0; attempt < consulHostList.size(); attempt++) {
+            try {
+                return tryAcquire(consulHostList.get(consulHostIndex));
+            } catch (IOException e) {
+                lastException = e;
+                String failedHost = consulHostList.get(consulHostIndex);
+                consulHostIndex = (consulHostIndex + 1) % consulHostList.size();
+                log.warn("Consul host {} failed during the discovery leader election, trying {}", failedHost, consulHostList.get(consulHostIndex));
+                //The session of the failed host is tied to its node, it will be invalidated.
+                sessionId = null;
+                setLeader(false);
+            }
+        }
+        throw lastException;
+    }
+
+    private boolean tryAcquire(String consulHost) throws IOException, InterruptedException {
+        if(sessionId == null || !renewSession(consulHost)) {
+            sessionId = createSession(consulHost);
+        }
+        HttpResponse<String> response = client.send(buildRequest(consulHost, Constants.CONSUL_KV_STORE_API + lockKey + "?acquire=" + sessionId, capiInstance.uuid()), HttpResponse.BodyHandlers.ofString());
+        boolean acquired = response.statusCode() == 200 && Boolean.parseBoolean(response.body().trim());
+        setLeader(acquired);
+        return acquired;
+    }
+
+    private void setLeader(boolean acquired) {
+        if(acquired != leader) {
+            log.info(acquired ? "This instance is now the discovery leader" : "This instance is no longer the discovery leader");
+            leader = acquired;
+        }
+    }
+
+    /**
+     * @return the maximum time between two calls to tryAcquire, before the session expires.
+     */
+    public int getRenewIntervalSeconds() {
+        return Math.max(1, sessionTtlSeconds / 2);
+    }
+
+    public synchronized boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Destroys the session, so another instance can take the lock without waiting for the TTL.
+     */
+    public synchronized void release() {
+        if(sessionId == null) {
+            return;
+        }
+        try {
+            client.send(buildRequest(consulHostList.get(consulHostIndex), Constants.CONSUL_SESSION_DESTROY_API + sessionId, ""), HttpResponse.BodyHandlers.discarding());
+        } catch (IOException e) {
+            log.warn("Unable to destroy Consul session {}", sessionId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sessionId = null;
+        leader = false;
+    }
+
+    private String createSession(String consulHost) throws IOException, InterruptedException {
+        String sessionBody = "{\"Name\": \"capi-discovery-" + capiInstance.uuid() + "\", \"TTL\": \"" + sessionTtlSeconds + "s\", \"Behavior\": \"release\", \"LockDelay\": \"0s\"}";
+        HttpResponse<String> response = client.send(buildRequest(consulHost, Constants.CONSUL_SESSION_CREATE_API, sessionBody), HttpResponse.BodyHandlers.ofString());
+        if(response.statusCode() != 200) {
+            throw new IOException("Unable to create Consul session, response code: " + response.statusCode());
+        }
+        JsonNode session = objectMapper.readTree(response.body());
+        log.debug("Created Consul session {}", session.get("ID").asText());
+        return session.get("ID").asText();
+    }
+
+    /**
+     * @return false if the session expired, a new one must be created.
+     */
+    private boolean renewSession(String consulHost) throws IOException, InterruptedException {
+        HttpResponse<Void> response = client.send(buildRequest(consulHost, Constants.CONSUL_SESSION_RENEW_API + sessionId, ""), HttpResponse.BodyHandlers.discarding());
+        return response.statusCode() == 200;
+    }
+
+    private HttpRequest buildRequest(String consulHost, String path, String body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder();
+        if(consulToken != null) {
+            builder.header(Constants.AUTHORIZATION_HEADER, Constants.BEARER + consulToken.replaceAll("(\r\n|\n)", ""));
+        }
+        return builder
+                .uri(URI.create(consulHost + path))
+                .timeout(Duration.ofSeconds(10))
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+}
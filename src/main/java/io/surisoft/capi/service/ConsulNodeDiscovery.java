@@ -1,16 +1,18 @@
 package io.surisoft.capi.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import io.surisoft.capi.builder.DirectRouteProcessor;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.cache.StickySessionCacheManager;
+import io.surisoft.capi.metrics.DiscoveryMetrics;
+import io.surisoft.capi.processor.AsyncHttpTransport;
+import io.surisoft.capi.processor.DynamicEndpointManager;
 import io.surisoft.capi.processor.MetricsProcessor;
 import io.surisoft.capi.schema.*;
 import io.surisoft.capi.utils.*;
 import org.apache.camel.CamelContext;
-import org.apache.camel.Route;
-import org.apache.camel.util.json.JsonObject;
-import org.cache2k.Cache;
+import org.apache.camel.builder.RouteBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,23 +23,28 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
-public class ConsulNodeDiscovery {
+public class ConsulNodeDiscovery implements DiscoveryProvider {
 
     private static final Logger log = LoggerFactory.getLogger(ConsulNodeDiscovery.class);
     private static boolean connectedToConsul = false;
+    private static boolean restoredFromSnapshot = false;
     private List<String> consulHostList;
     private final ServiceUtils serviceUtils;
     private final RouteUtils routeUtils;
     private final MetricsProcessor metricsProcessor;
     private StickySessionCacheManager stickySessionCacheManager;
     private final HttpClient client;
-    private static final String GET_ALL_SERVICES = "/v1/catalog/services";
-    private static final String GET_SERVICE_BY_NAME = "/v1/catalog/service/";
     private String capiContext;
     private String reverseProxyHost;
     private final CamelContext camelContext;
-    private final Cache<String, Service> serviceCache;
+    private final ServiceRegistry serviceRegistry;
     private final Map<String, WebsocketClient> websocketClientMap;
     private final Map<String, SSEClient> sseClientMap;
     private WebsocketUtils websocketUtils;
@@ -48,21 +55,49 @@ public class ConsulNodeDiscovery {
     private boolean strictNamespace;
     private String consulToken;
     private String capiRunningMode;
+    private ConsulCatalogWatcher consulCatalogWatcher;
+    private int consulWatchWait;
+    private int consulMaxConcurrentRequests = 32;
+    private boolean consulPassingOnly = false;
+    private ConsulQueryFilter consulQueryFilter;
+    private DynamicEndpointManager dynamicEndpointManager;
+    private AsyncHttpTransport asyncHttpTransport;
+    private final RouteDeployer routeDeployer;
+    private boolean lazyRoutesEnabled = false;
+    private long lazyRoutesTtlMillis;
+    private final Map<String, Long> routeLastAccessMap = new ConcurrentHashMap<>();
+    //Not synchronized blocks, a request thread waiting for the materialization must not pin its carrier when running on a virtual thread.
+    private final Map<String, ReentrantLock> materializationLockMap = new ConcurrentHashMap<>();
+    private final DiscoveryDiffEngine discoveryDiffEngine;
+    private DiscoveryMetrics discoveryMetrics = new DiscoveryMetrics(new CompositeMeterRegistry(), 0);
+    private DiscoverySnapshotStore discoverySnapshotStore;
+    private boolean snapshotRestoreAttempted = false;
+    private long snapshotMinIntervalMillis;
+    private long lastSnapshotWrite = 0;
+    private boolean snapshotPending = false;
+    private boolean watchPendingReconciliation = false;
+    private ConsulLeaderElection discoveryLeaderElection;
+    private boolean discoveryLeader = false;
+    private DiscoveryPublisher discoveryPublisher;
+    private DiscoveryProvider discoveryProvider = this;
+    private FlapDamper flapDamper;
 
     public ConsulNodeDiscovery(CamelContext camelContext,
                                ServiceUtils serviceUtils,
                                RouteUtils routeUtils,
                                MetricsProcessor metricsProcessor,
-                               Cache<String, Service> serviceCache,
+                               ServiceRegistry serviceRegistry,
                                Map<String, WebsocketClient> websocketClientMap,
                                Map<String, SSEClient> sseClientMap) {
         this.serviceUtils = serviceUtils;
         this.routeUtils = routeUtils;
         this.camelContext = camelContext;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
         this.metricsProcessor = metricsProcessor;
         this.websocketClientMap = websocketClientMap;
         this.sseClientMap = sseClientMap;
+        this.discoveryDiffEngine = new DiscoveryDiffEngine(serviceUtils);
+        this.routeDeployer = new RouteDeployer(camelContext);
 
         client = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
@@ -71,191 +106,592 @@ public class ConsulNodeDiscovery {
 
     public void processInfo() {
         if(camelContext.isStarted()) {
-            lookForRemovedServices();
-            Map<String, List<ConsulObject>> serviceListObjects = getAllServices();
-            processServices(serviceListObjects);
+            if(discoverySnapshotStore != null && !snapshotRestoreAttempted) {
+                restoreSnapshot();
+            }
+            if(discoveryLeaderElection != null && !isDiscoveryLeader()) {
+                //The services are applied from the leader's topic, see applyPublishedService.
+                return;
+            }
+            //In watch mode the cycle starts when the changes arrive, see fetchWatchedChanges.
+            if(discoveryProvider != this || consulCatalogWatcher == null) {
+                discoveryMetrics.startCycle();
+            }
+            try {
+                DiscoveryChanges discoveryChanges = discoveryProvider.fetchChanges();
+                if(discoveryChanges != null) {
+                    processServices(discoveryChanges.services(), discoveryChanges.removedServiceNames());
+                }
+                //A change deferred by the minimum interval is written by a later cycle, even if nothing changed since.
+                writeSnapshotIfDue();
+            } catch (InterruptedException e) {
+                //Shutting down, not a Consul failure.
+                log.debug("Consul discovery interrupted while waiting for changes");
+                Thread.currentThread().interrupt();
+            } finally {
+                discoveryMetrics.endCycle();
+            }
         }
     }
 
-    private void lookForRemovedServices() {
-        ObjectMapper objectMapper = new ObjectMapper();
-        HttpResponse<String> response;
-        Set<String> services = new HashSet<>();
-        try {
-            for(String consulHost : consulHostList) {
-                response = client.send(buildServicesHttpRequest(consulHost), HttpResponse.BodyHandlers.ofString());
-                JsonObject responseObject = objectMapper.readValue(response.body(), JsonObject.class);
-                //We want to ignore the consul array
-                responseObject.remove("consul");
-                responseObject.forEach((key, value) -> {
-                    services.add(key);
-                });
+    /**
+     * Consul provider, queries the full catalog or, in watch mode, returns the services reported by the blocking queries.
+     */
+    @Override
+    public DiscoveryChanges fetchChanges() throws InterruptedException {
+        if(consulCatalogWatcher != null) {
+            return fetchWatchedChanges();
+        }
+        ConsulCatalogSnapshot catalogSnapshot = getCatalogSnapshot();
+        return new DiscoveryChanges(getAllServices(catalogSnapshot), lookForRemovedServices(catalogSnapshot));
+    }
+
+    private DiscoveryChanges fetchWatchedChanges() throws InterruptedException {
+        consulCatalogWatcher.start();
+        Set<String> changedServices = consulCatalogWatcher.awaitChanges(Duration.ofSeconds(getWatchAwaitSeconds()));
+        //The wait for the blocking queries is not part of the cycle.
+        discoveryMetrics.startCycle();
+        Set<String> serviceNames = consulCatalogWatcher.getServiceNames();
+        Set<String> removedServiceNames = new HashSet<>();
+        if(watchPendingReconciliation && consulCatalogWatcher.isSynchronized()) {
+            //The watcher only reports the services it sees, the restored (or received) services that are gone must be looked up once.
+            watchPendingReconciliation = false;
+            removedServiceNames.addAll(discoveryDiffEngine.getKnownServiceNames());
+            removedServiceNames.removeAll(serviceNames);
+        }
+        if(changedServices.isEmpty() && removedServiceNames.isEmpty()) {
+            return consulCatalogWatcher.isSynchronized() ? new DiscoveryChanges(Map.of(), Set.of()) : null;
+        }
+        log.trace("Consul watch detected changes for services: {}", changedServices);
+        Map<String, List<ConsulObject>> serviceListObjects = new HashMap<>();
+        for(String serviceName : changedServices) {
+            if(serviceNames.contains(serviceName)) {
+                //An empty list means that all the instances (or groups) of the service are gone.
+                serviceListObjects.put(serviceName, filterByNamespace(consulCatalogWatcher.getServiceInstances(serviceName)));
+            } else {
+                removedServiceNames.add(serviceName);
             }
+        }
+        return new DiscoveryChanges(serviceListObjects, removedServiceNames);
+    }
+
+    private ConsulCatalogSnapshot getCatalogSnapshot() {
+        Map<String, CompletableFuture<HttpResponse<byte[]>>> pendingRequests = new LinkedHashMap<>();
+        for(String consulHost : consulHostList) {
+            log.trace("Querying Consul {} for new services", consulHost);
+            pendingRequests.put(consulHost, recordFetch(consulHost, client.sendAsync(buildServicesHttpRequest(consulHost), HttpResponse.BodyHandlers.ofByteArray())));
+        }
+        Map<String, Set<String>> servicesByHost = new LinkedHashMap<>();
+        boolean complete = true;
+        for(Map.Entry<String, CompletableFuture<HttpResponse<byte[]>>> pendingRequest : pendingRequests.entrySet()) {
             try {
-                serviceUtils.removeUnusedService(camelContext, routeUtils, serviceCache, services.stream().toList());
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
+                HttpResponse<byte[]> response = pendingRequest.getValue().get();
+                long parseStart = System.nanoTime();
+                servicesByHost.put(pendingRequest.getKey(), ConsulCatalogSnapshot.readServiceNames(response.body()));
+                discoveryMetrics.recordParse(System.nanoTime() - parseStart);
+            } catch (IOException | ExecutionException e) {
+                log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
+                complete = false;
+            } catch (InterruptedException e) {
+                log.debug("Consul discovery interrupted while waiting for the services of {}", pendingRequest.getKey());
+                Thread.currentThread().interrupt();
+                complete = false;
             }
-        } catch (IOException | InterruptedException e) {
-            log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
         }
+        return new ConsulCatalogSnapshot(servicesByHost, complete);
     }
 
-    private Map<String, List<ConsulObject>> getAllServices() {
-        ObjectMapper objectMapper = new ObjectMapper();
-        Map<String, List<ConsulObject>> serviceListObjects = new HashMap<>();
-        HttpResponse<String> response;
-        try {
-            for(String consulHost : consulHostList) {
-                log.trace("Querying Consul {} for new services", consulHost);
-                response = client.send(buildServicesHttpRequest(consulHost), HttpResponse.BodyHandlers.ofString());
-                JsonObject responseObject = objectMapper.readValue(response.body(), JsonObject.class);
-                //We want to ignore the consul array
-                responseObject.remove("consul");
-                Set<String> services = responseObject.keySet();
-                for(String serviceName : services) {
-                    List<ConsulObject> consulInstanceObjectList = getServiceByName(consulHost, serviceName);
-                    if(consulInstanceObjectList != null) {
-                        if(serviceListObjects.containsKey(serviceName)) {
-                            serviceListObjects.get(serviceName).addAll(consulInstanceObjectList);
-                        } else {
-                            serviceListObjects.put(serviceName, consulInstanceObjectList);
-                        }
+    /**
+     * @return the names of the deployed services that are no longer in the catalog.
+     */
+    private Set<String> lookForRemovedServices(ConsulCatalogSnapshot catalogSnapshot) {
+        if(!catalogSnapshot.isComplete()) {
+            log.debug("Not all Consul hosts answered, skipping the removal of services");
+            return Collections.emptySet();
+        }
+        Set<String> removedServiceNames = discoveryDiffEngine.getKnownServiceNames();
+        removedServiceNames.removeAll(catalogSnapshot.getServiceNames());
+        return removedServiceNames;
+    }
+
+    private Map<String, List<ConsulObject>> getAllServices(ConsulCatalogSnapshot catalogSnapshot) {
+        Map<String, List<ConsulObject>> serviceListObjects = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> pendingRequests = new ArrayList<>();
+        //The hosts are queried in parallel, each one with at most consulMaxConcurrentRequests in flight.
+        for(Map.Entry<String, Set<String>> hostServices : catalogSnapshot.getServicesByHost().entrySet()) {
+            Queue<String> pendingServiceNames = new ConcurrentLinkedQueue<>(hostServices.getValue());
+            for(int i = 0; i < Math.min(consulMaxConcurrentRequests, hostServices.getValue().size()); i++) {
+                pendingRequests.add(getNextServices(hostServices.getKey(), pendingServiceNames, serviceListObjects));
+            }
+        }
+        CompletableFuture.allOf(pendingRequests.toArray(CompletableFuture[]::new)).join();
+        return serviceListObjects;
+    }
+
+    /**
+     * Fetches the services of the queue one after the other, the next request is sent when the previous one completes.
+     */
+    private CompletableFuture<Void> getNextServices(String consulHost, Queue<String> pendingServiceNames, Map<String, List<ConsulObject>> serviceListObjects) {
+        String serviceName = pendingServiceNames.poll();
+        if(serviceName == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        //Async, a request failing right away would otherwise chain the next ones on the same stack.
+        return getServiceByName(consulHost, serviceName).thenComposeAsync(consulInstanceObjectList -> {
+            if(consulInstanceObjectList != null) {
+                serviceListObjects.merge(serviceName, consulInstanceObjectList, this::mergeInstances);
+            }
+            return getNextServices(consulHost, pendingServiceNames, serviceListObjects);
+        });
+    }
+
+    private List<ConsulObject> mergeInstances(List<ConsulObject> existingInstances, List<ConsulObject> incomingInstances) {
+        List<ConsulObject> mergedInstances = new ArrayList<>(existingInstances);
+        mergedInstances.addAll(incomingInstances);
+        return mergedInstances;
+    }
+
+    private CompletableFuture<List<ConsulObject>> getServiceByName(String consulHost, String serviceName) {
+        log.trace("Getting service name: {} at consul host: {}", serviceName, consulHost);
+        return recordFetch(consulHost, client.sendAsync(buildServiceNameHttpRequest(consulHost, serviceName), HttpResponse.BodyHandlers.ofByteArray()))
+                .handle((response, throwable) -> {
+                    if(throwable != null) {
+                        log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
+                        return null;
+                    }
+                    try {
+                        long parseStart = System.nanoTime();
+                        List<ConsulObject> consulObjectList = ConsulCatalogSnapshot.readServiceInstances(response.body(), consulPassingOnly);
+                        discoveryMetrics.recordParse(System.nanoTime() - parseStart);
+                        return filterByNamespace(consulObjectList);
+                    } catch (IOException e) {
+                        log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
+                        return null;
+                    }
+                });
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> recordFetch(String consulHost, CompletableFuture<HttpResponse<byte[]>> pendingRequest) {
+        long fetchStart = System.nanoTime();
+        return pendingRequest.whenComplete((response, throwable) -> {
+            if(response != null) {
+                discoveryMetrics.recordFetch(consulHost, System.nanoTime() - fetchStart, response.body().length);
+            }
+        });
+    }
+
+    private List<ConsulObject> filterByNamespace(List<ConsulObject> consulObjectList) {
+        List<ConsulObject> servicesToDeploy = new ArrayList<>();
+        consulObjectList.forEach(o -> {
+            if(capiNamespace == null) {
+                servicesToDeploy.add(o);
+            } else {
+                if(o.getServiceMeta().getNamespace() == null) {
+                    if(!strictNamespace) {
+                        servicesToDeploy.add(o);
                     }
+                } else if(o.getServiceMeta().getNamespace().equals(capiNamespace)) {
+                    servicesToDeploy.add(o);
+                }
+            }
+        });
+        return servicesToDeploy;
+    }
+
+    private synchronized void processServices(Map<String, List<ConsulObject>> serviceListObjects, Set<String> removedServiceNames) {
+        DiscoveryDelta discoveryDelta = discoveryDiffEngine.diff(serviceListObjects, removedServiceNames, serviceRegistry::containsKey);
+        if(!discoveryDelta.isEmpty()) {
+            log.trace("Discovery delta, added: {}, changed: {}, removed: {}", discoveryDelta.added().size(), discoveryDelta.changed().size(), discoveryDelta.removed().size());
+            discoveryMetrics.recordServices(discoveryDelta.added().size(), discoveryDelta.changed().size(), discoveryDelta.removed().size());
+        }
+
+        //The OpenAPI definitions are fetched before the registry batch, so the other writers do not wait on the remote calls.
+        List<PreparedService> addedServices = new ArrayList<>();
+        for(DiscoveredService discoveredService : discoveryDelta.added()) {
+            Service incomingService = createServiceObject(discoveredService);
+            addedServices.add(new PreparedService(discoveredService, incomingService, false, fetchOpenApi(incomingService)));
+        }
+        List<PreparedService> changedServices = new ArrayList<>();
+        for(DiscoveredService discoveredService : discoveryDelta.changed()) {
+            changedServices.add(prepareChangedService(discoveredService, false));
+        }
+        List<PreparedService> releasedServices = new ArrayList<>();
+        if(flapDamper != null) {
+            for(DiscoveredService discoveredService : flapDamper.releaseReady()) {
+                log.trace("Redeploying the latest changes of damped service {}", discoveredService.serviceId());
+                releasedServices.add(prepareChangedService(discoveredService, true));
+            }
+        }
+
+        //The REST routes of all the added and changed services are deployed in one batch.
+        Map<String, Supplier<RouteBuilder>> pendingRoutes = new LinkedHashMap<>();
+        List<DiscoveredService> appliedServices = new ArrayList<>(discoveryDelta.added());
+        //The registry publishes a single snapshot for the whole delta.
+        serviceRegistry.batch(() -> applyDelta(discoveryDelta.removed(), addedServices, changedServices, releasedServices, pendingRoutes, appliedServices));
+        deployRoutes(pendingRoutes);
+        connectedToConsul = true;
+        if(discoverySnapshotStore != null && (!appliedServices.isEmpty() || !discoveryDelta.removed().isEmpty())) {
+            snapshotPending = true;
+            writeSnapshotIfDue();
+        }
+        //The renewal timer may have lost the lock during a long cycle, the new leader publishes from Consul.
+        if(discoveryPublisher != null && discoveryLeaderElection.isLeader()) {
+            publishDelta(discoveryDelta.removed(), appliedServices);
+        }
+    }
+
+    /**
+     * Only writes the registry and builds the routes, the OpenAPI definitions were fetched by prepareChangedService and fetchOpenApi.
+     */
+    private void applyDelta(List<String> removedServiceIds, List<PreparedService> addedServices, List<PreparedService> changedServices,
+                            List<PreparedService> releasedServices, Map<String, Supplier<RouteBuilder>> pendingRoutes, List<DiscoveredService> appliedServices) {
+        for(String serviceId : removedServiceIds) {
+            Service existingService = serviceRegistry.get(serviceId);
+            if(flapDamper != null) {
+                flapDamper.forget(serviceId);
+            }
+            removeDynamicEndpoints(serviceId);
+            routeLastAccessMap.remove(serviceId);
+            if(existingService != null) {
+                try {
+                    recordRemovedRoutes(existingService);
+                    serviceUtils.removeService(camelContext, routeUtils, serviceRegistry, existingService);
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
                 }
             }
+        }
+
+        for(PreparedService addedService : addedServices) {
+            deployService(addedService.service(), addedService.deployable(), pendingRoutes);
+        }
+
+        for(PreparedService changedService : changedServices) {
+            if(applyChangedService(changedService, pendingRoutes)) {
+                appliedServices.add(changedService.discoveredService());
+            }
+        }
+        for(PreparedService releasedService : releasedServices) {
+            applyChangedService(releasedService, pendingRoutes);
+            appliedServices.add(releasedService.discoveredService());
+        }
+    }
+
+    /**
+     * Decides how a changed service is applied, fetching its OpenAPI definition when it has to be redeployed.
+     * @param released true if the change was deferred by the flap damping and can now be applied.
+     */
+    private PreparedService prepareChangedService(DiscoveredService discoveredService, boolean released) {
+        Service incomingService = createServiceObject(discoveredService);
+        Service existingService = serviceRegistry.get(incomingService.getId());
+        if(existingService != null && canHotSwapEndpoints(existingService, incomingService)) {
+            //Same meta, so the same OpenAPI definition, also used if the swap fails and the service is redeployed.
+            incomingService.setOpenAPI(existingService.getOpenAPI());
+            return new PreparedService(discoveredService, incomingService, false, true);
+        }
+        if(existingService != null && flapDamper != null && !released && !flapDamper.admit(discoveredService)) {
+            log.trace("Redeploy of service {} deferred by the flap damping", discoveredService.serviceId());
+            return new PreparedService(discoveredService, incomingService, true, false);
+        }
+        return new PreparedService(discoveredService, incomingService, false, fetchOpenApi(incomingService));
+    }
+
+    /**
+     * Hot swaps the endpoints of a changed service, or redeploys it.
+     * @return false if the redeploy is deferred by the flap damping.
+     */
+    private boolean applyChangedService(PreparedService preparedService, Map<String, Supplier<RouteBuilder>> pendingRoutes) {
+        if(preparedService.deferred()) {
+            return false;
+        }
+        Service incomingService = preparedService.service();
+        Service existingService = serviceRegistry.get(incomingService.getId());
+        if(existingService != null && hotSwapEndpoints(existingService, incomingService)) {
+            return true;
+        }
+        removeDynamicEndpoints(incomingService.getId());
+        if(existingService != null) {
+            recordRemovedRoutes(existingService);
+            serviceUtils.undeployChangedService(existingService, incomingService, serviceRegistry);
+        }
+        deployService(incomingService, preparedService.deployable(), pendingRoutes);
+        return true;
+    }
+
+    /**
+     * Fan-out mode, renews the session of the leader on its own timer, so a discovery cycle longer than the session TTL does not lose the lock.
+     * The other instances try to acquire the lock once per discovery cycle, in processInfo.
+     */
+    public void renewDiscoveryLeadership() {
+        if(discoveryLeaderElection == null || !discoveryLeaderElection.isLeader()) {
+            return;
+        }
+        try {
+            discoveryLeaderElection.tryAcquire();
         } catch (IOException e) {
             log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
         } catch (InterruptedException e) {
-            log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
             Thread.currentThread().interrupt();
-
         }
-        return serviceListObjects;
     }
 
-    private List<ConsulObject> getServiceByName(String consulHost, String serviceName) {
-        log.trace("Getting service name: {} at consul host: {}", serviceName, consulHost);
-        List<ConsulObject> servicesToDeploy = new ArrayList<>();
+    /**
+     * Fan-out mode, acquires or renews the leader lock.
+     * A new leader reconciles the services received from the previous leader, a demoted leader stops watching Consul.
+     * The demotion is tracked here, the renewal timer may have already seen it.
+     */
+    private boolean isDiscoveryLeader() {
+        boolean wasLeader = discoveryLeader;
+        boolean leader;
         try {
-            HttpResponse<String> response = client.send(buildServiceNameHttpRequest(consulHost, serviceName), HttpResponse.BodyHandlers.ofString());
-            ObjectMapper objectMapper = new ObjectMapper();
-            TypeReference<List<ConsulObject>> typeRef = new TypeReference<>() {};
-            List<ConsulObject> temporaryList = objectMapper.readValue(response.body(), typeRef);
-            temporaryList.forEach(o -> {
-                if(capiNamespace == null) {
-                    servicesToDeploy.add(o);
-                } else {
-                    if(o.getServiceMeta().getNamespace() == null) {
-                        if(!strictNamespace) {
-                            servicesToDeploy.add(o);
-                        }
-                    } else if(o.getServiceMeta().getNamespace().equals(capiNamespace)) {
-                        servicesToDeploy.add(o);
-                    }
-                }
-            });
-            return servicesToDeploy;
+            leader = discoveryLeaderElection.tryAcquire();
         } catch (IOException e) {
             log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
+            discoveryLeader = false;
+            return false;
         } catch (InterruptedException e) {
             log.error(ErrorMessage.ERROR_CONNECTING_TO_CONSUL);
             Thread.currentThread().interrupt();
+            discoveryLeader = false;
+            return false;
+        }
+        discoveryLeader = leader;
+        if(leader && !wasLeader) {
+            watchPendingReconciliation = true;
+        } else if(!leader) {
+            connectedToConsul = true;
+            if(wasLeader && consulCatalogWatcher != null) {
+                consulCatalogWatcher.stop();
+                consulCatalogWatcher = newConsulCatalogWatcher();
+            }
         }
-        return null;
+        return leader;
     }
 
-    private void processServices(Map<String, List<ConsulObject>> serviceListObjects) {
-        serviceListObjects.forEach((serviceName, objectList) -> {
-            log.trace("Processing service name: {}", serviceName);
-            Map<String, Set<Mapping>> servicesStructure = groupByServiceId(objectList);
-            for (var entry : servicesStructure.entrySet()) {
-                Service incomingService = createServiceObject(serviceName, entry.getKey(), entry.getValue(), objectList);
-                Service existingService = serviceCache.peek(incomingService.getId());
-                if(existingService == null) {
-                    if(serviceUtils.checkIfOpenApiIsEnabled(incomingService)) {
-                        createRoute(incomingService);
-                    }
-                } else {
-                    if(serviceUtils.updateExistingService(existingService, incomingService, serviceCache)) {
-                        if(serviceUtils.checkIfOpenApiIsEnabled(incomingService)) {
-                            createRoute(incomingService);
-                        }
-                    }
-                }
+    private void publishDelta(List<String> removedServiceIds, List<DiscoveredService> appliedServices) {
+        removedServiceIds.forEach(discoveryPublisher::publishRemoval);
+        for(DiscoveredService discoveredService : appliedServices) {
+            Service service = serviceRegistry.get(discoveredService.serviceId());
+            Long fingerprint = discoveryDiffEngine.getFingerprint(discoveredService.serviceId());
+            if(service != null && fingerprint != null) {
+                discoveryPublisher.publish(service, fingerprint);
             }
-        });
-        connectedToConsul = true;
+        }
+    }
+
+    /**
+     * Fan-out mode, applies a service published by the leader.
+     * @param capiEvent the published service, null (tombstone) if the service was removed.
+     */
+    public void applyPublishedService(String serviceId, CapiEvent capiEvent) {
+        Map<String, CapiEvent> publishedServices = new HashMap<>();
+        publishedServices.put(serviceId, capiEvent);
+        applyPublishedServices(publishedServices);
     }
 
-    private Map<String, Set<Mapping>> groupByServiceId(List<ConsulObject> consulService) {
-        Map<String, Set<Mapping>> groupedService = new HashMap<>();
-        Set<String> serviceIdList = new HashSet<>();
-        for(ConsulObject serviceIdEntry : consulService) {
-            String serviceNodeGroup = getServiceNodeGroup(serviceIdEntry);
-            if(serviceNodeGroup != null) {
-                serviceIdList.add(serviceNodeGroup);
+    /**
+     * Fan-out mode, applies the services of one poll of the leader's topic, publishing a single registry snapshot for all of them.
+     * @param publishedServices the last event of every service of the poll, null (tombstone) if the service was removed.
+     */
+    public synchronized void applyPublishedServices(Map<String, CapiEvent> publishedServices) {
+        if(discoveryLeaderElection.isLeader()) {
+            return;
+        }
+        //Read, and the missing OpenAPI definitions fetched, before the registry batch.
+        Map<String, PublishedService> pendingServices = new LinkedHashMap<>();
+        publishedServices.forEach((serviceId, capiEvent) -> {
+            if(serviceId == null || (capiEvent != null && discoveryPublisher.isOwnEvent(capiEvent)) || !discoveryDiffEngine.isAssigned(serviceId)) {
+                return;
+            }
+            if(capiEvent == null) {
+                pendingServices.put(serviceId, null);
+                return;
+            }
+            DiscoverySnapshot.Entry publishedEntry;
+            try {
+                publishedEntry = DiscoverySnapshotStore.readEntry(capiEvent.getValue());
+            } catch (IOException e) {
+                log.error("Unable to read service {} published by the discovery leader", serviceId, e);
+                return;
+            }
+            Service existingService = serviceRegistry.get(serviceId);
+            Long knownFingerprint = discoveryDiffEngine.getFingerprint(serviceId);
+            if(existingService != null && knownFingerprint != null && knownFingerprint == publishedEntry.fingerprint()) {
+                return;
+            }
+            Service incomingService = publishedEntry.service();
+            if(existingService != null && canHotSwapEndpoints(existingService, incomingService)) {
+                incomingService.setOpenAPI(existingService.getOpenAPI());
+                pendingServices.put(serviceId, new PublishedService(incomingService, publishedEntry.fingerprint(), true));
             } else {
-                log.trace("Meta data {} group not present, service will not be deployed", serviceIdEntry.getServiceName());
+                pendingServices.put(serviceId, new PublishedService(incomingService, publishedEntry.fingerprint(), fetchOpenApi(incomingService)));
             }
+        });
+        if(pendingServices.isEmpty()) {
+            return;
         }
-        for (String id : serviceIdList) {
-            Set<Mapping> mappingList = new HashSet<>();
-            for (ConsulObject serviceIdToProcess : consulService) {
-                String serviceNodeGroup = getServiceNodeGroup(serviceIdToProcess);
-                if (id.equals(serviceNodeGroup)) {
-                    Mapping entryMapping = serviceUtils.consulObjectToMapping(serviceIdToProcess);
-                    mappingList.add(entryMapping);
+        Map<String, Supplier<RouteBuilder>> pendingRoutes = new LinkedHashMap<>();
+        serviceRegistry.batch(() -> pendingServices.forEach((serviceId, publishedService) -> applyPublishedEntry(serviceId, publishedService, pendingRoutes)));
+        deployRoutes(pendingRoutes);
+    }
+
+    private void applyPublishedEntry(String serviceId, PublishedService publishedService, Map<String, Supplier<RouteBuilder>> pendingRoutes) {
+        Service existingService = serviceRegistry.get(serviceId);
+        if(publishedService == null) {
+            log.trace("Removing service {} published by the discovery leader", serviceId);
+            discoveryDiffEngine.forget(serviceId);
+            removeDynamicEndpoints(serviceId);
+            routeLastAccessMap.remove(serviceId);
+            if(existingService != null) {
+                try {
+                    recordRemovedRoutes(existingService);
+                    serviceUtils.removeService(camelContext, routeUtils, serviceRegistry, existingService);
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
                 }
             }
-            groupedService.put(id, mappingList);
+            return;
+        }
+        Service incomingService = publishedService.service();
+        discoveryDiffEngine.restore(serviceId, incomingService.getName(), publishedService.fingerprint());
+        if(existingService != null) {
+            if(hotSwapEndpoints(existingService, incomingService)) {
+                return;
+            }
+            removeDynamicEndpoints(serviceId);
+            recordRemovedRoutes(existingService);
+            serviceUtils.undeployChangedService(existingService, incomingService, serviceRegistry);
         }
-        return groupedService;
+        deployService(incomingService, publishedService.deployable(), pendingRoutes);
     }
 
-    private String getServiceNodeGroup(ConsulObject consulObject) {
-        if(consulObject.getServiceMeta() != null && consulObject.getServiceMeta().getGroup() != null) {
-            return consulObject.getServiceMeta().getGroup();
+    /**
+     * Deploys the services of the last snapshot before the first discovery cycle, so the routes are served even if Consul is not reachable.
+     * The fingerprints are seeded too, so the first cycle only redeploys what changed meanwhile.
+     */
+    private void restoreSnapshot() {
+        snapshotRestoreAttempted = true;
+        List<DiscoverySnapshot.Entry> snapshotEntries = discoverySnapshotStore.read();
+        if(snapshotEntries.isEmpty()) {
+            return;
         }
-        return null;
+        //The OpenAPI definitions missing from the snapshot are fetched before the registry batch.
+        List<DiscoverySnapshot.Entry> restoredEntries = new ArrayList<>();
+        for(DiscoverySnapshot.Entry snapshotEntry : snapshotEntries) {
+            Service service = snapshotEntry.service();
+            if(discoveryDiffEngine.isAssigned(service.getId()) &&
+                    (service.getOpenAPI() != null || checkIfOpenApiIsEnabled(service))) {
+                restoredEntries.add(snapshotEntry);
+            }
+        }
+        Map<String, Supplier<RouteBuilder>> pendingRoutes = new LinkedHashMap<>();
+        serviceRegistry.batch(() -> {
+            for(DiscoverySnapshot.Entry snapshotEntry : restoredEntries) {
+                Service service = snapshotEntry.service();
+                discoveryDiffEngine.restore(service.getId(), service.getName(), snapshotEntry.fingerprint());
+                if(lazyRoutesEnabled && isRestService(service)) {
+                    serviceRegistry.put(service.getId(), service);
+                } else {
+                    registerService(service, pendingRoutes);
+                }
+            }
+        });
+        deployRoutes(pendingRoutes);
+        restoredFromSnapshot = true;
+        watchPendingReconciliation = true;
+        log.info("Restored {} services from the discovery snapshot", snapshotEntries.size());
     }
 
-    public ServiceMeta getServiceMeta(String key, List<ConsulObject> consulObject) {
-        for(ConsulObject entry : consulObject) {
-            if(Objects.equals(getServiceNodeGroup(entry), key)) {
-                return entry.getServiceMeta();
-            }
+    /**
+     * The snapshot holds the whole catalog, so it is written at most once per snapshotMinIntervalMillis, the last change is written on close.
+     */
+    private synchronized void writeSnapshotIfDue() {
+        if(snapshotPending && System.currentTimeMillis() - lastSnapshotWrite >= snapshotMinIntervalMillis) {
+            writeSnapshot();
         }
-        return null;
     }
 
-    public String getServiceIdConsul(String key, List<ConsulObject> consulObject) {
-        for(ConsulObject entry : consulObject) {
-            if(Objects.equals(getServiceNodeGroup(entry), key)) {
-                return entry.getServiceId();
+    private synchronized void writeSnapshot() {
+        snapshotPending = false;
+        lastSnapshotWrite = System.currentTimeMillis();
+        List<Service> discoveredServices = new ArrayList<>();
+        for(Service service : serviceRegistry.values()) {
+            if(getClass().getName().equals(service.getRegisteredBy())) {
+                discoveredServices.add(service);
             }
         }
-        return null;
+        //A service with a deferred change is not saved, the fingerprint already matches the change that is not deployed yet.
+        discoverySnapshotStore.write(discoveredServices, serviceId -> flapDamper != null && flapDamper.isPending(serviceId) ? null : discoveryDiffEngine.getFingerprint(serviceId));
+    }
+
+    /**
+     * When only the endpoints of a REST service changed, they are swapped in the running routes.
+     * @return true if the endpoints were swapped, false if the service needs to be redeployed.
+     */
+    private boolean hotSwapEndpoints(Service existingService, Service incomingService) {
+        if(!canHotSwapEndpoints(existingService, incomingService)) {
+            return false;
+        }
+        if(dynamicEndpointManager.swap(incomingService.getId(), routeUtils.buildEndpoints(incomingService))) {
+            log.trace("Endpoints of service {} hot swapped", incomingService.getId());
+            incomingService.setOpenAPI(existingService.getOpenAPI());
+            serviceRegistry.put(incomingService.getId(), incomingService);
+            return true;
+        }
+        return false;
     }
 
-    private Service createServiceObject(String serviceName, String key, Set<Mapping> mappingList, List<ConsulObject> consulResponse) {
+    private boolean canHotSwapEndpoints(Service existingService, Service incomingService) {
+        return dynamicEndpointManager != null &&
+                dynamicEndpointManager.isManaged(incomingService.getId()) &&
+                DiscoveryDiffEngine.metaFingerprint(existingService.getServiceMeta()) == DiscoveryDiffEngine.metaFingerprint(incomingService.getServiceMeta());
+    }
+
+    private void removeDynamicEndpoints(String serviceId) {
+        if(dynamicEndpointManager != null) {
+            dynamicEndpointManager.remove(serviceId);
+        }
+    }
+
+    /**
+     * @param deployable false if the OpenAPI definition of the service could not be fetched, see fetchOpenApi.
+     */
+    private void deployService(Service incomingService, boolean deployable, Map<String, Supplier<RouteBuilder>> pendingRoutes) {
+        if(lazyRoutesEnabled && isRestService(incomingService)) {
+            //The routes are built on the first request, see materializeRoutes.
+            serviceRegistry.put(incomingService.getId(), incomingService);
+            return;
+        }
+        if(deployable) {
+            registerService(incomingService, pendingRoutes);
+        } else {
+            //Not deployed, so it will be retried on the next cycle.
+            discoveryDiffEngine.forget(incomingService.getId());
+        }
+    }
+
+    private Service createServiceObject(DiscoveredService discoveredService) {
         Service incomingService = new Service();
-        ServiceMeta serviceMeta = getServiceMeta(key, consulResponse);
+        ConsulObject firstInstance = discoveredService.instances().get(0);
+        ServiceMeta serviceMeta = firstInstance.getServiceMeta();
 
+        incomingService.setId(discoveredService.serviceId());
         if(serviceMeta.isRouteGroupFirst()) {
-            incomingService.setId(key + ":" + serviceName);
-            incomingService.setContext("/" + key + "/" + serviceName);
+            incomingService.setContext("/" + discoveredService.group() + "/" + discoveredService.serviceName());
         } else {
-            incomingService.setId(serviceName + ":" + key);
-            incomingService.setContext("/" + serviceName + "/" + key);
+            incomingService.setContext("/" + discoveredService.serviceName() + "/" + discoveredService.group());
         }
 
-        incomingService.setName(serviceName);
+        incomingService.setName(discoveredService.serviceName());
         incomingService.setRegisteredBy(getClass().getName());
 
+        Set<Mapping> mappingList = new HashSet<>();
+        for(ConsulObject consulObject : discoveredService.instances()) {
+            mappingList.add(serviceUtils.consulObjectToMapping(consulObject));
+        }
         incomingService.setMappingList(mappingList);
-        incomingService.setServiceMeta(getServiceMeta(key, consulResponse));
-        incomingService.setServiceIdConsul(getServiceIdConsul(key, consulResponse));
+        incomingService.setServiceMeta(serviceMeta);
+        incomingService.setServiceIdConsul(firstInstance.getServiceId());
         incomingService.setRoundRobinEnabled(incomingService.getMappingList().size() != 1 && !incomingService.getServiceMeta().isTenantAware() && !incomingService.getServiceMeta().isStickySession());
         incomingService.setFailOverEnabled(incomingService.getMappingList().size() != 1 && !incomingService.getServiceMeta().isTenantAware() && !incomingService.getServiceMeta().isStickySession());
 
@@ -263,8 +699,26 @@ public class ConsulNodeDiscovery {
         return incomingService;
     }
 
-    private void createRoute(Service incomingService) {
-        serviceCache.put(incomingService.getId(), incomingService);
+    /**
+     * @return false if the OpenAPI definition of the service could not be fetched.
+     */
+    private boolean fetchOpenApi(Service incomingService) {
+        //Lazy routes fetch it on the first request, a service published by the discovery leader already carries it.
+        if((lazyRoutesEnabled && isRestService(incomingService)) || incomingService.getOpenAPI() != null) {
+            return true;
+        }
+        return checkIfOpenApiIsEnabled(incomingService);
+    }
+
+    private void registerService(Service incomingService, Map<String, Supplier<RouteBuilder>> pendingRoutes) {
+        serviceRegistry.put(incomingService.getId(), incomingService);
+        buildRoutes(incomingService, pendingRoutes);
+    }
+
+    /**
+     * Creates the websocket or SSE client, or the REST routes, of a registered service. The registry is not written.
+     */
+    private void buildRoutes(Service incomingService, Map<String, Supplier<RouteBuilder>> pendingRoutes) {
         if(incomingService.getServiceMeta().getType().equalsIgnoreCase(Constants.WEBSOCKET_TYPE) &&
                 (capiRunningMode.equalsIgnoreCase(Constants.WEBSOCKET_TYPE) || capiRunningMode.equalsIgnoreCase(Constants.FULL_TYPE))) {
             WebsocketClient websocketClient = websocketUtils.createWebsocketClient(incomingService);
@@ -275,27 +729,128 @@ public class ConsulNodeDiscovery {
                 ((capiRunningMode.equalsIgnoreCase(Constants.SSE_TYPE) || capiRunningMode.equalsIgnoreCase(Constants.FULL_TYPE)))) {
             SSEClient sseClient = sseUtils.createSSEClient(incomingService);
             if(sseClient != null && sseClientMap != null) {
-                sseClientMap.put(sseClient.getPath(), sseClient);
+                sseClientMap.put(sseClient.getApiId(), sseClient);
             }
 
         } else if(capiRunningMode.equalsIgnoreCase(Constants.FULL_TYPE)) {
             List<String> apiRouteIdList = routeUtils.getAllRouteIdForAGivenService(incomingService);
             for(String routeId : apiRouteIdList) {
-                Route existingRoute = camelContext.getRoute(routeId);
-                if(existingRoute == null) {
-                    try {
-                        DirectRouteProcessor directRouteProcessor = new DirectRouteProcessor(camelContext, incomingService, routeUtils, metricsProcessor, routeId, capiContext, reverseProxyHost);
-                        directRouteProcessor.setHttpUtils(httpUtils);
-                        directRouteProcessor.setOpaService(opaService);
-                        directRouteProcessor.setStickySessionCacheManager(stickySessionCacheManager);
-                        directRouteProcessor.setServiceCache(serviceCache);
-                        camelContext.addRoutes(directRouteProcessor);
-                    } catch (Exception e) {
-                        log.error(e.getMessage(), e);
+                if(camelContext.getRoute(routeId) == null) {
+                    pendingRoutes.put(routeId, () -> createDirectRouteProcessor(incomingService, routeId));
+                }
+            }
+        }
+    }
+
+    private boolean isRestService(Service service) {
+        return capiRunningMode.equalsIgnoreCase(Constants.FULL_TYPE) &&
+                !service.getServiceMeta().getType().equalsIgnoreCase(Constants.WEBSOCKET_TYPE) &&
+                !service.getServiceMeta().getType().equalsIgnoreCase(Constants.SSE_TYPE);
+    }
+
+    /**
+     * Lazy mode, builds the routes of a known service on its first request.
+     * @return false if the service is unknown or could not be deployed.
+     */
+    public boolean materializeRoutes(String serviceId) {
+        Service service = serviceRegistry.get(serviceId);
+        if(service == null || !isRestService(service)) {
+            return false;
+        }
+        routeLastAccessMap.put(serviceId, System.currentTimeMillis());
+        List<String> apiRouteIdList = routeUtils.getAllRouteIdForAGivenService(service);
+        if(camelContext.getRoute(apiRouteIdList.get(0)) != null) {
+            return true;
+        }
+        ReentrantLock materializationLock = materializationLockMap.computeIfAbsent(serviceId, k -> new ReentrantLock());
+        materializationLock.lock();
+        try {
+            if(camelContext.getRoute(apiRouteIdList.get(0)) != null) {
+                return true;
+            }
+            log.debug("Materializing routes for service {}", serviceId);
+            if(!checkIfOpenApiIsEnabled(service)) {
+                return false;
+            }
+            //Already registered, the OpenAPI definition is set on the registered instance.
+            Map<String, Supplier<RouteBuilder>> pendingRoutes = new LinkedHashMap<>();
+            buildRoutes(service, pendingRoutes);
+            deployRoutes(pendingRoutes);
+            return camelContext.getRoute(apiRouteIdList.get(0)) != null;
+        } finally {
+            materializationLock.unlock();
+        }
+    }
+
+    /**
+     * Lazy mode, removes the routes of the services that were not called during the TTL.
+     * The services stay in the cache, so the routes are built again on the next request.
+     */
+    public void evictIdleRoutes() {
+        long idleLimit = System.currentTimeMillis() - lazyRoutesTtlMillis;
+        routeLastAccessMap.forEach((serviceId, lastAccess) -> {
+            if(lastAccess < idleLimit) {
+                ReentrantLock materializationLock = materializationLockMap.computeIfAbsent(serviceId, k -> new ReentrantLock());
+                materializationLock.lock();
+                try {
+                    if(routeLastAccessMap.remove(serviceId, lastAccess)) {
+                        log.debug("Evicting idle routes for service {}", serviceId);
+                        removeDynamicEndpoints(serviceId);
+                        for(String routeId : routeUtils.getAllRouteIdForAGivenService(serviceId)) {
+                            try {
+                                camelContext.getRouteController().stopRoute(routeId);
+                                if(camelContext.removeRoute(routeId)) {
+                                    discoveryMetrics.recordRoutesRemoved(1);
+                                }
+                            } catch (Exception e) {
+                                log.error(e.getMessage(), e);
+                            }
+                        }
                     }
+                } finally {
+                    materializationLock.unlock();
                 }
             }
+        });
+    }
+
+    private void deployRoutes(Map<String, Supplier<RouteBuilder>> pendingRoutes) {
+        if(!pendingRoutes.isEmpty()) {
+            discoveryMetrics.recordRoutesBuilt(pendingRoutes.size());
+            routeDeployer.deploy(pendingRoutes);
+        }
+    }
+
+    private void recordRemovedRoutes(Service service) {
+        int deployedRoutes = 0;
+        for(String routeId : routeUtils.getAllRouteIdForAGivenService(service)) {
+            if(camelContext.getRoute(routeId) != null) {
+                deployedRoutes++;
+            }
+        }
+        if(deployedRoutes > 0) {
+            discoveryMetrics.recordRoutesRemoved(deployedRoutes);
+        }
+    }
+
+    private boolean checkIfOpenApiIsEnabled(Service service) {
+        long fetchStart = System.nanoTime();
+        boolean openApiValid = serviceUtils.checkIfOpenApiIsEnabled(service);
+        if(service.getServiceMeta().getOpenApiEndpoint() != null) {
+            discoveryMetrics.recordOpenApiFetch(System.nanoTime() - fetchStart);
         }
+        return openApiValid;
+    }
+
+    private DirectRouteProcessor createDirectRouteProcessor(Service incomingService, String routeId) {
+        DirectRouteProcessor directRouteProcessor = new DirectRouteProcessor(camelContext, incomingService, routeUtils, metricsProcessor, routeId, capiContext, reverseProxyHost);
+        directRouteProcessor.setHttpUtils(httpUtils);
+        directRouteProcessor.setOpaService(opaService);
+        directRouteProcessor.setStickySessionCacheManager(stickySessionCacheManager);
+        directRouteProcessor.setServiceRegistry(serviceRegistry);
+        directRouteProcessor.setDynamicEndpointManager(dynamicEndpointManager);
+        directRouteProcessor.setAsyncHttpTransport(asyncHttpTransport);
+        return directRouteProcessor;
     }
 
     public void setConsulHostList(List<String> consulHostList) {
@@ -312,7 +867,7 @@ public class ConsulNodeDiscovery {
             builder.header(Constants.AUTHORIZATION_HEADER, Constants.BEARER + consulToken);
         }
         return builder
-                .uri(URI.create(consulHost + GET_ALL_SERVICES))
+                .uri(URI.create(ConsulCatalogSnapshot.servicesUri(consulHost, consulQueryFilter)))
                 .timeout(Duration.ofMinutes(2))
                 .build();
     }
@@ -323,7 +878,7 @@ public class ConsulNodeDiscovery {
             builder.header(Constants.AUTHORIZATION_HEADER, Constants.BEARER + consulToken.replaceAll("(\r\n|\n)", ""));
         }
         return builder
-                .uri(URI.create(consulHost + GET_SERVICE_BY_NAME + serviceName))
+                .uri(URI.create(ConsulCatalogSnapshot.serviceInstancesUri(consulHost, serviceName, consulPassingOnly, consulQueryFilter)))
                 .timeout(Duration.ofMinutes(2))
                 .build();
     }
@@ -336,6 +891,13 @@ public class ConsulNodeDiscovery {
         return connectedToConsul;
     }
 
+    /**
+     * @return true if the routes are served, either discovered from Consul or restored from the discovery snapshot.
+     */
+    public static boolean isServingRoutes() {
+        return connectedToConsul || restoredFromSnapshot;
+    }
+
     public void setWebsocketUtils(WebsocketUtils websocketUtils) {
         this.websocketUtils = websocketUtils;
     }
@@ -370,4 +932,121 @@ public class ConsulNodeDiscovery {
     public void setCapiRunningMode(String capiRunningMode) {
         this.capiRunningMode = capiRunningMode;
     }
+
+    public void setConsulMaxConcurrentRequests(int consulMaxConcurrentRequests) {
+        this.consulMaxConcurrentRequests = consulMaxConcurrentRequests;
+    }
+
+    public void enableLazyRoutes(long lazyRoutesTtlSeconds) {
+        this.lazyRoutesEnabled = true;
+        this.lazyRoutesTtlMillis = lazyRoutesTtlSeconds * 1000;
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        routeDeployer.setMeterRegistry(meterRegistry);
+    }
+
+    public void setDiscoveryMetrics(DiscoveryMetrics discoveryMetrics) {
+        this.discoveryMetrics = discoveryMetrics;
+    }
+
+    public void setDynamicEndpointManager(DynamicEndpointManager dynamicEndpointManager) {
+        this.dynamicEndpointManager = dynamicEndpointManager;
+    }
+
+    public void setAsyncHttpTransport(AsyncHttpTransport asyncHttpTransport) {
+        this.asyncHttpTransport = asyncHttpTransport;
+    }
+
+    public void setConsulPassingOnly(boolean consulPassingOnly) {
+        this.consulPassingOnly = consulPassingOnly;
+    }
+
+    /**
+     * Pushes the namespace and group filters to Consul, must be called after the namespace is set.
+     */
+    public void enableConsulQueryFilter() {
+        this.consulQueryFilter = new ConsulQueryFilter(capiNamespace, strictNamespace);
+    }
+
+    /**
+     * Partitioned mode, only the services assigned to this instance are deployed.
+     */
+    public void setShardAssignment(ShardAssignment shardAssignment) {
+        discoveryDiffEngine.setServiceFilter(shardAssignment);
+    }
+
+    /**
+     * Replaces Consul as the source of the services, the diff and the route deployment stay the same.
+     */
+    public void setDiscoveryProvider(DiscoveryProvider discoveryProvider) {
+        this.discoveryProvider = discoveryProvider;
+    }
+
+    public void setFlapDamper(FlapDamper flapDamper) {
+        this.flapDamper = flapDamper;
+    }
+
+    public void setDiscoverySnapshotStore(DiscoverySnapshotStore discoverySnapshotStore, int snapshotMinIntervalSeconds) {
+        this.discoverySnapshotStore = discoverySnapshotStore;
+        this.snapshotMinIntervalMillis = snapshotMinIntervalSeconds * 1000L;
+    }
+
+    public void enableConsulWatch(int consulWatchWait) {
+        this.consulWatchWait = consulWatchWait;
+        this.consulCatalogWatcher = newConsulCatalogWatcher();
+    }
+
+    private ConsulCatalogWatcher newConsulCatalogWatcher() {
+        return new ConsulCatalogWatcher(client, consulHostList, consulToken, consulWatchWait, consulPassingOnly, consulQueryFilter);
+    }
+
+    /**
+     * In fan-out mode the watch returns within the renew interval, so a leader demoted by the renewal timer stops watching Consul early.
+     */
+    private int getWatchAwaitSeconds() {
+        return discoveryLeaderElection != null ? Math.min(consulWatchWait, discoveryLeaderElection.getRenewIntervalSeconds()) : consulWatchWait;
+    }
+
+    /**
+     * Fan-out mode, only the instance holding the leader lock queries Consul and publishes the services.
+     * Must be called after the Consul hosts and token are set.
+     */
+    public void enableDiscoveryFanOut(DiscoveryPublisher discoveryPublisher, String lockKey, int sessionTtlSeconds) {
+        this.discoveryPublisher = discoveryPublisher;
+        this.discoveryLeaderElection = new ConsulLeaderElection(client, consulHostList, consulToken, lockKey, discoveryPublisher.getCapiInstance(), sessionTtlSeconds);
+    }
+
+    @Override
+    public void close() {
+        if(discoveryProvider != this) {
+            discoveryProvider.close();
+        }
+        if(consulCatalogWatcher != null) {
+            consulCatalogWatcher.stop();
+        }
+        if(discoveryLeaderElection != null) {
+            discoveryLeaderElection.release();
+        }
+        synchronized(this) {
+            if(snapshotPending) {
+                writeSnapshot();
+            }
+        }
+    }
+
+    /**
+     * A service of the delta, prepared before the registry batch.
+     * @param deferred true if the redeploy is deferred by the flap damping.
+     * @param deployable false if the OpenAPI definition could not be fetched.
+     */
+    private record PreparedService(DiscoveredService discoveredService, Service service, boolean deferred, boolean deployable) {
+    }
+
+    /**
+     * A service published by the discovery leader, prepared before the registry batch.
+     * @param deployable false if the OpenAPI definition could not be fetched.
+     */
+    private record PublishedService(Service service, long fingerprint, boolean deployable) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package io.surisoft.capi.service;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds the Consul filter expressions (?filter=) used to apply the namespace and group rules on the Consul side,
+ * so only the instances this gateway can deploy are sent over the wire.
+ * The client side filter is still applied, the expressions only reduce the payloads.
+ */
+public class ConsulQueryFilter {
+
+    private static final String CATALOG_META_SELECTOR = "ServiceMeta";
+    private static final String HEALTH_META_SELECTOR = "Service.Meta";
+    private final String catalogQuery;
+    private final String healthQuery;
+
+    public ConsulQueryFilter(String capiNamespace, boolean strictNamespace) {
+        this.catalogQuery = toQuery(buildExpression(CATALOG_META_SELECTOR, capiNamespace, strictNamespace));
+        this.healthQuery = toQuery(buildExpression(HEALTH_META_SELECTOR, capiNamespace, strictNamespace));
+    }
+
+    /**
+     * @return the filter query parameter for the catalog endpoints, /v1/catalog/services included.
+     */
+    public String getCatalogQuery() {
+        return catalogQuery;
+    }
+
+    /**
+     * @return the filter query parameter for the /v1/health/service endpoint.
+     */
+    public String getHealthQuery() {
+        return healthQuery;
+    }
+
+    static String buildExpression(String metaSelector, String capiNamespace, boolean strictNamespace) {
+        String expression = "\"group\" in " + metaSelector;
+        if(capiNamespace != null) {
+            String namespaceExpression = metaSelector + ".namespace == \"" + quote(capiNamespace) + "\"";
+            if(strictNamespace) {
+                expression += " and " + namespaceExpression;
+            } else {
+                expression += " and (" + namespaceExpression + " or \"namespace\" not in " + metaSelector + ")";
+            }
+        }
+        return expression;
+    }
+
+    /**
+     * Escapes the backslashes first, so an escaped quote can not be turned back into a closing quote.
+     */
+    private static String quote(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String toQuery(String expression) {
+        return "filter=" + URLEncoder.encode(expression, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,215 @@
+package io.surisoft.capi.service;
+
+import io.surisoft.capi.schema.*;
+import io.surisoft.capi.utils.ServiceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Keeps a compact fingerprint (64 bit FNV-1a hash of the sorted mappings plus the service meta) for every deployed service id.
+ * Each discovery cycle is compared against the fingerprints, and only the added, changed and removed services are emitted.
+ * An unchanged service costs one hash comparison.
+ */
+public class DiscoveryDiffEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(DiscoveryDiffEngine.class);
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int NULL_FIELD = 0xfe;
+    private static final int FIELD_SEPARATOR = 0xff;
+    private static final Comparator<Mapping> MAPPING_ORDER = Comparator
+            .comparing(Mapping::getHostname, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingInt(Mapping::getPort)
+            .thenComparing(Mapping::getRootContext, Comparator.nullsFirst(Comparator.naturalOrder()));
+    private static final Comparator<ConsulObject> INSTANCE_ORDER = Comparator
+            .comparing(ConsulObject::getServiceId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final ServiceUtils serviceUtils;
+    private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+    private Predicate<String> serviceFilter = serviceId -> true;
+
+    public DiscoveryDiffEngine(ServiceUtils serviceUtils) {
+        this.serviceUtils = serviceUtils;
+    }
+
+    /**
+     * Compares the discovered services with the previous cycles.
+     * @param serviceListObjects the instances of every service that was discovered in this cycle, by service name.
+     * @param removedServiceNames the names of the services that are no longer in the catalog.
+     * @param isDeployed tells if a service id is still deployed, a service that was undeployed meanwhile is considered as added.
+     */
+    public DiscoveryDelta diff(Map<String, List<ConsulObject>> serviceListObjects, Set<String> removedServiceNames, Predicate<String> isDeployed) {
+        List<DiscoveredService> added = new ArrayList<>();
+        List<DiscoveredService> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        Set<String> seenServiceIds = new HashSet<>();
+
+        serviceListObjects.forEach((serviceName, objectList) -> {
+            for(Map.Entry<String, List<ConsulObject>> group : groupByServiceGroup(serviceName, objectList).entrySet()) {
+                DiscoveredService discoveredService = toDiscoveredService(serviceName, group.getKey(), group.getValue());
+                if(!serviceFilter.test(discoveredService.serviceId())) {
+                    //Not seen, so a service that was deployed before is removed.
+                    log.trace("Service {} is not assigned to this instance.", discoveredService.serviceId());
+                    continue;
+                }
+                seenServiceIds.add(discoveredService.serviceId());
+                Fingerprint previous = fingerprints.put(discoveredService.serviceId(), new Fingerprint(serviceName, discoveredService.fingerprint()));
+                if(previous == null || !isDeployed.test(discoveredService.serviceId())) {
+                    added.add(discoveredService);
+                } else if(previous.hash() != discoveredService.fingerprint()) {
+                    changed.add(discoveredService);
+                } else {
+                    log.trace("No changes detected for Service: {}.", discoveredService.serviceId());
+                }
+            }
+        });
+
+        Set<String> serviceNamesInScope = new HashSet<>(serviceListObjects.keySet());
+        serviceNamesInScope.addAll(removedServiceNames);
+        fingerprints.forEach((serviceId, fingerprint) -> {
+            if(serviceNamesInScope.contains(fingerprint.serviceName()) && !seenServiceIds.contains(serviceId)) {
+                removed.add(serviceId);
+            }
+        });
+        removed.forEach(fingerprints::remove);
+        return new DiscoveryDelta(added, changed, removed);
+    }
+
+    /**
+     * @return the names of all the services with at least one deployed group.
+     */
+    public Set<String> getKnownServiceNames() {
+        Set<String> serviceNames = new HashSet<>();
+        fingerprints.values().forEach(fingerprint -> serviceNames.add(fingerprint.serviceName()));
+        return serviceNames;
+    }
+
+    public void forget(String serviceId) {
+        fingerprints.remove(serviceId);
+    }
+
+    /**
+     * Only the service ids accepted by the filter are emitted, the others are ignored (or removed if they were deployed).
+     */
+    public void setServiceFilter(Predicate<String> serviceFilter) {
+        this.serviceFilter = serviceFilter;
+    }
+
+    public boolean isAssigned(String serviceId) {
+        return serviceFilter.test(serviceId);
+    }
+
+    /**
+     * Seeds the fingerprint of a service restored from the discovery snapshot.
+     */
+    public void restore(String serviceId, String serviceName, long fingerprint) {
+        fingerprints.put(serviceId, new Fingerprint(serviceName, fingerprint));
+    }
+
+    /**
+     * @return the fingerprint of a service, null if the service is not tracked.
+     */
+    public Long getFingerprint(String serviceId) {
+        Fingerprint fingerprint = fingerprints.get(serviceId);
+        return fingerprint != null ? fingerprint.hash() : null;
+    }
+
+    /**
+     * Groups the instances of a service by their group meta data, in one pass.
+     * Instances without a group are ignored.
+     */
+    private Map<String, List<ConsulObject>> groupByServiceGroup(String serviceName, List<ConsulObject> objectList) {
+        Map<String, List<ConsulObject>> groupedInstances = new HashMap<>();
+        for(ConsulObject consulObject : objectList) {
+            if(consulObject.getServiceMeta() != null && consulObject.getServiceMeta().getGroup() != null) {
+                groupedInstances.computeIfAbsent(consulObject.getServiceMeta().getGroup(), k -> new ArrayList<>()).add(consulObject);
+            } else {
+                log.trace("Meta data {} group not present, service will not be deployed", serviceName);
+            }
+        }
+        return groupedInstances;
+    }
+
+    private DiscoveredService toDiscoveredService(String serviceName, String group, List<ConsulObject> instances) {
+        instances.sort(INSTANCE_ORDER);
+        ConsulObject firstInstance = instances.get(0);
+        String serviceId = firstInstance.getServiceMeta().isRouteGroupFirst() ? group + ":" + serviceName : serviceName + ":" + group;
+
+        Set<Mapping> sortedMappings = new TreeSet<>(MAPPING_ORDER);
+        for(ConsulObject instance : instances) {
+            sortedMappings.add(serviceUtils.consulObjectToMapping(instance));
+        }
+        return new DiscoveredService(serviceId, serviceName, group, instances, fingerprint(firstInstance.getServiceId(), sortedMappings, firstInstance.getServiceMeta()));
+    }
+
+    public static long fingerprint(String serviceIdConsul, Collection<Mapping> sortedMappings, ServiceMeta serviceMeta) {
+        long hash = mix(FNV_OFFSET_BASIS, serviceIdConsul);
+        for(Mapping mapping : sortedMappings) {
+            hash = mix(hash, mapping.getHostname());
+            hash = mix(hash, mapping.getPort());
+            hash = mix(hash, mapping.getRootContext());
+            hash = mix(hash, mapping.isIngress());
+            hash = mix(hash, mapping.getTenandId());
+        }
+        return mixServiceMeta(hash, serviceMeta);
+    }
+
+    /**
+     * @return the fingerprint of the service meta only, two services with the same meta only differ by their endpoints.
+     */
+    public static long metaFingerprint(ServiceMeta serviceMeta) {
+        return mixServiceMeta(FNV_OFFSET_BASIS, serviceMeta);
+    }
+
+    private static long mixServiceMeta(long hash, ServiceMeta serviceMeta) {
+        hash = mix(hash, serviceMeta.getRootContext());
+        hash = mix(hash, serviceMeta.getSchema());
+        hash = mix(hash, serviceMeta.isSecured());
+        hash = mix(hash, serviceMeta.isTenantAware());
+        hash = mix(hash, serviceMeta.getTenantId());
+        hash = mix(hash, serviceMeta.getGroup());
+        hash = mix(hash, serviceMeta.isB3TraceId());
+        hash = mix(hash, serviceMeta.getIngress());
+        hash = mix(hash, serviceMeta.isStickySession());
+        hash = mix(hash, serviceMeta.getStickySessionType());
+        hash = mix(hash, serviceMeta.getStickySessionKey());
+        hash = mix(hash, serviceMeta.getType());
+        hash = mix(hash, serviceMeta.getSubscriptionGroup());
+        hash = mix(hash, serviceMeta.getAllowedOrigins());
+        hash = mix(hash, serviceMeta.isKeepGroup());
+        hash = mix(hash, serviceMeta.getOpenApiEndpoint());
+        hash = mix(hash, serviceMeta.getOpaRego());
+        hash = mix(hash, serviceMeta.getNamespace());
+        hash = mix(hash, serviceMeta.isRouteGroupFirst());
+        hash = mix(hash, serviceMeta.getTransport());
+        hash = mix(hash, serviceMeta.getPoolMaxTotal());
+        hash = mix(hash, serviceMeta.getPoolMaxPerRoute());
+        hash = mix(hash, serviceMeta.getPoolTimeToLive());
+        hash = mix(hash, serviceMeta.getPoolIdleEviction());
+        hash = mix(hash, serviceMeta.getPoolValidateAfterInactivity());
+        return hash;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes of the field, followed by a separator so adjacent fields can not shift into each other.
+     * 0xFE and 0xFF never occur in UTF-8, they mark a null field and the end of a field.
+     */
+    private static long mix(long hash, Object value) {
+        if(value == null) {
+            hash = (hash ^ NULL_FIELD) * FNV_PRIME;
+        } else {
+            for(byte fieldByte : value.toString().getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (fieldByte & 0xff)) * FNV_PRIME;
+            }
+        }
+        return (hash ^ FIELD_SEPARATOR) * FNV_PRIME;
+    }
+
+    private record Fingerprint(String serviceName, long hash) {
+    }
+}
@@ -0,0 +1,19 @@
+package io.surisoft.capi.service;
+
+import io.surisoft.capi.schema.DiscoveryChanges;
+
+/**
+ * A source of services, polled by the discovery timer.
+ * The changes are compared with the deployed services by the {@link DiscoveryDiffEngine}, so a provider can report a service
+ * that did not change, or all of its services on every cycle.
+ */
+public interface DiscoveryProvider {
+
+    /**
+     * @return the changes since the last call, null if the source is not available (nothing is removed).
+     */
+    DiscoveryChanges fetchChanges() throws InterruptedException;
+
+    default void close() {
+    }
+}
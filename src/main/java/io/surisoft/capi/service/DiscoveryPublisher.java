@@ -0,0 +1,64 @@
+package io.surisoft.capi.service;
+
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.kafka.CapiKafkaEvent;
+import io.surisoft.capi.schema.CapiEvent;
+import io.surisoft.capi.schema.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Publishes the discovered services to a compacted topic, keyed by service id.
+ * The latest record of a key is the current state of the service, a removed service is published as a tombstone.
+ * An instance joining replays the topic from the beginning to get the full catalog.
+ */
+@Component
+@ConditionalOnProperty(prefix = "capi.consul.discovery.fan-out", name = "enabled", havingValue = "true")
+public class DiscoveryPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(DiscoveryPublisher.class);
+    private final KafkaTemplate<String, CapiEvent> kafkaTemplate;
+    private final CapiInstance capiInstance;
+    private final String discoveryTopic;
+
+    public DiscoveryPublisher(KafkaTemplate<String, CapiEvent> kafkaTemplate,
+                              CapiInstance capiInstance,
+                              @Value("${capi.consul.discovery.fan-out.topic}") String discoveryTopic) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.capiInstance = capiInstance;
+        this.discoveryTopic = discoveryTopic;
+    }
+
+    public void publish(Service service, long fingerprint) {
+        try {
+            CapiEvent capiEvent = new CapiEvent();
+            capiEvent.setId(UUID.randomUUID().toString());
+            capiEvent.setInstanceId(capiInstance);
+            capiEvent.setKey(service.getId());
+            capiEvent.setValue(DiscoverySnapshotStore.writeEntry(service, fingerprint));
+            capiEvent.setType(CapiKafkaEvent.DISCOVERY_SERVICE_EVENT_TYPE);
+            kafkaTemplate.send(discoveryTopic, service.getId(), capiEvent);
+        } catch (IOException e) {
+            log.error("Unable to publish service {}", service.getId(), e);
+        }
+    }
+
+    public void publishRemoval(String serviceId) {
+        kafkaTemplate.send(discoveryTopic, serviceId, null);
+    }
+
+    public boolean isOwnEvent(CapiEvent capiEvent) {
+        return capiInstance.equals(capiEvent.getInstanceId());
+    }
+
+    public CapiInstance getCapiInstance() {
+        return capiInstance;
+    }
+}
@@ -0,0 +1,147 @@
+package io.surisoft.capi.service;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.surisoft.capi.schema.DiscoverySnapshot;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.parser.OpenAPIV3Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes the discovery snapshot as gzipped JSON.
+ * The file is written to a temporary file first and then moved, so a crash never leaves a truncated snapshot.
+ */
+public class DiscoverySnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(DiscoverySnapshotStore.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .addMixIn(Service.class, ServiceSnapshotMixin.class)
+            .addMixIn(ServiceMeta.class, ServiceMetaSnapshotMixin.class);
+    private final Path snapshotPath;
+
+    public DiscoverySnapshotStore(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    /**
+     * Writes a single entry, used to publish the discovered services to the other instances.
+     */
+    public static String writeEntry(Service service, long fingerprint) throws IOException {
+        return objectMapper.writeValueAsString(new DiscoverySnapshot.Entry(service, writeOpenApi(service.getOpenAPI()), fingerprint));
+    }
+
+    public static DiscoverySnapshot.Entry readEntry(String value) throws IOException {
+        DiscoverySnapshot.Entry entry = objectMapper.readValue(value, DiscoverySnapshot.Entry.class);
+        readOpenApi(entry);
+        return entry;
+    }
+
+    /**
+     * @param fingerprintFunction returns the discovery fingerprint of a service id, null if the service is not tracked.
+     */
+    public void write(Collection<Service> services, Function<String, Long> fingerprintFunction) {
+        List<DiscoverySnapshot.Entry> entries = new ArrayList<>(services.size());
+        for(Service service : services) {
+            Long fingerprint = fingerprintFunction.apply(service.getId());
+            if(fingerprint != null) {
+                entries.add(new DiscoverySnapshot.Entry(service, writeOpenApi(service.getOpenAPI()), fingerprint));
+            }
+        }
+        try {
+            Path parent = snapshotPath.toAbsolutePath().getParent();
+            if(parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(temporaryPath))) {
+                objectMapper.writeValue(outputStream, new DiscoverySnapshot(DiscoverySnapshot.CURRENT_VERSION, System.currentTimeMillis(), entries));
+            }
+            Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.trace("Discovery snapshot with {} services written to {}", entries.size(), snapshotPath);
+        } catch (IOException e) {
+            log.error("Unable to write the discovery snapshot to {}", snapshotPath, e);
+        }
+    }
+
+    /**
+     * @return the entries of the snapshot, empty if there is no snapshot or it cannot be read.
+     */
+    public List<DiscoverySnapshot.Entry> read() {
+        if(!Files.exists(snapshotPath)) {
+            return List.of();
+        }
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(snapshotPath))) {
+            DiscoverySnapshot discoverySnapshot = objectMapper.readValue(inputStream, DiscoverySnapshot.class);
+            if(discoverySnapshot.version() != DiscoverySnapshot.CURRENT_VERSION || discoverySnapshot.services() == null) {
+                log.warn("Ignoring discovery snapshot {}, unsupported version {}", snapshotPath, discoverySnapshot.version());
+                return List.of();
+            }
+            discoverySnapshot.services().forEach(DiscoverySnapshotStore::readOpenApi);
+            return discoverySnapshot.services();
+        } catch (IOException e) {
+            log.error("Unable to read the discovery snapshot {}", snapshotPath, e);
+            return List.of();
+        }
+    }
+
+    private static void readOpenApi(DiscoverySnapshot.Entry entry) {
+        if(entry.openApi() != null) {
+            entry.service().setOpenAPI(new OpenAPIV3Parser().readContents(entry.openApi()).getOpenAPI());
+        }
+    }
+
+    private static String writeOpenApi(OpenAPI openAPI) {
+        if(openAPI == null) {
+            return null;
+        }
+        try {
+            return Json.mapper().writeValueAsString(openAPI);
+        } catch (IOException e) {
+            log.warn("Unable to serialize the Open API definition", e);
+            return null;
+        }
+    }
+
+    private abstract static class ServiceSnapshotMixin {
+        @JsonIgnore
+        abstract OpenAPI getOpenAPI();
+
+        @JsonIgnore
+        abstract void setOpenAPI(OpenAPI openAPI);
+    }
+
+    /**
+     * The service meta is read from Consul with different names than the ones it is written with,
+     * the snapshot writes the Consul names so it can be read back.
+     */
+    private abstract static class ServiceMetaSnapshotMixin {
+        @JsonGetter("subscription-group")
+        abstract String getSubscriptionGroup();
+
+        @JsonGetter("open-api")
+        abstract String getOpenApiEndpoint();
+
+        @JsonGetter("opa-rego")
+        abstract String getOpaRego();
+    }
+}
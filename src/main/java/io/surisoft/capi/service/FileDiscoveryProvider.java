@@ -0,0 +1,141 @@
+package io.surisoft.capi.service;
+
+import io.surisoft.capi.schema.ConsulObject;
+import io.surisoft.capi.schema.DiscoveryChanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Reads the services from the *.json files of a directory, each file holding a list of instances in the Consul catalog format
+ * (ServiceName, ServiceID, ServiceAddress, ServicePort and ServiceMeta).
+ * A service can be split between several files. After the first cycle only the files reported by the {@link WatchService} are read again.
+ */
+public class FileDiscoveryProvider implements DiscoveryProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(FileDiscoveryProvider.class);
+    private static final String FILE_EXTENSION = ".json";
+    private final Path directory;
+    private final Map<Path, List<ConsulObject>> fileInstancesMap = new HashMap<>();
+    private WatchService watchService;
+
+    public FileDiscoveryProvider(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public synchronized DiscoveryChanges fetchChanges() {
+        Set<Path> changedFiles;
+        try {
+            changedFiles = watchService == null ? startWatching() : pollChangedFiles();
+        } catch (IOException e) {
+            log.error("Unable to read the discovery directory {}", directory, e);
+            return null;
+        }
+        if(changedFiles.isEmpty()) {
+            return new DiscoveryChanges(Map.of(), Set.of());
+        }
+
+        Set<String> changedServiceNames = new HashSet<>();
+        for(Path changedFile : changedFiles) {
+            List<ConsulObject> previousInstances = fileInstancesMap.get(changedFile);
+            if(previousInstances != null) {
+                previousInstances.forEach(instance -> changedServiceNames.add(instance.getServiceName()));
+            }
+            if(!Files.exists(changedFile)) {
+                log.trace("Discovery file {} removed", changedFile);
+                fileInstancesMap.remove(changedFile);
+                continue;
+            }
+            try {
+                List<ConsulObject> instances = ConsulCatalogSnapshot.readServiceInstances(Files.readAllBytes(changedFile));
+                instances.removeIf(instance -> instance.getServiceName() == null);
+                instances.forEach(instance -> changedServiceNames.add(instance.getServiceName()));
+                fileInstancesMap.put(changedFile, instances);
+            } catch (IOException e) {
+                //The previous version of the file stays deployed.
+                log.warn("Unable to read discovery file {}, keeping its previous services", changedFile, e);
+            }
+        }
+        return new DiscoveryChanges(collectInstances(changedServiceNames), Set.of());
+    }
+
+    /**
+     * @return the instances of the given services from all the files, an empty list if a service is no longer defined.
+     */
+    private Map<String, List<ConsulObject>> collectInstances(Set<String> serviceNames) {
+        Map<String, List<ConsulObject>> serviceListObjects = new HashMap<>();
+        serviceNames.forEach(serviceName -> serviceListObjects.put(serviceName, new ArrayList<>()));
+        for(List<ConsulObject> instances : fileInstancesMap.values()) {
+            for(ConsulObject instance : instances) {
+                List<ConsulObject> serviceInstances = serviceListObjects.get(instance.getServiceName());
+                if(serviceInstances != null) {
+                    serviceInstances.add(instance);
+                }
+            }
+        }
+        return serviceListObjects;
+    }
+
+    private Set<Path> startWatching() throws IOException {
+        WatchService newWatchService = directory.getFileSystem().newWatchService();
+        directory.register(newWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchService = newWatchService;
+        log.debug("Watching discovery directory {}", directory);
+        return listFiles();
+    }
+
+    private Set<Path> pollChangedFiles() throws IOException {
+        Set<Path> changedFiles = new HashSet<>();
+        WatchKey watchKey;
+        while((watchKey = watchService.poll()) != null) {
+            for(WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+                if(watchEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    //Events were lost, every known and present file is read again.
+                    changedFiles.addAll(fileInstancesMap.keySet());
+                    changedFiles.addAll(listFiles());
+                } else {
+                    Path changedFile = directory.resolve((Path) watchEvent.context());
+                    if(isDiscoveryFile(changedFile)) {
+                        changedFiles.add(changedFile);
+                    }
+                }
+            }
+            if(!watchKey.reset()) {
+                log.warn("Discovery directory {} is no longer accessible", directory);
+                watchService.close();
+                watchService = null;
+                changedFiles.addAll(fileInstancesMap.keySet());
+                break;
+            }
+        }
+        return changedFiles;
+    }
+
+    private Set<Path> listFiles() throws IOException {
+        Set<Path> files = new HashSet<>();
+        try (Stream<Path> directoryStream = Files.list(directory)) {
+            directoryStream.filter(this::isDiscoveryFile).forEach(files::add);
+        }
+        return files;
+    }
+
+    private boolean isDiscoveryFile(Path path) {
+        return path.getFileName().toString().endsWith(FILE_EXTENSION);
+    }
+
+    @Override
+    public synchronized void close() {
+        if(watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("Unable to close the discovery directory watch", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.surisoft.capi.service;
+
+import io.surisoft.capi.schema.DiscoveredService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Damps the redeploys of services whose instances keep changing.
+ * Every change adds a penalty that decays exponentially with the half-life. Above the suppress threshold the service is not redeployed
+ * until the penalty decays below the reuse threshold, and two redeploys are always at least the minimum interval apart.
+ * A deferred change is kept as pending, a newer change replaces it, so a flapping service is redeployed once per window with its latest state.
+ */
+public class FlapDamper {
+
+    private static final Logger log = LoggerFactory.getLogger(FlapDamper.class);
+    private static final double PENALTY_PER_CHANGE = 1000;
+    private final double halfLifeMillis;
+    private final double suppressThreshold;
+    private final double reuseThreshold;
+    private final long minRedeployIntervalMillis;
+    private final LongSupplier clock;
+    private final Map<String, DampingState> dampingStateMap = new ConcurrentHashMap<>();
+
+    public FlapDamper(long halfLifeSeconds, double suppressThreshold, double reuseThreshold, long minRedeployIntervalSeconds) {
+        this(halfLifeSeconds, suppressThreshold, reuseThreshold, minRedeployIntervalSeconds, System::currentTimeMillis);
+    }
+
+    public FlapDamper(long halfLifeSeconds, double suppressThreshold, double reuseThreshold, long minRedeployIntervalSeconds, LongSupplier clock) {
+        this.halfLifeMillis = halfLifeSeconds * 1000d;
+        this.suppressThreshold = suppressThreshold;
+        this.reuseThreshold = reuseThreshold;
+        this.minRedeployIntervalMillis = minRedeployIntervalSeconds * 1000;
+        this.clock = clock;
+    }
+
+    /**
+     * Records a change of a deployed service.
+     * @return true if the service can be redeployed now, false if the change is kept as pending.
+     */
+    public synchronized boolean admit(DiscoveredService discoveredService) {
+        long now = clock.getAsLong();
+        DampingState dampingState = dampingStateMap.computeIfAbsent(discoveredService.serviceId(), k -> new DampingState());
+        dampingState.decay(now);
+        dampingState.penalty += PENALTY_PER_CHANGE;
+        if(dampingState.penalty >= suppressThreshold) {
+            if(!dampingState.suppressed) {
+                log.debug("Service {} is flapping, suppressing its redeploys", discoveredService.serviceId());
+            }
+            dampingState.suppressed = true;
+        }
+        if(dampingState.suppressed || now - dampingState.lastRedeploy < minRedeployIntervalMillis) {
+            dampingState.pending = discoveredService;
+            return false;
+        }
+        dampingState.pending = null;
+        dampingState.lastRedeploy = now;
+        return true;
+    }
+
+    /**
+     * @return the pending changes that can be redeployed now, the services that are no longer flapping are forgotten.
+     */
+    public synchronized List<DiscoveredService> releaseReady() {
+        long now = clock.getAsLong();
+        List<DiscoveredService> readyServices = new ArrayList<>();
+        dampingStateMap.entrySet().removeIf(entry -> {
+            DampingState dampingState = entry.getValue();
+            dampingState.decay(now);
+            if(dampingState.suppressed && dampingState.penalty < reuseThreshold) {
+                dampingState.suppressed = false;
+            }
+            boolean windowElapsed = now - dampingState.lastRedeploy >= minRedeployIntervalMillis;
+            if(dampingState.pending != null && !dampingState.suppressed && windowElapsed) {
+                readyServices.add(dampingState.pending);
+                dampingState.pending = null;
+                dampingState.lastRedeploy = now;
+                return false;
+            }
+            return dampingState.pending == null && !dampingState.suppressed && windowElapsed && dampingState.penalty < 1;
+        });
+        return readyServices;
+    }
+
+    public synchronized boolean isPending(String serviceId) {
+        DampingState dampingState = dampingStateMap.get(serviceId);
+        return dampingState != null && dampingState.pending != null;
+    }
+
+    public synchronized void forget(String serviceId) {
+        dampingStateMap.remove(serviceId);
+    }
+
+    private class DampingState {
+        private double penalty;
+        private long lastUpdate = clock.getAsLong();
+        private long lastRedeploy = Long.MIN_VALUE / 2;
+        private boolean suppressed;
+        private DiscoveredService pending;
+
+        private void decay(long now) {
+            if(now > lastUpdate) {
+                penalty *= Math.pow(0.5, (now - lastUpdate) / halfLifeMillis);
+                lastUpdate = now;
+            }
+        }
+    }
+}
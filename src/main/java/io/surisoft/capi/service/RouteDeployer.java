@@ -0,0 +1,118 @@
+package io.surisoft.capi.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.surisoft.capi.builder.BatchRouteBuilder;
+import io.surisoft.capi.utils.Constants;
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Deploys the routes of a discovery cycle in one batch: the configure method of every route builder runs in parallel,
+ * then all the routes are added and started with a single call. Camel still reifies and starts the routes sequentially in addRoutes,
+ * only the model building (endpoints, load balancers, route definitions) is parallel.
+ * If the batch fails, the routes of the batch are removed and deployed one by one, so one bad service does not block the others.
+ * The fallback asks the suppliers for new builders, so configure runs again for every route of the failed batch.
+ */
+public class RouteDeployer {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteDeployer.class);
+    private static final String BUILD_TIMER = "capi.routes.deployment.build";
+    private static final String START_TIMER = "capi.routes.deployment.start";
+    private static final String INITIAL_DEPLOYMENT_TIMER = "capi.routes.deployment.initial";
+    private final CamelContext camelContext;
+    private final long createdAt = System.nanoTime();
+    private ExecutorService executorService;
+    private MeterRegistry meterRegistry;
+    private boolean initialDeploymentRecorded = false;
+
+    public RouteDeployer(CamelContext camelContext) {
+        this.camelContext = camelContext;
+    }
+
+    /**
+     * @param routeBuilderSupplierMap the route builders to deploy, by route id. A supplier must return a new builder on every call.
+     */
+    public void deploy(Map<String, Supplier<RouteBuilder>> routeBuilderSupplierMap) {
+        if(routeBuilderSupplierMap.isEmpty()) {
+            return;
+        }
+        List<RouteBuilder> routeBuilderList = new ArrayList<>(routeBuilderSupplierMap.size());
+        routeBuilderSupplierMap.values().forEach(routeBuilderSupplier -> routeBuilderList.add(routeBuilderSupplier.get()));
+        BatchRouteBuilder batchRouteBuilder = new BatchRouteBuilder(camelContext, routeBuilderList);
+        try {
+            long buildStart = System.nanoTime();
+            if(batchRouteBuilder.size() > 1) {
+                batchRouteBuilder.buildModels(getExecutorService());
+            }
+            long startStart = System.nanoTime();
+            camelContext.addRoutes(batchRouteBuilder);
+            long end = System.nanoTime();
+
+            log.debug("Deployed {} route builders, build: {} ms, start: {} ms", batchRouteBuilder.size(),
+                    TimeUnit.NANOSECONDS.toMillis(startStart - buildStart), TimeUnit.NANOSECONDS.toMillis(end - startStart));
+            recordTimer(BUILD_TIMER, startStart - buildStart);
+            recordTimer(START_TIMER, end - startStart);
+            if(!initialDeploymentRecorded) {
+                initialDeploymentRecorded = true;
+                recordTimer(INITIAL_DEPLOYMENT_TIMER, end - createdAt);
+            }
+        } catch (Exception e) {
+            log.error("Batch deployment of {} route builders failed, deploying them one by one", routeBuilderSupplierMap.size(), e);
+            deployOneByOne(routeBuilderSupplierMap);
+        }
+    }
+
+    private void deployOneByOne(Map<String, Supplier<RouteBuilder>> routeBuilderSupplierMap) {
+        routeBuilderSupplierMap.keySet().forEach(this::removeRoute);
+        routeBuilderSupplierMap.forEach((routeId, routeBuilderSupplier) -> {
+            try {
+                camelContext.addRoutes(routeBuilderSupplier.get());
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                removeRoute(routeId);
+            }
+        });
+    }
+
+    private void removeRoute(String routeId) {
+        for(String id : List.of(routeId, Constants.CAMEL_REST_PREFIX + routeId)) {
+            try {
+                if(camelContext.getRoute(id) != null) {
+                    camelContext.getRouteController().stopRoute(id);
+                    camelContext.removeRoute(id);
+                }
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void recordTimer(String name, long durationNanos) {
+        if(meterRegistry != null) {
+            Timer.builder(name).register(meterRegistry).record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized ExecutorService getExecutorService() {
+        if(executorService == null) {
+            //Managed by Camel, shut down with the context.
+            executorService = camelContext.getExecutorServiceManager()
+                    .newFixedThreadPool(this, "capi-route-builder", Math.max(1, Runtime.getRuntime().availableProcessors()));
+        }
+        return executorService;
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+}
@@ -0,0 +1,94 @@
+package io.surisoft.capi.service;
+
+import io.surisoft.capi.kafka.CapiInstance;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Decides which services are deployed by this instance, when the catalog is partitioned between several CAPI instances.
+ * A service is assigned by its id (name:group), so an L7 in front of CAPI can route by the service prefix.
+ * <ul>
+ *     <li>Static shards: the service belongs to shard {@code hash(serviceId) mod count}.</li>
+ *     <li>Instance ring: the service belongs to the instance with the highest {@code hash(instanceId, serviceId)} (rendezvous hashing),
+ *     adding or removing an instance only moves the services of that instance.</li>
+ * </ul>
+ */
+public class ShardAssignment implements Predicate<String> {
+
+    private final int shardCount;
+    private final int shardIndex;
+    private final CapiInstance capiInstance;
+    private final List<String> ringInstanceIds;
+
+    private ShardAssignment(int shardCount, int shardIndex, CapiInstance capiInstance, List<String> ringInstanceIds) {
+        this.shardCount = shardCount;
+        this.shardIndex = shardIndex;
+        this.capiInstance = capiInstance;
+        this.ringInstanceIds = ringInstanceIds;
+    }
+
+    public static ShardAssignment ofShards(int shardCount, int shardIndex) {
+        if(shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Invalid shard index " + shardIndex + " for " + shardCount + " shards");
+        }
+        return new ShardAssignment(shardCount, shardIndex, null, null);
+    }
+
+    public static ShardAssignment ofRing(CapiInstance capiInstance, List<String> ringInstanceIds) {
+        if(!ringInstanceIds.contains(capiInstance.uuid())) {
+            throw new IllegalArgumentException("Instance " + capiInstance.uuid() + " is not part of the shard instances " + ringInstanceIds);
+        }
+        return new ShardAssignment(0, 0, capiInstance, List.copyOf(ringInstanceIds));
+    }
+
+    /**
+     * @return true if the service is deployed by this instance.
+     */
+    @Override
+    public boolean test(String serviceId) {
+        if(ringInstanceIds == null) {
+            return Math.floorMod(hash(serviceId), shardCount) == shardIndex;
+        }
+        return capiInstance.uuid().equals(ownerOf(serviceId));
+    }
+
+    /**
+     * @return the instance id owning the service, null in static shard mode.
+     */
+    public String ownerOf(String serviceId) {
+        if(ringInstanceIds == null) {
+            return null;
+        }
+        String owner = null;
+        long highestWeight = Long.MIN_VALUE;
+        for(String instanceId : ringInstanceIds) {
+            long weight = hash(instanceId + "/" + serviceId);
+            if(owner == null || weight > highestWeight || (weight == highestWeight && instanceId.compareTo(owner) < 0)) {
+                owner = instanceId;
+                highestWeight = weight;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * String.hashCode is specified, so every instance computes the same value, the finalizer spreads its bits.
+     */
+    static long hash(String value) {
+        long hash = value.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return ringInstanceIds == null ?
+                "shard " + shardIndex + " of " + shardCount :
+                "instance " + capiInstance.uuid() + " of " + ringInstanceIds;
+    }
+}
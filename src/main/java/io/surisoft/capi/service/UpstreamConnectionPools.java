@@ -0,0 +1,255 @@
+package io.surisoft.capi.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.http.HttpClientConfigurer;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Connection pools of the camel-http endpoints.
+ * The services without pool meta share one pool built from the global settings, a service with pool meta gets its own pool.
+ * The pools are bound in the Camel registry and given to the endpoints as their httpClientConfigurer,
+ * they are shared by the clients, so stopping a route does not close them.
+ * Expired and idle connections are evicted by the maintenance timer, which also registers the gauges of the new upstream hosts
+ * and removes the gauges of the hosts the pool no longer has connections to.
+ */
+@Component(value = "upstreamConnectionPools")
+@ConditionalOnProperty(prefix = "capi.upstream.pool", name = "enabled", havingValue = "true")
+public class UpstreamConnectionPools {
+
+    private static final Logger log = LoggerFactory.getLogger(UpstreamConnectionPools.class);
+    private static final String SHARED_POOL = "capiUpstreamPool";
+    private static final long RETIRE_DELAY_SECONDS = 60;
+    private final CamelContext camelContext;
+    private final ServiceRegistry serviceRegistry;
+    private final CompositeMeterRegistry meterRegistry;
+    private final PoolSettings defaultSettings;
+    private final boolean redirectDisabled;
+    private final boolean capiTrustStoreEnabled;
+    private final Map<String, Pool> servicePoolMap = new ConcurrentHashMap<>();
+    private final AtomicInteger poolCounter = new AtomicInteger();
+    private Pool sharedPool;
+
+    public UpstreamConnectionPools(CamelContext camelContext,
+                                   ServiceRegistry serviceRegistry,
+                                   CompositeMeterRegistry meterRegistry,
+                                   @Value("${capi.upstream.pool.max-total}") int maxTotal,
+                                   @Value("${capi.upstream.pool.max-per-route}") int maxPerRoute,
+                                   @Value("${capi.upstream.pool.time-to-live}") long timeToLive,
+                                   @Value("${capi.upstream.pool.idle-eviction}") long idleEviction,
+                                   @Value("${capi.upstream.pool.validate-after-inactivity}") long validateAfterInactivity,
+                                   @Value("${capi.disable.redirect}") boolean redirectDisabled,
+                                   @Value("${capi.trust.store.enabled}") boolean capiTrustStoreEnabled) {
+        this.camelContext = camelContext;
+        this.serviceRegistry = serviceRegistry;
+        this.meterRegistry = meterRegistry;
+        this.defaultSettings = new PoolSettings(maxTotal, maxPerRoute, timeToLive, idleEviction, validateAfterInactivity);
+        this.redirectDisabled = redirectDisabled;
+        this.capiTrustStoreEnabled = capiTrustStoreEnabled;
+    }
+
+    /**
+     * @return the name of the pool of the service in the Camel registry, to be used as #name.
+     */
+    public String getPoolReference(Service service) {
+        PoolSettings settings = defaultSettings.withOverrides(service.getServiceMeta());
+        if(settings.equals(defaultSettings)) {
+            retire(servicePoolMap.remove(service.getId()));
+            return getSharedPool().name;
+        }
+        Pool pool = servicePoolMap.get(service.getId());
+        if(pool != null && pool.settings.equals(settings)) {
+            return pool.name;
+        }
+        synchronized (this) {
+            pool = servicePoolMap.get(service.getId());
+            if(pool == null || !pool.settings.equals(settings)) {
+                Pool previousPool = pool;
+                pool = createPool(SHARED_POOL + "-" + poolCounter.incrementAndGet(), service.getId(), settings);
+                servicePoolMap.put(service.getId(), pool);
+                retire(previousPool);
+            }
+            return pool.name;
+        }
+    }
+
+    /**
+     * Evicts the expired and idle connections, registers the gauges of the new upstream hosts, removes the gauges of the hosts
+     * that are gone from the pool and retires the pools of the services that are gone.
+     */
+    public void maintain() {
+        servicePoolMap.forEach((serviceId, pool) -> {
+            if(!serviceRegistry.containsKey(serviceId) && servicePoolMap.remove(serviceId, pool)) {
+                retire(pool);
+            }
+        });
+        Pool currentSharedPool = sharedPool;
+        if(currentSharedPool != null) {
+            maintain(currentSharedPool);
+        }
+        servicePoolMap.values().forEach(this::maintain);
+    }
+
+    private void maintain(Pool pool) {
+        pool.connectionManager.closeExpired();
+        if(pool.settings.idleEviction() > 0) {
+            pool.connectionManager.closeIdle(TimeValue.ofSeconds(pool.settings.idleEviction()));
+        }
+        //The hosts without connections left are dropped by the pool, their gauges go with them.
+        Set<HttpRoute> routes = pool.connectionManager.getRoutes();
+        pool.meters.entrySet().removeIf(entry -> {
+            if(routes.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().forEach(meterRegistry::remove);
+            return true;
+        });
+        for(HttpRoute route : routes) {
+            pool.meters.computeIfAbsent(route, k -> List.of(
+                    registerGauge(pool, route, "capi.upstream.pool.leased", PoolStats::getLeased),
+                    registerGauge(pool, route, "capi.upstream.pool.available", PoolStats::getAvailable),
+                    registerGauge(pool, route, "capi.upstream.pool.pending", PoolStats::getPending)));
+        }
+    }
+
+    private Meter registerGauge(Pool pool, HttpRoute route, String name, ToIntFunction<PoolStats> stat) {
+        return Gauge.builder(name, pool.connectionManager, connectionManager -> stat.applyAsInt(connectionManager.getStats(route)))
+                .tag("pool", pool.owner)
+                .tag("host", route.getTargetHost().toURI())
+                .register(meterRegistry);
+    }
+
+    private synchronized Pool getSharedPool() {
+        if(sharedPool == null) {
+            sharedPool = createPool(SHARED_POOL, "shared", defaultSettings);
+        }
+        return sharedPool;
+    }
+
+    private Pool createPool(String name, String owner, PoolSettings settings) {
+        ConnectionConfig.Builder connectionConfig = ConnectionConfig.custom()
+                .setValidateAfterInactivity(TimeValue.ofMilliseconds(settings.validateAfterInactivity()));
+        if(settings.timeToLive() > 0) {
+            connectionConfig.setTimeToLive(TimeValue.ofSeconds(settings.timeToLive()));
+        }
+        PoolingHttpClientConnectionManagerBuilder connectionManagerBuilder = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(settings.maxTotal())
+                .setMaxConnPerRoute(settings.maxPerRoute())
+                .setDefaultConnectionConfig(connectionConfig.build());
+        SSLConnectionSocketFactory sslConnectionSocketFactory = createSslConnectionSocketFactory();
+        if(sslConnectionSocketFactory != null) {
+            connectionManagerBuilder.setSSLSocketFactory(sslConnectionSocketFactory);
+        }
+        Pool pool = new Pool(name, owner, settings, connectionManagerBuilder.build(), redirectDisabled);
+        camelContext.getRegistry().bind(name, HttpClientConfigurer.class, pool);
+        log.debug("Connection pool {} created for {} with {}", name, owner, settings);
+        return pool;
+    }
+
+    /**
+     * The endpoints still using the pool are being stopped, the pool is closed after a grace period.
+     */
+    private void retire(Pool pool) {
+        if(pool == null) {
+            return;
+        }
+        log.debug("Retiring connection pool {} of {}", pool.name, pool.owner);
+        camelContext.getRegistry().unbind(pool.name);
+        pool.meters.values().forEach(meters -> meters.forEach(meterRegistry::remove));
+        pool.meters.clear();
+        CompletableFuture.delayedExecutor(RETIRE_DELAY_SECONDS, TimeUnit.SECONDS)
+                .execute(() -> pool.connectionManager.close(CloseMode.GRACEFUL));
+    }
+
+    /**
+     * Uses the trust manager of the https component, so the certificates added by the certificate management are trusted by the pooled connections.
+     * @return null to use the default socket factory.
+     */
+    private SSLConnectionSocketFactory createSslConnectionSocketFactory() {
+        if(!capiTrustStoreEnabled) {
+            return null;
+        }
+        CapiTrustManager capiTrustManager = CapiTrustManager.fromHttpsComponent(camelContext);
+        if(capiTrustManager == null) {
+            log.warn("The trust store is not loaded, the connection pools use the default SSL context");
+            return null;
+        }
+        try {
+            return new SSLConnectionSocketFactory(capiTrustManager.createSSLContext());
+        } catch (Exception e) {
+            log.warn("Could not create the SSL context of the connection pools, using the default one: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param timeToLive seconds, 0 to keep the connections while they are valid.
+     * @param idleEviction seconds, 0 to keep the idle connections.
+     * @param validateAfterInactivity milliseconds.
+     */
+    public record PoolSettings(int maxTotal, int maxPerRoute, long timeToLive, long idleEviction, long validateAfterInactivity) {
+
+        public PoolSettings withOverrides(ServiceMeta serviceMeta) {
+            if(serviceMeta == null) {
+                return this;
+            }
+            return new PoolSettings(
+                    serviceMeta.getPoolMaxTotal() != null ? serviceMeta.getPoolMaxTotal() : maxTotal,
+                    serviceMeta.getPoolMaxPerRoute() != null ? serviceMeta.getPoolMaxPerRoute() : maxPerRoute,
+                    serviceMeta.getPoolTimeToLive() != null ? serviceMeta.getPoolTimeToLive() : timeToLive,
+                    serviceMeta.getPoolIdleEviction() != null ? serviceMeta.getPoolIdleEviction() : idleEviction,
+                    serviceMeta.getPoolValidateAfterInactivity() != null ? serviceMeta.getPoolValidateAfterInactivity() : validateAfterInactivity);
+        }
+    }
+
+    private static final class Pool implements HttpClientConfigurer {
+        private final String name;
+        private final String owner;
+        private final PoolSettings settings;
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final boolean redirectDisabled;
+        private final Map<HttpRoute, List<Meter>> meters = new ConcurrentHashMap<>();
+
+        private Pool(String name, String owner, PoolSettings settings, PoolingHttpClientConnectionManager connectionManager, boolean redirectDisabled) {
+            this.name = name;
+            this.owner = owner;
+            this.settings = settings;
+            this.connectionManager = connectionManager;
+            this.redirectDisabled = redirectDisabled;
+        }
+
+        @Override
+        public void configureHttpClient(HttpClientBuilder clientBuilder) {
+            //The endpoint configurer replaces the component one, so the redirect setting is applied here too.
+            clientBuilder.setConnectionManager(connectionManager).setConnectionManagerShared(true);
+            if(redirectDisabled) {
+                clientBuilder.disableRedirectHandling();
+            }
+        }
+    }
+}
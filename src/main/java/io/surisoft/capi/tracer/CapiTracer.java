@@ -59,9 +59,14 @@ public class CapiTracer extends ServiceSupport implements RoutePolicyFactory, St
     public CapiTracer(HttpUtils httpUtils) {
         exclusions.add("bean://consulNodeDiscovery");
         exclusions.add("timer://consul-inspect");
+        exclusions.add("timer://discovery-leader-renewal");
         exclusions.add("bean://consistencyChecker");
         exclusions.add("timer://consistency-checker");
         exclusions.add("timer://consul-KV-Store");
+        exclusions.add("bean://upstreamConnectionPools");
+        exclusions.add("timer://upstream-pool-maintenance");
+        exclusions.add("bean://restGateway");
+        exclusions.add("timer://rest-gateway-proxy-eviction");
         this.httpUtils = httpUtils;
     }
 
@@ -0,0 +1,100 @@
+package io.surisoft.capi.undertow;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.util.Protocols;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/2 settings of the downstream listeners: the servlet container, the REST, Websocket and SSE gateways.
+ * On TLS listeners HTTP/2 is negotiated with ALPN, on plain listeners it is only enabled with h2c (upgrade or prior knowledge).
+ * The wrapped handlers count the active streams of every HTTP/2 connection.
+ */
+@Component
+public class Http2Support {
+
+    private final boolean enabled;
+    private final boolean h2cEnabled;
+    private final int maxConcurrentStreams;
+    private final int initialWindowSize;
+    private final CompositeMeterRegistry meterRegistry;
+
+    public Http2Support(@Value("${capi.http2.enabled}") boolean enabled,
+                        @Value("${capi.http2.h2c}") boolean h2cEnabled,
+                        @Value("${capi.http2.max-concurrent-streams}") int maxConcurrentStreams,
+                        @Value("${capi.http2.initial-window-size}") int initialWindowSize,
+                        CompositeMeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.h2cEnabled = h2cEnabled;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.initialWindowSize = initialWindowSize;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public boolean isEnabled(boolean secure) {
+        return enabled && (secure || h2cEnabled);
+    }
+
+    public void configure(Undertow.Builder builder, boolean secure) {
+        if(isEnabled(secure)) {
+            builder.setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                    .setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams)
+                    .setServerOption(UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE, initialWindowSize);
+        }
+    }
+
+    /**
+     * @param listener servlet, rest-gateway, websocket or sse, used as the listener tag of the meters.
+     */
+    public HttpHandler wrap(String listener, boolean secure, HttpHandler next) {
+        if(!isEnabled(secure)) {
+            return next;
+        }
+        //Keyed by peer address, Undertow gives every HTTP/2 stream its own ServerConnection.
+        Map<SocketAddress, AtomicInteger> activeStreamMap = new ConcurrentHashMap<>();
+        AtomicInteger activeStreams = new AtomicInteger();
+        Gauge.builder("capi.http2.streams.active", activeStreams, AtomicInteger::get)
+                .tag("listener", listener)
+                .register(meterRegistry);
+        Gauge.builder("capi.http2.connections.active", activeStreamMap, Map::size)
+                .tag("listener", listener)
+                .register(meterRegistry);
+        DistributionSummary streamsPerConnection = DistributionSummary.builder("capi.http2.streams.per.connection")
+                .description("Active streams of the connection when a stream starts")
+                .tag("listener", listener)
+                .register(meterRegistry);
+
+        return httpServerExchange -> {
+            if(!Protocols.HTTP_2_0.equals(httpServerExchange.getProtocol())) {
+                next.handleRequest(httpServerExchange);
+                return;
+            }
+            SocketAddress connection = httpServerExchange.getConnection().getPeerAddress();
+            //Counted inside compute, so the counter can not be removed between the lookup and the increment.
+            int connectionStreams = activeStreamMap.compute(connection, (k, streams) -> {
+                AtomicInteger counter = streams == null ? new AtomicInteger() : streams;
+                counter.incrementAndGet();
+                return counter;
+            }).get();
+            streamsPerConnection.record(connectionStreams);
+            activeStreams.incrementAndGet();
+            httpServerExchange.addExchangeCompleteListener((exchange, nextListener) -> {
+                activeStreams.decrementAndGet();
+                //A connection without active streams is no longer counted.
+                activeStreamMap.computeIfPresent(connection, (k, streams) -> streams.decrementAndGet() == 0 ? null : streams);
+                nextListener.proceed();
+            });
+            next.handleRequest(httpServerExchange);
+        };
+    }
+}
@@ -0,0 +1,342 @@
+package io.surisoft.capi.undertow;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
+import io.surisoft.capi.configuration.CapiCorsFilter;
+import io.surisoft.capi.exception.AuthorizationException;
+import io.surisoft.capi.schema.HttpMethod;
+import io.surisoft.capi.schema.HttpProtocol;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.service.CapiTrustManager;
+import io.surisoft.capi.service.OpaService;
+import io.surisoft.capi.utils.Constants;
+import io.surisoft.capi.utils.HttpUtils;
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import io.undertow.server.handlers.proxy.ProxyHandler;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.apache.camel.CamelContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.ssl.XnioSsl;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Low latency REST gateway on its own listener, proxying with Undertow instead of the servlet container and Camel.
+ * Bodies are streamed with non-blocking I/O through pooled direct buffers.
+ * Services that need sticky sessions, tenant routing or OpenAPI validation are only served by the Camel routes.
+ * Like the routes, the gateway counts the requests (rd_ counters) and sets the forwarded headers of the reverse proxy mode,
+ * but its requests are not traced, the tracer is a Camel route policy.
+ * The proxies of the services removed from the registry, or replaced by a new version, are closed by the proxy eviction timer.
+ */
+@Component
+@ConditionalOnProperty(prefix = "capi.rest-gateway", name = "enabled", havingValue = "true")
+public class RestGateway {
+    private static final Logger log = LoggerFactory.getLogger(RestGateway.class);
+    private static final Set<String> METERED_METHODS = Set.of(HttpMethod.GET.getMethod(), HttpMethod.POST.getMethod(), HttpMethod.PUT.getMethod(),
+            HttpMethod.DELETE.getMethod(), HttpMethod.PATCH.getMethod());
+    private final int port;
+    private final int bufferSize;
+    private final int connectionsPerThread;
+    private final int maxRequestTime;
+    private final ServiceRegistry serviceRegistry;
+    private final HttpUtils httpUtils;
+    private final CapiCorsFilter capiCorsFilter;
+    private final Optional<OpaService> opaService;
+    private final Optional<SSLContext> sslContext;
+    private final Http2Support http2Support;
+    private final CamelContext camelContext;
+    private final boolean capiTrustStoreEnabled;
+    private final String reverseProxyHost;
+    private final boolean tracesEnabled;
+    private final CompositeMeterRegistry meterRegistry;
+    private final Map<String, ServiceProxy> serviceProxyMap = new ConcurrentHashMap<>();
+    //Null runs the blocking work on the Undertow worker pool.
+    private final Executor blockingExecutor;
+    private XnioSsl upstreamSsl;
+    private Undertow undertow;
+
+    public RestGateway(@Value("${capi.rest-gateway.server.port}") int port,
+                       @Value("${capi.rest-gateway.buffer-size}") int bufferSize,
+                       @Value("${capi.rest-gateway.connections-per-thread}") int connectionsPerThread,
+                       @Value("${capi.rest-gateway.max-request-time}") int maxRequestTime,
+                       @Value("${capi.threads.virtual}") boolean virtualThreads,
+                       @Value("${capi.trust.store.enabled}") boolean capiTrustStoreEnabled,
+                       @Value("${capi.reverse.proxy.enabled}") boolean reverseProxyEnabled,
+                       @Value("${capi.reverse.proxy.host}") String reverseProxyHost,
+                       @Value("${capi.traces.enabled}") boolean tracesEnabled,
+                       ServiceRegistry serviceRegistry,
+                       HttpUtils httpUtils,
+                       CapiCorsFilter capiCorsFilter,
+                       Optional<OpaService> opaService,
+                       Optional<SSLContext> sslContext,
+                       Http2Support http2Support,
+                       CompositeMeterRegistry meterRegistry,
+                       CamelContext camelContext) {
+        this.port = port;
+        this.bufferSize = bufferSize;
+        this.connectionsPerThread = connectionsPerThread;
+        this.maxRequestTime = maxRequestTime;
+        this.capiTrustStoreEnabled = capiTrustStoreEnabled;
+        this.reverseProxyHost = reverseProxyEnabled ? reverseProxyHost : null;
+        this.tracesEnabled = tracesEnabled;
+        this.meterRegistry = meterRegistry;
+        this.serviceRegistry = serviceRegistry;
+        this.httpUtils = httpUtils;
+        this.capiCorsFilter = capiCorsFilter;
+        this.opaService = opaService;
+        this.sslContext = sslContext;
+        this.http2Support = http2Support;
+        this.camelContext = camelContext;
+        this.blockingExecutor = virtualThreads ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("capi-rest-gateway-", 0).factory()) : null;
+    }
+
+    public void runProxy() {
+        if(tracesEnabled) {
+            log.warn("The requests served by the REST gateway are not traced, only the requests served on the main port are");
+        }
+        try {
+            upstreamSsl = new UndertowXnioSsl(Xnio.getInstance(), OptionMap.EMPTY, createUpstreamSslContext());
+        } catch (Exception e) {
+            log.warn("Could not create the upstream SSL context, HTTPS services will not be served by the REST gateway: {}", e.getMessage());
+        }
+
+        Undertow.Builder builder = Undertow.builder()
+                .setBufferSize(bufferSize)
+                .setDirectBuffers(true);
+
+        if(sslContext.isPresent()) {
+            builder.addHttpsListener(port, Constants.UNDERTOW_LISTENING_ADDRESS, sslContext.get());
+        } else {
+            builder.addHttpListener(port, Constants.UNDERTOW_LISTENING_ADDRESS);
+        }
+        http2Support.configure(builder, sslContext.isPresent());
+
+        builder.setHandler(http2Support.wrap("rest-gateway", sslContext.isPresent(), this::handleRequest));
+        undertow = builder.build();
+        undertow.start();
+        log.info("Capi REST Gateway listening on port {}", port);
+    }
+
+    public void stop() {
+        if(undertow != null) {
+            undertow.stop();
+            undertow = null;
+        }
+    }
+
+    private void handleRequest(HttpServerExchange httpServerExchange) throws Exception {
+        String requestPath = httpServerExchange.getRequestPath();
+        Service service = resolveService(requestPath);
+        if(service == null || !isFastPathService(service)) {
+            httpServerExchange.setStatusCode(404);
+            httpServerExchange.endExchange();
+            return;
+        }
+
+        if(capiCorsFilter.isGatewayCorsManagementEnabled()) {
+            capiCorsFilter.writeCorsHeaders(requestPath,
+                    httpServerExchange.getRequestHeaders().getFirst(Constants.ORIGIN_HEADER),
+                    (k, v) -> httpServerExchange.getResponseHeaders().put(HttpString.tryFromString(k), v));
+        }
+        if(httpServerExchange.getRequestMethod().equals(Methods.OPTIONS)) {
+            httpServerExchange.getResponseHeaders().put(HttpString.tryFromString("Access-Control-Max-Age"), Constants.ACCESS_CONTROL_MAX_AGE_VALUE);
+            httpServerExchange.setStatusCode(202);
+            httpServerExchange.endExchange();
+            return;
+        }
+
+        if(service.getServiceMeta().isSecured()) {
+            //The token validation and OPA calls block, they run on a worker thread, or a virtual thread.
+            HttpHandler authorizationHandler = exchange -> {
+                if(isAuthorized(exchange, service)) {
+                    forward(exchange, service, requestPath);
+                } else {
+                    exchange.getResponseHeaders().put(HttpString.tryFromString(Constants.REASON_MESSAGE_HEADER), "Not subscribed");
+                    exchange.setStatusCode(Constants.UNAUTHORIZED_CODE);
+                    exchange.endExchange();
+                }
+            };
+            if(blockingExecutor != null) {
+                httpServerExchange.dispatch(blockingExecutor, authorizationHandler);
+            } else {
+                httpServerExchange.dispatch(authorizationHandler);
+            }
+        } else {
+            forward(httpServerExchange, service, requestPath);
+        }
+    }
+
+    private Service resolveService(String requestPath) {
+        if(!requestPath.startsWith(Constants.CAPI_CONTEXT) ||
+                requestPath.length() <= Constants.CAPI_CONTEXT.length() ||
+                requestPath.charAt(Constants.CAPI_CONTEXT.length()) != '/') {
+            return null;
+        }
+        return serviceRegistry.resolve(requestPath, Constants.CAPI_CONTEXT.length());
+    }
+
+    private boolean isFastPathService(Service service) {
+        return service.getServiceMeta() != null &&
+                Constants.REST_TYPE.equalsIgnoreCase(service.getServiceMeta().getType()) &&
+                !service.getServiceMeta().isStickySession() &&
+                !service.getServiceMeta().isTenantAware() &&
+                service.getServiceMeta().getOpenApiEndpoint() == null &&
+                (upstreamSsl != null || !HttpProtocol.fromSchema(service.getServiceMeta().getSchema()).isSecure());
+    }
+
+    private boolean isAuthorized(HttpServerExchange httpServerExchange, Service service) {
+        try {
+            String accessToken = httpUtils.processAuthorizationAccessToken(httpServerExchange);
+            if(accessToken == null || !httpUtils.isAuthorized(accessToken, service.getContext(), service, opaService.orElse(null))) {
+                return false;
+            }
+            httpServerExchange.getRequestHeaders().put(HttpString.tryFromString(Constants.AUTHORIZATION_HEADER), Constants.BEARER + accessToken.replaceAll("(\r\n|\n)", ""));
+            return true;
+        } catch (AuthorizationException e) {
+            log.debug(e.getMessage());
+            return false;
+        }
+    }
+
+    private void forward(HttpServerExchange httpServerExchange, Service service, String requestPath) throws Exception {
+        String forwardPath = requestPath.substring(Constants.CAPI_CONTEXT.length() + service.getContext().length());
+        if(forwardPath.isEmpty()) {
+            forwardPath = "/";
+        }
+        if(service.getServiceMeta().isKeepGroup()) {
+            httpServerExchange.getRequestHeaders().put(HttpString.tryFromString(Constants.CAPI_GROUP_HEADER), service.getContext());
+        }
+        if(reverseProxyHost != null) {
+            httpServerExchange.getRequestHeaders().put(HttpString.tryFromString(Constants.X_FORWARDED_HOST), reverseProxyHost);
+            httpServerExchange.getRequestHeaders().put(HttpString.tryFromString(Constants.X_FORWARDED_PREFIX), Constants.CAPI_CONTEXT + service.getContext());
+        }
+        ServiceProxy serviceProxy = getServiceProxy(service);
+        Counter requestCounter = serviceProxy.requestCounters().get(httpServerExchange.getRequestMethod());
+        if(requestCounter != null) {
+            requestCounter.increment();
+        }
+        httpServerExchange.setRequestURI(forwardPath);
+        httpServerExchange.setRelativePath(forwardPath);
+        serviceProxy.httpHandler().handleRequest(httpServerExchange);
+    }
+
+    /**
+     * The proxy of a service is rebuilt when the registry holds a new version of the service.
+     */
+    private ServiceProxy getServiceProxy(Service service) {
+        ServiceProxy serviceProxy = serviceProxyMap.get(service.getId());
+        if(serviceProxy != null && serviceProxy.service() == service) {
+            return serviceProxy;
+        }
+        return replaceServiceProxy(service);
+    }
+
+    private synchronized ServiceProxy replaceServiceProxy(Service service) {
+        ServiceProxy existingProxy = serviceProxyMap.get(service.getId());
+        if(existingProxy != null) {
+            if(existingProxy.service() == service) {
+                return existingProxy;
+            }
+            existingProxy.close();
+        }
+        ServiceProxy serviceProxy = createServiceProxy(service);
+        serviceProxyMap.put(service.getId(), serviceProxy);
+        return serviceProxy;
+    }
+
+    /**
+     * Closes the proxies of the services that are gone from the registry or replaced by a new version, so their connections are released
+     * even if the service is not called again. Run by the proxy eviction timer.
+     */
+    public synchronized void removeStaleProxies() {
+        serviceProxyMap.values().removeIf(serviceProxy -> {
+            if(serviceRegistry.get(serviceProxy.service().getId()) != serviceProxy.service()) {
+                log.debug("Closing REST gateway proxy for service {}", serviceProxy.service().getId());
+                serviceProxy.close();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private ServiceProxy createServiceProxy(Service service) {
+        log.debug("Creating REST gateway proxy for service {}", service.getId());
+        LoadBalancingProxyClient loadBalancingProxyClient = new LoadBalancingProxyClient();
+        loadBalancingProxyClient.setConnectionsPerThread(connectionsPerThread);
+        HttpProtocol httpProtocol = HttpProtocol.fromSchema(service.getServiceMeta().getSchema());
+        List<URI> hosts = service.getMappingList().stream().map(mapping -> toUri(mapping, httpProtocol)).toList();
+        //h2 is negotiated with ALPN and falls back to HTTP/1.1. h2c uses prior knowledge, unlike the async transport which upgrades,
+        //the Undertow upgrade client sends an extra request to the instance before the connection can be used.
+        OptionMap hostOptions = httpProtocol.isHttp2() ? OptionMap.create(UndertowOptions.ENABLE_HTTP2, true) : OptionMap.EMPTY;
+        for(URI host : hosts) {
+            loadBalancingProxyClient.addHost(host, null, httpProtocol.isSecure() ? upstreamSsl : null, hostOptions);
+        }
+        HttpHandler httpHandler = ProxyHandler
+                .builder()
+                .setProxyClient(loadBalancingProxyClient)
+                .setMaxRequestTime(maxRequestTime)
+                .setRewriteHostHeader(true)
+                .setNext(ResponseCodeHandler.HANDLE_404)
+                .build();
+        //Same counters as the per method routes, rd_service:group:method.
+        Map<HttpString, Counter> requestCounters = new HashMap<>();
+        for(String method : METERED_METHODS) {
+            requestCounters.put(HttpString.tryFromString(method.toUpperCase()), meterRegistry.counter(Constants.CAMEL_REST_PREFIX + service.getId() + ":" + method));
+        }
+        return new ServiceProxy(service, loadBalancingProxyClient, hosts, httpHandler, Map.copyOf(requestCounters));
+    }
+
+    private URI toUri(Mapping mapping, HttpProtocol httpProtocol) {
+        String schema = httpProtocol == HttpProtocol.H2C ? Constants.UNDERTOW_H2C_PRIOR_KNOWLEDGE_SCHEME : httpProtocol.getScheme();
+        String port = mapping.getPort() > -1 ? ":" + mapping.getPort() : "";
+        String rootContext = mapping.getRootContext() == null ? "" : mapping.getRootContext();
+        return URI.create(schema + "://" + mapping.getHostname() + port + rootContext);
+    }
+
+    /**
+     * Uses the trust manager of the https component, so the certificates added by the certificate management are trusted without a restart.
+     */
+    private SSLContext createUpstreamSslContext() throws Exception {
+        if(!capiTrustStoreEnabled) {
+            return SSLContext.getDefault();
+        }
+        CapiTrustManager capiTrustManager = CapiTrustManager.fromHttpsComponent(camelContext);
+        if(capiTrustManager == null) {
+            log.warn("The trust store is not loaded, the REST gateway uses the default SSL context");
+            return SSLContext.getDefault();
+        }
+        return capiTrustManager.createSSLContext();
+    }
+
+    private record ServiceProxy(Service service, LoadBalancingProxyClient loadBalancingProxyClient, List<URI> hosts, HttpHandler httpHandler,
+                                Map<HttpString, Counter> requestCounters) {
+        void close() {
+            //Removing a host closes its connection pool.
+            hosts.forEach(loadBalancingProxyClient::removeHost);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package io.surisoft.capi.undertow;
 import io.surisoft.capi.exception.CapiUndertowException;
 import io.surisoft.capi.oidc.SSEAuthorization;
 import io.surisoft.capi.schema.SSEClient;
+import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.utils.Constants;
 import io.surisoft.capi.utils.SSEUtils;
 import io.undertow.Undertow;
@@ -25,12 +26,14 @@ public class SSEGateway {
     private SSEAuthorization sseAuthorization;
     private final SSEUtils sseUtils;
     private final Optional<SSLContext> sslContext;
+    private final Http2Support http2Support;
 
-    public SSEGateway(@Value("${capi.sse.server.port}") int port, Map<String, SSEClient> sseClients, SSEUtils sseUtils, Optional<SSLContext> sslContext) {
+    public SSEGateway(@Value("${capi.sse.server.port}") int port, Map<String, SSEClient> sseClients, SSEUtils sseUtils, Optional<SSLContext> sslContext, Http2Support http2Support) {
         this.port = port;
         this.sseClients = sseClients;
         this.sseUtils = sseUtils;
         this.sslContext = sslContext;
+        this.http2Support = http2Support;
     }
 
     public void runProxy() {
@@ -47,29 +50,31 @@ public class SSEGateway {
         } else {
             builder.addHttpListener(port, Constants.UNDERTOW_LISTENING_ADDRESS);
         }
+        http2Support.configure(builder, sslContext.isPresent());
 
         builder
-                .setHandler(httpServerExchange -> {
+                .setHandler(http2Support.wrap("sse", sslContext.isPresent(), httpServerExchange -> {
                     String requestPath = httpServerExchange.getRequestPath();
-                    String serviceDefinitionPath = sseUtils.getPathDefinition(requestPath);
-                    if (sseClients.containsKey(serviceDefinitionPath)) {
+                    Service service = sseUtils.resolveService(requestPath);
+                    SSEClient sseClient = service == null ? null : sseClients.get(service.getContext());
+                    if (sseClient != null) {
                         if (sseAuthorization != null) {
-                            if (sseAuthorization.isAuthorized(sseClients.get(serviceDefinitionPath), httpServerExchange)) {
+                            if (sseAuthorization.isAuthorized(sseClient, httpServerExchange)) {
                                 log.info("{} is authorized!", httpServerExchange.getRequestPath());
-                                httpServerExchange.setRequestURI(sseUtils.normalizePathForForwarding(sseClients.get(serviceDefinitionPath), requestPath));
-                                httpServerExchange.setRelativePath(sseUtils.normalizePathForForwarding(sseClients.get(serviceDefinitionPath), requestPath));
-                                sseClients.get(serviceDefinitionPath).getHttpHandler().handleRequest(httpServerExchange);
+                                httpServerExchange.setRequestURI(sseUtils.normalizePathForForwarding(service, requestPath));
+                                httpServerExchange.setRelativePath(sseUtils.normalizePathForForwarding(service, requestPath));
+                                sseClient.getHttpHandler().handleRequest(httpServerExchange);
                             } else {
                                 log.info("{} is not authorized!", httpServerExchange.getRequestPath());
                                 httpServerExchange.setStatusCode(403);
                                 httpServerExchange.endExchange();
                             }
                         } else {
-                            if (!sseClients.get(serviceDefinitionPath).requiresSubscription()) {
+                            if (!sseClient.requiresSubscription()) {
                                 log.info("{} is authorized!", httpServerExchange.getRequestPath());
-                                httpServerExchange.setRequestURI(sseUtils.normalizePathForForwarding(sseClients.get(serviceDefinitionPath), requestPath));
-                                httpServerExchange.setRelativePath(sseUtils.normalizePathForForwarding(sseClients.get(serviceDefinitionPath), requestPath));
-                                sseClients.get(serviceDefinitionPath).getHttpHandler().handleRequest(httpServerExchange);
+                                httpServerExchange.setRequestURI(sseUtils.normalizePathForForwarding(service, requestPath));
+                                httpServerExchange.setRelativePath(sseUtils.normalizePathForForwarding(service, requestPath));
+                                sseClient.getHttpHandler().handleRequest(httpServerExchange);
                             } else {
                                 log.info("{} is not authorized!", httpServerExchange.getRequestPath());
                                 httpServerExchange.setStatusCode(403);
@@ -77,7 +82,7 @@ public class SSEGateway {
                             }
                         }
                     }
-                });
+                }));
         builder.build().start();
     }
 }
\ No newline at end of file
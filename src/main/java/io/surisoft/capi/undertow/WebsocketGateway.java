@@ -2,6 +2,7 @@ package io.surisoft.capi.undertow;
 
 import io.surisoft.capi.exception.CapiUndertowException;
 import io.surisoft.capi.oidc.WebsocketAuthorization;
+import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.schema.WebsocketClient;
 import io.surisoft.capi.utils.Constants;
 import io.surisoft.capi.utils.WebsocketUtils;
@@ -25,15 +26,18 @@ public class WebsocketGateway {
     private WebsocketAuthorization websocketAuthorization;
     private final WebsocketUtils websocketUtils;
     private final Optional<SSLContext> sslContext;
+    private final Http2Support http2Support;
 
     public WebsocketGateway(@Value("${capi.websocket.server.port}") int port,
                             Map<String, WebsocketClient> webSocketClients,
                             WebsocketUtils websocketUtils,
-                            Optional<SSLContext> sslContext) {
+                            Optional<SSLContext> sslContext,
+                            Http2Support http2Support) {
         this.port = port;
         this.webSocketClients = webSocketClients;
         this.websocketUtils = websocketUtils;
         this.sslContext = sslContext;
+        this.http2Support = http2Support;
     }
 
     public void runProxy() {
@@ -51,19 +55,21 @@ public class WebsocketGateway {
         } else {
             builder.addHttpListener(port, Constants.UNDERTOW_LISTENING_ADDRESS);
         }
+        //The websocket handshakes stay on HTTP/1.1, HTTP/2 serves the other requests of the clients.
+        http2Support.configure(builder, sslContext.isPresent());
 
         builder
-                .setHandler(httpServerExchange -> {
+                .setHandler(http2Support.wrap("websocket", sslContext.isPresent(), httpServerExchange -> {
                     String requestPath = httpServerExchange.getRequestPath();
-                    String webClientId = websocketUtils.getWebclientId(requestPath);
-                    WebsocketClient websocketClient = webSocketClients.get(webClientId);
-                    if (webSocketClients.containsKey(webClientId)) {
+                    Service service = websocketUtils.resolveService(requestPath);
+                    WebsocketClient websocketClient = service == null ? null : webSocketClients.get(service.getContext());
+                    if (websocketClient != null) {
                         if (httpServerExchange.getProtocol().equals(Constants.PROTOCOL_HTTP)) {
                             if (websocketAuthorization != null) {
                                 if (websocketAuthorization.isAuthorized(websocketClient, httpServerExchange)) {
                                     log.info("{} is authorized!", httpServerExchange.getRequestPath());
-                                    httpServerExchange.setRequestURI(websocketUtils.normalizePathForForwarding(websocketClient, requestPath));
-                                    httpServerExchange.setRelativePath(websocketUtils.normalizePathForForwarding(websocketClient, requestPath));
+                                    httpServerExchange.setRequestURI(websocketUtils.normalizePathForForwarding(service, requestPath));
+                                    httpServerExchange.setRelativePath(websocketUtils.normalizePathForForwarding(service, requestPath));
                                     websocketClient.getHttpHandler().handleRequest(httpServerExchange);
                                 } else {
                                     log.info("{} is not authorized!", httpServerExchange.getRequestPath());
@@ -73,8 +79,8 @@ public class WebsocketGateway {
                             } else {
                                 if (!websocketClient.requiresSubscription()) {
                                     log.info("{} is authorized!", httpServerExchange.getRequestPath());
-                                    httpServerExchange.setRequestURI(websocketUtils.normalizePathForForwarding(websocketClient, requestPath));
-                                    httpServerExchange.setRelativePath(websocketUtils.normalizePathForForwarding(websocketClient, requestPath));
+                                    httpServerExchange.setRequestURI(websocketUtils.normalizePathForForwarding(service, requestPath));
+                                    httpServerExchange.setRelativePath(websocketUtils.normalizePathForForwarding(service, requestPath));
                                     websocketClient.getHttpHandler().handleRequest(httpServerExchange);
                                 } else {
                                     log.info("{} is ot authorized!", httpServerExchange.getRequestPath());
@@ -88,7 +94,7 @@ public class WebsocketGateway {
                         httpServerExchange.setStatusCode(404);
                         httpServerExchange.endExchange();
                     }
-                });
+                }));
         builder.build().start();
     }
 }
\ No newline at end of file
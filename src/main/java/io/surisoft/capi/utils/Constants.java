@@ -39,6 +39,11 @@ public class Constants {
     public static final String X_FORWARDED_HOST = "X-Forwarded-Host";
     public static final String CAMEL_DIRECT = "direct:";
     public static final String CAMEL_REST_PREFIX = "rd_";
+    public static final String CAMEL_SERVLET = "servlet:";
+    public static final String CAMEL_SERVLET_ASYNC_PARAM = "async";
+    public static final String HTTP_METHOD_RESTRICT = "&httpMethodRestrict=";
+    public static final String COMPACT_ROUTE_HTTP_METHODS = HTTP_METHOD_RESTRICT + "DELETE,PUT,POST,GET,PATCH";
+    public static final String CAPI_METRIC_ROUTE_ID = "CapiMetricRouteId";
     public static final String ERROR_MESSAGE = "errorMessage";
     public static final String ERROR_CODE = "errorCode";
     public static final String NO_CUSTOM_TRUST_STORE_PROVIDED = "No custom trust store was provided, to enable this feature, add a custom trust store.";
@@ -64,7 +69,13 @@ public class Constants {
             "/swagger/**"
     };
     public static final List<String> CAPI_INTERNAL_ROUTES_PREFIX = List.of("consul-discovery-service",
-                                                                           "consistency-checker-service");
+                                                                           "consistency-checker-service",
+                                                                           "lazy-routes-eviction-service",
+                                                                           "discovery-fan-out-service");
+    public static final int LAZY_ROUTES_EVICTION_INTERVAL = 60000;
+    public static final int UPSTREAM_POOL_MAINTENANCE_INTERVAL = 5000;
+    public static final int REST_GATEWAY_PROXY_EVICTION_INTERVAL = 30000;
+    public static final String UNDERTOW_H2C_PRIOR_KNOWLEDGE_SCHEME = "h2c-prior";
     public static final String CAMEL_HTTP_SERVLET_REQUEST = "CamelHttpServletRequest";
     public static final String CACHE_ROUTE_STOPPED_EVENT = "RouteStoppedEvent";
     public static final String CACHE_ROUTE_REMOVED_EVENT = "RouteRemovedEvent";
@@ -88,6 +99,7 @@ public class Constants {
     public static final String CAPI_CONTEXT = "/capi";
     public static final String BEARER = "Bearer ";
     public static final String CAPI_GROUP_HEADER = "Capi-Group";
+    public static final String REST_TYPE = "rest";
     public static final String WEBSOCKET_TYPE = "websocket";
     public static final String SSE_TYPE = "sse";
     public static final String FULL_TYPE = "full";
@@ -114,4 +126,10 @@ public class Constants {
     public static final String CLIENT_RESPONSE_CODE = "ClientResponseCode";
     public static final String CONSUL_KV_STORE_API = "/v1/kv/";
     public static final String CAPI_CORS_HEADERS_CACHE_KEY = "capi-cors-headers";
+    public static final String CONSUL_INDEX_HEADER = "X-Consul-Index";
+    public static final int CONSUL_WATCH_TIMER_INTERVAL = 10;
+    public static final String FILE_DISCOVERY_PROVIDER = "file";
+    public static final String CONSUL_SESSION_CREATE_API = "/v1/session/create";
+    public static final String CONSUL_SESSION_RENEW_API = "/v1/session/renew/";
+    public static final String CONSUL_SESSION_DESTROY_API = "/v1/session/destroy/";
 }
\ No newline at end of file
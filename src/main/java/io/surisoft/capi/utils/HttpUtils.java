@@ -11,6 +11,8 @@ import io.surisoft.capi.oidc.Oauth2Constants;
 import io.surisoft.capi.schema.OpaResult;
 import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.service.OpaService;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import org.apache.camel.Exchange;
 import org.slf4j.Logger;
@@ -122,6 +124,23 @@ public class HttpUtils {
         return null;
     }
 
+    public String processAuthorizationAccessToken(HttpServerExchange httpServerExchange) throws AuthorizationException {
+        String authorization = httpServerExchange.getRequestHeaders().getFirst(Constants.AUTHORIZATION_HEADER);
+        if(authorization == null) {
+            if(httpServerExchange.getRequestHeaders().getFirst(Constants.AUTHORIZATION_REQUEST_PARAMETER) != null) {
+                return httpServerExchange.getRequestHeaders().getFirst(Constants.AUTHORIZATION_REQUEST_PARAMETER);
+            }
+            String authorizationName = httpServerExchange.getRequestHeaders().getFirst(authorizationCookieName);
+            if(authorizationName != null) {
+                Cookie cookie = httpServerExchange.getRequestCookie(authorizationName);
+                return cookie == null ? null : cookie.getValue();
+            }
+        } else {
+            return getBearerTokenFromHeader(authorization);
+        }
+        return null;
+    }
+
     public String normalizeHttpEndpoint(String httpEndpoint) {
         if(httpEndpoint.contains("http://")) {
             return httpEndpoint.replace("http://", "");
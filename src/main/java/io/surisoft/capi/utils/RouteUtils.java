@@ -1,18 +1,18 @@
 package io.surisoft.capi.utils;
 
 import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.cache.StickySessionCacheManager;
 import io.surisoft.capi.processor.AuthorizationProcessor;
 import io.surisoft.capi.processor.HttpErrorProcessor;
 import io.surisoft.capi.schema.*;
 import io.surisoft.capi.service.CapiTrustManager;
+import io.surisoft.capi.service.UpstreamConnectionPools;
 import io.surisoft.capi.tracer.CapiTracer;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Route;
-import org.apache.camel.component.http.HttpComponent;
 import org.apache.camel.component.mock.MockEndpoint;
 import org.apache.camel.model.RouteDefinition;
-import org.cache2k.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -33,7 +33,7 @@ public class RouteUtils {
     private final CompositeMeterRegistry meterRegistry;
     private final Optional<CapiTracer> capiTracer;
     private final CamelContext camelContext;
-    private Cache<String, Service> serviceCache;
+    private ServiceRegistry serviceRegistry;
     private final Optional<AuthorizationProcessor> authorizationProcessor;
     private WebsocketUtils websocketUtils;
     private Map<String, WebsocketClient> websocketClientMap;
@@ -41,6 +41,9 @@ public class RouteUtils {
     private final boolean capiErrorListenerEnabled;
     private final String capiErrorListenerContext;
     private final int capiErrorListenerPort;
+    private final boolean compactRoutesEnabled;
+    private final boolean directConsumerEnabled;
+    private final Optional<UpstreamConnectionPools> upstreamConnectionPools;
 
     public RouteUtils(@Value("${server.ssl.enabled}") boolean sslEnabled,
                       @Value("${capi.gateway.error.endpoint}") String capiGatewayErrorEndpoint,
@@ -50,14 +53,17 @@ public class RouteUtils {
                       CompositeMeterRegistry meterRegistry,
                       Optional<CapiTracer> capiTracer,
                       CamelContext camelContext,
-                      Cache<String, Service> serviceCache,
+                      ServiceRegistry serviceRegistry,
                       Optional<AuthorizationProcessor> authorizationProcessor,
                       WebsocketUtils websocketUtils,
                       Map<String, WebsocketClient> websocketClientMap,
                       @Value("${capi.gateway.cors.management.enabled}") boolean gatewayCorsManagementEnabled,
                       @Value("${capi.gateway.error.listener.enabled}") boolean capiErrorListenerEnabled,
                       @Value("${capi.gateway.error.listener.context}") String capiErrorListenerContext,
-                      @Value("${capi.gateway.error.listener.port}") int capiErrorListenerPort) {
+                      @Value("${capi.gateway.error.listener.port}") int capiErrorListenerPort,
+                      @Value("${capi.gateway.compact-routes.enabled}") boolean compactRoutesEnabled,
+                      @Value("${capi.gateway.direct-consumer.enabled}") boolean directConsumerEnabled,
+                      Optional<UpstreamConnectionPools> upstreamConnectionPools) {
         this.sslEnabled = sslEnabled;
         this.capiGatewayErrorEndpoint = capiGatewayErrorEndpoint;
         this.capiGatewayErrorEndpointSsl = capiGatewayErrorEndpointSsl;
@@ -66,7 +72,7 @@ public class RouteUtils {
         this.meterRegistry = meterRegistry;
         this.capiTracer = capiTracer;
         this.camelContext = camelContext;
-        this.serviceCache = serviceCache;
+        this.serviceRegistry = serviceRegistry;
         this.authorizationProcessor = authorizationProcessor;
         this.websocketUtils = websocketUtils;
         this.websocketClientMap = websocketClientMap;
@@ -74,6 +80,9 @@ public class RouteUtils {
         this.capiErrorListenerEnabled = capiErrorListenerEnabled;
         this.capiErrorListenerContext = capiErrorListenerContext;
         this.capiErrorListenerPort = capiErrorListenerPort;
+        this.compactRoutesEnabled = compactRoutesEnabled;
+        this.directConsumerEnabled = directConsumerEnabled;
+        this.upstreamConnectionPools = upstreamConnectionPools;
 
     }
 
@@ -132,18 +141,14 @@ public class RouteUtils {
     public String[] buildEndpoints(Service service) {
         List<String> transformedEndpointList = new ArrayList<>();
         for(Mapping mapping : service.getMappingList()) {
-            HttpProtocol httpProtocol = null;
-            if(service.getServiceMeta().getSchema() == null || service.getServiceMeta().getSchema().equals("http")) {
-                httpProtocol = HttpProtocol.HTTP;
-            } else {
-                httpProtocol = HttpProtocol.HTTPS;
-            }
+            //camel-http only speaks HTTP/1.1, h2 and h2c services reach it when they can not use the async transport.
+            String scheme = HttpProtocol.fromSchema(service.getServiceMeta().getSchema()).getScheme();
 
             String endpoint;
             if(mapping.getPort() > -1) {
-                endpoint = httpProtocol.getProtocol() + "://" + mapping.getHostname() + ":" + mapping.getPort() + mapping.getRootContext() + "?bridgeEndpoint=true&throwExceptionOnFailure=false";
+                endpoint = scheme + "://" + mapping.getHostname() + ":" + mapping.getPort() + mapping.getRootContext() + "?bridgeEndpoint=true&throwExceptionOnFailure=false";
             } else {
-                endpoint = httpProtocol.getProtocol() + "://" + mapping.getHostname() + mapping.getRootContext() + "?bridgeEndpoint=true&throwExceptionOnFailure=false";
+                endpoint = scheme + "://" + mapping.getHostname() + mapping.getRootContext() + "?bridgeEndpoint=true&throwExceptionOnFailure=false";
             }
             if(mapping.isIngress()) {
                 endpoint = httpUtils.setIngressEndpoint(endpoint, mapping.getHostname());
@@ -157,6 +162,10 @@ public class RouteUtils {
                 endpoint = endpoint + "&headerFilterStrategy=#capiCorsFilterStrategy";
             }
 
+            if(upstreamConnectionPools.isPresent()) {
+                endpoint = endpoint + "&httpClientConfigurer=#" + upstreamConnectionPools.get().getPoolReference(service);
+            }
+
             transformedEndpointList.add(endpoint);
         }
         return transformedEndpointList.toArray(String[]::new);
@@ -169,7 +178,20 @@ public class RouteUtils {
         return service.getContext();
     }
 
+    /**
+     * In compact mode, the service has only one route, named after the service id.
+     */
     public List<String> getAllRouteIdForAGivenService(Service service) {
+        if(compactRoutesEnabled) {
+            return List.of(service.getId());
+        }
+        return getAllMethodRouteIdForAGivenService(service);
+    }
+
+    /**
+     * @return the per method route ids, in compact mode they are only used to name the metrics.
+     */
+    public List<String> getAllMethodRouteIdForAGivenService(Service service) {
         List<String> routeIdList = new ArrayList<>();
         routeIdList.add(service.getId() + ":" + HttpMethod.DELETE.getMethod());
         routeIdList.add(service.getId() + ":" + HttpMethod.PUT.getMethod());
@@ -180,6 +202,9 @@ public class RouteUtils {
     }
 
     public List<String> getAllRouteIdForAGivenService(String serviceId) {
+        if(compactRoutesEnabled) {
+            return List.of(serviceId);
+        }
         List<String> routeIdList = new ArrayList<>();
         routeIdList.add(serviceId + ":" + HttpMethod.DELETE.getMethod());
         routeIdList.add(serviceId + ":" + HttpMethod.PUT.getMethod());
@@ -189,8 +214,46 @@ public class RouteUtils {
         return routeIdList;
     }
 
+    /**
+     * Single servlet consumer for all the methods of a service, used in compact mode instead of the REST DSL.
+     */
+    public String buildCompactFrom(Service service) {
+        return Constants.CAMEL_SERVLET + buildFrom(service)
+                + Constants.MATCH_ON_URI_PREFIX + "true"
+                + Constants.MAP_HTTP_MESSAGE_FORM_URL_ENCODED_BODY
+                + Constants.COMPACT_ROUTE_HTTP_METHODS;
+    }
+
+    /**
+     * Servlet consumer for one method of a service, used instead of the REST DSL to avoid the rest to direct hop.
+     */
+    public String buildMethodFrom(Service service, String method) {
+        String from = Constants.CAMEL_SERVLET + buildFrom(service)
+                + Constants.MATCH_ON_URI_PREFIX + "true"
+                + Constants.HTTP_METHOD_RESTRICT + method.toUpperCase();
+        if(method.equals(HttpMethod.POST.getMethod()) || method.equals(HttpMethod.PUT.getMethod())) {
+            from = from + Constants.MAP_HTTP_MESSAGE_FORM_URL_ENCODED_BODY;
+        }
+        return from;
+    }
+
+    public boolean isDirectConsumerEnabled() {
+        return directConsumerEnabled;
+    }
+
+    public boolean isCompactRoutesEnabled() {
+        return compactRoutesEnabled;
+    }
+
+    /**
+     * Only for the per method route ids (service:group:method), compact route ids do not carry a method.
+     */
     public String getMethodFromRouteId(String routeId) {
-        return routeId.split(":")[2];
+        String[] routeIdParts = routeId.split(":");
+        if(routeIdParts.length < 3) {
+            throw new IllegalArgumentException("Route " + routeId + " is not a per method route");
+        }
+        return routeIdParts[2];
     }
 
     public String getStickySessionId(String paramName, String paramValue) {
@@ -220,8 +283,12 @@ public class RouteUtils {
     public void reloadTrustStoreManager(String serviceId, boolean undeploy) {
         try {
             log.trace("Reloading Trust Store Manager after changes for API: {}", serviceId);
-            HttpComponent httpComponent = (HttpComponent) camelContext.getComponent("https");
-            CapiTrustManager capiTrustManager = (CapiTrustManager) httpComponent.getSslContextParameters().getTrustManagers().getTrustManager();
+            //The https component, the connection pools, the async transport and the REST gateway share this trust manager.
+            CapiTrustManager capiTrustManager = CapiTrustManager.fromHttpsComponent(camelContext);
+            if(capiTrustManager == null) {
+                log.warn("The trust store is not loaded, nothing to reload for API: {}", serviceId);
+                return;
+            }
             capiTrustManager.reloadTrustManager();
         } catch(Exception e) {
             log.error(e.getMessage(), e);
@@ -2,6 +2,7 @@ package io.surisoft.capi.utils;
 
 import com.nimbusds.jose.proc.SecurityContext;
 import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.exception.CapiUndertowException;
 import io.surisoft.capi.oidc.SSEAuthorization;
 import io.surisoft.capi.schema.HttpProtocol;
@@ -23,11 +24,14 @@ public class SSEUtils {
 
     private final String capiContextPath;
     private final Optional<List<DefaultJWTProcessor<SecurityContext>>> defaultJWTProcessor;
+    private final ServiceRegistry serviceRegistry;
 
     public SSEUtils(@Value("${camel.servlet.mapping.context-path}") String capiContextPath,
-                    Optional<List<DefaultJWTProcessor<SecurityContext>>> defaultJWTProcessor) {
+                    Optional<List<DefaultJWTProcessor<SecurityContext>>> defaultJWTProcessor,
+                    ServiceRegistry serviceRegistry) {
         this.capiContextPath = capiContextPath;
         this.defaultJWTProcessor = defaultJWTProcessor;
+        this.serviceRegistry = serviceRegistry;
     }
 
     public HttpHandler createClientHttpHandler(SSEClient webSocketClient, Service service) {
@@ -52,24 +56,27 @@ public class SSEUtils {
         throw new CapiUndertowException("No OIDC provider enabled, consider enabling OIDC");
     }
 
-    public String normalizePathForForwarding(SSEClient sseClient, String path) {
-        String pathWithoutCapiContext = path.replaceAll(Constants.CAPI_CONTEXT, "");
-        return pathWithoutCapiContext.replaceAll(sseClient.getApiId(), "");
+    /**
+     * @return the path after the Capi context and the service context.
+     */
+    public String normalizePathForForwarding(Service service, String path) {
+        return path.substring(Constants.CAPI_CONTEXT.length() + service.getContext().length());
     }
 
     public String normalizeBaseContextName() {
         return capiContextPath.replaceAll("/", "").replaceAll("\\*", "");
     }
 
-    public String getPathDefinition(String originalRequest) {
-        String[] pathParts = originalRequest.split("/");
-        if(pathParts.length < 4) {
+    /**
+     * Resolves the service of a request path under the Capi context, the SSE client is registered with the service context.
+     */
+    public Service resolveService(String originalRequest) {
+        if(!originalRequest.startsWith(Constants.CAPI_CONTEXT) ||
+                originalRequest.length() <= Constants.CAPI_CONTEXT.length() ||
+                originalRequest.charAt(Constants.CAPI_CONTEXT.length()) != '/') {
             return null;
         }
-        if(!pathParts[1].equals(normalizeBaseContextName())) {
-            return null;
-        }
-        return Constants.CAPI_CONTEXT + "/" + pathParts[2] + "/" + pathParts[3] + "/";
+        return serviceRegistry.resolve(originalRequest, Constants.CAPI_CONTEXT.length());
     }
 
     public SSEClient createSSEClient(Service service) {
@@ -1,5 +1,6 @@
 package io.surisoft.capi.utils;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.*;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.parser.OpenAPIV3Parser;
@@ -7,16 +8,11 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.apache.camel.CamelContext;
-import org.cache2k.Cache;
-import org.cache2k.CacheEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.*;
 
 @Component
 public class ServiceUtils {
@@ -88,15 +84,13 @@ public class ServiceUtils {
 
     public boolean updateExistingService(Service existingService,
                                       Service incomingService,
-                                      Cache<String, Service> serviceCache) {
+                                      ServiceRegistry serviceRegistry) {
 
         if(!Objects.equals(existingService.getServiceIdConsul(), incomingService.getServiceIdConsul())) {
-            redeployService(incomingService, existingService, serviceCache);
-            serviceCache.remove(existingService.getId());
+            undeployChangedService(existingService, incomingService, serviceRegistry);
             return true;
         } else if(isMappingChanged(existingService.getMappingList().stream().toList(), incomingService.getMappingList().stream().toList())) {
-            redeployService(incomingService, existingService, serviceCache);
-            serviceCache.remove(existingService.getId());
+            undeployChangedService(existingService, incomingService, serviceRegistry);
             return true;
         } else {
             log.trace("No changes detected for Service: {}.", existingService.getId());
@@ -104,20 +98,28 @@ public class ServiceUtils {
         }
     }
 
-    private void redeployService(Service incomingService, Service existingService, Cache<String, Service> serviceCache) {
+    /**
+     * Removes the routes (or clients) of a service that changed, so the incoming version can be deployed.
+     */
+    public void undeployChangedService(Service existingService, Service incomingService, ServiceRegistry serviceRegistry) {
+        redeployService(incomingService, existingService, serviceRegistry);
+        serviceRegistry.remove(existingService.getId());
+    }
+
+    private void redeployService(Service incomingService, Service existingService, ServiceRegistry serviceRegistry) {
         log.trace("Changes detected for Service: {}, redeploying routes.", existingService.getId());
         if(existingService.getServiceMeta().getType() != null &&
                 existingService.getServiceMeta().getType().equals(Constants.WEBSOCKET_TYPE) &&
                 incomingService.getServiceMeta().getType().equals(Constants.WEBSOCKET_TYPE) &&
                 websocketClientMap.isPresent() &&
-                websocketClientMap.get().containsKey(existingService.getId())) {
+                websocketClientMap.get().containsKey(existingService.getContext())) {
             websocketClientMap.get().remove(existingService.getContext());
         } else if(existingService.getServiceMeta().getType() != null &&
                 existingService.getServiceMeta().getType().equals(Constants.SSE_TYPE) &&
                 incomingService.getServiceMeta().getType().equals(Constants.SSE_TYPE) &&
                 sseClientMap.isPresent() &&
-                sseClientMap.get().containsKey(existingService.getId())) {
-            sseClientMap.get().remove(existingService.getId());
+                sseClientMap.get().containsKey(existingService.getContext())) {
+            sseClientMap.get().remove(existingService.getContext());
         } else {
             try {
                 List<String> apiRouteIdList = routeUtils.getAllRouteIdForAGivenService(existingService);
@@ -135,35 +137,41 @@ public class ServiceUtils {
         if(existingMappingList.size() != incomingMappingList.size()) {
             return true;
         }
+        Set<Mapping> existingMappingSet = new HashSet<>(existingMappingList);
         for(Mapping incomingMapping : incomingMappingList) {
-            if(!existingMappingList.contains(incomingMapping)) {
+            if(!existingMappingSet.contains(incomingMapping)) {
                 return true;
             }
         }
         return false;
     }
 
-    public void removeUnusedService(CamelContext camelContext, RouteUtils routeUtils, Cache<String, Service> serviceCache, List<String> serviceNameList) throws Exception {
-        for (CacheEntry<String, Service> stringServiceCacheEntry : serviceCache.entries()) {
-            Service service = stringServiceCacheEntry.getValue();
-            if (!serviceNameList.contains(service.getName())) {
-                serviceCache.remove(service.getId());
-                if(service.getServiceMeta().getType().equals("websocket") && websocketClientMap.isPresent()) {
-                    websocketUtils.removeClientFromMap(websocketClientMap.get(), service);
-                } else if(service.getServiceMeta().getType().equals("sse") && sseClientMap.isPresent()) {
-
-                    sseClientMap.get().remove(service.getContext());
-                } else {
-                    List<String> serviceRouteIdList = routeUtils.getAllRouteIdForAGivenService(service);
-                    for (String routeId : serviceRouteIdList) {
-                        camelContext.getRouteController().stopRoute(routeId);
-                        camelContext.removeRoute(routeId);
-                    }
+    public void removeUnusedService(CamelContext camelContext, RouteUtils routeUtils, ServiceRegistry serviceRegistry, Collection<String> serviceNameList) throws Exception {
+        Set<String> serviceNameSet = new HashSet<>(serviceNameList);
+        for (String serviceName : serviceRegistry.getServiceNames()) {
+            if (!serviceNameSet.contains(serviceName)) {
+                for (Service service : serviceRegistry.getByName(serviceName)) {
+                    removeService(camelContext, routeUtils, serviceRegistry, service);
                 }
             }
         }
     }
 
+    public void removeService(CamelContext camelContext, RouteUtils routeUtils, ServiceRegistry serviceRegistry, Service service) throws Exception {
+        serviceRegistry.remove(service.getId());
+        if(service.getServiceMeta().getType().equals("websocket") && websocketClientMap.isPresent()) {
+            websocketUtils.removeClientFromMap(websocketClientMap.get(), service);
+        } else if(service.getServiceMeta().getType().equals("sse") && sseClientMap.isPresent()) {
+            sseClientMap.get().remove(service.getContext());
+        } else {
+            List<String> serviceRouteIdList = routeUtils.getAllRouteIdForAGivenService(service);
+            for (String routeId : serviceRouteIdList) {
+                camelContext.getRouteController().stopRoute(routeId);
+                camelContext.removeRoute(routeId);
+            }
+        }
+    }
+
     public boolean checkIfOpenApiIsEnabled(Service service) {
         if(service.getServiceMeta() != null && service.getServiceMeta().getOpenApiEndpoint() != null && !service.getServiceMeta().getOpenApiEndpoint().isEmpty()) {
             try {
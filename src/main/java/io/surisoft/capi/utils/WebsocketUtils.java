@@ -2,6 +2,7 @@ package io.surisoft.capi.utils;
 
 import com.nimbusds.jose.proc.SecurityContext;
 import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.exception.CapiUndertowException;
 import io.surisoft.capi.oidc.WebsocketAuthorization;
 import io.surisoft.capi.schema.HttpProtocol;
@@ -23,12 +24,17 @@ import java.util.Optional;
 public class WebsocketUtils {
 
     private final String capiContextPath;
+    private final String normalizedCapiContextPath;
     private final Optional<List<DefaultJWTProcessor<SecurityContext>>> defaultJWTProcessor;
+    private final ServiceRegistry serviceRegistry;
 
     public WebsocketUtils(@Value("${camel.servlet.mapping.context-path}") String capiContextPath,
-                          Optional<List<DefaultJWTProcessor<SecurityContext>>> defaultJWTProcessor) {
+                          Optional<List<DefaultJWTProcessor<SecurityContext>>> defaultJWTProcessor,
+                          ServiceRegistry serviceRegistry) {
         this.capiContextPath = capiContextPath;
+        this.normalizedCapiContextPath = normalizeCapiContextPath();
         this.defaultJWTProcessor = defaultJWTProcessor;
+        this.serviceRegistry = serviceRegistry;
     }
 
     public HttpHandler createClientHttpHandler(WebsocketClient webSocketClient, Service service) {
@@ -53,24 +59,27 @@ public class WebsocketUtils {
         throw new CapiUndertowException("No OIDC provider enabled, consider enabling OIDC");
     }
 
-    public String normalizePathForForwarding(WebsocketClient websocketClient, String path) {
-        String pathWithoutCapiContext = path.replaceAll(normalizeCapiContextPath(), "");
-        return pathWithoutCapiContext.replaceAll(websocketClient.getServiceId(), "");
+    /**
+     * @return the path after the Capi context and the service context.
+     */
+    public String normalizePathForForwarding(Service service, String path) {
+        return path.substring(normalizedCapiContextPath.length() + service.getContext().length());
     }
 
     public String normalizeBaseContextName() {
         return capiContextPath.replaceAll("/", "").replaceAll("\\*", "");
     }
 
-    public String getWebclientId(String originalRequest) {
-        String[] pathParts = originalRequest.split("/");
-        if(pathParts.length < 4) {
+    /**
+     * Resolves the service of a request path under the Capi context, the websocket client is registered with the service context.
+     */
+    public Service resolveService(String originalRequest) {
+        if(!originalRequest.startsWith(normalizedCapiContextPath) ||
+                originalRequest.length() <= normalizedCapiContextPath.length() ||
+                originalRequest.charAt(normalizedCapiContextPath.length()) != '/') {
             return null;
         }
-        if(!pathParts[1].equals(normalizeBaseContextName())) {
-            return null;
-        }
-        return  "/" + pathParts[2] + "/" + pathParts[3];
+        return serviceRegistry.resolve(originalRequest, normalizedCapiContextPath.length());
     }
 
     public WebsocketClient createWebsocketClient(Service service) {
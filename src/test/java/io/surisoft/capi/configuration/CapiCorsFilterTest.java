@@ -1,10 +1,9 @@
 package io.surisoft.capi.configuration;
 
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.schema.ServiceMeta;
 import jakarta.servlet.FilterChain;
-import org.cache2k.Cache;
-import org.cache2k.Cache2kBuilder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -21,12 +20,7 @@ import org.springframework.test.util.ReflectionTestUtils;
 @SpringBootTest
 class CapiCorsFilterTest {
 
-    private final Cache<String, Service> mockServiceCache = new Cache2kBuilder<String, Service>(){}
-                                                            .name("serviceCache-" + hashCode())
-                                                            .eternal(true)
-                                                            .entryCapacity(10000)
-                                                            .storeByReference(true)
-                                                            .build();
+    private final ServiceRegistry mockServiceRegistry = new ServiceRegistry();
 
     @Autowired
     private CapiCorsFilter capiCorsFilterUnderTest;
@@ -37,7 +31,7 @@ class CapiCorsFilterTest {
         ReflectionTestUtils.setField(capiCorsFilterUnderTest, "oauth2CookieName", "oauth2CookieName");
         ReflectionTestUtils.setField(capiCorsFilterUnderTest, "gatewayCorsManagementEnabled", true);
         ReflectionTestUtils.setField(capiCorsFilterUnderTest, "capiContextPath", "/capi");
-        ReflectionTestUtils.setField(capiCorsFilterUnderTest, "serviceCache", mockServiceCache);
+        ReflectionTestUtils.setField(capiCorsFilterUnderTest, "serviceRegistry", mockServiceRegistry);
     }
 
     @Test
@@ -56,7 +50,7 @@ class CapiCorsFilterTest {
         service.setContext("/test/endpoint");
         ServiceMeta serviceMeta = new ServiceMeta();
         service.setServiceMeta(serviceMeta);
-        mockServiceCache.put("test:endpoint", service);
+        mockServiceRegistry.put("test:endpoint", service);
 
         // Run the test
         capiCorsFilterUnderTest.doFilter(mockHttpServletRequest, servletResponse, filterChain);
@@ -80,7 +74,7 @@ class CapiCorsFilterTest {
         ServiceMeta serviceMeta = new ServiceMeta();
         serviceMeta.setAllowedOrigins("http://localhost:8080");
         service.setServiceMeta(serviceMeta);
-        mockServiceCache.put("test:endpoint", service);
+        mockServiceRegistry.put("test:endpoint", service);
 
         // Run the test
         capiCorsFilterUnderTest.doFilter(mockHttpServletRequest, servletResponse, filterChain);
@@ -104,7 +98,7 @@ class CapiCorsFilterTest {
         ServiceMeta serviceMeta = new ServiceMeta();
         serviceMeta.setAllowedOrigins("http://localhost:9090");
         service.setServiceMeta(serviceMeta);
-        mockServiceCache.put("test:endpoint", service);
+        mockServiceRegistry.put("test:endpoint", service);
 
         // Run the test
         capiCorsFilterUnderTest.doFilter(mockHttpServletRequest, servletResponse, filterChain);
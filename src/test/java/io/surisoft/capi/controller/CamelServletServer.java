@@ -0,0 +1,48 @@
+package io.surisoft.capi.controller;
+
+import io.undertow.Undertow;
+import io.undertow.servlet.Servlets;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import jakarta.servlet.ServletException;
+import org.apache.camel.component.servlet.CamelHttpTransportServlet;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The Camel servlet on an embedded Undertow, mapped to /capi/* like camel.servlet.mapping.context-path,
+ * so the servlet consumers of a plain Camel context can be called over HTTP.
+ */
+final class CamelServletServer implements AutoCloseable {
+
+    private final DeploymentManager deploymentManager;
+    private final Undertow undertow;
+
+    CamelServletServer() throws ServletException {
+        DeploymentInfo deploymentInfo = Servlets.deployment()
+                .setClassLoader(CamelServletServer.class.getClassLoader())
+                .setContextPath("/")
+                .setDeploymentName("capi")
+                .addServlet(Servlets.servlet("CamelServlet", CamelHttpTransportServlet.class)
+                        .addMapping("/capi/*")
+                        .setLoadOnStartup(1));
+        deploymentManager = Servlets.defaultContainer().addDeployment(deploymentInfo);
+        deploymentManager.deploy();
+        undertow = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(deploymentManager.start())
+                .build();
+        undertow.start();
+    }
+
+    int getPort() {
+        return ((InetSocketAddress) undertow.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    @Override
+    public void close() throws ServletException {
+        undertow.stop();
+        deploymentManager.stop();
+        deploymentManager.undeploy();
+    }
+}
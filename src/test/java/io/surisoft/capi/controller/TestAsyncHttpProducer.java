@@ -0,0 +1,214 @@
+package io.surisoft.capi.controller;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.surisoft.capi.processor.AsyncHttpProducer;
+import io.surisoft.capi.processor.AsyncHttpTransport;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.service.CapiTrustManager;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.http.base.HttpHeaderFilterStrategy;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.camel.support.service.ServiceHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.SSLException;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestAsyncHttpProducer {
+
+    //Nothing listens on port 1, the connection is refused.
+    private static final String UNREACHABLE_URI = "http://localhost:1";
+
+    private CamelContext camelContext;
+    private WireMockServer firstInstance;
+    private WireMockServer secondInstance;
+
+    @BeforeEach
+    void startInstances() {
+        camelContext = new DefaultCamelContext();
+        camelContext.start();
+        firstInstance = startInstance("first");
+        secondInstance = startInstance("second");
+    }
+
+    @AfterEach
+    void stopInstances() {
+        firstInstance.stop();
+        secondInstance.stop();
+        camelContext.stop();
+    }
+
+    @Test
+    void testRoundRobin() throws Exception {
+        AsyncHttpProducer asyncHttpProducer = createProducer(baseUri(firstInstance), baseUri(secondInstance));
+        assertEquals("first", send(asyncHttpProducer, "/orders").getMessage().getBody(String.class));
+        assertEquals("second", send(asyncHttpProducer, "/orders").getMessage().getBody(String.class));
+        assertEquals("first", send(asyncHttpProducer, "/orders").getMessage().getBody(String.class));
+        assertEquals("second", send(asyncHttpProducer, "/orders").getMessage().getBody(String.class));
+        firstInstance.verify(2, getRequestedFor(urlEqualTo("/orders")));
+        secondInstance.verify(2, getRequestedFor(urlEqualTo("/orders")));
+    }
+
+    @Test
+    void testFailoverOnConnectionRefused() throws Exception {
+        AsyncHttpProducer asyncHttpProducer = createProducer(UNREACHABLE_URI, baseUri(firstInstance));
+        //The first request starts on the unreachable instance and fails over, the second one goes straight to the first instance.
+        for(int i = 0; i < 2; i++) {
+            Exchange exchange = send(asyncHttpProducer, "/orders");
+            assertNull(exchange.getException());
+            assertEquals(200, exchange.getMessage().getHeader(Exchange.HTTP_RESPONSE_CODE));
+            assertEquals("first", exchange.getMessage().getBody(String.class));
+        }
+        firstInstance.verify(2, getRequestedFor(urlEqualTo("/orders")));
+    }
+
+    @Test
+    void testConnectionRefusedWithoutFailover() throws Exception {
+        Exchange exchange = send(createProducer(UNREACHABLE_URI), "/orders");
+        assertInstanceOf(ConnectException.class, exchange.getException());
+    }
+
+    @Test
+    void testStatusCodeIsReturnedAsIs() throws Exception {
+        firstInstance.stubFor(get(urlEqualTo("/unavailable")).willReturn(aResponse().withStatus(503).withBody("try later")));
+        firstInstance.stubFor(get(urlEqualTo("/empty")).willReturn(aResponse().withStatus(204)));
+        AsyncHttpProducer asyncHttpProducer = createProducer(baseUri(firstInstance));
+
+        Exchange exchange = send(asyncHttpProducer, "/unavailable");
+        //Unlike camel-http with throwExceptionOnFailure, an error status is not an exception.
+        assertNull(exchange.getException());
+        assertEquals(503, exchange.getMessage().getHeader(Exchange.HTTP_RESPONSE_CODE));
+        assertEquals("try later", exchange.getMessage().getBody(String.class));
+
+        exchange = send(asyncHttpProducer, "/empty");
+        assertEquals(204, exchange.getMessage().getHeader(Exchange.HTTP_RESPONSE_CODE));
+        assertNull(exchange.getMessage().getBody());
+    }
+
+    @Test
+    void testHeadersAreFiltered() throws Exception {
+        firstInstance.stubFor(get(urlPathEqualTo("/root/orders")).willReturn(aResponse()
+                .withHeader("X-Upstream", "first")
+                .withHeader("CamelInjected", "true")
+                .withBody("orders")));
+        AsyncHttpProducer asyncHttpProducer = createProducer(baseUri(firstInstance) + "/root");
+
+        Exchange exchange = new DefaultExchange(camelContext);
+        exchange.getIn().setHeader(Exchange.HTTP_METHOD, "GET");
+        exchange.getIn().setHeader(Exchange.HTTP_PATH, "/orders");
+        exchange.getIn().setHeader(Exchange.HTTP_QUERY, "page=1");
+        exchange.getIn().setHeader("X-Custom", "value");
+        exchange.getIn().setHeader("CamelSecret", "value");
+        exchange.getIn().setHeader("Host", "somewhere-else");
+        exchange.getIn().setHeader("Connection", "close");
+        exchange = process(asyncHttpProducer, exchange);
+
+        assertNull(exchange.getException());
+        firstInstance.verify(getRequestedFor(urlEqualTo("/root/orders?page=1"))
+                .withHeader("X-Custom", equalTo("value"))
+                .withHeader("Host", equalTo("localhost:" + firstInstance.port()))
+                .withoutHeader("CamelSecret")
+                .withoutHeader(Exchange.HTTP_PATH));
+        assertEquals("first", exchange.getMessage().getHeader("X-Upstream"));
+        assertNull(exchange.getMessage().getHeader("CamelInjected"));
+        assertEquals("orders", exchange.getMessage().getBody(String.class));
+    }
+
+    @Test
+    void testTransportTrustsTheReloadedTrustStore(@TempDir Path tempDir) throws Exception {
+        TrustStoreFixture trustStoreFixture = new TrustStoreFixture(tempDir);
+        CapiTrustManager capiTrustManager = trustStoreFixture.bindToHttpsComponent(camelContext);
+        WireMockServer httpsInstance = new WireMockServer(wireMockConfig()
+                .dynamicPort()
+                .dynamicHttpsPort()
+                .keystorePath(trustStoreFixture.getServerKeyStore())
+                .keystorePassword(TrustStoreFixture.PASSWORD)
+                .keyManagerPassword(TrustStoreFixture.PASSWORD)
+                .keystoreType("JKS"));
+        httpsInstance.start();
+        try {
+            httpsInstance.stubFor(get(urlEqualTo("/orders")).willReturn(aResponse().withBody("secure")));
+            AsyncHttpTransport asyncHttpTransport = new AsyncHttpTransport(camelContext, "async", 2000, 5000, true, Optional.empty());
+            AsyncHttpProducer asyncHttpProducer = asyncHttpTransport.createProducer(createHttpsService(httpsInstance.httpsPort()));
+            ServiceHelper.startService(asyncHttpProducer);
+
+            assertInstanceOf(SSLException.class, send(asyncHttpProducer, "/orders").getException());
+
+            //Added by the certificate management, the client built before the reload trusts it.
+            trustStoreFixture.trustServerCertificate();
+            capiTrustManager.reloadTrustManager();
+            Exchange exchange = send(asyncHttpProducer, "/orders");
+            assertNull(exchange.getException());
+            assertEquals("secure", exchange.getMessage().getBody(String.class));
+        } finally {
+            httpsInstance.stop();
+        }
+    }
+
+    private Service createHttpsService(int port) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("https");
+
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(port);
+        mapping.setRootContext("");
+
+        Service service = new Service();
+        service.setId("secure:dev");
+        service.setName("secure");
+        service.setContext("/secure/dev");
+        service.setServiceMeta(serviceMeta);
+        service.setMappingList(Set.of(mapping));
+        return service;
+    }
+
+    private WireMockServer startInstance(String name) {
+        WireMockServer wireMockServer = new WireMockServer(wireMockConfig().dynamicPort());
+        wireMockServer.start();
+        wireMockServer.stubFor(get(urlEqualTo("/orders")).willReturn(aResponse().withBody(name)));
+        return wireMockServer;
+    }
+
+    private String baseUri(WireMockServer wireMockServer) {
+        return "http://localhost:" + wireMockServer.port();
+    }
+
+    private AsyncHttpProducer createProducer(String... baseUris) {
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        AsyncHttpProducer asyncHttpProducer = new AsyncHttpProducer(httpClient, "unit-test:dev", baseUris, Duration.ofSeconds(5), new HttpHeaderFilterStrategy());
+        ServiceHelper.startService(asyncHttpProducer);
+        return asyncHttpProducer;
+    }
+
+    private Exchange send(AsyncHttpProducer asyncHttpProducer, String path) throws Exception {
+        Exchange exchange = new DefaultExchange(camelContext);
+        exchange.getIn().setHeader(Exchange.HTTP_METHOD, "GET");
+        exchange.getIn().setHeader(Exchange.HTTP_PATH, path);
+        return process(asyncHttpProducer, exchange);
+    }
+
+    private Exchange process(AsyncHttpProducer asyncHttpProducer, Exchange exchange) throws Exception {
+        CompletableFuture<Exchange> completedExchange = new CompletableFuture<>();
+        asyncHttpProducer.process(exchange, doneSync -> completedExchange.complete(exchange));
+        return completedExchange.get(10, TimeUnit.SECONDS);
+    }
+}
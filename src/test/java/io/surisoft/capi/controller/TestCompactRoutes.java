@@ -0,0 +1,98 @@
+package io.surisoft.capi.controller;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.builder.DirectRouteProcessor;
+import io.surisoft.capi.processor.MetricsProcessor;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.utils.RouteUtils;
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.model.RoutesDefinition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestCompactRoutes {
+
+    private CamelContext camelContext;
+    private CompositeMeterRegistry meterRegistry;
+    private RouteUtils routeUtils;
+
+    @BeforeEach
+    void createRouteUtils() {
+        camelContext = new DefaultCamelContext();
+        meterRegistry = new CompositeMeterRegistry();
+        routeUtils = new RouteUtils(false, "localhost:8380/capi-error", false, null, null, meterRegistry, Optional.empty(),
+                camelContext, null, Optional.empty(), null, null, false, false, "", 0, true, false, Optional.empty());
+    }
+
+    @AfterEach
+    void stopCamel() {
+        camelContext.stop();
+    }
+
+    @Test
+    void testCompactRouteIds() {
+        Service service = createService();
+        assertEquals(List.of("unit-test:dev"), routeUtils.getAllRouteIdForAGivenService(service));
+        assertEquals(List.of("unit-test:dev"), routeUtils.getAllRouteIdForAGivenService("unit-test:dev"));
+        //The per method route ids are still used to name the metrics.
+        assertEquals(List.of("unit-test:dev:delete", "unit-test:dev:put", "unit-test:dev:post", "unit-test:dev:get", "unit-test:dev:patch"),
+                routeUtils.getAllMethodRouteIdForAGivenService(service));
+    }
+
+    @Test
+    void testBuildCompactFrom() {
+        assertEquals("servlet:/unit-test/dev?matchOnUriPrefix=true&mapHttpMessageFormUrlEncodedBody=false&httpMethodRestrict=DELETE,PUT,POST,GET,PATCH",
+                routeUtils.buildCompactFrom(createService()));
+    }
+
+    @Test
+    void testCompactRouteIdHasNoMethod() {
+        assertThrows(IllegalArgumentException.class, () -> routeUtils.getMethodFromRouteId("unit-test:dev"));
+    }
+
+    @Test
+    void testCompactModeDeploysOneRoutePerService() throws Exception {
+        Service service = createService();
+        DirectRouteProcessor directRouteProcessor = new DirectRouteProcessor(camelContext, service, routeUtils, new MetricsProcessor(), "unit-test:dev", "/capi", null);
+        RoutesDefinition routesDefinition = directRouteProcessor.configureRoutes(camelContext);
+
+        assertEquals(1, routesDefinition.getRoutes().size());
+        RouteDefinition routeDefinition = routesDefinition.getRoutes().get(0);
+        assertEquals("unit-test:dev", routeDefinition.getRouteId());
+        assertEquals(routeUtils.buildCompactFrom(service), routeDefinition.getInput().getEndpointUri());
+        //No rest route in front of the compact route.
+        assertTrue(directRouteProcessor.getRestCollection().getRests().isEmpty());
+        for(String methodRouteId : routeUtils.getAllMethodRouteIdForAGivenService(service)) {
+            assertNotNull(meterRegistry.find("rd_" + methodRouteId).counter());
+        }
+    }
+
+    private Service createService() {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("http");
+
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(8081);
+        mapping.setRootContext("/");
+
+        Service service = new Service();
+        service.setId("unit-test:dev");
+        service.setName("unit-test");
+        service.setContext("/unit-test/dev");
+        service.setServiceMeta(serviceMeta);
+        service.setMappingList(Set.of(mapping));
+        return service;
+    }
+}
@@ -0,0 +1,93 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.schema.ConsulObject;
+import io.surisoft.capi.service.ConsulCatalogSnapshot;
+import io.surisoft.capi.service.ConsulQueryFilter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestConsulCatalogSnapshot {
+
+    @Test
+    void testReadServiceNames() throws IOException {
+        String servicesResponse = """
+                {
+                    "consul": [],
+                    "dummy": [
+                        "group=dev",
+                        "no-root-context"
+                    ],
+                    "nested": {
+                        "unexpected": ["value", {"deep": true}]
+                    },
+                    "empty": []
+                }""";
+        Set<String> serviceNames = ConsulCatalogSnapshot.readServiceNames(servicesResponse.getBytes(StandardCharsets.UTF_8));
+        //The consul service is ignored and the tags are skipped.
+        assertEquals(Set.of("dummy", "nested", "empty"), serviceNames);
+        assertTrue(ConsulCatalogSnapshot.readServiceNames("{}".getBytes(StandardCharsets.UTF_8)).isEmpty());
+    }
+
+    @Test
+    void testReadServiceNamesRejectsUnexpectedResponses() {
+        assertThrows(IOException.class, () -> ConsulCatalogSnapshot.readServiceNames("[]".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IOException.class, () -> ConsulCatalogSnapshot.readServiceNames("{\"dummy\": [".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testServiceInstancesUri() {
+        String consulHost = "http://consul-1:8500";
+        ConsulQueryFilter consulQueryFilter = new ConsulQueryFilter("prod", true);
+        assertEquals(consulHost + "/v1/catalog/service/dummy", ConsulCatalogSnapshot.serviceInstancesUri(consulHost, "dummy", false, null));
+        assertEquals(consulHost + "/v1/catalog/service/dummy?" + consulQueryFilter.getCatalogQuery(),
+                ConsulCatalogSnapshot.serviceInstancesUri(consulHost, "dummy", false, consulQueryFilter));
+        //Passing only, the health endpoint with the passing filter, the query filter is appended to it.
+        assertEquals(consulHost + "/v1/health/service/dummy?passing=true", ConsulCatalogSnapshot.serviceInstancesUri(consulHost, "dummy", true, null));
+        assertEquals(consulHost + "/v1/health/service/dummy?passing=true&" + consulQueryFilter.getHealthQuery(),
+                ConsulCatalogSnapshot.serviceInstancesUri(consulHost, "dummy", true, consulQueryFilter));
+    }
+
+    @Test
+    void testReadPassingServiceInstances() throws IOException {
+        String healthResponse = """
+                [
+                  {
+                    "Node": {"ID": "node-1", "Address": "10.0.0.1"},
+                    "Service": {"ID": "dummy-1", "Service": "dummy", "Address": "", "Port": 8080, "Meta": {"group": "dev"}},
+                    "Checks": [{"Status": "passing"}]
+                  },
+                  {
+                    "Node": {"ID": "node-2", "Address": "10.0.0.2"},
+                    "Service": {"ID": "dummy-2", "Service": "dummy", "Address": "10.0.1.2", "Port": 8081, "Meta": {"group": "dev"}},
+                    "Checks": [{"Status": "passing"}]
+                  }
+                ]""";
+        List<ConsulObject> consulObjectList = ConsulCatalogSnapshot.readServiceInstances(healthResponse.getBytes(StandardCharsets.UTF_8), true);
+        assertEquals(2, consulObjectList.size());
+        assertEquals("dummy-1", consulObjectList.get(0).getServiceId());
+        //An empty service address means the node address.
+        assertEquals("10.0.0.1", consulObjectList.get(0).getServiceAddress());
+        assertEquals("10.0.1.2", consulObjectList.get(1).getServiceAddress());
+        assertEquals(8081, consulObjectList.get(1).getServicePort());
+        assertEquals("dev", consulObjectList.get(1).getServiceMeta().getGroup());
+        //Every instance critical, Consul answers with an empty list.
+        assertTrue(ConsulCatalogSnapshot.readServiceInstances("[]".getBytes(StandardCharsets.UTF_8), true).isEmpty());
+    }
+
+    @Test
+    void testServiceNamesAreMergedFromAllHosts() {
+        ConsulCatalogSnapshot consulCatalogSnapshot = new ConsulCatalogSnapshot(Map.of(
+                "http://consul-1:8500", Set.of("dummy", "chat"),
+                "http://consul-2:8500", Set.of("dummy", "orders")), false);
+        assertEquals(Set.of("dummy", "chat", "orders"), consulCatalogSnapshot.getServiceNames());
+        assertEquals(2, consulCatalogSnapshot.getServicesByHost().size());
+        assertFalse(consulCatalogSnapshot.isComplete());
+    }
+}
@@ -0,0 +1,153 @@
+package io.surisoft.capi.controller;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.surisoft.capi.service.ConsulCatalogWatcher;
+import io.surisoft.capi.utils.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestConsulCatalogWatcher {
+
+    private static final String SERVICES_PATH = "/v1/catalog/services";
+    private static final String SERVICE_DUMMY_PATH = "/v1/catalog/service/dummy";
+    private static final String SERVICES_RESPONSE = """
+            {
+                "consul": [],
+                "dummy": []
+            }""";
+    private static final String ONE_INSTANCE_RESPONSE = """
+            [
+              {
+                "ServiceID": "dev-1",
+                "ServiceName": "dummy",
+                "ServiceAddress": "localhost",
+                "ServiceMeta": {
+                   "group": "dev"
+                },
+                "ServicePort": 8081
+              }
+            ]""";
+    private static final String TWO_INSTANCES_RESPONSE = """
+            [
+              {
+                "ServiceID": "dev-1",
+                "ServiceName": "dummy",
+                "ServiceAddress": "localhost",
+                "ServiceMeta": {
+                   "group": "dev"
+                },
+                "ServicePort": 8081
+              },
+              {
+                "ServiceID": "dev-2",
+                "ServiceName": "dummy",
+                "ServiceAddress": "localhost",
+                "ServiceMeta": {
+                   "group": "dev"
+                },
+                "ServicePort": 8082
+              }
+            ]""";
+
+    private WireMockServer wireMockServer;
+    private ConsulCatalogWatcher consulCatalogWatcher;
+
+    @BeforeEach
+    void startConsul() {
+        wireMockServer = new WireMockServer(wireMockConfig().dynamicPort());
+        wireMockServer.start();
+        consulCatalogWatcher = new ConsulCatalogWatcher(HttpClient.newHttpClient(), List.of("http://localhost:" + wireMockServer.port()), null, 1, false, null);
+    }
+
+    @AfterEach
+    void stopConsul() {
+        consulCatalogWatcher.stop();
+        wireMockServer.stop();
+    }
+
+    @Test
+    void testBlocksWithTheLastIndex() throws InterruptedException {
+        stubIndex(SERVICES_PATH, "0", "10", SERVICES_RESPONSE, 0);
+        stubIndex(SERVICES_PATH, "10", "10", SERVICES_RESPONSE, 500);
+        stubIndex(SERVICE_DUMMY_PATH, "0", "20", ONE_INSTANCE_RESPONSE, 0);
+        stubIndex(SERVICE_DUMMY_PATH, "20", "20", ONE_INSTANCE_RESPONSE, 500);
+
+        consulCatalogWatcher.start();
+        assertEquals(Set.of("dummy"), consulCatalogWatcher.awaitChanges(Duration.ofSeconds(5)));
+        assertTrue(consulCatalogWatcher.isSynchronized());
+        assertEquals(Set.of("dummy"), consulCatalogWatcher.getServiceNames());
+        assertEquals(1, consulCatalogWatcher.getServiceInstances("dummy").size());
+
+        //The index did not move, the blocking queries return without changes.
+        assertTrue(consulCatalogWatcher.awaitChanges(Duration.ofSeconds(2)).isEmpty());
+        assertFalse(findRequests(SERVICES_PATH, "10").isEmpty());
+        assertFalse(findRequests(SERVICE_DUMMY_PATH, "20").isEmpty());
+    }
+
+    @Test
+    void testIndexMovesAndGoesBackwards() throws InterruptedException {
+        stubIndex(SERVICES_PATH, "0", "10", SERVICES_RESPONSE, 0);
+        stubIndex(SERVICES_PATH, "10", "10", SERVICES_RESPONSE, 500);
+        stubIndex(SERVICE_DUMMY_PATH, "0", "20", ONE_INSTANCE_RESPONSE, 0);
+        stubIndex(SERVICE_DUMMY_PATH, "20", "21", TWO_INSTANCES_RESPONSE, 200);
+        //Consul was restored from an older state, the index must be reset.
+        stubIndex(SERVICE_DUMMY_PATH, "21", "5", TWO_INSTANCES_RESPONSE, 200);
+
+        consulCatalogWatcher.start();
+        assertEquals(Set.of("dummy"), consulCatalogWatcher.awaitChanges(Duration.ofSeconds(5)));
+        assertTrue(awaitUntil(() -> consulCatalogWatcher.getServiceInstances("dummy").size() == 2));
+        assertTrue(awaitUntil(() -> findRequests(SERVICE_DUMMY_PATH, "0").size() >= 2));
+        assertTrue(findRequests(SERVICE_DUMMY_PATH, "5").isEmpty());
+    }
+
+    @Test
+    void testMissingOrInvalidIndexFallsBackToPolling() throws InterruptedException {
+        wireMockServer.stubFor(get(urlPathEqualTo(SERVICES_PATH)).willReturn(aResponse().withBody(SERVICES_RESPONSE)));
+        wireMockServer.stubFor(get(urlPathEqualTo(SERVICE_DUMMY_PATH))
+                .willReturn(aResponse().withHeader(Constants.CONSUL_INDEX_HEADER, "not-a-number").withBody(ONE_INSTANCE_RESPONSE)));
+
+        consulCatalogWatcher.start();
+        assertEquals(Set.of("dummy"), consulCatalogWatcher.awaitChanges(Duration.ofSeconds(5)));
+        assertEquals(1, consulCatalogWatcher.getServiceInstances("dummy").size());
+
+        //Without an index nothing blocks, the watch must wait for the retry delay instead of spinning.
+        Thread.sleep(2000);
+        assertEquals(1, wireMockServer.findAll(getRequestedFor(urlPathEqualTo(SERVICES_PATH))).size());
+        assertEquals(1, wireMockServer.findAll(getRequestedFor(urlPathEqualTo(SERVICE_DUMMY_PATH))).size());
+    }
+
+    private void stubIndex(String path, String requestIndex, String responseIndex, String body, int delay) {
+        wireMockServer.stubFor(get(urlPathEqualTo(path))
+                .withQueryParam("index", equalTo(requestIndex))
+                .willReturn(aResponse()
+                        .withFixedDelay(delay)
+                        .withHeader(Constants.CONSUL_INDEX_HEADER, responseIndex)
+                        .withBody(body)));
+    }
+
+    private List<?> findRequests(String path, String index) {
+        return wireMockServer.findAll(getRequestedFor(urlPathEqualTo(path)).withQueryParam("index", equalTo(index)));
+    }
+
+    private boolean awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(System.currentTimeMillis() < deadline) {
+            if(condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return condition.getAsBoolean();
+    }
+}
@@ -0,0 +1,127 @@
+package io.surisoft.capi.controller;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.http.Fault;
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.service.ConsulLeaderElection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestConsulLeaderElection {
+
+    private static final String LOCK_KEY = "capi/discovery/leader";
+    //Nothing listens on port 1.
+    private static final String UNREACHABLE_HOST = "http://localhost:1";
+
+    private WireMockServer consulServer;
+    private String consulHost;
+
+    @BeforeEach
+    void startConsul() {
+        consulServer = new WireMockServer(wireMockConfig().dynamicPort());
+        consulServer.start();
+        consulHost = "http://localhost:" + consulServer.port();
+        stubConsul();
+    }
+
+    @AfterEach
+    void stopConsul() {
+        consulServer.stop();
+    }
+
+    @Test
+    void testAcquireAndRenew() throws Exception {
+        ConsulLeaderElection consulLeaderElection = createLeaderElection(List.of(consulHost));
+        assertTrue(consulLeaderElection.tryAcquire());
+        assertTrue(consulLeaderElection.isLeader());
+        assertTrue(consulLeaderElection.tryAcquire());
+
+        //The session is created once, then renewed on every call.
+        consulServer.verify(1, putRequestedFor(urlEqualTo("/v1/session/create"))
+                .withRequestBody(containing("\"TTL\": \"30s\"")));
+        consulServer.verify(1, putRequestedFor(urlEqualTo("/v1/session/renew/session-1")));
+        consulServer.verify(2, putRequestedFor(urlEqualTo("/v1/kv/" + LOCK_KEY + "?acquire=session-1"))
+                .withRequestBody(equalTo("capi-1")));
+        assertEquals(15, consulLeaderElection.getRenewIntervalSeconds());
+    }
+
+    @Test
+    void testExpiredSessionIsCreatedAgain() throws Exception {
+        ConsulLeaderElection consulLeaderElection = createLeaderElection(List.of(consulHost));
+        assertTrue(consulLeaderElection.tryAcquire());
+
+        consulServer.stubFor(put(urlEqualTo("/v1/session/renew/session-1")).willReturn(aResponse().withStatus(404)));
+        consulServer.stubFor(put(urlEqualTo("/v1/session/create")).willReturn(aResponse().withBody("{\"ID\": \"session-2\"}")));
+        consulServer.stubFor(put(urlEqualTo("/v1/kv/" + LOCK_KEY + "?acquire=session-2")).willReturn(aResponse().withBody("false")));
+        //Another instance took the lock meanwhile.
+        assertFalse(consulLeaderElection.tryAcquire());
+        assertFalse(consulLeaderElection.isLeader());
+        consulServer.verify(2, putRequestedFor(urlEqualTo("/v1/session/create")));
+    }
+
+    @Test
+    void testUnreachableHostsAreSkipped() throws Exception {
+        ConsulLeaderElection consulLeaderElection = createLeaderElection(List.of(UNREACHABLE_HOST, consulHost));
+        assertTrue(consulLeaderElection.tryAcquire());
+        assertTrue(consulLeaderElection.tryAcquire());
+        //The host that answered is kept, the session is renewed on it.
+        consulServer.verify(1, putRequestedFor(urlEqualTo("/v1/session/create")));
+        consulServer.verify(1, putRequestedFor(urlEqualTo("/v1/session/renew/session-1")));
+    }
+
+    @Test
+    void testLeadershipIsLostWhenNoHostAnswers() throws Exception {
+        ConsulLeaderElection consulLeaderElection = createLeaderElection(List.of(consulHost, UNREACHABLE_HOST));
+        assertTrue(consulLeaderElection.tryAcquire());
+
+        consulServer.stubFor(any(anyUrl()).atPriority(1).willReturn(aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER)));
+        assertThrows(IOException.class, consulLeaderElection::tryAcquire);
+        assertFalse(consulLeaderElection.isLeader());
+
+        //The session of the failed host is not reused.
+        consulServer.resetMappings();
+        stubConsul();
+        assertTrue(consulLeaderElection.tryAcquire());
+        consulServer.verify(2, putRequestedFor(urlEqualTo("/v1/session/create")));
+        consulServer.verify(1, putRequestedFor(urlEqualTo("/v1/session/renew/session-1")));
+    }
+
+    @Test
+    void testReleaseDestroysTheSession() throws Exception {
+        ConsulLeaderElection consulLeaderElection = createLeaderElection(List.of(consulHost));
+        consulLeaderElection.release();
+        consulServer.verify(0, putRequestedFor(urlEqualTo("/v1/session/destroy/session-1")));
+
+        assertTrue(consulLeaderElection.tryAcquire());
+        consulLeaderElection.release();
+        assertFalse(consulLeaderElection.isLeader());
+        consulServer.verify(1, putRequestedFor(urlEqualTo("/v1/session/destroy/session-1")));
+    }
+
+    @Test
+    void testTokenIsSanitised() throws Exception {
+        ConsulLeaderElection consulLeaderElection = new ConsulLeaderElection(HttpClient.newHttpClient(), List.of(consulHost), "token\r\n", LOCK_KEY, new CapiInstance("capi-1"), 30);
+        assertTrue(consulLeaderElection.tryAcquire());
+        consulServer.verify(putRequestedFor(urlEqualTo("/v1/session/create")).withHeader("Authorization", equalTo("Bearer token")));
+    }
+
+    private void stubConsul() {
+        consulServer.stubFor(put(urlEqualTo("/v1/session/create")).willReturn(aResponse().withBody("{\"ID\": \"session-1\"}")));
+        consulServer.stubFor(put(urlEqualTo("/v1/session/renew/session-1")).willReturn(aResponse().withBody("[]")));
+        consulServer.stubFor(put(urlEqualTo("/v1/kv/" + LOCK_KEY + "?acquire=session-1")).willReturn(aResponse().withBody("true")));
+        consulServer.stubFor(put(urlEqualTo("/v1/session/destroy/session-1")).willReturn(aResponse().withBody("true")));
+    }
+
+    private ConsulLeaderElection createLeaderElection(List<String> consulHostList) {
+        return new ConsulLeaderElection(HttpClient.newHttpClient(), consulHostList, null, LOCK_KEY, new CapiInstance("capi-1"), 30);
+    }
+}
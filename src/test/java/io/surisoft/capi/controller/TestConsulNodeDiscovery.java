@@ -2,28 +2,55 @@ package io.surisoft.capi.controller;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.cache.StickySessionCacheManager;
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.metrics.DiscoveryMetrics;
 import io.surisoft.capi.processor.MetricsProcessor;
+import io.surisoft.capi.schema.CapiEvent;
+import io.surisoft.capi.schema.DiscoveryCycleSummary;
 import io.surisoft.capi.schema.SSEClient;
 import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
 import io.surisoft.capi.schema.WebsocketClient;
+import io.surisoft.capi.service.ConsistencyChecker;
 import io.surisoft.capi.service.ConsulNodeDiscovery;
+import io.surisoft.capi.service.DiscoveryPublisher;
+import io.surisoft.capi.service.DiscoverySnapshotStore;
+import io.surisoft.capi.utils.Constants;
 import io.surisoft.capi.service.OpaService;
 import io.surisoft.capi.utils.HttpUtils;
 import io.surisoft.capi.utils.RouteUtils;
 import io.surisoft.capi.utils.ServiceUtils;
 import org.apache.camel.CamelContext;
-import org.cache2k.Cache;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
@@ -79,7 +106,7 @@ class TestConsulNodeDiscovery {
     StickySessionCacheManager stickySessionCacheManager;
 
     @Autowired
-    Cache<String, Service> serviceCache;
+    ServiceRegistry serviceRegistry;
 
     @Autowired
     MetricsProcessor metricsProcessor;
@@ -109,9 +136,9 @@ class TestConsulNodeDiscovery {
         Assertions.assertNotNull(serviceUtils);
         Assertions.assertNotNull(routeUtils);
         Assertions.assertNotNull(metricsProcessor);
-        Assertions.assertNotNull(serviceCache);
+        Assertions.assertNotNull(serviceRegistry);
 
-        ConsulNodeDiscovery consulNodeDiscovery = new ConsulNodeDiscovery(camelContext, serviceUtils, routeUtils, metricsProcessor, serviceCache, websocketClientMap, sseClientMap);
+        ConsulNodeDiscovery consulNodeDiscovery = new ConsulNodeDiscovery(camelContext, serviceUtils, routeUtils, metricsProcessor, serviceRegistry, websocketClientMap, sseClientMap);
         consulNodeDiscovery.setOpaService(opaService);
         consulNodeDiscovery.setHttpUtils(httpUtils);
         consulNodeDiscovery.setStickySessionCacheManager(stickySessionCacheManager);
@@ -125,4 +152,496 @@ class TestConsulNodeDiscovery {
 
         wireMockServer.stop();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testConcurrentRequestsPerHostAreCapped() throws IOException {
+        int serviceCount = 6;
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger served = new AtomicInteger();
+        StringBuilder servicesResponse = new StringBuilder("{\"consul\": []");
+        for(int i = 0; i < serviceCount; i++) {
+            servicesResponse.append(", \"capped-").append(i).append("\": []");
+        }
+        servicesResponse.append("}");
+
+        ExecutorService consulExecutor = Executors.newFixedThreadPool(serviceCount);
+        HttpServer consulServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        consulServer.setExecutor(consulExecutor);
+        consulServer.createContext("/v1/catalog/services", exchange -> respond(exchange, servicesResponse.toString()));
+        consulServer.createContext("/v1/catalog/service/", exchange -> {
+            String serviceName = exchange.getRequestURI().getPath().substring("/v1/catalog/service/".length());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                //Released before answering, so a new request can never be counted with this one.
+                inFlight.decrementAndGet();
+            }
+            served.incrementAndGet();
+            respond(exchange, SERVICE_DUMMY_RESPONSE.replace("\"dummy\"", "\"" + serviceName + "\""));
+        });
+        consulServer.start();
+
+        try {
+            //Websocket mode, the REST services are registered without deploying routes.
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + consulServer.getAddress().getPort(), "websocket");
+            consulNodeDiscovery.setConsulMaxConcurrentRequests(2);
+            consulNodeDiscovery.processInfo();
+
+            Assertions.assertEquals(serviceCount, served.get());
+            Assertions.assertEquals(2, maxInFlight.get());
+            for(int i = 0; i < serviceCount; i++) {
+                Assertions.assertNotNull(serviceRegistry.get("capped-" + i + ":dev"));
+            }
+        } finally {
+            for(int i = 0; i < serviceCount; i++) {
+                serviceRegistry.remove("capped-" + i + ":dev");
+            }
+            consulServer.stop(0);
+            consulExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testConsulHostsAreQueriedInParallel() throws IOException {
+        //Each host answers once both hosts have a request in flight, or after 5 seconds.
+        CountDownLatch bothHostsInFlight = new CountDownLatch(2);
+        AtomicInteger servedTogether = new AtomicInteger();
+        ExecutorService consulExecutor = Executors.newFixedThreadPool(4);
+        HttpServer firstConsulServer = startConsulHost(consulExecutor, "alpha", bothHostsInFlight, servedTogether);
+        HttpServer secondConsulServer = startConsulHost(consulExecutor, "beta", bothHostsInFlight, servedTogether);
+
+        try {
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + firstConsulServer.getAddress().getPort(), "websocket");
+            consulNodeDiscovery.setConsulHostList(List.of("http://localhost:" + firstConsulServer.getAddress().getPort(), "http://localhost:" + secondConsulServer.getAddress().getPort()));
+            //One request at a time per host, the second host must not wait for the first one.
+            consulNodeDiscovery.setConsulMaxConcurrentRequests(1);
+            consulNodeDiscovery.processInfo();
+
+            Assertions.assertEquals(4, servedTogether.get());
+            for(String serviceName : List.of("alpha-0", "alpha-1", "beta-0", "beta-1")) {
+                Assertions.assertNotNull(serviceRegistry.get(serviceName + ":dev"));
+            }
+        } finally {
+            for(String serviceName : List.of("alpha-0", "alpha-1", "beta-0", "beta-1")) {
+                serviceRegistry.remove(serviceName + ":dev");
+            }
+            firstConsulServer.stop(0);
+            secondConsulServer.stop(0);
+            consulExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testRemovalIsSkippedWhenAConsulHostFails() {
+        WireMockServer consulServer = new WireMockServer(wireMockConfig().dynamicPort());
+        consulServer.start();
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/services")).willReturn(aResponse().withBody("{\"partial\": []}")));
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/service/partial"))
+                .willReturn(aResponse().withBody(SERVICE_DUMMY_RESPONSE.replace("\"dummy\"", "\"partial\""))));
+        String consulHost = "http://localhost:" + consulServer.port();
+
+        try {
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery(consulHost, "websocket");
+            //Nothing listens on port 1, the second host always fails.
+            consulNodeDiscovery.setConsulHostList(List.of(consulHost, "http://localhost:1"));
+            consulNodeDiscovery.processInfo();
+            Assertions.assertNotNull(serviceRegistry.get("partial:dev"));
+
+            //Gone from the answering host, but the catalog is incomplete, so the service is kept.
+            consulServer.stubFor(get(urlEqualTo("/v1/catalog/services")).willReturn(aResponse().withBody("{}")));
+            consulNodeDiscovery.processInfo();
+            Assertions.assertNotNull(serviceRegistry.get("partial:dev"));
+
+            consulNodeDiscovery.setConsulHostList(List.of(consulHost));
+            consulNodeDiscovery.processInfo();
+            Assertions.assertNull(serviceRegistry.get("partial:dev"));
+        } finally {
+            serviceRegistry.remove("partial:dev");
+            consulServer.stop();
+        }
+    }
+
+    @Test
+    void testLazyServicesAreKeptByTheConsistencyChecker() {
+        WireMockServer consulServer = new WireMockServer(wireMockConfig().dynamicPort());
+        consulServer.start();
+        String openApiEndpoint = "http://localhost:" + consulServer.port() + "/lazy/openapi.json";
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/services")).willReturn(aResponse().withBody("{\"lazy\": []}")));
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/service/lazy"))
+                .willReturn(aResponse().withBody(SERVICE_DUMMY_RESPONSE
+                        .replace("\"dummy\"", "\"lazy\"")
+                        .replace("\"group\": \"dev\"", "\"group\": \"dev\", \"open-api\": \"" + openApiEndpoint + "\""))));
+        consulServer.stubFor(get(urlEqualTo("/lazy/openapi.json"))
+                .willReturn(aResponse().withBody("{\"openapi\": \"3.0.1\", \"info\": {\"title\": \"lazy\", \"version\": \"1\"}, \"paths\": {}}")));
+        ConsistencyChecker consistencyChecker = new ConsistencyChecker(camelContext, routeUtils, serviceRegistry);
+
+        try {
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + consulServer.port(), "full");
+            consulNodeDiscovery.enableLazyRoutes(60);
+            consulNodeDiscovery.processInfo();
+            Service lazyService = serviceRegistry.get("lazy:dev");
+            Assertions.assertNotNull(lazyService);
+            Assertions.assertNull(lazyService.getOpenAPI());
+
+            //Registered without routes and without OpenAPI, the checker must not drop it.
+            consistencyChecker.process();
+            Assertions.assertNotNull(serviceRegistry.get("lazy:dev"));
+
+            Assertions.assertTrue(consulNodeDiscovery.materializeRoutes("lazy:dev"));
+            Assertions.assertNotNull(lazyService.getOpenAPI());
+            consistencyChecker.process();
+            Assertions.assertNotNull(serviceRegistry.get("lazy:dev"));
+            Assertions.assertNotNull(camelContext.getRoute(routeUtils.getAllRouteIdForAGivenService(lazyService).get(0)));
+
+            //Deployed routes without OpenAPI are still inconsistent.
+            lazyService.setOpenAPI(null);
+            consistencyChecker.process();
+            Assertions.assertNull(serviceRegistry.get("lazy:dev"));
+        } finally {
+            for(String routeId : routeUtils.getAllRouteIdForAGivenService("lazy:dev")) {
+                removeRoute(routeId);
+                removeRoute(Constants.CAMEL_REST_PREFIX + routeId);
+            }
+            serviceRegistry.remove("lazy:dev");
+            consulServer.stop();
+        }
+    }
+
+    @Test
+    void testOpenApiIsFetchedOutsideTheRegistryBatch() throws Exception {
+        CountDownLatch openApiRequested = new CountDownLatch(1);
+        CountDownLatch openApiReleased = new CountDownLatch(1);
+        HttpServer consulServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        ExecutorService consulExecutor = Executors.newFixedThreadPool(2);
+        consulServer.setExecutor(consulExecutor);
+        String openApiEndpoint = "http://localhost:" + consulServer.getAddress().getPort() + "/slow/openapi.json";
+        consulServer.createContext("/v1/catalog/services", exchange -> respond(exchange, "{\"slow\": []}"));
+        consulServer.createContext("/v1/catalog/service/slow", exchange -> respond(exchange, SERVICE_DUMMY_RESPONSE
+                .replace("\"dummy\"", "\"slow\"")
+                .replace("\"group\": \"dev\"", "\"group\": \"dev\", \"open-api\": \"" + openApiEndpoint + "\"")));
+        consulServer.createContext("/slow/openapi.json", exchange -> {
+            openApiRequested.countDown();
+            try {
+                openApiReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, "{\"openapi\": \"3.0.1\", \"info\": {\"title\": \"slow\", \"version\": \"1\"}, \"paths\": {}}");
+        });
+        consulServer.start();
+        ExecutorService discoveryExecutor = Executors.newSingleThreadExecutor();
+
+        try {
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + consulServer.getAddress().getPort(), "websocket");
+            Future<?> discoveryCycle = discoveryExecutor.submit(consulNodeDiscovery::processInfo);
+            Assertions.assertTrue(openApiRequested.await(10, TimeUnit.SECONDS));
+
+            //The discovery is waiting on the OpenAPI definition, another writer is not blocked by it.
+            Service otherService = new Service();
+            otherService.setId("other:dev");
+            otherService.setName("other");
+            otherService.setContext("/other/dev");
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(2), () -> serviceRegistry.put(otherService.getId(), otherService));
+            Assertions.assertNotNull(serviceRegistry.get("other:dev"));
+
+            openApiReleased.countDown();
+            discoveryCycle.get(10, TimeUnit.SECONDS);
+            Assertions.assertNotNull(serviceRegistry.get("slow:dev").getOpenAPI());
+        } finally {
+            openApiReleased.countDown();
+            serviceRegistry.remove("slow:dev");
+            serviceRegistry.remove("other:dev");
+            discoveryExecutor.shutdownNow();
+            consulServer.stop(0);
+            consulExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testWatchCycleStartsWhenTheChangesArrive() {
+        WireMockServer consulServer = new WireMockServer(wireMockConfig().dynamicPort());
+        consulServer.start();
+        //The blocking queries answer after 1.5 seconds, the wait must not be counted in the cycle.
+        consulServer.stubFor(get(urlPathEqualTo("/v1/catalog/services"))
+                .willReturn(aResponse().withHeader(Constants.CONSUL_INDEX_HEADER, "10").withBody("{\"watched\": []}").withFixedDelay(1000)));
+        consulServer.stubFor(get(urlPathEqualTo("/v1/catalog/service/watched"))
+                .willReturn(aResponse().withHeader(Constants.CONSUL_INDEX_HEADER, "20")
+                        .withBody(SERVICE_DUMMY_RESPONSE.replace("\"dummy\"", "\"watched\"")).withFixedDelay(500)));
+        DiscoveryMetrics discoveryMetrics = new DiscoveryMetrics(new CompositeMeterRegistry(), 2);
+
+        ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + consulServer.port(), "websocket");
+        try {
+            consulNodeDiscovery.setDiscoveryMetrics(discoveryMetrics);
+            consulNodeDiscovery.enableConsulWatch(5);
+            consulNodeDiscovery.processInfo();
+            Assertions.assertNotNull(serviceRegistry.get("watched:dev"));
+
+            List<DiscoveryCycleSummary> history = discoveryMetrics.getHistory();
+            Assertions.assertEquals(1, history.size());
+            Assertions.assertEquals(1, history.get(0).servicesAdded());
+            Assertions.assertTrue(history.get(0).durationMillis() < 1000, "cycle took " + history.get(0).durationMillis() + " ms");
+        } finally {
+            consulNodeDiscovery.close();
+            serviceRegistry.remove("watched:dev");
+            consulServer.stop();
+        }
+    }
+
+    @Test
+    void testPassingOnlyInstances() {
+        WireMockServer consulServer = new WireMockServer(wireMockConfig().dynamicPort());
+        consulServer.start();
+        String openApiEndpoint = "http://localhost:" + consulServer.port() + "/healthy/openapi.json";
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/services")).willReturn(aResponse().withBody("{\"healthy\": []}")));
+        consulServer.stubFor(get(urlEqualTo("/healthy/openapi.json"))
+                .willReturn(aResponse().withBody("{\"openapi\": \"3.0.1\", \"info\": {\"title\": \"healthy\", \"version\": \"1\"}, \"paths\": {}}")));
+
+        try {
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + consulServer.port(), "websocket");
+            consulNodeDiscovery.setConsulPassingOnly(true);
+            stubPassingInstances(consulServer, openApiEndpoint, 8081, 8082);
+            consulNodeDiscovery.processInfo();
+            Assertions.assertEquals(2, serviceRegistry.get("healthy:dev").getMappingList().size());
+            consulServer.verify(0, getRequestedFor(urlPathEqualTo("/v1/catalog/service/healthy")));
+
+            //The second instance turns critical, Consul leaves it out of the passing answer.
+            stubPassingInstances(consulServer, openApiEndpoint, 8081);
+            consulNodeDiscovery.processInfo();
+            Assertions.assertEquals(1, serviceRegistry.get("healthy:dev").getMappingList().size());
+            Assertions.assertEquals(8081, serviceRegistry.get("healthy:dev").getMappingList().iterator().next().getPort());
+
+            //Every instance critical, the service is removed.
+            stubPassingInstances(consulServer, openApiEndpoint);
+            consulNodeDiscovery.processInfo();
+            Assertions.assertNull(serviceRegistry.get("healthy:dev"));
+
+            //An instance recovers, the service is deployed again from scratch, with its OpenAPI definition.
+            consulServer.resetRequests();
+            stubPassingInstances(consulServer, openApiEndpoint, 8082);
+            consulNodeDiscovery.processInfo();
+            Service recoveredService = serviceRegistry.get("healthy:dev");
+            Assertions.assertNotNull(recoveredService);
+            Assertions.assertEquals(8082, recoveredService.getMappingList().iterator().next().getPort());
+            Assertions.assertNotNull(recoveredService.getOpenAPI());
+            consulServer.verify(1, getRequestedFor(urlEqualTo("/healthy/openapi.json")));
+        } finally {
+            serviceRegistry.remove("healthy:dev");
+            consulServer.stop();
+        }
+    }
+
+    @Test
+    void testSnapshotWritesAreDebounced(@TempDir Path snapshotDirectory) {
+        WireMockServer consulServer = new WireMockServer(wireMockConfig().dynamicPort());
+        consulServer.start();
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/services")).willReturn(aResponse().withBody("{\"first\": []}")));
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/service/first"))
+                .willReturn(aResponse().withBody(SERVICE_DUMMY_RESPONSE.replace("\"dummy\"", "\"first\""))));
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/service/second"))
+                .willReturn(aResponse().withBody(SERVICE_DUMMY_RESPONSE.replace("\"dummy\"", "\"second\""))));
+        DiscoverySnapshotStore discoverySnapshotStore = new DiscoverySnapshotStore(snapshotDirectory.resolve("snapshot.json.gz"));
+
+        try {
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + consulServer.port(), "websocket");
+            consulNodeDiscovery.setDiscoverySnapshotStore(discoverySnapshotStore, 3600);
+            consulNodeDiscovery.processInfo();
+            Assertions.assertEquals(1, discoverySnapshotStore.read().size());
+
+            //Within the minimum interval, the change is only kept in memory.
+            consulServer.stubFor(get(urlEqualTo("/v1/catalog/services")).willReturn(aResponse().withBody("{\"first\": [], \"second\": []}")));
+            consulNodeDiscovery.processInfo();
+            Assertions.assertNotNull(serviceRegistry.get("second:dev"));
+            Assertions.assertEquals(1, discoverySnapshotStore.read().size());
+
+            consulNodeDiscovery.close();
+            Assertions.assertEquals(2, discoverySnapshotStore.read().size());
+        } finally {
+            serviceRegistry.remove("first:dev");
+            serviceRegistry.remove("second:dev");
+            consulServer.stop();
+        }
+    }
+
+    @Test
+    void testApplyPublishedService() throws IOException {
+        ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:1", "websocket");
+        //Never the leader, nothing listens on port 1. The publisher is only used to recognize the own events.
+        consulNodeDiscovery.enableDiscoveryFanOut(new DiscoveryPublisher(null, new CapiInstance("capi-1"), "capi-discovery"), "capi/discovery/leader", 30);
+
+        try {
+            consulNodeDiscovery.applyPublishedService("published:dev", createPublishedEvent("capi-1", "/published/dev", 1));
+            Assertions.assertNull(serviceRegistry.get("published:dev"));
+
+            consulNodeDiscovery.applyPublishedService("published:dev", createPublishedEvent("capi-2", "/published/dev", 1));
+            Assertions.assertEquals("/published/dev", serviceRegistry.get("published:dev").getContext());
+
+            //Same fingerprint, the service is not redeployed.
+            consulNodeDiscovery.applyPublishedService("published:dev", createPublishedEvent("capi-2", "/published/ignored", 1));
+            Assertions.assertEquals("/published/dev", serviceRegistry.get("published:dev").getContext());
+
+            consulNodeDiscovery.applyPublishedService("published:dev", createPublishedEvent("capi-2", "/published/changed", 2));
+            Assertions.assertEquals("/published/changed", serviceRegistry.get("published:dev").getContext());
+
+            //Tombstone
+            consulNodeDiscovery.applyPublishedService("published:dev", null);
+            Assertions.assertNull(serviceRegistry.get("published:dev"));
+        } finally {
+            serviceRegistry.remove("published:dev");
+        }
+    }
+
+    @Test
+    void testApplyPublishedServicesOfAPoll() throws IOException {
+        ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:1", "websocket");
+        consulNodeDiscovery.enableDiscoveryFanOut(new DiscoveryPublisher(null, new CapiInstance("capi-1"), "capi-discovery"), "capi/discovery/leader", 30);
+
+        try {
+            Map<String, CapiEvent> firstPoll = new LinkedHashMap<>();
+            firstPoll.put("first:dev", createPublishedEvent("capi-2", "first", "/first/dev", 1));
+            firstPoll.put("second:dev", createPublishedEvent("capi-2", "second", "/second/dev", 1));
+            firstPoll.put("own:dev", createPublishedEvent("capi-1", "own", "/own/dev", 1));
+            firstPoll.put(null, createPublishedEvent("capi-2", "nameless", "/nameless/dev", 1));
+            consulNodeDiscovery.applyPublishedServices(firstPoll);
+            Assertions.assertEquals("/first/dev", serviceRegistry.get("first:dev").getContext());
+            Assertions.assertEquals("/second/dev", serviceRegistry.get("second:dev").getContext());
+            Assertions.assertNull(serviceRegistry.get("own:dev"));
+
+            Map<String, CapiEvent> secondPoll = new LinkedHashMap<>();
+            secondPoll.put("first:dev", null);
+            secondPoll.put("second:dev", createPublishedEvent("capi-2", "second", "/second/changed", 2));
+            consulNodeDiscovery.applyPublishedServices(secondPoll);
+            Assertions.assertNull(serviceRegistry.get("first:dev"));
+            Assertions.assertEquals("/second/changed", serviceRegistry.get("second:dev").getContext());
+            Assertions.assertEquals(1, serviceRegistry.getByName("second").size());
+        } finally {
+            serviceRegistry.remove("first:dev");
+            serviceRegistry.remove("second:dev");
+        }
+    }
+
+    @Test
+    void testLeaderSessionIsRenewedOutsideTheDiscoveryCycle() {
+        WireMockServer consulServer = new WireMockServer(wireMockConfig().dynamicPort());
+        consulServer.start();
+        consulServer.stubFor(get(urlEqualTo("/v1/catalog/services")).willReturn(aResponse().withBody("{}")));
+        consulServer.stubFor(put(urlEqualTo("/v1/session/create")).willReturn(aResponse().withBody("{\"ID\": \"session-1\"}")));
+        consulServer.stubFor(put(urlEqualTo("/v1/session/renew/session-1")).willReturn(aResponse().withBody("[]")));
+        consulServer.stubFor(put(urlEqualTo("/v1/kv/capi/discovery/leader?acquire=session-1")).willReturn(aResponse().withBody("true")));
+
+        try {
+            ConsulNodeDiscovery consulNodeDiscovery = createConsulNodeDiscovery("http://localhost:" + consulServer.port(), "websocket");
+            consulNodeDiscovery.enableDiscoveryFanOut(new DiscoveryPublisher(null, new CapiInstance("capi-1"), "capi-discovery"), "capi/discovery/leader", 30);
+
+            //Not the leader yet, the lock is only tried by the discovery cycle.
+            consulNodeDiscovery.renewDiscoveryLeadership();
+            consulServer.verify(0, putRequestedFor(anyUrl()));
+
+            consulNodeDiscovery.processInfo();
+            consulServer.verify(1, getRequestedFor(urlEqualTo("/v1/catalog/services")));
+            consulNodeDiscovery.renewDiscoveryLeadership();
+            consulServer.verify(1, putRequestedFor(urlEqualTo("/v1/session/renew/session-1")));
+
+            //The lock is lost on a renewal, the next cycle does not query Consul.
+            consulServer.stubFor(put(urlEqualTo("/v1/kv/capi/discovery/leader?acquire=session-1")).willReturn(aResponse().withBody("false")));
+            consulNodeDiscovery.renewDiscoveryLeadership();
+            consulNodeDiscovery.processInfo();
+            consulServer.verify(1, getRequestedFor(urlEqualTo("/v1/catalog/services")));
+        } finally {
+            consulServer.stop();
+        }
+    }
+
+    /**
+     * A Consul host with two services, prefix-0 and prefix-1, answering them once bothHostsInFlight is open.
+     */
+    private HttpServer startConsulHost(ExecutorService consulExecutor, String prefix, CountDownLatch bothHostsInFlight, AtomicInteger servedTogether) throws IOException {
+        HttpServer consulServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        consulServer.setExecutor(consulExecutor);
+        consulServer.createContext("/v1/catalog/services", exchange -> respond(exchange, "{\"" + prefix + "-0\": [], \"" + prefix + "-1\": []}"));
+        consulServer.createContext("/v1/catalog/service/", exchange -> {
+            String serviceName = exchange.getRequestURI().getPath().substring("/v1/catalog/service/".length());
+            bothHostsInFlight.countDown();
+            try {
+                if(bothHostsInFlight.await(5, TimeUnit.SECONDS)) {
+                    servedTogether.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, SERVICE_DUMMY_RESPONSE.replace("\"dummy\"", "\"" + serviceName + "\""));
+        });
+        consulServer.start();
+        return consulServer;
+    }
+
+    /**
+     * The health endpoint answer with the passing filter, one passing instance per port.
+     */
+    private void stubPassingInstances(WireMockServer consulServer, String openApiEndpoint, int... ports) {
+        StringJoiner healthResponse = new StringJoiner(",", "[", "]");
+        for(int port : ports) {
+            healthResponse.add("""
+                    {
+                      "Node": {"ID": "node-%d", "Address": "localhost"},
+                      "Service": {"ID": "healthy-%d", "Service": "healthy", "Address": "localhost", "Port": %d, "Meta": {"group": "dev", "open-api": "%s"}},
+                      "Checks": [{"Status": "passing"}]
+                    }""".formatted(port, port, port, openApiEndpoint));
+        }
+        consulServer.stubFor(get(urlEqualTo("/v1/health/service/healthy?passing=true")).willReturn(aResponse().withBody(healthResponse.toString())));
+    }
+
+    private CapiEvent createPublishedEvent(String instanceId, String context, long fingerprint) throws IOException {
+        return createPublishedEvent(instanceId, "published", context, fingerprint);
+    }
+
+    private CapiEvent createPublishedEvent(String instanceId, String serviceName, String context, long fingerprint) throws IOException {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("http");
+        serviceMeta.setType("rest");
+        Service service = new Service();
+        service.setId(serviceName + ":dev");
+        service.setName(serviceName);
+        service.setContext(context);
+        service.setServiceMeta(serviceMeta);
+
+        CapiEvent capiEvent = new CapiEvent();
+        capiEvent.setInstanceId(new CapiInstance(instanceId));
+        capiEvent.setKey(service.getId());
+        capiEvent.setValue(DiscoverySnapshotStore.writeEntry(service, fingerprint));
+        return capiEvent;
+    }
+
+    private void removeRoute(String routeId) {
+        try {
+            if(camelContext.getRoute(routeId) != null) {
+                camelContext.getRouteController().stopRoute(routeId);
+                camelContext.removeRoute(routeId);
+            }
+        } catch (Exception e) {
+            Assertions.fail(e);
+        }
+    }
+
+    private ConsulNodeDiscovery createConsulNodeDiscovery(String consulHost, String capiRunningMode) {
+        ConsulNodeDiscovery consulNodeDiscovery = new ConsulNodeDiscovery(camelContext, serviceUtils, routeUtils, metricsProcessor, serviceRegistry, websocketClientMap, sseClientMap);
+        consulNodeDiscovery.setOpaService(opaService);
+        consulNodeDiscovery.setHttpUtils(httpUtils);
+        consulNodeDiscovery.setStickySessionCacheManager(stickySessionCacheManager);
+        consulNodeDiscovery.setConsulHostList(List.of(consulHost));
+        consulNodeDiscovery.setCapiContext("/capi/test");
+        consulNodeDiscovery.setCapiRunningMode(capiRunningMode);
+        return consulNodeDiscovery;
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] responseBody = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, responseBody.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(responseBody);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.service.ConsulQueryFilter;
+import org.junit.jupiter.api.Test;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestConsulQueryFilter {
+
+    @Test
+    void testWithoutNamespace() {
+        ConsulQueryFilter consulQueryFilter = new ConsulQueryFilter(null, false);
+        assertEquals("\"group\" in ServiceMeta", decode(consulQueryFilter.getCatalogQuery()));
+        assertEquals("\"group\" in Service.Meta", decode(consulQueryFilter.getHealthQuery()));
+    }
+
+    @Test
+    void testStrictNamespace() {
+        ConsulQueryFilter consulQueryFilter = new ConsulQueryFilter("team-a", true);
+        assertEquals("\"group\" in ServiceMeta and ServiceMeta.namespace == \"team-a\"", decode(consulQueryFilter.getCatalogQuery()));
+        assertEquals("\"group\" in Service.Meta and Service.Meta.namespace == \"team-a\"", decode(consulQueryFilter.getHealthQuery()));
+    }
+
+    @Test
+    void testNotStrictNamespaceAcceptsServicesWithoutNamespace() {
+        ConsulQueryFilter consulQueryFilter = new ConsulQueryFilter("team-a", false);
+        assertEquals("\"group\" in ServiceMeta and (ServiceMeta.namespace == \"team-a\" or \"namespace\" not in ServiceMeta)",
+                decode(consulQueryFilter.getCatalogQuery()));
+        assertEquals("\"group\" in Service.Meta and (Service.Meta.namespace == \"team-a\" or \"namespace\" not in Service.Meta)",
+                decode(consulQueryFilter.getHealthQuery()));
+    }
+
+    @Test
+    void testNamespaceIsQuotedAndEncoded() {
+        ConsulQueryFilter consulQueryFilter = new ConsulQueryFilter("team \"a\"&b=c", true);
+        //The quotes can not close the expression string and the query parameter can not be split.
+        assertEquals("\"group\" in ServiceMeta and ServiceMeta.namespace == \"team \\\"a\\\"&b=c\"", decode(consulQueryFilter.getCatalogQuery()));
+        assertTrue(consulQueryFilter.getCatalogQuery().startsWith("filter="));
+        assertFalse(consulQueryFilter.getCatalogQuery().substring("filter=".length()).contains("&"));
+        assertFalse(consulQueryFilter.getCatalogQuery().contains(" "));
+
+        //A trailing backslash can not escape the closing quote.
+        assertEquals("\"group\" in ServiceMeta and ServiceMeta.namespace == \"team\\\\\"", decode(new ConsulQueryFilter("team\\", true).getCatalogQuery()));
+    }
+
+    private String decode(String query) {
+        assertTrue(query.startsWith("filter="));
+        return URLDecoder.decode(query.substring("filter=".length()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,137 @@
+package io.surisoft.capi.controller;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.surisoft.capi.builder.DirectRouteProcessor;
+import io.surisoft.capi.processor.HttpErrorProcessor;
+import io.surisoft.capi.processor.MetricsProcessor;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.utils.RouteUtils;
+import io.undertow.Undertow;
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the REST route forwarding to a direct route with the direct consumer, over HTTP through the Camel servlet.
+ * Both services call the same local upstream, the difference of the per request times is the cost of the rest to direct hop.
+ * Excluded from the unit tests, run it with mvn -Pbenchmark test -Dtest=TestDirectConsumerBenchmark.
+ */
+@Tag("benchmark")
+class TestDirectConsumerBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(TestDirectConsumerBenchmark.class);
+    private static final int WARMUP_REQUESTS = 5000;
+    private static final int REQUESTS_PER_ROUND = 10000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void testRestToDirectAgainstDirectConsumer() throws Exception {
+        Undertow upstream = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(exchange -> exchange.getResponseSender().send("ok"))
+                .build();
+        upstream.start();
+        int upstreamPort = ((InetSocketAddress) upstream.getListenerInfo().get(0).getAddress()).getPort();
+        CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+        meterRegistry.add(new SimpleMeterRegistry());
+        MetricsProcessor metricsProcessor = new MetricsProcessor();
+        ReflectionTestUtils.setField(metricsProcessor, "meterRegistry", meterRegistry);
+
+        try(CamelServletServer camelServletServer = new CamelServletServer(); CamelContext camelContext = new DefaultCamelContext()) {
+            camelContext.getRestConfiguration().setComponent("servlet");
+            deploy(camelContext, createRouteUtils(camelContext, meterRegistry, false), metricsProcessor, createService("hop", upstreamPort));
+            deploy(camelContext, createRouteUtils(camelContext, meterRegistry, true), metricsProcessor, createService("direct", upstreamPort));
+            camelContext.start();
+
+            HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            HttpRequest hopRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + camelServletServer.getPort() + "/capi/hop/dev/orders")).build();
+            HttpRequest directRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + camelServletServer.getPort() + "/capi/direct/dev/orders")).build();
+            run(httpClient, hopRequest, WARMUP_REQUESTS);
+            run(httpClient, directRequest, WARMUP_REQUESTS);
+
+            //Alternated rounds, so a drift of the machine affects both modes.
+            long[] hopTimes = new long[ROUNDS * REQUESTS_PER_ROUND];
+            long[] directTimes = new long[ROUNDS * REQUESTS_PER_ROUND];
+            for(int round = 0; round < ROUNDS; round++) {
+                System.arraycopy(run(httpClient, hopRequest, REQUESTS_PER_ROUND), 0, hopTimes, round * REQUESTS_PER_ROUND, REQUESTS_PER_ROUND);
+                System.arraycopy(run(httpClient, directRequest, REQUESTS_PER_ROUND), 0, directTimes, round * REQUESTS_PER_ROUND, REQUESTS_PER_ROUND);
+            }
+            Arrays.sort(hopTimes);
+            Arrays.sort(directTimes);
+            log.info("Per request, rest to direct: mean {} us, p50 {} us, p99 {} us", mean(hopTimes), percentile(hopTimes, 50), percentile(hopTimes, 99));
+            log.info("Per request, direct consumer: mean {} us, p50 {} us, p99 {} us", mean(directTimes), percentile(directTimes, 50), percentile(directTimes, 99));
+            log.info("Saved per request: mean {} us, p50 {} us", mean(hopTimes) - mean(directTimes), percentile(hopTimes, 50) - percentile(directTimes, 50));
+        } finally {
+            upstream.stop();
+        }
+    }
+
+    private void deploy(CamelContext camelContext, RouteUtils routeUtils, MetricsProcessor metricsProcessor, Service service) throws Exception {
+        for(String routeId : routeUtils.getAllRouteIdForAGivenService(service)) {
+            camelContext.addRoutes(new DirectRouteProcessor(camelContext, service, routeUtils, metricsProcessor, routeId, "/capi", null));
+        }
+    }
+
+    /**
+     * @return the time of every request, in nanoseconds.
+     */
+    private long[] run(HttpClient httpClient, HttpRequest httpRequest, int requests) throws Exception {
+        long[] times = new long[requests];
+        for(int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+            times[i] = System.nanoTime() - start;
+            assertEquals(200, response.statusCode());
+        }
+        return times;
+    }
+
+    private double mean(long[] times) {
+        return Math.round(Arrays.stream(times).average().orElse(0) / 100) / 10.0;
+    }
+
+    private double percentile(long[] sortedTimes, int percentile) {
+        return Math.round(sortedTimes[(int) ((sortedTimes.length - 1) * percentile / 100.0)] / 100.0) / 10.0;
+    }
+
+    private RouteUtils createRouteUtils(CamelContext camelContext, CompositeMeterRegistry meterRegistry, boolean directConsumerEnabled) {
+        return new RouteUtils(false, "localhost:8380/capi-error", false, new HttpErrorProcessor(), null, meterRegistry, Optional.empty(),
+                camelContext, null, Optional.empty(), null, null, false, false, "", 0, false, directConsumerEnabled, Optional.empty());
+    }
+
+    private Service createService(String name, int upstreamPort) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("http");
+
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(upstreamPort);
+        mapping.setRootContext("/");
+
+        Service service = new Service();
+        service.setId(name + ":dev");
+        service.setName(name);
+        service.setContext("/" + name + "/dev");
+        service.setServiceMeta(serviceMeta);
+        service.setMappingList(Set.of(mapping));
+        return service;
+    }
+}
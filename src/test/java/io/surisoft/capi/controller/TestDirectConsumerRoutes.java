@@ -0,0 +1,164 @@
+package io.surisoft.capi.controller;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.surisoft.capi.builder.DirectRouteProcessor;
+import io.surisoft.capi.processor.HttpErrorProcessor;
+import io.surisoft.capi.processor.MetricsProcessor;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.utils.Constants;
+import io.surisoft.capi.utils.RouteUtils;
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.model.RoutesDefinition;
+import org.apache.camel.model.SetPropertyDefinition;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestDirectConsumerRoutes {
+
+    private CamelContext camelContext;
+    private CompositeMeterRegistry meterRegistry;
+    private RouteUtils routeUtils;
+
+    @BeforeEach
+    void createRouteUtils() {
+        camelContext = new DefaultCamelContext();
+        meterRegistry = new CompositeMeterRegistry();
+        routeUtils = new RouteUtils(false, "localhost:8380/capi-error", false, null, null, meterRegistry, Optional.empty(),
+                camelContext, null, Optional.empty(), null, null, false, false, "", 0, false, true, Optional.empty());
+    }
+
+    @AfterEach
+    void stopCamel() {
+        camelContext.stop();
+    }
+
+    @Test
+    void testBuildMethodFromRestrictsTheMethod() {
+        Service service = createService();
+        assertEquals("servlet:/unit-test/dev?matchOnUriPrefix=true&httpMethodRestrict=GET",
+                routeUtils.buildMethodFrom(service, "get"));
+        assertEquals("servlet:/unit-test/dev?matchOnUriPrefix=true&httpMethodRestrict=DELETE",
+                routeUtils.buildMethodFrom(service, "delete"));
+        //Only the methods with a body keep the form url encoded body as is.
+        assertEquals("servlet:/unit-test/dev?matchOnUriPrefix=true&httpMethodRestrict=POST&mapHttpMessageFormUrlEncodedBody=false",
+                routeUtils.buildMethodFrom(service, "post"));
+        assertEquals("servlet:/unit-test/dev?matchOnUriPrefix=true&httpMethodRestrict=PUT&mapHttpMessageFormUrlEncodedBody=false",
+                routeUtils.buildMethodFrom(service, "put"));
+    }
+
+    @Test
+    void testEveryMethodRouteConsumesFromTheServlet() throws Exception {
+        Service service = createService();
+        List<String> routeIdList = routeUtils.getAllRouteIdForAGivenService(service);
+        assertEquals(5, routeIdList.size());
+
+        for(String routeId : routeIdList) {
+            DirectRouteProcessor directRouteProcessor = new DirectRouteProcessor(camelContext, service, routeUtils, new MetricsProcessor(), routeId, "/capi", null);
+            RoutesDefinition routesDefinition = directRouteProcessor.configureRoutes(camelContext);
+
+            //One route per method, without a rest route in front of it.
+            assertEquals(1, routesDefinition.getRoutes().size());
+            assertTrue(directRouteProcessor.getRestCollection().getRests().isEmpty());
+            RouteDefinition routeDefinition = routesDefinition.getRoutes().get(0);
+            assertEquals(routeId, routeDefinition.getRouteId());
+            assertEquals(routeUtils.buildMethodFrom(service, routeUtils.getMethodFromRouteId(routeId)), routeDefinition.getInput().getEndpointUri());
+
+            //The metrics keep the name of the rest route.
+            assertEquals(Constants.CAMEL_REST_PREFIX + routeId, getMetricRouteId(routeDefinition));
+            assertNotNull(meterRegistry.find(Constants.CAMEL_REST_PREFIX + routeId).counter());
+        }
+    }
+
+    @Test
+    void testRequestThroughTheServletConsumer() throws Exception {
+        meterRegistry.add(new SimpleMeterRegistry());
+        WireMockServer wireMockServer = new WireMockServer(wireMockConfig().dynamicPort());
+        wireMockServer.start();
+        wireMockServer.stubFor(any(anyUrl()).willReturn(aResponse().withBody("upstream")));
+        RouteUtils routeUtils = new RouteUtils(false, "localhost:8380/capi-error", false, new HttpErrorProcessor(), null, meterRegistry, Optional.empty(),
+                camelContext, null, Optional.empty(), null, null, false, false, "", 0, false, true, Optional.empty());
+        MetricsProcessor metricsProcessor = new MetricsProcessor();
+        ReflectionTestUtils.setField(metricsProcessor, "meterRegistry", meterRegistry);
+        Service service = createService(wireMockServer.port());
+
+        try(CamelServletServer camelServletServer = new CamelServletServer()) {
+            //Only the get and delete routes are deployed.
+            for(String routeId : List.of("unit-test:dev:get", "unit-test:dev:delete")) {
+                camelContext.addRoutes(new DirectRouteProcessor(camelContext, service, routeUtils, metricsProcessor, routeId, "/capi", null));
+            }
+            camelContext.start();
+            HttpClient httpClient = HttpClient.newHttpClient();
+            String uri = "http://localhost:" + camelServletServer.getPort() + "/capi/unit-test/dev/orders";
+
+            HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(uri)).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals("upstream", response.body());
+            assertEquals(200, httpClient.send(HttpRequest.newBuilder(URI.create(uri)).DELETE().build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            //No consumer accepts the method, the servlet rejects it before any route runs.
+            response = httpClient.send(HttpRequest.newBuilder(URI.create(uri)).POST(HttpRequest.BodyPublishers.ofString("{}")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, response.statusCode());
+
+            wireMockServer.verify(1, getRequestedFor(urlPathMatching(".*/orders")));
+            wireMockServer.verify(1, deleteRequestedFor(urlPathMatching(".*/orders")));
+            wireMockServer.verify(0, postRequestedFor(anyUrl()));
+            assertEquals(1, meterRegistry.get(Constants.CAMEL_REST_PREFIX + "unit-test:dev:get").counter().count());
+            assertEquals(1, meterRegistry.get(Constants.CAMEL_REST_PREFIX + "unit-test:dev:delete").counter().count());
+        } finally {
+            wireMockServer.stop();
+        }
+    }
+
+    private String getMetricRouteId(RouteDefinition routeDefinition) {
+        SetPropertyDefinition setPropertyDefinition = routeDefinition.getOutputs().stream()
+                .filter(SetPropertyDefinition.class::isInstance)
+                .map(SetPropertyDefinition.class::cast)
+                .filter(definition -> Constants.CAPI_METRIC_ROUTE_ID.equals(definition.getName()))
+                .findFirst()
+                .orElseThrow();
+        return setPropertyDefinition.getExpression().getExpressionValue().evaluate(new DefaultExchange(camelContext), String.class);
+    }
+
+    private Service createService() {
+        return createService(8081);
+    }
+
+    private Service createService(int port) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("http");
+
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(port);
+        mapping.setRootContext("/");
+
+        Service service = new Service();
+        service.setId("unit-test:dev");
+        service.setName("unit-test");
+        service.setContext("/unit-test/dev");
+        service.setServiceMeta(serviceMeta);
+        service.setMappingList(Set.of(mapping));
+        return service;
+    }
+}
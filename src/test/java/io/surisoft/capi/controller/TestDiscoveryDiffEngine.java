@@ -0,0 +1,107 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.schema.ConsulObject;
+import io.surisoft.capi.schema.DiscoveryDelta;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.service.DiscoveryDiffEngine;
+import io.surisoft.capi.utils.HttpUtils;
+import io.surisoft.capi.utils.ServiceUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+class TestDiscoveryDiffEngine {
+
+    //Only the Consul object to mapping conversion is used.
+    private final ServiceUtils serviceUtils = new ServiceUtils(new HttpUtils(null, Optional.empty()), Optional.empty(), Optional.empty(), null, null, null, null);
+
+    @Test
+    void testAddedChangedAndRemoved() {
+        DiscoveryDiffEngine discoveryDiffEngine = new DiscoveryDiffEngine(serviceUtils);
+        Set<String> deployed = new HashSet<>();
+
+        DiscoveryDelta firstDelta = discoveryDiffEngine.diff(Map.of("unit-test", instances("dev", 8080, 8081)), Set.of(), deployed::contains);
+        Assertions.assertEquals(1, firstDelta.added().size());
+        Assertions.assertEquals("unit-test:dev", firstDelta.added().get(0).serviceId());
+        deployed.add("unit-test:dev");
+
+        //Same instances in a different order, nothing to do.
+        DiscoveryDelta unchangedDelta = discoveryDiffEngine.diff(Map.of("unit-test", instances("dev", 8081, 8080)), Set.of(), deployed::contains);
+        Assertions.assertTrue(unchangedDelta.isEmpty());
+
+        DiscoveryDelta changedDelta = discoveryDiffEngine.diff(Map.of("unit-test", instances("dev", 8080)), Set.of(), deployed::contains);
+        Assertions.assertEquals(1, changedDelta.changed().size());
+
+        DiscoveryDelta removedDelta = discoveryDiffEngine.diff(Map.of(), Set.of("unit-test"), deployed::contains);
+        Assertions.assertEquals(List.of("unit-test:dev"), removedDelta.removed());
+        Assertions.assertTrue(discoveryDiffEngine.getKnownServiceNames().isEmpty());
+    }
+
+    @Test
+    void testFieldsWithTheSameStringHashCodeAreDetected() {
+        //"Aa" and "BB" have the same String.hashCode.
+        Assertions.assertEquals("Aa".hashCode(), "BB".hashCode());
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setGroup("dev");
+        Assertions.assertNotEquals(
+                DiscoveryDiffEngine.fingerprint("unit-test-1", List.of(mapping("Aa", "/")), serviceMeta),
+                DiscoveryDiffEngine.fingerprint("unit-test-1", List.of(mapping("BB", "/")), serviceMeta));
+
+        ServiceMeta otherServiceMeta = new ServiceMeta();
+        otherServiceMeta.setGroup("dev");
+        serviceMeta.setTenantId("Aa");
+        otherServiceMeta.setTenantId("BB");
+        Assertions.assertNotEquals(DiscoveryDiffEngine.metaFingerprint(serviceMeta), DiscoveryDiffEngine.metaFingerprint(otherServiceMeta));
+    }
+
+    @Test
+    void testFieldBoundariesAreKept() {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setGroup("dev");
+        //Same bytes once concatenated, or an empty field against a missing one.
+        Assertions.assertNotEquals(
+                DiscoveryDiffEngine.fingerprint("unit-test-1", List.of(mapping("localhost", "/ab")), serviceMeta),
+                DiscoveryDiffEngine.fingerprint("unit-test-1", List.of(mapping("localhost/a", "b")), serviceMeta));
+        Assertions.assertNotEquals(
+                DiscoveryDiffEngine.fingerprint("unit-test-1", List.of(mapping("localhost", "")), serviceMeta),
+                DiscoveryDiffEngine.fingerprint("unit-test-1", List.of(mapping("localhost", null)), serviceMeta));
+    }
+
+    @Test
+    void testChangedHostnameWithTheSameStringHashCodeIsRedeployed() {
+        DiscoveryDiffEngine discoveryDiffEngine = new DiscoveryDiffEngine(serviceUtils);
+        List<ConsulObject> firstInstances = instances("dev", 8080);
+        firstInstances.get(0).setServiceAddress("Aa");
+        Assertions.assertEquals(1, discoveryDiffEngine.diff(Map.of("unit-test", firstInstances), Set.of(), serviceId -> true).added().size());
+
+        List<ConsulObject> movedInstances = instances("dev", 8080);
+        movedInstances.get(0).setServiceAddress("BB");
+        Assertions.assertEquals(1, discoveryDiffEngine.diff(Map.of("unit-test", movedInstances), Set.of(), serviceId -> true).changed().size());
+    }
+
+    private Mapping mapping(String hostname, String rootContext) {
+        Mapping mapping = new Mapping();
+        mapping.setHostname(hostname);
+        mapping.setPort(8080);
+        mapping.setRootContext(rootContext);
+        return mapping;
+    }
+
+    private List<ConsulObject> instances(String group, int... ports) {
+        List<ConsulObject> consulObjectList = new ArrayList<>();
+        for(int port : ports) {
+            ServiceMeta serviceMeta = new ServiceMeta();
+            serviceMeta.setGroup(group);
+            ConsulObject consulObject = new ConsulObject();
+            consulObject.setServiceId("unit-test-" + port);
+            consulObject.setServiceName("unit-test");
+            consulObject.setServiceAddress("localhost");
+            consulObject.setServicePort(port);
+            consulObject.setServiceMeta(serviceMeta);
+            consulObjectList.add(consulObject);
+        }
+        return consulObjectList;
+    }
+}
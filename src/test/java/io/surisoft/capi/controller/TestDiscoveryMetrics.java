@@ -0,0 +1,42 @@
+package io.surisoft.capi.controller;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.surisoft.capi.metrics.DiscoveryMetrics;
+import io.surisoft.capi.schema.DiscoveryCycleSummary;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestDiscoveryMetrics {
+
+    @Test
+    void testHistoryKeepsTheLastCyclesWithChanges() {
+        CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+        meterRegistry.add(new SimpleMeterRegistry());
+        DiscoveryMetrics discoveryMetrics = new DiscoveryMetrics(meterRegistry, 2);
+
+        for(int i = 1; i <= 3; i++) {
+            discoveryMetrics.startCycle();
+            discoveryMetrics.recordFetch("http://localhost:8500", 1_000_000, 100);
+            discoveryMetrics.recordServices(i, 0, 0);
+            discoveryMetrics.recordRoutesBuilt(i * 2);
+            discoveryMetrics.endCycle();
+        }
+        discoveryMetrics.startCycle();
+        discoveryMetrics.endCycle();
+
+        List<DiscoveryCycleSummary> history = discoveryMetrics.getHistory();
+        assertEquals(2, history.size());
+        assertEquals(3, history.get(0).servicesAdded());
+        assertEquals(6, history.get(0).routesBuilt());
+        assertEquals(100, history.get(0).payloadBytes());
+        assertEquals(2, history.get(1).servicesAdded());
+
+        assertEquals(6, meterRegistry.get("capi.discovery.services").tag("change", "added").counter().count());
+        assertEquals(4, meterRegistry.get("capi.discovery.cycle").timer().count());
+        assertEquals(300, meterRegistry.get("capi.discovery.payload").summary().totalAmount());
+    }
+}
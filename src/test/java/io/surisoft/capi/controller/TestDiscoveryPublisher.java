@@ -0,0 +1,76 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.kafka.CapiKafkaEvent;
+import io.surisoft.capi.schema.CapiEvent;
+import io.surisoft.capi.schema.DiscoverySnapshot;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.service.DiscoveryPublisher;
+import io.surisoft.capi.service.DiscoverySnapshotStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class TestDiscoveryPublisher {
+
+    private static final String DISCOVERY_TOPIC = "capi-discovery";
+
+    @Mock
+    private KafkaTemplate<String, CapiEvent> kafkaTemplate;
+
+    @Test
+    void testPublishIsKeyedByServiceId() throws Exception {
+        DiscoveryPublisher discoveryPublisher = new DiscoveryPublisher(kafkaTemplate, new CapiInstance("capi-1"), DISCOVERY_TOPIC);
+        discoveryPublisher.publish(createService(), 42L);
+
+        ArgumentCaptor<CapiEvent> capiEventCaptor = ArgumentCaptor.forClass(CapiEvent.class);
+        verify(kafkaTemplate).send(eq(DISCOVERY_TOPIC), eq("unit-test:dev"), capiEventCaptor.capture());
+        CapiEvent capiEvent = capiEventCaptor.getValue();
+        assertEquals("unit-test:dev", capiEvent.getKey());
+        assertEquals(CapiKafkaEvent.DISCOVERY_SERVICE_EVENT_TYPE, capiEvent.getType());
+        assertTrue(discoveryPublisher.isOwnEvent(capiEvent));
+
+        DiscoverySnapshot.Entry publishedEntry = DiscoverySnapshotStore.readEntry(capiEvent.getValue());
+        assertEquals(42L, publishedEntry.fingerprint());
+        assertEquals("unit-test:dev", publishedEntry.service().getId());
+        assertEquals("/unit-test/dev", publishedEntry.service().getContext());
+    }
+
+    @Test
+    void testRemovalIsPublishedAsTombstone() {
+        DiscoveryPublisher discoveryPublisher = new DiscoveryPublisher(kafkaTemplate, new CapiInstance("capi-1"), DISCOVERY_TOPIC);
+        discoveryPublisher.publishRemoval("unit-test:dev");
+        verify(kafkaTemplate).send(eq(DISCOVERY_TOPIC), eq("unit-test:dev"), isNull());
+    }
+
+    @Test
+    void testEventsOfOtherInstancesAreNotOwn() {
+        DiscoveryPublisher discoveryPublisher = new DiscoveryPublisher(kafkaTemplate, new CapiInstance("capi-1"), DISCOVERY_TOPIC);
+        CapiEvent capiEvent = new CapiEvent();
+        capiEvent.setInstanceId(new CapiInstance("capi-2"));
+        assertFalse(discoveryPublisher.isOwnEvent(capiEvent));
+        capiEvent.setInstanceId(new CapiInstance("capi-1"));
+        assertTrue(discoveryPublisher.isOwnEvent(capiEvent));
+    }
+
+    private Service createService() {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("http");
+        Service service = new Service();
+        service.setId("unit-test:dev");
+        service.setName("unit-test");
+        service.setContext("/unit-test/dev");
+        service.setServiceMeta(serviceMeta);
+        return service;
+    }
+}
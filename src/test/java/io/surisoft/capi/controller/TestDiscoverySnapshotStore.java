@@ -0,0 +1,63 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.schema.DiscoverySnapshot;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.service.DiscoverySnapshotStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestDiscoverySnapshotStore {
+
+    @TempDir
+    Path temporaryDirectory;
+
+    @Test
+    void testWriteAndRead() {
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(8080);
+        mapping.setRootContext("/");
+
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setGroup("dev");
+        serviceMeta.setType("rest");
+        serviceMeta.setOpenApiEndpoint("http://localhost:8080/openapi");
+
+        Service service = new Service();
+        service.setId("dummy:dev");
+        service.setName("dummy");
+        service.setContext("/dummy/dev");
+        service.setMappingList(Set.of(mapping));
+        service.setServiceMeta(serviceMeta);
+
+        Service untrackedService = new Service();
+        untrackedService.setId("untracked:dev");
+
+        DiscoverySnapshotStore discoverySnapshotStore = new DiscoverySnapshotStore(temporaryDirectory.resolve("snapshot.json.gz"));
+        discoverySnapshotStore.write(List.of(service, untrackedService), serviceId -> serviceId.equals("dummy:dev") ? 42L : null);
+
+        List<DiscoverySnapshot.Entry> snapshotEntries = discoverySnapshotStore.read();
+        assertEquals(1, snapshotEntries.size());
+        Service restoredService = snapshotEntries.get(0).service();
+        assertEquals(42L, snapshotEntries.get(0).fingerprint());
+        assertEquals("dummy:dev", restoredService.getId());
+        assertEquals("/dummy/dev", restoredService.getContext());
+        assertEquals(Set.of(mapping), restoredService.getMappingList());
+        assertEquals("dev", restoredService.getServiceMeta().getGroup());
+        assertEquals("http://localhost:8080/openapi", restoredService.getServiceMeta().getOpenApiEndpoint());
+        assertNull(restoredService.getOpenAPI());
+    }
+
+    @Test
+    void testReadWithoutSnapshot() {
+        assertTrue(new DiscoverySnapshotStore(temporaryDirectory.resolve("missing.json.gz")).read().isEmpty());
+    }
+}
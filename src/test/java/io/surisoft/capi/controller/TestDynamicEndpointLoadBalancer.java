@@ -0,0 +1,209 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.processor.DynamicEndpointLoadBalancer;
+import io.surisoft.capi.processor.DynamicEndpointManager;
+import org.apache.camel.*;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultAsyncProducer;
+import org.apache.camel.support.DefaultComponent;
+import org.apache.camel.support.DefaultEndpoint;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.camel.support.service.ServiceHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestDynamicEndpointLoadBalancer {
+
+    private CamelContext camelContext;
+    private HoldingComponent holdingComponent;
+
+    @BeforeEach
+    void startCamel() {
+        camelContext = new DefaultCamelContext();
+        holdingComponent = new HoldingComponent();
+        camelContext.addComponent("holding", holdingComponent);
+        camelContext.start();
+    }
+
+    @AfterEach
+    void stopCamel() {
+        holdingComponent.releaseAll();
+        camelContext.stop();
+    }
+
+    @Test
+    void testSwapDuringInFlightExchanges() throws Exception {
+        HoldingEndpoint oldEndpoint = holdingComponent.endpoint("old");
+        oldEndpoint.hold();
+        DynamicEndpointLoadBalancer dynamicEndpointLoadBalancer = new DynamicEndpointLoadBalancer(camelContext, "unit-test:dev", new String[]{"holding:old"}, 1000);
+        ServiceHelper.startService(dynamicEndpointLoadBalancer);
+
+        CompletableFuture<Exchange> inFlightExchange = send(dynamicEndpointLoadBalancer);
+        assertTrue(oldEndpoint.received.await(5, TimeUnit.SECONDS));
+
+        dynamicEndpointLoadBalancer.swap(new String[]{"holding:new"});
+        assertEquals("new", send(dynamicEndpointLoadBalancer).get(5, TimeUnit.SECONDS).getMessage().getBody(String.class));
+
+        //The exchange started before the swap still completes on the old endpoint.
+        assertFalse(inFlightExchange.isDone());
+        assertFalse(oldEndpoint.producers.get(0).isStopped());
+        oldEndpoint.release();
+        Exchange completedExchange = inFlightExchange.get(5, TimeUnit.SECONDS);
+        assertNull(completedExchange.getException());
+        assertEquals("old", completedExchange.getMessage().getBody(String.class));
+
+        assertTrue(awaitUntil(() -> oldEndpoint.producers.get(0).isStopped()));
+        assertTrue(holdingComponent.endpoint("new").producers.get(0).isStarted());
+        ServiceHelper.stopService(dynamicEndpointLoadBalancer);
+    }
+
+    @Test
+    void testReplacedProducersAreStoppedAfterTheRetireDelay() throws Exception {
+        DynamicEndpointLoadBalancer dynamicEndpointLoadBalancer = new DynamicEndpointLoadBalancer(camelContext, "unit-test:dev", new String[]{"holding:a", "holding:b"}, 500);
+        ServiceHelper.startService(dynamicEndpointLoadBalancer);
+
+        long swapTime = System.currentTimeMillis();
+        dynamicEndpointLoadBalancer.swap(new String[]{"holding:b", "holding:c"});
+        DefaultAsyncProducer retiredProducer = holdingComponent.endpoint("a").producers.get(0);
+        assertFalse(retiredProducer.isStopped());
+        assertTrue(awaitUntil(retiredProducer::isStopped));
+        assertTrue(System.currentTimeMillis() - swapTime >= 500);
+
+        //The endpoint that is kept reuses its producer.
+        assertEquals(1, holdingComponent.endpoint("b").producers.size());
+        assertTrue(holdingComponent.endpoint("b").producers.get(0).isStarted());
+        assertTrue(holdingComponent.endpoint("c").producers.get(0).isStarted());
+        ServiceHelper.stopService(dynamicEndpointLoadBalancer);
+        assertTrue(holdingComponent.endpoint("b").producers.get(0).isStopped());
+    }
+
+    @Test
+    void testRebuiltRoutesReplaceTheirLoadBalancer() throws Exception {
+        DynamicEndpointManager dynamicEndpointManager = new DynamicEndpointManager(camelContext);
+        addRoute(dynamicEndpointManager);
+        List<DynamicEndpointLoadBalancer> firstBuild = dynamicEndpointManager.getLoadBalancers("unit-test:dev");
+        assertEquals(1, firstBuild.size());
+
+        //Removed outside discovery, then deployed again.
+        camelContext.getRouteController().stopRoute("unit-test-route");
+        camelContext.removeRoute("unit-test-route");
+        assertFalse(dynamicEndpointManager.isManaged("unit-test:dev"));
+        addRoute(dynamicEndpointManager);
+
+        List<DynamicEndpointLoadBalancer> secondBuild = dynamicEndpointManager.getLoadBalancers("unit-test:dev");
+        assertEquals(1, secondBuild.size());
+        assertNotSame(firstBuild.get(0), secondBuild.get(0));
+        assertTrue(dynamicEndpointManager.swap("unit-test:dev", new String[]{"holding:b"}));
+        assertArrayEquals(new String[]{"holding:b"}, secondBuild.get(0).getEndpointUris());
+        assertArrayEquals(new String[]{"holding:a"}, firstBuild.get(0).getEndpointUris());
+
+        camelContext.getRouteController().stopRoute("unit-test-route");
+        camelContext.removeRoute("unit-test-route");
+        assertFalse(dynamicEndpointManager.swap("unit-test:dev", new String[]{"holding:c"}));
+    }
+
+    private void addRoute(DynamicEndpointManager dynamicEndpointManager) throws Exception {
+        camelContext.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:unit-test")
+                        .process(dynamicEndpointManager.createLoadBalancer("unit-test:dev", "unit-test-route", new String[]{"holding:a"}))
+                        .routeId("unit-test-route");
+            }
+        });
+    }
+
+    private CompletableFuture<Exchange> send(DynamicEndpointLoadBalancer dynamicEndpointLoadBalancer) {
+        Exchange exchange = new DefaultExchange(camelContext);
+        CompletableFuture<Exchange> completedExchange = new CompletableFuture<>();
+        dynamicEndpointLoadBalancer.process(exchange, doneSync -> completedExchange.complete(exchange));
+        return completedExchange;
+    }
+
+    private boolean awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(System.currentTimeMillis() < deadline) {
+            if(condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.getAsBoolean();
+    }
+
+    private static final class HoldingComponent extends DefaultComponent {
+        private final Map<String, HoldingEndpoint> endpointMap = new ConcurrentHashMap<>();
+
+        @Override
+        protected Endpoint createEndpoint(String uri, String remaining, Map<String, Object> parameters) {
+            return endpoint(remaining);
+        }
+
+        private HoldingEndpoint endpoint(String name) {
+            return endpointMap.computeIfAbsent(name, k -> new HoldingEndpoint("holding:" + name, this, name));
+        }
+
+        private void releaseAll() {
+            endpointMap.values().forEach(HoldingEndpoint::release);
+        }
+    }
+
+    /**
+     * Answers with its name, and can hold the exchanges until it is released.
+     */
+    private static final class HoldingEndpoint extends DefaultEndpoint {
+        private final String name;
+        private final List<DefaultAsyncProducer> producers = new CopyOnWriteArrayList<>();
+        private final CountDownLatch received = new CountDownLatch(1);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+
+        private HoldingEndpoint(String uri, Component component, String name) {
+            super(uri, component);
+            this.name = name;
+        }
+
+        private void hold() {
+            released = new CountDownLatch(1);
+        }
+
+        private void release() {
+            released.countDown();
+        }
+
+        @Override
+        public Producer createProducer() {
+            DefaultAsyncProducer producer = new DefaultAsyncProducer(this) {
+                @Override
+                public boolean process(Exchange exchange, AsyncCallback callback) {
+                    received.countDown();
+                    CompletableFuture.runAsync(() -> {
+                        try {
+                            released.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        exchange.getMessage().setBody(name);
+                        callback.done(false);
+                    });
+                    return false;
+                }
+            };
+            producers.add(producer);
+            return producer;
+        }
+
+        @Override
+        public Consumer createConsumer(Processor processor) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
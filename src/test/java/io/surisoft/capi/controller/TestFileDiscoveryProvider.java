@@ -0,0 +1,66 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.schema.DiscoveryChanges;
+import io.surisoft.capi.service.FileDiscoveryProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestFileDiscoveryProvider {
+
+    private static final String DUMMY_INSTANCES = """
+            [{"ServiceID": "dummy-1", "ServiceName": "dummy", "ServiceAddress": "localhost", "ServicePort": 8080, "ServiceMeta": {"group": "dev"}},
+             {"ServiceID": "dummy-2", "ServiceName": "dummy", "ServiceAddress": "localhost", "ServicePort": 8081, "ServiceMeta": {"group": "dev"}}]""";
+
+    private static final String OTHER_INSTANCES = """
+            [{"ServiceID": "other-1", "ServiceName": "other", "ServiceAddress": "localhost", "ServicePort": 9090, "ServiceMeta": {"group": "dev"}}]""";
+
+    @TempDir
+    Path discoveryDirectory;
+
+    @Test
+    void testFirstCycleReadsAllFiles() throws Exception {
+        Files.writeString(discoveryDirectory.resolve("dummy.json"), DUMMY_INSTANCES);
+        Files.writeString(discoveryDirectory.resolve("other.json"), OTHER_INSTANCES);
+        Files.writeString(discoveryDirectory.resolve("ignored.txt"), OTHER_INSTANCES);
+
+        FileDiscoveryProvider fileDiscoveryProvider = new FileDiscoveryProvider(discoveryDirectory);
+        DiscoveryChanges discoveryChanges = fileDiscoveryProvider.fetchChanges();
+        assertEquals(2, discoveryChanges.services().get("dummy").size());
+        assertEquals(1, discoveryChanges.services().get("other").size());
+        assertEquals(2, discoveryChanges.services().size());
+
+        assertTrue(fileDiscoveryProvider.fetchChanges().services().isEmpty());
+        fileDiscoveryProvider.close();
+    }
+
+    @Test
+    void testRemovedFileReportsAnEmptyService() throws Exception {
+        Path otherFile = discoveryDirectory.resolve("other.json");
+        Files.writeString(otherFile, OTHER_INSTANCES);
+
+        FileDiscoveryProvider fileDiscoveryProvider = new FileDiscoveryProvider(discoveryDirectory);
+        fileDiscoveryProvider.fetchChanges();
+        Files.delete(otherFile);
+
+        DiscoveryChanges discoveryChanges = awaitChanges(fileDiscoveryProvider);
+        assertTrue(discoveryChanges.services().get("other").isEmpty());
+        fileDiscoveryProvider.close();
+    }
+
+    private DiscoveryChanges awaitChanges(FileDiscoveryProvider fileDiscoveryProvider) throws Exception {
+        //Some WatchService implementations poll the file system, the events can take a few seconds.
+        for(int i = 0; i < 100; i++) {
+            DiscoveryChanges discoveryChanges = fileDiscoveryProvider.fetchChanges();
+            if(!discoveryChanges.services().isEmpty()) {
+                return discoveryChanges;
+            }
+            Thread.sleep(100);
+        }
+        return fail("No change detected");
+    }
+}
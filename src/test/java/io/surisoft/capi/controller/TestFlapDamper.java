@@ -0,0 +1,62 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.schema.DiscoveredService;
+import io.surisoft.capi.service.FlapDamper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestFlapDamper {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final FlapDamper flapDamper = new FlapDamper(60, 3000, 750, 10, clock::get);
+
+    private DiscoveredService change(long fingerprint) {
+        return new DiscoveredService("dummy:dev", "dummy", "dev", List.of(), fingerprint);
+    }
+
+    @Test
+    void testRapidChangesAreCoalesced() {
+        assertTrue(flapDamper.admit(change(1)));
+        clock.addAndGet(2000);
+        assertFalse(flapDamper.admit(change(2)));
+        clock.addAndGet(2000);
+        assertFalse(flapDamper.admit(change(3)));
+        assertTrue(flapDamper.isPending("dummy:dev"));
+        assertTrue(flapDamper.releaseReady().isEmpty());
+
+        clock.addAndGet(7000);
+        List<DiscoveredService> readyServices = flapDamper.releaseReady();
+        assertEquals(1, readyServices.size());
+        assertEquals(3, readyServices.get(0).fingerprint());
+        assertFalse(flapDamper.isPending("dummy:dev"));
+    }
+
+    @Test
+    void testFlappingServiceIsSuppressedUntilThePenaltyDecays() {
+        for(int i = 0; i < 4; i++) {
+            flapDamper.admit(change(i));
+            clock.addAndGet(11000);
+        }
+        //Four changes in 44 seconds, the penalty is above the suppress threshold.
+        assertFalse(flapDamper.admit(change(10)));
+        assertTrue(flapDamper.releaseReady().isEmpty());
+
+        clock.addAndGet(180000);
+        List<DiscoveredService> readyServices = flapDamper.releaseReady();
+        assertEquals(1, readyServices.size());
+        assertEquals(10, readyServices.get(0).fingerprint());
+    }
+
+    @Test
+    void testForgottenServiceIsNotReleased() {
+        flapDamper.admit(change(1));
+        flapDamper.admit(change(2));
+        flapDamper.forget("dummy:dev");
+        clock.addAndGet(60000);
+        assertTrue(flapDamper.releaseReady().isEmpty());
+    }
+}
@@ -0,0 +1,170 @@
+package io.surisoft.capi.controller;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
+import io.surisoft.capi.configuration.CapiCorsFilter;
+import io.surisoft.capi.processor.AsyncHttpProducer;
+import io.surisoft.capi.processor.AsyncHttpTransport;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.undertow.Http2Support;
+import io.surisoft.capi.undertow.RestGateway;
+import io.surisoft.capi.utils.HttpUtils;
+import io.undertow.Undertow;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.camel.support.service.ServiceHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The async transport reaches h2c instances with an HTTP/1.1 upgrade, the REST gateway with prior knowledge.
+ * The instances answer with the protocol of the request they received.
+ */
+class TestH2cUpstream {
+
+    private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+    private final ServiceRegistry serviceRegistry = new ServiceRegistry();
+    private CamelContext camelContext;
+    private Undertow h2cInstance;
+    private Undertow http1Instance;
+    private RestGateway restGateway;
+
+    @BeforeEach
+    void startInstances() {
+        camelContext = new DefaultCamelContext();
+        camelContext.start();
+        h2cInstance = startInstance(true);
+        http1Instance = startInstance(false);
+    }
+
+    @AfterEach
+    void stopInstances() {
+        if(restGateway != null) {
+            restGateway.stop();
+        }
+        h2cInstance.stop();
+        http1Instance.stop();
+        camelContext.stop();
+    }
+
+    @Test
+    void testAsyncTransportUpgradesToHttp2() throws Exception {
+        AsyncHttpProducer asyncHttpProducer = createProducer(port(h2cInstance));
+        //The first request carries the upgrade, the next ones reuse the HTTP/2 connection.
+        send(asyncHttpProducer);
+        Exchange exchange = send(asyncHttpProducer);
+        assertNull(exchange.getException());
+        assertEquals("HTTP/2.0", exchange.getMessage().getBody(String.class));
+    }
+
+    @Test
+    void testAsyncTransportKeepsHttp1WhenTheUpgradeIsRefused() throws Exception {
+        AsyncHttpProducer asyncHttpProducer = createProducer(port(http1Instance));
+        send(asyncHttpProducer);
+        Exchange exchange = send(asyncHttpProducer);
+        assertNull(exchange.getException());
+        assertEquals("HTTP/1.1", exchange.getMessage().getBody(String.class));
+    }
+
+    @Test
+    void testRestGatewayUsesPriorKnowledge() throws Exception {
+        int gatewayPort = startGateway();
+        serviceRegistry.put("unit-test:dev", createService(port(h2cInstance)));
+
+        //No upgrade round trip, the first request is already HTTP/2.
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(URI.create("http://localhost:" + gatewayPort + "/capi/unit-test/dev/protocol")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals("HTTP/2.0", response.body());
+    }
+
+    private Undertow startInstance(boolean h2c) {
+        Undertow.Builder builder = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(exchange -> exchange.getResponseSender().send(exchange.getProtocol().toString()));
+        new Http2Support(h2c, h2c, 100, 65535, meterRegistry).configure(builder, false);
+        Undertow undertow = builder.build();
+        undertow.start();
+        return undertow;
+    }
+
+    private int port(Undertow undertow) {
+        return ((InetSocketAddress) undertow.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    private AsyncHttpProducer createProducer(int port) {
+        AsyncHttpTransport asyncHttpTransport = new AsyncHttpTransport(camelContext, "camel-http", 10000, 30000, false, Optional.empty());
+        Service service = createService(port);
+        assertTrue(asyncHttpTransport.isAsync(service));
+        AsyncHttpProducer asyncHttpProducer = asyncHttpTransport.createProducer(service);
+        ServiceHelper.startService(asyncHttpProducer);
+        return asyncHttpProducer;
+    }
+
+    private Exchange send(AsyncHttpProducer asyncHttpProducer) throws Exception {
+        Exchange exchange = new DefaultExchange(camelContext);
+        exchange.getIn().setHeader(Exchange.HTTP_METHOD, "GET");
+        exchange.getIn().setHeader(Exchange.HTTP_PATH, "/protocol");
+        CompletableFuture<Exchange> completedExchange = new CompletableFuture<>();
+        asyncHttpProducer.process(exchange, doneSync -> completedExchange.complete(exchange));
+        return completedExchange.get(10, TimeUnit.SECONDS);
+    }
+
+    private int startGateway() throws IOException {
+        int gatewayPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            gatewayPort = serverSocket.getLocalPort();
+        }
+        restGateway = new RestGateway(gatewayPort, 16384, 20, 30000, false, false,
+                false, "", false,
+                serviceRegistry,
+                new HttpUtils("capi-cookie", Optional.empty()),
+                new CapiCorsFilter("capi-cookie", false, "/capi/*", List.of(), serviceRegistry),
+                Optional.empty(),
+                Optional.empty(),
+                new Http2Support(false, false, 100, 65535, meterRegistry),
+                meterRegistry,
+                camelContext);
+        restGateway.runProxy();
+        return gatewayPort;
+    }
+
+    private Service createService(int port) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("h2c");
+        serviceMeta.setType("rest");
+
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(port);
+        mapping.setRootContext("/");
+
+        Service service = new Service();
+        service.setId("unit-test:dev");
+        service.setName("unit-test");
+        service.setContext("/unit-test/dev");
+        service.setServiceMeta(serviceMeta);
+        service.setMappingList(Set.of(mapping));
+        return service;
+    }
+}
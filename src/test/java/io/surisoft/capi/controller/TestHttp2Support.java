@@ -0,0 +1,163 @@
+package io.surisoft.capi.controller;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.surisoft.capi.undertow.Http2Support;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestHttp2Support {
+
+    private static final String LISTENER = "rest-gateway";
+
+    private CompositeMeterRegistry meterRegistry;
+    private Http2Support http2Support;
+    private Undertow undertow;
+    private CountDownLatch received;
+    private CountDownLatch released;
+
+    @BeforeEach
+    void startListener() {
+        meterRegistry = new CompositeMeterRegistry();
+        meterRegistry.add(new SimpleMeterRegistry());
+        http2Support = new Http2Support(true, true, 100, 65535, meterRegistry);
+        received = new CountDownLatch(3);
+        released = new CountDownLatch(1);
+
+        //The requests to /hold wait for the test, so their streams stay active.
+        HttpHandler holdingHandler = exchange -> {
+            if(exchange.getRequestPath().equals("/hold")) {
+                exchange.dispatch(() -> {
+                    received.countDown();
+                    try {
+                        released.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.getResponseSender().send(exchange.getProtocol().toString());
+                });
+                return;
+            }
+            exchange.getResponseSender().send(exchange.getProtocol().toString());
+        };
+        Undertow.Builder builder = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(http2Support.wrap(LISTENER, false, holdingHandler));
+        http2Support.configure(builder, false);
+        undertow = builder.build();
+        undertow.start();
+    }
+
+    @AfterEach
+    void stopListener() {
+        released.countDown();
+        undertow.stop();
+    }
+
+    @Test
+    void testHandlerIsOnlyWrappedWhenHttp2IsEnabled() {
+        HttpHandler next = ResponseCodeHandler.HANDLE_404;
+        assertSame(next, new Http2Support(false, true, 100, 65535, meterRegistry).wrap("servlet", true, next));
+        //Plain listeners need h2c.
+        assertSame(next, new Http2Support(true, false, 100, 65535, meterRegistry).wrap("servlet", false, next));
+        assertNotSame(next, new Http2Support(true, false, 100, 65535, meterRegistry).wrap("servlet", true, next));
+    }
+
+    @Test
+    void testStreamsAreCountedPerConnection() throws Exception {
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        //The first request upgrades the connection, the next ones are streams of the same connection.
+        assertEquals(HttpClient.Version.HTTP_2, send(httpClient, "/upgrade").version());
+        assertTrue(awaitUntil(() -> activeConnections() == 0));
+
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for(int i = 0; i < 3; i++) {
+            responses.add(httpClient.sendAsync(request("/hold"), HttpResponse.BodyHandlers.ofString()));
+        }
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals(3, activeStreams());
+        assertEquals(1, activeConnections());
+        DistributionSummary streamsPerConnection = meterRegistry.find("capi.http2.streams.per.connection").tag("listener", LISTENER).summary();
+        assertNotNull(streamsPerConnection);
+        assertEquals(3, streamsPerConnection.max());
+
+        //The streams end with their exchange, and the connection is no longer counted without active streams.
+        released.countDown();
+        for(CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals("HTTP/2.0", response.get(10, TimeUnit.SECONDS).body());
+        }
+        assertTrue(awaitUntil(() -> activeStreams() == 0 && activeConnections() == 0));
+    }
+
+    @Test
+    void testHttp1ExchangesAreNotCounted() throws Exception {
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for(int i = 0; i < 3; i++) {
+            responses.add(httpClient.sendAsync(request("/hold"), HttpResponse.BodyHandlers.ofString()));
+        }
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals(0, activeStreams());
+        assertEquals(0, activeConnections());
+        assertEquals(0, meterRegistry.find("capi.http2.streams.per.connection").tag("listener", LISTENER).summary().count());
+
+        released.countDown();
+        for(CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals("HTTP/1.1", response.get(10, TimeUnit.SECONDS).body());
+        }
+    }
+
+    private HttpResponse<String> send(HttpClient httpClient, String path) throws Exception {
+        return httpClient.send(request(path), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest request(String path) {
+        int port = ((InetSocketAddress) undertow.getListenerInfo().get(0).getAddress()).getPort();
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+    }
+
+    private double activeStreams() {
+        return gauge("capi.http2.streams.active").value();
+    }
+
+    private double activeConnections() {
+        return gauge("capi.http2.connections.active").value();
+    }
+
+    private Gauge gauge(String name) {
+        Gauge gauge = meterRegistry.find(name).tag("listener", LISTENER).gauge();
+        assertNotNull(gauge);
+        return gauge;
+    }
+
+    private boolean awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(System.currentTimeMillis() < deadline) {
+            if(condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.getAsBoolean();
+    }
+}
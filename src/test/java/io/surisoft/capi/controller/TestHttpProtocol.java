@@ -0,0 +1,22 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.schema.HttpProtocol;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestHttpProtocol {
+
+    @Test
+    void testServiceSchema() {
+        assertEquals(HttpProtocol.HTTP, HttpProtocol.fromSchema(null));
+        assertEquals(HttpProtocol.HTTPS, HttpProtocol.fromSchema("https"));
+        assertEquals(HttpProtocol.H2, HttpProtocol.fromSchema("h2"));
+        assertEquals(HttpProtocol.H2C, HttpProtocol.fromSchema("h2c"));
+
+        assertEquals("https", HttpProtocol.H2.getScheme());
+        assertEquals("http", HttpProtocol.H2C.getScheme());
+        assertTrue(HttpProtocol.H2C.isHttp2());
+        assertFalse(HttpProtocol.HTTPS.isHttp2());
+    }
+}
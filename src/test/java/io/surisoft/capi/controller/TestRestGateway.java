@@ -0,0 +1,260 @@
+package io.surisoft.capi.controller;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
+import io.surisoft.capi.configuration.CapiCorsFilter;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.service.CapiTrustManager;
+import io.surisoft.capi.undertow.Http2Support;
+import io.surisoft.capi.undertow.RestGateway;
+import io.surisoft.capi.utils.Constants;
+import io.surisoft.capi.utils.HttpUtils;
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestRestGateway {
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final ServiceRegistry serviceRegistry = new ServiceRegistry();
+    private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+    private final CamelContext camelContext = new DefaultCamelContext();
+    private WireMockServer firstUpstream;
+    private WireMockServer secondUpstream;
+    private RestGateway restGateway;
+    private int gatewayPort;
+
+    @BeforeEach
+    void startUpstreams() {
+        meterRegistry.add(new SimpleMeterRegistry());
+        firstUpstream = new WireMockServer(wireMockConfig().dynamicPort());
+        firstUpstream.start();
+        firstUpstream.stubFor(any(anyUrl()).willReturn(aResponse().withBody("first")));
+        secondUpstream = new WireMockServer(wireMockConfig().dynamicPort());
+        secondUpstream.start();
+        secondUpstream.stubFor(any(anyUrl()).willReturn(aResponse().withBody("second")));
+    }
+
+    @AfterEach
+    void stopServers() {
+        if(restGateway != null) {
+            restGateway.stop();
+        }
+        firstUpstream.stop();
+        secondUpstream.stop();
+        camelContext.stop();
+    }
+
+    @Test
+    void testPathResolution() throws Exception {
+        startGateway(false);
+        serviceRegistry.put("unit-test:dev", createService(firstUpstream.port()));
+
+        HttpResponse<String> response = send("/capi/unit-test/dev/orders/1?expand=true");
+        assertEquals(200, response.statusCode());
+        assertEquals("first", response.body());
+        firstUpstream.verify(getRequestedFor(urlEqualTo("/orders/1?expand=true")));
+
+        assertEquals(404, send("/capi/unknown/dev/orders").statusCode());
+        assertEquals(404, send("/other/unit-test/dev/orders").statusCode());
+        assertEquals(404, send("/capi").statusCode());
+
+        //Only served by the Camel routes.
+        Service openApiService = createService(firstUpstream.port());
+        openApiService.getServiceMeta().setOpenApiEndpoint("http://localhost:" + firstUpstream.port() + "/openapi.json");
+        serviceRegistry.put("unit-test:dev", openApiService);
+        assertEquals(404, send("/capi/unit-test/dev/orders").statusCode());
+    }
+
+    @Test
+    void testEmptyRemainderIsForwardedToTheRoot() throws Exception {
+        startGateway(false);
+        serviceRegistry.put("unit-test:dev", createService(firstUpstream.port()));
+
+        assertEquals(200, send("/capi/unit-test/dev").statusCode());
+        firstUpstream.verify(getRequestedFor(urlEqualTo("/")));
+        //A service context that is only a prefix of the path segment does not match.
+        assertEquals(404, send("/capi/unit-test/development").statusCode());
+    }
+
+    @Test
+    void testSecuredServiceWithoutTokenIsUnauthorized() throws Exception {
+        startGateway(false);
+        Service service = createService(firstUpstream.port());
+        service.getServiceMeta().setSecured(true);
+        serviceRegistry.put("unit-test:dev", service);
+
+        HttpResponse<String> response = send("/capi/unit-test/dev/orders");
+        assertEquals(Constants.UNAUTHORIZED_CODE, response.statusCode());
+        assertEquals("Not subscribed", response.headers().firstValue(Constants.REASON_MESSAGE_HEADER).orElse(null));
+        assertTrue(firstUpstream.getAllServeEvents().isEmpty());
+    }
+
+    @Test
+    void testProxyIsRebuiltWhenTheServiceIsReplaced() throws Exception {
+        startGateway(false);
+        serviceRegistry.put("unit-test:dev", createService(firstUpstream.port()));
+        assertEquals("first", send("/capi/unit-test/dev/orders").body());
+
+        //New instances discovered, the registry holds a new version of the service.
+        serviceRegistry.put("unit-test:dev", createService(secondUpstream.port()));
+        assertEquals("second", send("/capi/unit-test/dev/orders").body());
+        assertEquals("second", send("/capi/unit-test/dev/orders").body());
+        firstUpstream.verify(1, getRequestedFor(urlEqualTo("/orders")));
+    }
+
+    @Test
+    void testProxiesOfRemovedAndReplacedServicesAreClosed() throws Exception {
+        startGateway(false);
+        Service removedService = createService(firstUpstream.port());
+        serviceRegistry.put("unit-test:dev", removedService);
+        Service replacedService = createService(secondUpstream.port());
+        replacedService.setId("other:dev");
+        replacedService.setName("other");
+        replacedService.setContext("/other/dev");
+        serviceRegistry.put("other:dev", replacedService);
+        assertEquals("first", send("/capi/unit-test/dev/orders").body());
+        assertEquals("second", send("/capi/other/dev/orders").body());
+        assertEquals(2, getServiceProxyMap().size());
+
+        //Nothing calls them again, the eviction timer closes both proxies.
+        serviceRegistry.remove("unit-test:dev");
+        Service newVersion = createService(secondUpstream.port());
+        newVersion.setId("other:dev");
+        newVersion.setName("other");
+        newVersion.setContext("/other/dev");
+        serviceRegistry.put("other:dev", newVersion);
+        restGateway.removeStaleProxies();
+        assertTrue(getServiceProxyMap().isEmpty());
+
+        assertEquals(404, send("/capi/unit-test/dev/orders").statusCode());
+        assertEquals("second", send("/capi/other/dev/orders").body());
+        assertEquals(1, getServiceProxyMap().size());
+        //Still current, kept.
+        restGateway.removeStaleProxies();
+        assertEquals(1, getServiceProxyMap().size());
+    }
+
+    @Test
+    void testHttpsUpstreamTrustsTheReloadedTrustStore(@TempDir Path tempDir) throws Exception {
+        TrustStoreFixture trustStoreFixture = new TrustStoreFixture(tempDir);
+        CapiTrustManager capiTrustManager = trustStoreFixture.bindToHttpsComponent(camelContext);
+        WireMockServer httpsUpstream = new WireMockServer(wireMockConfig()
+                .dynamicPort()
+                .dynamicHttpsPort()
+                .keystorePath(trustStoreFixture.getServerKeyStore())
+                .keystorePassword(TrustStoreFixture.PASSWORD)
+                .keyManagerPassword(TrustStoreFixture.PASSWORD)
+                .keystoreType("JKS"));
+        httpsUpstream.start();
+        try {
+            httpsUpstream.stubFor(any(anyUrl()).willReturn(aResponse().withBody("secure")));
+            startGateway(false, true);
+            Service service = createService(httpsUpstream.httpsPort());
+            service.getServiceMeta().setSchema("https");
+            serviceRegistry.put("unit-test:dev", service);
+            assertNotEquals(200, send("/capi/unit-test/dev/orders").statusCode());
+
+            //Added by the certificate management, without restarting the gateway.
+            trustStoreFixture.trustServerCertificate();
+            capiTrustManager.reloadTrustManager();
+            //A new version of the service, so the proxy does not wait for the host it marked as failed.
+            Service newVersion = createService(httpsUpstream.httpsPort());
+            newVersion.getServiceMeta().setSchema("https");
+            serviceRegistry.put("unit-test:dev", newVersion);
+            HttpResponse<String> response = send("/capi/unit-test/dev/orders");
+            assertEquals(200, response.statusCode());
+            assertEquals("secure", response.body());
+        } finally {
+            httpsUpstream.stop();
+        }
+    }
+
+    @Test
+    void testForwardedHeadersAndMetrics() throws Exception {
+        startGateway(true);
+        serviceRegistry.put("unit-test:dev", createService(firstUpstream.port()));
+
+        assertEquals(200, send("/capi/unit-test/dev/orders").statusCode());
+        firstUpstream.verify(getRequestedFor(urlEqualTo("/orders"))
+                .withHeader(Constants.X_FORWARDED_HOST, equalTo("gateway.domain"))
+                .withHeader(Constants.X_FORWARDED_PREFIX, equalTo("/capi/unit-test/dev")));
+        Counter counter = meterRegistry.find(Constants.CAMEL_REST_PREFIX + "unit-test:dev:get").counter();
+        assertNotNull(counter);
+        assertEquals(1, counter.count());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> getServiceProxyMap() {
+        return (Map<String, ?>) ReflectionTestUtils.getField(restGateway, "serviceProxyMap");
+    }
+
+    private void startGateway(boolean reverseProxyEnabled) throws IOException {
+        startGateway(reverseProxyEnabled, false);
+    }
+
+    private void startGateway(boolean reverseProxyEnabled, boolean capiTrustStoreEnabled) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            gatewayPort = serverSocket.getLocalPort();
+        }
+        restGateway = new RestGateway(gatewayPort, 16384, 20, 30000, false, capiTrustStoreEnabled,
+                reverseProxyEnabled, "gateway.domain", false,
+                serviceRegistry,
+                new HttpUtils("capi-cookie", Optional.empty()),
+                new CapiCorsFilter("capi-cookie", false, "/capi/*", List.of(), serviceRegistry),
+                Optional.empty(),
+                Optional.empty(),
+                new Http2Support(false, false, 100, 65535, meterRegistry),
+                meterRegistry,
+                camelContext);
+        restGateway.runProxy();
+    }
+
+    private HttpResponse<String> send(String path) throws IOException, InterruptedException {
+        return httpClient.send(HttpRequest.newBuilder(URI.create("http://localhost:" + gatewayPort + path)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Service createService(int upstreamPort) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("http");
+        serviceMeta.setType("rest");
+
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(upstreamPort);
+        mapping.setRootContext("/");
+
+        Service service = new Service();
+        service.setId("unit-test:dev");
+        service.setName("unit-test");
+        service.setContext("/unit-test/dev");
+        service.setServiceMeta(serviceMeta);
+        service.setMappingList(Set.of(mapping));
+        return service;
+    }
+}
@@ -0,0 +1,95 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.service.RouteDeployer;
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestRouteDeployer {
+
+    private CamelContext camelContext;
+    private RouteDeployer routeDeployer;
+    private final Map<String, AtomicInteger> configureCountMap = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void startCamel() {
+        camelContext = new DefaultCamelContext();
+        camelContext.start();
+        routeDeployer = new RouteDeployer(camelContext);
+    }
+
+    @AfterEach
+    void stopCamel() {
+        camelContext.stop();
+    }
+
+    @Test
+    void testBatchDeployment() {
+        Map<String, Supplier<RouteBuilder>> routeBuilderSupplierMap = new LinkedHashMap<>();
+        routeBuilderSupplierMap.put("first", () -> routeBuilder("first", "log:first"));
+        routeBuilderSupplierMap.put("second", () -> routeBuilder("second", "log:second"));
+        routeDeployer.deploy(routeBuilderSupplierMap);
+
+        assertTrue(camelContext.getRouteController().getRouteStatus("first").isStarted());
+        assertTrue(camelContext.getRouteController().getRouteStatus("second").isStarted());
+        assertEquals(1, configureCountMap.get("first").get());
+        assertEquals(1, configureCountMap.get("second").get());
+    }
+
+    @Test
+    void testFailedStartFallsBackToOneByOne() {
+        Map<String, Supplier<RouteBuilder>> routeBuilderSupplierMap = new LinkedHashMap<>();
+        routeBuilderSupplierMap.put("first", () -> routeBuilder("first", "log:first"));
+        routeBuilderSupplierMap.put("broken", () -> routeBuilder("broken", "unknown-component:broken"));
+        routeBuilderSupplierMap.put("second", () -> routeBuilder("second", "log:second"));
+        routeDeployer.deploy(routeBuilderSupplierMap);
+
+        assertTrue(camelContext.getRouteController().getRouteStatus("first").isStarted());
+        assertTrue(camelContext.getRouteController().getRouteStatus("second").isStarted());
+        assertNull(camelContext.getRoute("broken"));
+        //The fallback builds every route of the failed batch again.
+        assertEquals(2, configureCountMap.get("first").get());
+        assertEquals(2, configureCountMap.get("second").get());
+        assertEquals(2, configureCountMap.get("broken").get());
+    }
+
+    @Test
+    void testFailedBuildFallsBackToOneByOne() {
+        Map<String, Supplier<RouteBuilder>> routeBuilderSupplierMap = new LinkedHashMap<>();
+        routeBuilderSupplierMap.put("first", () -> routeBuilder("first", "log:first"));
+        routeBuilderSupplierMap.put("broken", () -> new RouteBuilder(camelContext) {
+            @Override
+            public void configure() {
+                configureCountMap.computeIfAbsent("broken", k -> new AtomicInteger()).incrementAndGet();
+                throw new IllegalStateException("Bad service definition");
+            }
+        });
+        routeDeployer.deploy(routeBuilderSupplierMap);
+
+        assertTrue(camelContext.getRouteController().getRouteStatus("first").isStarted());
+        assertNull(camelContext.getRoute("broken"));
+        assertEquals(1, camelContext.getRoutes().size());
+        assertEquals(2, configureCountMap.get("broken").get());
+    }
+
+    private RouteBuilder routeBuilder(String routeId, String to) {
+        return new RouteBuilder(camelContext) {
+            @Override
+            public void configure() {
+                configureCountMap.computeIfAbsent(routeId, k -> new AtomicInteger()).incrementAndGet();
+                from("direct:" + routeId).to(to).routeId(routeId);
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.cache.ServiceRegistry;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestServiceRegistry {
+
+    private final ServiceRegistry serviceRegistry = new ServiceRegistry();
+
+    private Service service(String name, String group, String type) {
+        Service service = new Service();
+        service.setId(name + ":" + group);
+        service.setName(name);
+        service.setContext("/" + name + "/" + group);
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setType(type);
+        service.setServiceMeta(serviceMeta);
+        return service;
+    }
+
+    @Test
+    void testIndexes() {
+        serviceRegistry.put("dummy:dev", service("dummy", "dev", "rest"));
+        serviceRegistry.put("dummy:prd", service("dummy", "prd", null));
+        serviceRegistry.put("chat:dev", service("chat", "dev", "websocket"));
+
+        assertEquals(3, serviceRegistry.size());
+        assertTrue(serviceRegistry.containsKey("dummy:dev"));
+        assertEquals("dummy:prd", serviceRegistry.getByContext("/dummy/prd").getId());
+        assertEquals(2, serviceRegistry.getByName("dummy").size());
+        assertEquals(2, serviceRegistry.getByType("rest").size());
+        assertEquals(1, serviceRegistry.getByType("websocket").size());
+        assertTrue(serviceRegistry.getByType("sse").isEmpty());
+
+        serviceRegistry.remove("dummy:dev");
+        assertNull(serviceRegistry.get("dummy:dev"));
+        assertNull(serviceRegistry.getByContext("/dummy/dev"));
+        assertEquals(1, serviceRegistry.getByName("dummy").size());
+    }
+
+    @Test
+    void testResolveRequestPath() {
+        serviceRegistry.put("dummy:dev", service("dummy", "dev", "rest"));
+        serviceRegistry.put("dummy:prd", service("dummy", "prd", "rest"));
+
+        String requestPath = "/capi/dummy/dev/customers/1";
+        Service service = serviceRegistry.resolve(requestPath, "/capi".length());
+        assertEquals("dummy:dev", service.getId());
+        assertEquals("/customers/1", requestPath.substring("/capi".length() + service.getContext().length()));
+
+        assertEquals("dummy:prd", serviceRegistry.resolve("/dummy/prd", 0).getId());
+        assertNull(serviceRegistry.resolve("/dummy/devx/customers", 0));
+        assertNull(serviceRegistry.resolve("/dummy", 0));
+        assertNull(serviceRegistry.resolve("/unknown/dev", 0));
+
+        serviceRegistry.remove("dummy:dev");
+        assertNull(serviceRegistry.resolve(requestPath, "/capi".length()));
+    }
+
+    @Test
+    void testNoCapacityLimit() {
+        serviceRegistry.batch(() -> {
+            for(int i = 0; i < 12000; i++) {
+                serviceRegistry.put("dummy-" + i + ":dev", service("dummy-" + i, "dev", "rest"));
+            }
+        });
+        assertEquals(12000, serviceRegistry.size());
+        assertNotNull(serviceRegistry.get("dummy-0:dev"));
+    }
+
+    @Test
+    void testBatchIsPublishedWhenItEnds() throws InterruptedException {
+        CountDownLatch inBatch = new CountDownLatch(1);
+        CountDownLatch checked = new CountDownLatch(1);
+        AtomicReference<Service> seenDuringBatch = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> serviceRegistry.batch(() -> {
+            serviceRegistry.put("dummy:dev", service("dummy", "dev", "rest"));
+            //The thread running the batch sees its own changes.
+            assertNotNull(serviceRegistry.get("dummy:dev"));
+            inBatch.countDown();
+            try {
+                checked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        writer.start();
+        inBatch.await();
+        seenDuringBatch.set(serviceRegistry.get("dummy:dev"));
+        checked.countDown();
+        writer.join();
+
+        assertNull(seenDuringBatch.get());
+        assertNotNull(serviceRegistry.get("dummy:dev"));
+        assertEquals(1, serviceRegistry.getByName("dummy").size());
+    }
+
+    @Test
+    void testOtherWritersWaitForTheBatch() throws InterruptedException {
+        CountDownLatch inBatch = new CountDownLatch(1);
+        CountDownLatch endBatch = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+
+        Thread batchWriter = new Thread(() -> serviceRegistry.batch(() -> {
+            serviceRegistry.put("dummy:dev", service("dummy", "dev", "rest"));
+            inBatch.countDown();
+            try {
+                endBatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        batchWriter.start();
+        inBatch.await();
+
+        Thread writer = new Thread(() -> {
+            serviceRegistry.put("other:dev", service("other", "dev", "rest"));
+            written.countDown();
+        });
+        writer.start();
+        //The write would publish the partial batch, it waits for the batch to end.
+        assertFalse(written.await(300, TimeUnit.MILLISECONDS));
+        assertNull(serviceRegistry.get("dummy:dev"));
+        assertNull(serviceRegistry.get("other:dev"));
+
+        endBatch.countDown();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        batchWriter.join();
+        writer.join();
+        assertNotNull(serviceRegistry.get("dummy:dev"));
+        assertNotNull(serviceRegistry.get("other:dev"));
+    }
+}
@@ -0,0 +1,59 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.kafka.CapiInstance;
+import io.surisoft.capi.service.ShardAssignment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestShardAssignment {
+
+    private static final List<String> INSTANCES = List.of("capi-a", "capi-b", "capi-c");
+
+    private List<String> serviceIds() {
+        List<String> serviceIds = new ArrayList<>();
+        for(int i = 0; i < 300; i++) {
+            serviceIds.add("service-" + i + ":dev");
+        }
+        return serviceIds;
+    }
+
+    @Test
+    void testEveryServiceHasExactlyOneShard() {
+        List<ShardAssignment> shards = List.of(ShardAssignment.ofShards(3, 0), ShardAssignment.ofShards(3, 1), ShardAssignment.ofShards(3, 2));
+        for(String serviceId : serviceIds()) {
+            assertEquals(1, shards.stream().filter(shard -> shard.test(serviceId)).count());
+        }
+        for(ShardAssignment shard : shards) {
+            assertTrue(serviceIds().stream().filter(shard).count() > 50);
+        }
+    }
+
+    @Test
+    void testRingOnlyMovesTheServicesOfTheRemovedInstance() {
+        ShardAssignment fullRing = ShardAssignment.ofRing(new CapiInstance("capi-a"), INSTANCES);
+        ShardAssignment reducedRing = ShardAssignment.ofRing(new CapiInstance("capi-a"), List.of("capi-a", "capi-b"));
+        for(String serviceId : serviceIds()) {
+            String owner = fullRing.ownerOf(serviceId);
+            if(!owner.equals("capi-c")) {
+                assertEquals(owner, reducedRing.ownerOf(serviceId));
+            }
+        }
+    }
+
+    @Test
+    void testRingEveryServiceHasExactlyOneInstance() {
+        for(String serviceId : serviceIds()) {
+            assertEquals(1, INSTANCES.stream().filter(instanceId -> ShardAssignment.ofRing(new CapiInstance(instanceId), INSTANCES).test(serviceId)).count());
+        }
+    }
+
+    @Test
+    void testInvalidAssignment() {
+        assertThrows(IllegalArgumentException.class, () -> ShardAssignment.ofShards(2, 2));
+        assertThrows(IllegalArgumentException.class, () -> ShardAssignment.ofRing(new CapiInstance("capi-d"), INSTANCES));
+    }
+}
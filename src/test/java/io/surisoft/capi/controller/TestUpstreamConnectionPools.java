@@ -0,0 +1,220 @@
+package io.surisoft.capi.controller;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.surisoft.capi.cache.ServiceRegistry;
+import io.surisoft.capi.schema.Mapping;
+import io.surisoft.capi.schema.Service;
+import io.surisoft.capi.schema.ServiceMeta;
+import io.surisoft.capi.service.CapiTrustManager;
+import io.surisoft.capi.service.UpstreamConnectionPools;
+import io.surisoft.capi.service.UpstreamConnectionPools.PoolSettings;
+import io.surisoft.capi.utils.RouteUtils;
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.http.HttpClientConfigurer;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.SSLException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestUpstreamConnectionPools {
+
+    private final PoolSettings defaultSettings = new PoolSettings(200, 20, 0, 60, 2000);
+    private CamelContext camelContext;
+    private ServiceRegistry serviceRegistry;
+    private CompositeMeterRegistry meterRegistry;
+    private UpstreamConnectionPools upstreamConnectionPools;
+
+    @BeforeEach
+    void createPools() {
+        camelContext = new DefaultCamelContext();
+        serviceRegistry = new ServiceRegistry();
+        meterRegistry = new CompositeMeterRegistry();
+        meterRegistry.add(new SimpleMeterRegistry());
+        //One second of idle eviction, so the hosts can leave the pools during the test.
+        upstreamConnectionPools = new UpstreamConnectionPools(camelContext, serviceRegistry, meterRegistry, 200, 20, 0, 1, 2000, false, false);
+    }
+
+    @AfterEach
+    void stopCamel() {
+        camelContext.stop();
+    }
+
+    @Test
+    void testServiceWithoutPoolMetaUsesTheDefaults() {
+        assertEquals(defaultSettings, defaultSettings.withOverrides(new ServiceMeta()));
+        assertEquals(defaultSettings, defaultSettings.withOverrides(null));
+    }
+
+    @Test
+    void testServicePoolMetaOverridesTheDefaults() {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setPoolMaxPerRoute(100);
+        serviceMeta.setPoolTimeToLive(30L);
+
+        PoolSettings poolSettings = defaultSettings.withOverrides(serviceMeta);
+        assertNotEquals(defaultSettings, poolSettings);
+        assertEquals(200, poolSettings.maxTotal());
+        assertEquals(100, poolSettings.maxPerRoute());
+        assertEquals(30, poolSettings.timeToLive());
+        assertEquals(60, poolSettings.idleEviction());
+        assertEquals(2000, poolSettings.validateAfterInactivity());
+    }
+
+    @Test
+    void testServicesWithoutPoolMetaShareOnePool() {
+        String poolReference = upstreamConnectionPools.getPoolReference(createService("first:dev", 8081));
+        assertEquals(poolReference, upstreamConnectionPools.getPoolReference(createService("second:dev", 8082)));
+        assertNotNull(lookup(poolReference));
+    }
+
+    @Test
+    void testServicePoolIsReusedAndRetired() {
+        Service service = createService("unit-test:dev", 8081);
+        service.getServiceMeta().setPoolMaxPerRoute(100);
+        serviceRegistry.put(service.getId(), service);
+
+        String poolReference = upstreamConnectionPools.getPoolReference(service);
+        assertNotEquals(upstreamConnectionPools.getPoolReference(createService("shared:dev", 8082)), poolReference);
+        //Same settings, same pool.
+        assertEquals(poolReference, upstreamConnectionPools.getPoolReference(service));
+        HttpClientConfigurer pool = lookup(poolReference);
+        assertNotNull(pool);
+
+        //New settings, the previous pool is unbound.
+        service.getServiceMeta().setPoolMaxPerRoute(50);
+        String newPoolReference = upstreamConnectionPools.getPoolReference(service);
+        assertNotEquals(poolReference, newPoolReference);
+        assertNull(lookup(poolReference));
+        assertNotNull(lookup(newPoolReference));
+
+        //The service is gone, the maintenance retires its pool.
+        serviceRegistry.remove(service.getId());
+        upstreamConnectionPools.maintain();
+        assertNull(lookup(newPoolReference));
+    }
+
+    @Test
+    void testServiceBackToTheDefaultsUsesTheSharedPool() {
+        Service service = createService("unit-test:dev", 8081);
+        service.getServiceMeta().setPoolMaxTotal(50);
+        String poolReference = upstreamConnectionPools.getPoolReference(service);
+
+        service.getServiceMeta().setPoolMaxTotal(null);
+        assertEquals(upstreamConnectionPools.getPoolReference(createService("shared:dev", 8082)), upstreamConnectionPools.getPoolReference(service));
+        assertNull(lookup(poolReference));
+    }
+
+    @Test
+    void testEndpointsUseThePoolReference() {
+        RouteUtils routeUtils = new RouteUtils(false, "localhost:8380/capi-error", false, null, null, meterRegistry, Optional.empty(),
+                camelContext, serviceRegistry, Optional.empty(), null, null, false, false, "", 0, false, false, Optional.of(upstreamConnectionPools));
+        Service service = createService("unit-test:dev", 8081);
+        String[] endpoints = routeUtils.buildEndpoints(service);
+        assertEquals(1, endpoints.length);
+        assertTrue(endpoints[0].endsWith("&httpClientConfigurer=#" + upstreamConnectionPools.getPoolReference(service)));
+    }
+
+    @Test
+    void testGaugesFollowTheUpstreamHosts() throws Exception {
+        WireMockServer wireMockServer = new WireMockServer(wireMockConfig().dynamicPort());
+        wireMockServer.start();
+        try {
+            wireMockServer.stubFor(get(urlEqualTo("/")).willReturn(aResponse().withBody("ok")));
+            Service service = createService("unit-test:dev", wireMockServer.port());
+            HttpClientBuilder httpClientBuilder = HttpClients.custom();
+            lookup(upstreamConnectionPools.getPoolReference(service)).configureHttpClient(httpClientBuilder);
+            try(CloseableHttpClient httpClient = httpClientBuilder.build()) {
+                httpClient.execute(new HttpGet("http://localhost:" + wireMockServer.port() + "/"), response -> EntityUtils.toString(response.getEntity()));
+            }
+
+            String host = "http://localhost:" + wireMockServer.port();
+            upstreamConnectionPools.maintain();
+            Gauge availableGauge = meterRegistry.find("capi.upstream.pool.available").tags("pool", "shared", "host", host).gauge();
+            assertNotNull(availableGauge);
+            assertEquals(1, availableGauge.value());
+            assertNotNull(meterRegistry.find("capi.upstream.pool.leased").tags("host", host).gauge());
+
+            //The idle connection is evicted, the host leaves the pool and its gauges are removed.
+            Thread.sleep(1500);
+            upstreamConnectionPools.maintain();
+            assertNull(meterRegistry.find("capi.upstream.pool.available").tags("host", host).gauge());
+            assertNull(meterRegistry.find("capi.upstream.pool.leased").tags("host", host).gauge());
+            assertNull(meterRegistry.find("capi.upstream.pool.pending").tags("host", host).gauge());
+        } finally {
+            wireMockServer.stop();
+        }
+    }
+
+    @Test
+    void testPoolsTrustTheReloadedTrustStore(@TempDir Path tempDir) throws Exception {
+        TrustStoreFixture trustStoreFixture = new TrustStoreFixture(tempDir);
+        CapiTrustManager capiTrustManager = trustStoreFixture.bindToHttpsComponent(camelContext);
+        upstreamConnectionPools = new UpstreamConnectionPools(camelContext, serviceRegistry, meterRegistry, 200, 20, 0, 1, 2000, false, true);
+        WireMockServer wireMockServer = new WireMockServer(wireMockConfig()
+                .dynamicPort()
+                .dynamicHttpsPort()
+                .keystorePath(trustStoreFixture.getServerKeyStore())
+                .keystorePassword(TrustStoreFixture.PASSWORD)
+                .keyManagerPassword(TrustStoreFixture.PASSWORD)
+                .keystoreType("JKS"));
+        wireMockServer.start();
+        try {
+            wireMockServer.stubFor(get(urlEqualTo("/")).willReturn(aResponse().withBody("ok")));
+            Service service = createService("unit-test:dev", wireMockServer.httpsPort());
+            service.getServiceMeta().setSchema("https");
+            HttpClientBuilder httpClientBuilder = HttpClients.custom();
+            lookup(upstreamConnectionPools.getPoolReference(service)).configureHttpClient(httpClientBuilder);
+            HttpGet request = new HttpGet("https://localhost:" + wireMockServer.httpsPort() + "/");
+            try(CloseableHttpClient httpClient = httpClientBuilder.build()) {
+                assertThrows(SSLException.class, () -> httpClient.execute(request, response -> EntityUtils.toString(response.getEntity())));
+
+                //Added by the certificate management, the existing pool trusts it without being rebuilt.
+                trustStoreFixture.trustServerCertificate();
+                capiTrustManager.reloadTrustManager();
+                assertEquals("ok", httpClient.execute(request, response -> EntityUtils.toString(response.getEntity())));
+            }
+        } finally {
+            wireMockServer.stop();
+        }
+    }
+
+    private HttpClientConfigurer lookup(String poolReference) {
+        return camelContext.getRegistry().lookupByNameAndType(poolReference, HttpClientConfigurer.class);
+    }
+
+    private Service createService(String id, int port) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setSchema("http");
+
+        Mapping mapping = new Mapping();
+        mapping.setHostname("localhost");
+        mapping.setPort(port);
+        mapping.setRootContext("/");
+
+        Service service = new Service();
+        service.setId(id);
+        service.setName(id.split(":")[0]);
+        service.setContext("/" + id.replace(":", "/"));
+        service.setServiceMeta(serviceMeta);
+        service.setMappingList(Set.of(mapping));
+        return service;
+    }
+}
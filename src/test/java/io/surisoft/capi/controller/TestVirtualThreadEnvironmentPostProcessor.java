@@ -0,0 +1,59 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.configuration.VirtualThreadEnvironmentPostProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestVirtualThreadEnvironmentPostProcessor {
+
+    private static final String CAMEL_VIRTUAL_THREADS_PROPERTY = "camel.threads.virtual.enabled";
+
+    private final VirtualThreadEnvironmentPostProcessor virtualThreadEnvironmentPostProcessor = new VirtualThreadEnvironmentPostProcessor();
+    private String previousValue;
+
+    @BeforeEach
+    void clearProperty() {
+        //The flag is JVM wide, the value of the test run is restored after each test.
+        previousValue = System.clearProperty(CAMEL_VIRTUAL_THREADS_PROPERTY);
+    }
+
+    @AfterEach
+    void restoreProperty() {
+        if(previousValue == null) {
+            System.clearProperty(CAMEL_VIRTUAL_THREADS_PROPERTY);
+        } else {
+            System.setProperty(CAMEL_VIRTUAL_THREADS_PROPERTY, previousValue);
+        }
+    }
+
+    @Test
+    void testFlagIsSetWhenVirtualThreadsAreEnabled() {
+        postProcess(new MockEnvironment().withProperty("capi.threads.virtual", "true"));
+        assertEquals("true", System.getProperty(CAMEL_VIRTUAL_THREADS_PROPERTY));
+    }
+
+    @Test
+    void testFlagIsNotSetWhenVirtualThreadsAreDisabled() {
+        postProcess(new MockEnvironment().withProperty("capi.threads.virtual", "false"));
+        assertNull(System.getProperty(CAMEL_VIRTUAL_THREADS_PROPERTY));
+
+        postProcess(new MockEnvironment());
+        assertNull(System.getProperty(CAMEL_VIRTUAL_THREADS_PROPERTY));
+    }
+
+    @Test
+    void testExistingSystemPropertyIsKept() {
+        System.setProperty(CAMEL_VIRTUAL_THREADS_PROPERTY, "false");
+        postProcess(new MockEnvironment().withProperty("capi.threads.virtual", "true"));
+        assertEquals("false", System.getProperty(CAMEL_VIRTUAL_THREADS_PROPERTY));
+    }
+
+    private void postProcess(MockEnvironment environment) {
+        virtualThreadEnvironmentPostProcessor.postProcessEnvironment(environment, new SpringApplication());
+    }
+}
@@ -0,0 +1,85 @@
+package io.surisoft.capi.controller;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.surisoft.capi.metrics.VirtualThreadMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TestVirtualThreadMetrics {
+
+    private CompositeMeterRegistry meterRegistry;
+    private VirtualThreadMetrics virtualThreadMetrics;
+
+    @BeforeEach
+    void startRecording() {
+        meterRegistry = new CompositeMeterRegistry();
+        meterRegistry.add(new SimpleMeterRegistry());
+        virtualThreadMetrics = new VirtualThreadMetrics(meterRegistry, 20);
+    }
+
+    @AfterEach
+    void stopRecording() {
+        virtualThreadMetrics.destroy();
+    }
+
+    @Test
+    void testMetersAreRegistered() {
+        assertNotNull(meterRegistry.find("capi.threads.virtual.pinned").timer());
+        assertEquals(0, meterRegistry.find("capi.threads.virtual.submit.failed").counter().count());
+    }
+
+    @Test
+    void testPinnedThreadsAreRecorded() throws Exception {
+        //Since Java 24 a virtual thread blocking in a synchronized block no longer pins its carrier.
+        assumeTrue(Runtime.version().feature() < 24);
+        Object lock = new Object();
+        Thread.ofVirtual().start(() -> {
+            synchronized (lock) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).join();
+
+        Timer pinnedTimer = meterRegistry.find("capi.threads.virtual.pinned").timer();
+        assertTrue(awaitUntil(() -> pinnedTimer.count() > 0));
+        assertTrue(pinnedTimer.max(TimeUnit.MILLISECONDS) >= 20);
+    }
+
+    @Test
+    void testShortPinsAreIgnored() throws Exception {
+        assumeTrue(Runtime.version().feature() < 24);
+        Object lock = new Object();
+        Thread.ofVirtual().start(() -> {
+            synchronized (lock) {
+                Thread.yield();
+            }
+        }).join();
+
+        //JFR flushes its events about once per second.
+        Thread.sleep(2000);
+        assertEquals(0, meterRegistry.find("capi.threads.virtual.pinned").timer().count());
+    }
+
+    private boolean awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(System.currentTimeMillis() < deadline) {
+            if(condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return condition.getAsBoolean();
+    }
+}
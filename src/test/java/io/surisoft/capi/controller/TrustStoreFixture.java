@@ -0,0 +1,109 @@
+package io.surisoft.capi.controller;
+
+import io.surisoft.capi.service.CapiTrustManager;
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.http.HttpComponent;
+import org.apache.camel.support.jsse.SSLContextParameters;
+import org.apache.camel.support.jsse.TrustManagersParameters;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+/**
+ * A key store for an https upstream on localhost and a CAPI trust store that does not trust it until {@link #trustServerCertificate()}.
+ * Used to check that the upstream clients follow the trust manager reloaded by the certificate management.
+ */
+final class TrustStoreFixture {
+
+    static final String PASSWORD = "changeit";
+    private static final long DAY = 1000L * 60 * 60 * 24;
+
+    private final Path serverKeyStore;
+    private final Path trustStore;
+    private final X509Certificate serverCertificate;
+
+    TrustStoreFixture(Path directory) throws Exception {
+        serverKeyStore = directory.resolve("server.jks");
+        trustStore = directory.resolve("cacerts");
+
+        KeyPair keyPair = generateKeyPair();
+        serverCertificate = createCertificate("localhost", keyPair);
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, PASSWORD.toCharArray());
+        keyStore.setKeyEntry("localhost", keyPair.getPrivate(), PASSWORD.toCharArray(), new Certificate[]{serverCertificate});
+        store(keyStore, serverKeyStore);
+
+        //Only an unrelated certificate at first.
+        KeyStore capiTrustStore = KeyStore.getInstance("JKS");
+        capiTrustStore.load(null, PASSWORD.toCharArray());
+        capiTrustStore.setCertificateEntry("default", createCertificate("default", generateKeyPair()));
+        store(capiTrustStore, trustStore);
+    }
+
+    String getServerKeyStore() {
+        return serverKeyStore.toString();
+    }
+
+    /**
+     * @return a trust manager bound to the https component, like CapiConfiguration does when the trust store is enabled.
+     */
+    CapiTrustManager bindToHttpsComponent(CamelContext camelContext) throws Exception {
+        CapiTrustManager capiTrustManager = new CapiTrustManager(trustStore.toString(), PASSWORD);
+        TrustManagersParameters trustManagersParameters = new TrustManagersParameters();
+        trustManagersParameters.setTrustManager(capiTrustManager);
+        SSLContextParameters sslContextParameters = new SSLContextParameters();
+        sslContextParameters.setTrustManagers(trustManagersParameters);
+        ((HttpComponent) camelContext.getComponent("https")).setSslContextParameters(sslContextParameters);
+        return capiTrustManager;
+    }
+
+    /**
+     * Adds the upstream certificate to the trust store file, as the certificate management does.
+     */
+    void trustServerCertificate() throws Exception {
+        KeyStore capiTrustStore = KeyStore.getInstance("JKS");
+        try(InputStream inputStream = Files.newInputStream(trustStore)) {
+            capiTrustStore.load(inputStream, PASSWORD.toCharArray());
+        }
+        capiTrustStore.setCertificateEntry("localhost", serverCertificate);
+        store(capiTrustStore, trustStore);
+    }
+
+    private static void store(KeyStore keyStore, Path path) throws Exception {
+        try(OutputStream outputStream = Files.newOutputStream(path)) {
+            keyStore.store(outputStream, PASSWORD.toCharArray());
+        }
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048, new SecureRandom());
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private static X509Certificate createCertificate(String name, KeyPair keyPair) throws Exception {
+        X500Name owner = new X500Name("CN=" + name);
+        X509v3CertificateBuilder x509v3CertificateBuilder = new JcaX509v3CertificateBuilder(owner, new BigInteger(64, new SecureRandom()),
+                new Date(System.currentTimeMillis() - DAY), new Date(System.currentTimeMillis() + DAY), owner, keyPair.getPublic());
+        x509v3CertificateBuilder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName(GeneralName.dNSName, name)));
+        return new JcaX509CertificateConverter().getCertificate(x509v3CertificateBuilder.build(new JcaContentSignerBuilder("SHA256WithRSAEncryption").build(keyPair.getPrivate())));
+    }
+}
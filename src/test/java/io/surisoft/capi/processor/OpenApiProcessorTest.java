@@ -1,6 +1,7 @@
 package io.surisoft.capi.processor;
 
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.surisoft.capi.cache.ServiceRegistry;
 import io.surisoft.capi.schema.Service;
 import io.surisoft.capi.schema.ServiceMeta;
 import io.surisoft.capi.service.OpaService;
@@ -11,7 +12,6 @@ import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
 import org.apache.camel.impl.DefaultCamelContext;
 import org.apache.camel.support.DefaultExchange;
-import org.cache2k.Cache;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -43,7 +43,7 @@ class OpenApiProcessorTest {
     OpaService opaService;
 
     @Autowired
-    Cache<String, Service> serviceCache;
+    ServiceRegistry serviceRegistry;
 
     @Autowired
     CamelContext camelContext;
@@ -199,7 +199,7 @@ class OpenApiProcessorTest {
     void testProcessWithAValidPathWithoutPlaceholders() throws Exception {
         // Setup
         mockOpenAPI = new OpenAPIV3Parser().readContents(openApiDefinition).getOpenAPI();
-        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceCache, opaService);
+        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceRegistry, opaService);
 
         CamelContext ctx = new DefaultCamelContext();
         Exchange exchange = new DefaultExchange(ctx);
@@ -217,7 +217,7 @@ class OpenApiProcessorTest {
     void testProcessWithAValidPathWithPlaceholders() throws Exception {
         // Setup
         mockOpenAPI = new OpenAPIV3Parser().readContents(openApiDefinition).getOpenAPI();
-        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceCache, opaService);
+        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceRegistry, opaService);
 
         CamelContext ctx = new DefaultCamelContext();
         Exchange exchange = new DefaultExchange(ctx);
@@ -242,7 +242,7 @@ class OpenApiProcessorTest {
                 }""")));
 
         mockOpenAPI = new OpenAPIV3Parser().readContents(openApiDefinition).getOpenAPI();
-        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceCache, opaService);
+        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceRegistry, opaService);
 
         Service service = new Service();
         service.setName("test");
@@ -253,7 +253,7 @@ class OpenApiProcessorTest {
         serviceMeta.setOpaRego("capi/test/dev");
 
         service.setServiceMeta(serviceMeta);
-        serviceCache.put("test:dev", service);
+        serviceRegistry.put("test:dev", service);
 
         //CamelContext ctx = new DefaultCamelContext();
         Exchange exchange = new DefaultExchange(camelContext);
@@ -268,7 +268,7 @@ class OpenApiProcessorTest {
 
         Assertions.assertNull(exchange.getException());
 
-        serviceCache.clear();
+        serviceRegistry.clear();
         opaEndpoint.stop();
     }
 
@@ -283,7 +283,7 @@ class OpenApiProcessorTest {
                 }""")));
 
         mockOpenAPI = new OpenAPIV3Parser().readContents(openApiDefinition).getOpenAPI();
-        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceCache, opaService);
+        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceRegistry, opaService);
 
         Service service = new Service();
         service.setName("test");
@@ -294,7 +294,7 @@ class OpenApiProcessorTest {
         serviceMeta.setOpaRego("capi/test/dev");
 
         service.setServiceMeta(serviceMeta);
-        serviceCache.put("test:dev", service);
+        serviceRegistry.put("test:dev", service);
 
         //CamelContext ctx = new DefaultCamelContext();
         Exchange exchange = new DefaultExchange(camelContext);
@@ -309,7 +309,7 @@ class OpenApiProcessorTest {
 
         Assertions.assertNotNull(exchange.getException());
 
-        serviceCache.clear();
+        serviceRegistry.clear();
         opaEndpoint.stop();
     }
 
@@ -317,7 +317,7 @@ class OpenApiProcessorTest {
     void testProcessWithAnInvalidPath() throws Exception {
         // Setup
         mockOpenAPI = new OpenAPIV3Parser().readContents(openApiDefinition).getOpenAPI();
-        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceCache, opaService);
+        openApiProcessorUnderTest = new OpenApiProcessor(mockOpenAPI, httpUtils, serviceRegistry, opaService);
 
         CamelContext ctx = new DefaultCamelContext();
         Exchange exchange = new DefaultExchange(ctx);
@@ -0,0 +1,33 @@
+package io.surisoft.capi.schema;
+
+import io.surisoft.capi.service.ConsulCatalogSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConsulHealthObjectTest {
+
+    private static final String HEALTH_RESPONSE = """
+            [{
+              "Node": {"ID": "node-1", "Address": "10.0.0.1"},
+              "Service": {"ID": "dummy-1", "Service": "dummy", "Address": "", "Port": 8080, "Meta": {"group": "dev"}},
+              "Checks": [{"Status": "passing"}]
+            }]""";
+
+    @Test
+    void testToConsulObject() throws Exception {
+        //Read with the shared reader of the discovery, which converts every entry.
+        List<ConsulObject> consulObjectList = ConsulCatalogSnapshot.readHealthyServiceInstances(HEALTH_RESPONSE.getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, consulObjectList.size());
+        ConsulObject consulObject = consulObjectList.get(0);
+        assertEquals("node-1", consulObject.getID());
+        assertEquals("dummy-1", consulObject.getServiceId());
+        assertEquals("dummy", consulObject.getServiceName());
+        assertEquals("10.0.0.1", consulObject.getServiceAddress());
+        assertEquals(8080, consulObject.getServicePort());
+        assertEquals("dev", consulObject.getServiceMeta().getGroup());
+    }
+}